@@ -0,0 +1,220 @@
+/*
+ * Benchmarks for the Amazon store client
+ * ========================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The local Postgres database the benchmarks run against, seeded from
+ * data/*.csv.  The stand-in is a real Postgres rather than an embedded
+ * database because the client depends on its triggers, ON CONFLICT and
+ * cursors.
+ *
+ * A scale factor of n loads n copies of the sample data: copy k shifts every
+ * user, store, order, request and update ID past copy k - 1 and suffixes user
+ * names with "_k", so copy 0 keeps the original IDs and log ins.  Warehouses
+ * are shared by all copies.  Seeding is skipped when the database already
+ * holds the requested scale.
+ *
+ * Configured with system properties:
+ * <pre>
+ *    bench.db        database name      (amazon_bench)
+ *    bench.port      server port        ($PGPORT, else 5432)
+ *    bench.user      user name          ($USER)
+ *    bench.password  password           (empty)
+ *    bench.home      the final_project directory holding data/ and sql/ (../..)
+ * </pre>
+ */
+final class BenchDatabase {
+
+   /**
+    * One table loaded from a CSV file.  The types are the SQL types of the
+    * CSV's columns, in order; each value is bound as text and cast.
+    */
+   private static final String[][] TABLES = {
+      {"Users", "users.csv", "integer", "text", "text", "numeric", "numeric", "text"},
+      {"Store", "stores.csv", "integer", "numeric", "numeric", "integer", "date"},
+      {"Warehouse", "warehouse.csv", "integer", "integer", "numeric", "numeric"},
+      {"Product", "products.csv", "integer", "text", "integer", "float8"},
+      {"Orders", "orders.csv", "integer", "integer", "integer", "text", "integer", "timestamp"},
+      {"ProductSupplyRequests", "productSupplyRequests.csv", "integer", "integer", "integer", "integer", "text", "integer"},
+      {"ProductUpdates", "productUpdates.csv", "integer", "integer", "integer", "text", "timestamp"},
+   };
+
+   // which table's IDs a column refers to, for shifting the copies
+   private static final Map<String, String> REFERENCES = new HashMap<String, String>();
+   static {
+      REFERENCES.put("userid", "Users");
+      REFERENCES.put("customerid", "Users");
+      REFERENCES.put("managerid", "Users");
+      REFERENCES.put("storeid", "Store");
+      REFERENCES.put("ordernumber", "Orders");
+      REFERENCES.put("requestnumber", "ProductSupplyRequests");
+      REFERENCES.put("updatenumber", "ProductUpdates");
+   }
+
+   // the serial columns, whose sequences continue after the loaded IDs
+   private static final String[][] SEQUENCES = {
+      {"Users", "userID"},
+      {"Orders", "orderNumber"},
+      {"ProductSupplyRequests", "requestNumber"},
+      {"ProductUpdates", "updateNumber"},
+   };
+
+   private static final int BATCH_SIZE = 1000;
+
+   private final String name = System.getProperty("bench.db", "amazon_bench");
+   private final String port = System.getProperty("bench.port", getenv("PGPORT", "5432"));
+   private final String user = System.getProperty("bench.user", getenv("USER", "postgres"));
+   private final String password = System.getProperty("bench.password", "");
+   private final File home = new File(System.getProperty("bench.home", "../.."));
+
+   String getName(){return name;}
+   String getPort(){return port;}
+   String getUser(){return user;}
+   String getPassword(){return password;}
+
+   /**
+    * @return a new connection to the benchmark database
+    * @throws java.sql.SQLException when the connection fails
+    */
+   Connection connect() throws SQLException {
+      return DriverManager.getConnection("jdbc:postgresql://localhost:" + port + "/" + name, user, password);
+   }
+
+   /**
+    * Loads the sample data at a scale factor, unless it is already loaded.
+    *
+    * @param scale the number of copies of the sample data
+    * @throws java.sql.SQLException when the data cannot be loaded
+    * @throws java.io.IOException when the scripts or CSV files cannot be read
+    */
+   void seed(int scale) throws SQLException, IOException {
+      if (scale < 1){throw new IllegalArgumentException("scale must be at least 1");}
+      Connection conn = connect();
+      try{
+         Statement stmt = conn.createStatement();
+         stmt.execute("CREATE TABLE IF NOT EXISTS bench_seed (scale integer)");
+         ResultSet rs = stmt.executeQuery("SELECT scale FROM bench_seed");
+         if (rs.next() && rs.getInt(1) == scale){return;}
+         stmt.execute("DELETE FROM bench_seed");
+
+         // the same order as sql/scripts/create_db.sh
+         runScript(conn, "create_tables.sql");
+         runScript(conn, "partitions.sql");
+         runScript(conn, "create_indexes.sql");
+         conn.setAutoCommit(false);
+         stmt.execute("SET LOCAL DateStyle = 'ISO, MDY'");
+         Map<String, Integer> maxIDs = new HashMap<String, Integer>();
+         for (String[] table : TABLES){load(conn, table, scale, maxIDs);}
+         stmt.executeQuery("SELECT move_default_orders()").close();
+         stmt.executeUpdate("UPDATE Orders SET price = Orders.unitsOrdered * Product.pricePerUnit " +
+                            "FROM Product " +
+                            "WHERE Product.storeID = Orders.storeID AND Product.productName = Orders.productName");
+         for (String[] sequence : SEQUENCES){
+            stmt.executeQuery("SELECT setval(pg_get_serial_sequence('" + sequence[0] + "', '" + sequence[1].toLowerCase() +
+                              "'), (SELECT COALESCE(MAX(" + sequence[1] + "), 0) + 1 FROM " + sequence[0] + "), false)");
+         }
+         conn.commit();
+         conn.setAutoCommit(true);
+         runScript(conn, "triggers.sql");
+         stmt.executeUpdate("INSERT INTO bench_seed VALUES (" + scale + ")");
+         stmt.execute("ANALYZE");
+      }finally{
+         conn.close();
+      }
+   }
+
+   private void load(Connection conn, String[] table, int scale, Map<String, Integer> maxIDs) throws SQLException, IOException {
+      List<String[]> rows = new ArrayList<String[]>();
+      String[] columns;
+      BufferedReader csv = new BufferedReader(new FileReader(new File(home, "data/" + table[1])));
+      try{
+         columns = csv.readLine().split(",");
+         String line;
+         while ((line = csv.readLine()) != null){
+            if (line.length() > 0){rows.add(line.split(",", -1));}
+         }
+      }finally{
+         csv.close();
+      }
+
+      StringBuilder sql = new StringBuilder("INSERT INTO " + table[0] + " (" + String.join(", ", columns) + ") VALUES (");
+      for (int c = 0; c < columns.length; c++){
+         sql.append(c == 0 ? "" : ", ").append("CAST(? AS ").append(table[c + 2]).append(')');
+      }
+      sql.append(')');
+
+      int copies = table[0].equals("Warehouse") ? 1 : scale;
+      int maxID = 0;
+      PreparedStatement insert = conn.prepareStatement(sql.toString());
+      try{
+         int batched = 0;
+         for (int k = 0; k < copies; k++){
+            for (String[] row : rows){
+               for (int c = 0; c < columns.length; c++){
+                  String value = row[c];
+                  String referenced = REFERENCES.get(columns[c].toLowerCase());
+                  if (referenced != null && k > 0){
+                     value = Integer.toString(Integer.parseInt(value) + k * maxIDs.get(referenced));
+                  }
+                  else if (columns[c].equalsIgnoreCase("name") && k > 0){value = value + "_" + k;}
+                  insert.setString(c + 1, value);
+               }
+               if (k == 0){maxID = Math.max(maxID, Integer.parseInt(row[0]));}
+               insert.addBatch();
+               if (++batched == BATCH_SIZE){
+                  insert.executeBatch();
+                  batched = 0;
+               }
+            }
+            // later copies shift by the first copy's largest ID
+            if (k == 0){maxIDs.put(table[0], maxID);}
+         }
+         if (batched > 0){insert.executeBatch();}
+      }finally{
+         insert.close();
+      }
+   }
+
+   private void runScript(Connection conn, String script) throws SQLException, IOException {
+      String sql = new String(Files.readAllBytes(new File(home, "sql/src/" + script).toPath()), StandardCharsets.UTF_8);
+      Statement stmt = conn.createStatement();
+      try{
+         stmt.execute(sql);
+      }finally{
+         stmt.close();
+      }
+   }
+
+   private static String getenv(String name, String fallback){
+      String value = System.getenv(name);
+      return value == null || value.length() == 0 ? fallback : value;
+   }
+
+}//end BenchDatabase
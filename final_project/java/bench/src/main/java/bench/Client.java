@@ -0,0 +1,148 @@
+/*
+ * Benchmarks for the Amazon store client
+ * ========================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+/**
+ * Handles on the client's methods.  The client lives in the default package,
+ * which JMH benchmarks cannot import from, so the benchmarks call it through
+ * these.  The handles are static final, so the JIT inlines them like direct
+ * calls; every reference type the client declares is erased to Object.
+ */
+final class Client {
+
+   private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+   static final Class<?> AMAZON = load("Amazon");
+   static final Class<?> PROCESSOR = load("CommandProcessor");
+
+   /** double calculateDistance(double, double, double, double) */
+   static final MethodHandle CALCULATE_DISTANCE = findStatic(AMAZON, "calculateDistance",
+      MethodType.methodType(double.class, double.class, double.class, double.class, double.class));
+
+   /** boolean valid_number(String, boolean) */
+   static final MethodHandle VALID_NUMBER = findStatic(AMAZON, "valid_number",
+      MethodType.methodType(boolean.class, String.class, boolean.class));
+
+   /** (Object) new Amazon(String dbname, String port, String user, String passwd) */
+   static final MethodHandle NEW_AMAZON = constructor(AMAZON,
+      MethodType.methodType(void.class, String.class, String.class, String.class, String.class));
+
+   /** void cleanup(Object esql) */
+   static final MethodHandle CLEANUP = findVirtual(AMAZON, "cleanup", MethodType.methodType(void.class));
+
+   /** List executeQueryAndReturnResult(Object esql, String query, Object[] params) */
+   static final MethodHandle EXECUTE_QUERY_AND_RETURN_RESULT = findVirtual(AMAZON, "executeQueryAndReturnResult",
+      MethodType.methodType(List.class, String.class, Object[].class));
+
+   /** Object executeQueryAndReturnTable(Object esql, String query, Object[] params) */
+   static final MethodHandle EXECUTE_QUERY_AND_RETURN_TABLE = findVirtual(AMAZON, "executeQueryAndReturnTable",
+      MethodType.methodType(load("ResultTable"), String.class, Object[].class));
+
+   /** Object submitOrder(Object esql, int customerID, int storeID, String productName, int units) */
+   static final MethodHandle SUBMIT_ORDER = findVirtual(AMAZON, "submitOrder",
+      MethodType.methodType(load("OrderResult"), int.class, int.class, String.class, int.class));
+
+   /** (Object) new CommandProcessor(Object esql) */
+   static final MethodHandle NEW_PROCESSOR = constructor(PROCESSOR, MethodType.methodType(void.class, AMAZON));
+
+   /** int execute(Object processor, String command, PrintStream out) */
+   static final MethodHandle EXECUTE = findVirtual(PROCESSOR, "execute",
+      MethodType.methodType(int.class, String.class, PrintStream.class));
+
+   /** discards command output */
+   static final PrintStream NOWHERE = new PrintStream(new OutputStream(){
+      public void write(int b){}
+      public void write(byte[] b, int off, int len){}
+   });
+
+   private Client(){}
+
+   /**
+    * Connects to the benchmark database.
+    *
+    * @param database the database to connect to
+    * @return the Amazon instance
+    * @throws Throwable when the connection fails
+    */
+   static Object connect(BenchDatabase database) throws Throwable {
+      return (Object) NEW_AMAZON.invokeExact(database.getName(), database.getPort(), database.getUser(),
+                                             database.getPassword());
+   }
+
+   /**
+    * Runs a headless command and fails unless it succeeds.
+    *
+    * @param processor the command processor
+    * @param command the command line
+    * @throws Throwable when the command fails
+    */
+   static void run(Object processor, String command) throws Throwable {
+      int status = (int) EXECUTE.invokeExact(processor, command, NOWHERE);
+      if (status != 0){throw new IllegalStateException("status " + status + " from: " + command);}
+   }
+
+   private static Class<?> load(String name){
+      try{
+         return Class.forName(name);
+      }catch (ClassNotFoundException e){
+         throw new ExceptionInInitializerError(e);
+      }
+   }
+
+   private static MethodHandle findStatic(Class<?> owner, String name, MethodType type){
+      try{
+         return erase(LOOKUP.findStatic(owner, name, type));
+      }catch (ReflectiveOperationException e){
+         throw new ExceptionInInitializerError(e);
+      }
+   }
+
+   private static MethodHandle findVirtual(Class<?> owner, String name, MethodType type){
+      try{
+         return erase(LOOKUP.findVirtual(owner, name, type));
+      }catch (ReflectiveOperationException e){
+         throw new ExceptionInInitializerError(e);
+      }
+   }
+
+   private static MethodHandle constructor(Class<?> owner, MethodType type){
+      try{
+         return erase(LOOKUP.findConstructor(owner, type));
+      }catch (ReflectiveOperationException e){
+         throw new ExceptionInInitializerError(e);
+      }
+   }
+
+   // replaces the client's own classes with Object so invokeExact can name the type
+   private static MethodHandle erase(MethodHandle handle){
+      MethodType type = handle.type();
+      for (int i = 0; i < type.parameterCount(); i++){
+         if (isClientClass(type.parameterType(i))){type = type.changeParameterType(i, Object.class);}
+      }
+      if (isClientClass(type.returnType())){type = type.changeReturnType(Object.class);}
+      return handle.asType(type);
+   }
+
+   // the client's classes are the ones in the default package
+   private static boolean isClientClass(Class<?> c){
+      return !c.isPrimitive() && !c.isArray() && c.getName().indexOf('.') < 0;
+   }
+
+}//end Client
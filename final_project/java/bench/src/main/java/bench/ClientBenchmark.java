@@ -0,0 +1,87 @@
+/*
+ * Benchmarks for the Amazon store client
+ * ========================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The client's CPU-only helpers, which run on every menu action: the
+ * distance check in place order and the input validation in front of every
+ * query.  These need no database.
+ *
+ * Inputs are generated from a fixed seed, so every run measures the same
+ * work.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ClientBenchmark {
+
+   private static final int INPUTS = 1024;
+
+   /** the kind of text validated: integers, decimals, or a mix with bad input */
+   @Param({"integer", "decimal", "mixed"})
+   public String input;
+
+   private double[] points;
+   private String[] numbers;
+   private boolean[] integer;
+   private int next = 0;
+
+   @Setup
+   public void setUp() {
+      Random random = new Random(166);
+      points = new double[INPUTS * 4];
+      for (int i = 0; i < points.length; i++){points[i] = random.nextDouble() * 100;}
+
+      numbers = new String[INPUTS];
+      integer = new boolean[INPUTS];
+      for (int i = 0; i < INPUTS; i++){
+         String kind = input.equals("mixed") ? (i % 3 == 0 ? "integer" : i % 3 == 1 ? "decimal" : "bad") : input;
+         if (kind.equals("integer")){numbers[i] = Integer.toString(random.nextInt(100000));}
+         else if (kind.equals("decimal")){numbers[i] = Integer.toString(random.nextInt(1000)) + "." + random.nextInt(100);}
+         else {numbers[i] = "12a" + random.nextInt(100);}
+         integer[i] = kind.equals("integer");
+      }
+   }
+
+   @Benchmark
+   public double calculateDistance() throws Throwable {
+      int i = (next++ & (INPUTS - 1)) * 4;
+      return (double) Client.CALCULATE_DISTANCE.invokeExact(points[i], points[i + 1], points[i + 2], points[i + 3]);
+   }
+
+   @Benchmark
+   public void validNumber(Blackhole blackhole) throws Throwable {
+      int i = next++ & (INPUTS - 1);
+      blackhole.consume((boolean) Client.VALID_NUMBER.invokeExact(numbers[i], integer[i]));
+   }
+
+}//end ClientBenchmark
@@ -0,0 +1,83 @@
+/*
+ * Benchmarks for the Amazon store client
+ * ========================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The manager reports, each run end to end as a headless command by the
+ * manager of store 1, with the output discarded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class ManagerReportBenchmark {
+
+   private static final String MANAGER = "Luz";
+   private static final String PASSWORD = "xyz";
+
+   /** copies of the sample data loaded */
+   @Param({"1"})
+   public int scale;
+
+   /** the report and its prompt answers */
+   @Param({
+      "manager-view-stores",
+      "view-recent-updates",
+      "view-popular-products 1",
+      "view-popular-customers 1",
+      "view-supply-requests - -",
+      "view-store-customers - -",
+      "view-top-spenders 1 5"
+   })
+   public String report;
+
+   private Object esql;
+   private Object processor;
+
+   @Setup
+   public void setUp() throws Throwable {
+      BenchDatabase database = new BenchDatabase();
+      database.seed(scale);
+      esql = Client.connect(database);
+      processor = (Object) Client.NEW_PROCESSOR.invokeExact(esql);
+      Client.run(processor, "login " + MANAGER + " " + PASSWORD);
+   }
+
+   @TearDown
+   public void tearDown() throws Throwable {
+      Client.CLEANUP.invokeExact(esql);
+   }
+
+   @Benchmark
+   public void report() throws Throwable {
+      Client.run(processor, report);
+   }
+
+}//end ManagerReportBenchmark
@@ -0,0 +1,177 @@
+/*
+ * Benchmarks for the Amazon store client
+ * ========================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package bench;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Placing an order: submitOrder on its own (one INSERT and the stock
+ * triggers), and the whole place order menu function with its lookups and
+ * checks, run headless.  placeOrderBaseline replays the statements the
+ * original place order sent for comparison: six SELECTs (store, latitude,
+ * longitude, product, stock, price) and the INSERT, each an unprepared
+ * statement on its own round trip.  It runs against the current triggers,
+ * so it differs from placeOrder only in the client's statements.
+ *
+ * For orders per second, run with <code>-bm thrpt -tu s</code>; see
+ * bench/orders.txt.
+ *
+ * The ordering customer is moved next to the store and the product is
+ * restocked so no order is refused.  Orders placed during the run are
+ * deleted and the stock put back afterwards.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class OrderBenchmark {
+
+   private static final int CUSTOMER_ID = 3;
+   private static final String CUSTOMER = "Bob";
+   private static final String PASSWORD = "xyz";
+   private static final int STORE_ID = 1;
+   private static final String PRODUCT = "Pepsi";
+
+   /** copies of the sample data loaded */
+   @Param({"1"})
+   public int scale;
+
+   private BenchDatabase database;
+   private Object esql;
+   private Object processor;
+   private Connection baseline;
+   private String placeOrder;
+   private int lastOrderNumber;
+   private int numberOfUnits;
+   private double latitude;
+   private double longitude;
+
+   @Setup
+   public void setUp() throws Throwable {
+      database = new BenchDatabase();
+      database.seed(scale);
+
+      Connection conn = database.connect();
+      try{
+         ResultSet rs = conn.createStatement().executeQuery(
+            "SELECT (SELECT COALESCE(MAX(orderNumber), 0) FROM Orders), " +
+            "(SELECT numberOfUnits FROM Product WHERE storeID = " + STORE_ID + " AND productName = '" + PRODUCT + "'), " +
+            "latitude, longitude FROM Users WHERE userID = " + CUSTOMER_ID);
+         rs.next();
+         lastOrderNumber = rs.getInt(1);
+         numberOfUnits = rs.getInt(2);
+         latitude = rs.getDouble(3);
+         longitude = rs.getDouble(4);
+
+         conn.createStatement().executeUpdate(
+            "UPDATE Users SET latitude = Store.latitude, longitude = Store.longitude " +
+            "FROM Store WHERE Store.storeID = " + STORE_ID + " AND Users.userID = " + CUSTOMER_ID);
+         setStock(conn, 1000000000);
+      }finally{
+         conn.close();
+      }
+
+      esql = Client.connect(database);
+      processor = (Object) Client.NEW_PROCESSOR.invokeExact(esql);
+      Client.run(processor, "login " + CUSTOMER + " " + PASSWORD);
+      placeOrder = "place-order " + STORE_ID + " " + PRODUCT + " 1 yes";
+      baseline = database.connect();
+   }
+
+   @TearDown
+   public void tearDown() throws Throwable {
+      Client.CLEANUP.invokeExact(esql);
+      baseline.close();
+
+      Connection conn = database.connect();
+      try{
+         conn.createStatement().executeUpdate("DELETE FROM Orders WHERE orderNumber > " + lastOrderNumber);
+         setStock(conn, numberOfUnits);
+         PreparedStatement move = conn.prepareStatement("UPDATE Users SET latitude = ?, longitude = ? WHERE userID = ?");
+         move.setDouble(1, latitude);
+         move.setDouble(2, longitude);
+         move.setInt(3, CUSTOMER_ID);
+         move.executeUpdate();
+      }finally{
+         conn.close();
+      }
+   }
+
+   private static void setStock(Connection conn, int units) throws Exception {
+      conn.createStatement().executeUpdate("UPDATE Product SET numberOfUnits = " + units +
+                                           " WHERE storeID = " + STORE_ID + " AND productName = '" + PRODUCT + "'");
+   }
+
+   @Benchmark
+   public Object submitOrder() throws Throwable {
+      return (Object) Client.SUBMIT_ORDER.invokeExact(esql, CUSTOMER_ID, STORE_ID, PRODUCT, 1);
+   }
+
+   @Benchmark
+   public void placeOrder() throws Throwable {
+      Client.run(processor, placeOrder);
+   }
+
+   @Benchmark
+   public int placeOrderBaseline() throws Throwable {
+      String product = "Product.storeID = " + STORE_ID + " AND Product.productName = '" + PRODUCT + "'";
+      first("SELECT storeID FROM Store WHERE storeID = " + STORE_ID);
+      first("SELECT Store.latitude FROM Store WHERE Store.storeID = " + STORE_ID);
+      first("SELECT Store.longitude FROM Store WHERE Store.storeID = " + STORE_ID);
+      first("SELECT Product.productName FROM Product WHERE " + product);
+      first("SELECT numberOfUnits FROM Product WHERE " + product);
+      first("SELECT (Product.pricePerUnit * 1) FROM Product WHERE " + product);
+      Statement stmt = baseline.createStatement();
+      try{
+         return stmt.executeUpdate("INSERT INTO Orders (customerID, storeID, productName, unitsOrdered, orderTime) " +
+                                   "VALUES (" + CUSTOMER_ID + ", " + STORE_ID + ", '" + PRODUCT + "', 1, CURRENT_TIMESTAMP)");
+      }finally{
+         stmt.close();
+      }
+   }
+
+   // one query of the original client: a new statement, every row read
+   private String first(String sql) throws Exception {
+      Statement stmt = baseline.createStatement();
+      try{
+         ResultSet rs = stmt.executeQuery(sql);
+         String value = null;
+         while (rs.next()){
+            if (value == null){value = rs.getString(1);}
+         }
+         return value;
+      }finally{
+         stmt.close();
+      }
+   }
+
+}//end OrderBenchmark
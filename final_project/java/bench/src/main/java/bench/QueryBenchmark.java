@@ -0,0 +1,82 @@
+/*
+ * Benchmarks for the Amazon store client
+ * ========================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Materializing query results: the row-of-strings lists built by
+ * executeQueryAndReturnResult against the typed columns of
+ * executeQueryAndReturnTable, for the same rows of Orders.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class QueryBenchmark {
+
+   private static final String ORDERS =
+      "SELECT orderNumber, customerID, storeID, productName, unitsOrdered, orderTime, price " +
+      "FROM Orders ORDER BY orderNumber LIMIT ?";
+
+   /** copies of the sample data loaded */
+   @Param({"1"})
+   public int scale;
+
+   /** rows read per query */
+   @Param({"10", "100", "500"})
+   public int rows;
+
+   private Object esql;
+   private Object[] params;
+
+   @Setup
+   public void setUp() throws Throwable {
+      BenchDatabase database = new BenchDatabase();
+      database.seed(scale);
+      esql = Client.connect(database);
+      params = new Object[] {Integer.valueOf(rows)};
+   }
+
+   @TearDown
+   public void tearDown() throws Throwable {
+      Client.CLEANUP.invokeExact(esql);
+   }
+
+   @Benchmark
+   public Object executeQueryAndReturnResult() throws Throwable {
+      return (List) Client.EXECUTE_QUERY_AND_RETURN_RESULT.invokeExact(esql, ORDERS, params);
+   }
+
+   @Benchmark
+   public Object executeQueryAndReturnTable() throws Throwable {
+      return (Object) Client.EXECUTE_QUERY_AND_RETURN_TABLE.invokeExact(esql, ORDERS, params);
+   }
+
+}//end QueryBenchmark
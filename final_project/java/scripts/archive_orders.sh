@@ -0,0 +1,14 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+# archive, query or restore months of Orders, or run the partition upkeep, e.g.
+#    archive_orders.sh archive -before 2019-01
+#    archive_orders.sh query -from 2018-01 -to 2018-03 -store 5
+#    archive_orders.sh restore 2018-02
+#    archive_orders.sh maintain
+# the archives are kept in java/archive
+java -cp $DIR/../classes:${PGJDBC:-$DIR/../lib/pg73jdbc3.jar} OrderArchiver $USER"_project_phase_3_DB" $PGPORT $USER \
+     -dir $DIR/../archive "$@"
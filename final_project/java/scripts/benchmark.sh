@@ -0,0 +1,18 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# build the benchmarks, with the client sources compiled in
+mvn -B -q -f $DIR/../bench/pom.xml package || exit 1
+
+# run them against a local database seeded from data/*.csv; the database
+# must exist, e.g. createdb amazon_bench.  JMH options are passed through:
+#    benchmark.sh QueryBenchmark               only the query benchmarks
+#    benchmark.sh -p scale=1,10,100            several scale factors
+# results are written as JSON, one file per commit, for comparing builds
+mkdir -p $DIR/../bench/results
+RESULTS=$DIR/../bench/results/$(git -C $DIR rev-parse --short HEAD 2>/dev/null || date +%Y%m%d%H%M%S).json
+cd $DIR/../bench
+# the client's own driver is not packaged into the jar
+java -cp target/benchmarks.jar:$DIR/../lib/pg73jdbc3.jar org.openjdk.jmh.Main -rf json -rff $RESULTS \
+     -jvmArgsAppend "-Dbench.db=${BENCH_DB:-amazon_bench} -Dbench.port=${PGPORT:-5432} -Dbench.user=$USER -Dbench.home=$DIR/../.." "$@"
+echo "results: $RESULTS"
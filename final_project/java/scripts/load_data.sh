@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+# load data/*.csv in parallel, in batched array inserts with the bundled
+# 7.3 driver, or through COPY when PGJDBC points at a driver that has it.
+# Options are passed through, e.g. load_data.sh -truncate -threads 8
+java -cp $DIR/../classes:${PGJDBC:-$DIR/../lib/pg73jdbc3.jar} BulkLoader $USER"_project_phase_3_DB" $PGPORT $USER \
+     -data ${DATA:-$DIR/../../data} "$@"
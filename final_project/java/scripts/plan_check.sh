@@ -0,0 +1,19 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+# with SCALE set, generate a data set that size and load it first, e.g.
+#    SCALE=100 plan_check.sh
+# the check runs the commands in plans/commands.txt for real, orders
+# included, so use a scratch database
+if [ -n "$SCALE" ]; then
+   java -cp $DIR/../classes DataGenerator -scale $SCALE -out $DIR/../generated || exit 1
+   DATA=$DIR/../generated $DIR/load_data.sh -truncate || exit 1
+fi
+
+# explain every statement of plans/commands.txt against plans/budgets.txt;
+# exits 1 on a regression.  Options are passed through, e.g. -runs 5 -out plans.txt
+java -cp $DIR/../classes:${PGJDBC:-$DIR/../lib/pg73jdbc3.jar} PlanCheck $USER"_project_phase_3_DB" $PGPORT $USER \
+     -plans $DIR/../plans -sql $DIR/../../sql/src "$@"
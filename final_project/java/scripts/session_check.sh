@@ -0,0 +1,21 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+# seed the database first: data/*.csv by default, or with SCALE set a
+# generated data set that size, e.g.
+#    SCALE=10 session_check.sh
+# the check places orders and restocks products, so use a scratch database
+if [ -n "$SCALE" ]; then
+   java -cp $DIR/../classes DataGenerator -scale $SCALE -out $DIR/../generated || exit 1
+   DATA=$DIR/../generated $DIR/load_data.sh -truncate || exit 1
+else
+   $DIR/load_data.sh -truncate || exit 1
+fi
+
+# start a server in this process and run 1000 sessions against it; exits
+# non-zero unless every session finished and every command answered ok.
+# Options are passed through, e.g. -sessions 2000 -timeout 300
+java -cp $DIR/../classes:${PGJDBC:-$DIR/../lib/pg73jdbc3.jar} SessionCheck $USER"_project_phase_3_DB" $PGPORT $USER "$@"
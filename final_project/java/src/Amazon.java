@@ -12,16 +12,29 @@
 
 import java.sql.DriverManager;
 import java.sql.Connection;
-import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.sql.Date;
+import java.math.BigDecimal;
 import java.io.File;
+import java.io.IOException;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.lang.Math;
 
 /**
@@ -31,23 +44,109 @@ import java.lang.Math;
  */
 public class Amazon {
 
-   private static String current_userID;
-   private static String current_username;
-   private static String current_userLat;
-   private static String current_userLong;
-   private static String current_userType;
+   // customers may only browse and order from stores closer than this.
+   public static final double STORE_RADIUS = 30;
+   private static final double STORE_INDEX_CELL_SIZE = STORE_RADIUS / 3;
+
+   // rows per round trip when streaming a query through a cursor
+   private static final int STREAM_FETCH_SIZE = Integer.getInteger("amazon.fetchSize", 500);
+   private static final String STREAM_CURSOR = "amazon_stream";
+
+   // the popular products and customers reported per store
+   private static final int POPULAR_K = Integer.getInteger("amazon.topk.k", 5);
+
+   // pool of physical database connections shared by every caller.
+   private ConnectionPool _pool = null;
+
+   // latencies, round trips, rows and errors of every operation and helper;
+   // published through JMX unless amazon.jmx is false
+   private final Metrics _metrics = new Metrics();
+
+   // told of every statement prepared, e.g. by PlanCheck; null when no one is
+   private volatile StatementListener _listener = null;
+
+   // store locations, loaded on first use and again when older than
+   // amazon.storeIndex.ttlMs, so stores added by other clients show up
+   private static final long STORE_INDEX_TTL = Long.getLong("amazon.storeIndex.ttlMs", 300000L);
+   private volatile StoreIndex _storeIndex = null;
+   private volatile long _storeIndexLoaded = 0;
+
+   // top products and customers per store, seeded from Orders on first use
+   private volatile PopularityIndex _popularity = null;
+   // the index being seeded, which holds the orders placed meanwhile
+   private volatile PopularityIndex _popularitySeeding = null;
+   private final Object _popularityLock = new Object();
+
+   // the last OrderArchiveLog entry the popularity index and the order
+   // histories reflect, -1 for none, and when the log is next read; see
+   // checkArchiveLog
+   private static final long ARCHIVE_CHECK_MS = Long.getLong("amazon.archive.checkMs", 60000L);
+   private long _archiveLogID = -1;
+   private volatile long _archiveCheckDue = 0;
+   private final Object _archiveLock = new Object();
+
+   // supply requests waiting to be placed in batches, started on first use
+   private SupplyDispatcher _supply = null;
+   // where the supply journal is kept unless amazon.supply.journalDir says
+   // otherwise: one directory per database under the user's home, so a
+   // restart finds its journal wherever the client is started from
+   private File _supplyJournalDir = null;
+
+   // each active customer's recent orders and product tally, read on first
+   // use and fed every order placed through this client
+   private final CustomerHistoryCache _history = new CustomerHistoryCache(this,
+      Integer.getInteger("amazon.history.size", 10000), Long.getLong("amazon.history.ttlMs", 300000L));
+
+   // lookups behind the valid_* checks and the store manager checks; the
+   // menu functions that change these tables invalidate them
+   private static final int REFERENCE_CACHE_SIZE = Integer.getInteger("amazon.cache.size", 10000);
+   private static final long REFERENCE_CACHE_TTL = Long.getLong("amazon.cache.ttlMs", 300000L);
+
+   private final ReferenceCache<Integer, Integer> _storeManagers = new ReferenceCache<Integer, Integer>(
+      "storeManagers", REFERENCE_CACHE_SIZE, REFERENCE_CACHE_TTL, new ReferenceCache.Loader<Integer, Integer>(){
+         public Integer load(Integer storeID) throws SQLException {
+            int managerID = queryInt("SELECT Store.managerID FROM Store WHERE Store.storeID = ?", -1, storeID);
+            return managerID < 0 ? null : Integer.valueOf(managerID);
+         }
+      });
+
+   private final ReferenceCache<Integer, Boolean> _warehouses = new ReferenceCache<Integer, Boolean>(
+      "warehouses", REFERENCE_CACHE_SIZE, REFERENCE_CACHE_TTL, new ReferenceCache.Loader<Integer, Boolean>(){
+         public Boolean load(Integer warehouseID) throws SQLException {
+            return queryInt("SELECT WarehouseID FROM Warehouse WHERE WarehouseID = ?", -1, warehouseID) < 0 ? null : Boolean.TRUE;
+         }
+      });
+
+   private final ReferenceCache<Integer, Set<String>> _storeProducts = new ReferenceCache<Integer, Set<String>>(
+      "storeProducts", REFERENCE_CACHE_SIZE, REFERENCE_CACHE_TTL, new ReferenceCache.Loader<Integer, Set<String>>(){
+         public Set<String> load(Integer storeID) throws SQLException {
+            ResultTable names = executeQueryAndReturnTable("SELECT Product.productName FROM Product WHERE Product.storeID = ?", storeID);
+            Set<String> products = new HashSet<String>();
+            for (int i = 0; i < names.getRowCount(); i++){products.add(names.getString(i, 0));}
+            return Collections.unmodifiableSet(products);
+         }
+      });
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   private final ReferenceCache<String, Boolean> _userNames = new ReferenceCache<String, Boolean>(
+      "userNames", REFERENCE_CACHE_SIZE, REFERENCE_CACHE_TTL, new ReferenceCache.Loader<String, Boolean>(){
+         public Boolean load(String name) throws SQLException {
+            return queryString("SELECT Users.name FROM Users WHERE Users.name = ?", name) == null ? null : Boolean.TRUE;
+         }
+      });
 
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
-   static BufferedReader in = new BufferedReader(
-                                new InputStreamReader(System.in));
+   // reads standard in, or the arguments of a headless command; see CommandContext
+   static BufferedReader in = new CommandContext.Input();
 
    /**
     * Creates a new instance of Amazon store
     *
+    * The connection pool is sized from the system properties
+    * amazon.pool.size, amazon.pool.minIdle, amazon.pool.timeoutMs,
+    * amazon.pool.validationMs, amazon.pool.idleTimeoutMs, amazon.pool.leakMs
+    * and amazon.pool.statementCacheSize.
+    *
     * @param hostname the MySQL or PostgreSQL server hostname
     * @param database the name of the database
     * @param username the user name used to login to the database
@@ -60,10 +159,28 @@ public class Amazon {
       try{
          // constructs the connection URL
          String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+         this._supplyJournalDir = new File(new File(System.getProperty("user.home"), ".amazon-supply"), dbname + "-" + dbport);
          System.out.println ("Connection URL: " + url + "\n");
 
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         this._pool = new ConnectionPool(url, user, passwd,
+                                         Integer.getInteger("amazon.pool.size", 8),
+                                         Integer.getInteger("amazon.pool.minIdle", 1),
+                                         Long.getLong("amazon.pool.timeoutMs", 30000L),
+                                         Long.getLong("amazon.pool.validationMs", 5000L),
+                                         Long.getLong("amazon.pool.idleTimeoutMs", 600000L),
+                                         Long.getLong("amazon.pool.leakMs", 60000L),
+                                         Integer.getInteger("amazon.pool.statementCacheSize", 64));
+
+         // obtain a physical connection up front so a bad login fails here
+         releaseConnection(getConnection());
+         try{
+            createOrderPartitions(Integer.getInteger("amazon.partitions.ahead", 2));
+         }catch (SQLException e){
+            System.err.println("Unable to create the partitions of Orders: " + e.getMessage());
+         }
+         this._archiveLogID = readArchiveLog();
+         this._archiveCheckDue = System.currentTimeMillis() + ARCHIVE_CHECK_MS;
+         if (Boolean.parseBoolean(System.getProperty("amazon.jmx", "true"))){this._metrics.register("Amazon");}
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -72,28 +189,381 @@ public class Amazon {
       }//end catch
    }//end Amazon
 
+   /**
+    * Creates the partitions of Orders for this month and the months after
+    * it, so new orders go to their month's partition rather than the
+    * default one.  A schema without partitions.sql is left alone.
+    *
+    * @param monthsAhead how many months after this one get a partition
+    * @throws java.sql.SQLException when a partition cannot be created
+    */
+   public void createOrderPartitions(int monthsAhead) throws SQLException {
+      if (queryInt("SELECT COUNT(*) FROM pg_proc WHERE proname = ?", 0, "create_orders_partitions") == 0){return;}
+      queryInt("SELECT create_orders_partitions(CAST(date_trunc('month', now()) AS timestamp), " +
+               "CAST(now() + CAST(? AS integer) * interval '1 month' AS timestamp))", 0, Integer.valueOf(monthsAhead));
+   }
+
+   /**
+    * Borrows a connection from the pool for a unit of work that needs more
+    * than one statement on the same connection (e.g. a transaction).  It must
+    * be handed back with {@link #releaseConnection(Connection)}.
+    *
+    * @return an open connection in autocommit mode
+    * @throws java.sql.SQLException when no connection could be obtained
+    */
+   public Connection getConnection() throws SQLException {
+      return this._pool.borrow();
+   }
+
+   /**
+    * Returns a connection obtained from {@link #getConnection()} to the pool.
+    *
+    * @param connection the borrowed connection
+    */
+   public void releaseConnection(Connection connection) {
+      this._pool.release(connection);
+   }
+
+   /**
+    * @return the metrics of every operation and execute helper
+    */
+   public Metrics getMetrics() {
+      return this._metrics;
+   }
+
+   /**
+    * Sets the listener told of every statement prepared from now on.
+    *
+    * @param listener the listener, or null for none
+    */
+   public void setStatementListener(StatementListener listener) {
+      this._listener = listener;
+   }
+
+   /*
+    * Borrows a connection for a timed helper call; if none can be had, the
+    * call is counted as failed and ended here.
+    */
+   private Connection connect(Metrics.Operation call) throws SQLException {
+      try{
+         return getConnection();
+      }catch (SQLException e){
+         this._metrics.error(e);
+         call.end();
+         throw e;
+      }
+   }
+
+   /**
+    * @return the connection pool, for its active/idle counts and wait times
+    */
+   public ConnectionPool getPool() {
+      return this._pool;
+   }
+
+   /**
+    * Returns the in-memory index of store locations, loading it from the
+    * Store table on first use, after {@link #invalidateStoreIndex()}, and
+    * once it is older than <code>amazon.storeIndex.ttlMs</code> (5 minutes
+    * by default).
+    *
+    * @return the store index
+    * @throws java.sql.SQLException when the stores cannot be loaded
+    */
+   public StoreIndex getStoreIndex() throws SQLException {
+      StoreIndex index = this._storeIndex;
+      if (index != null && System.currentTimeMillis() - this._storeIndexLoaded < STORE_INDEX_TTL){return index;}
+      synchronized (this){
+         if (this._storeIndex == null || System.currentTimeMillis() - this._storeIndexLoaded >= STORE_INDEX_TTL){
+            index = new StoreIndex(STORE_INDEX_CELL_SIZE);
+            ResultTable stores = executeQueryAndReturnTable("SELECT storeID, latitude, longitude FROM Store");
+            for (int i = 0; i < stores.getRowCount(); i++){
+               index.put(stores.getInt(i, 0), stores.getDouble(i, 1), stores.getDouble(i, 2));
+            }
+            this._storeIndex = index;
+            this._storeIndexLoaded = System.currentTimeMillis();
+         }
+         return this._storeIndex;
+      }
+   }
+
+   /**
+    * Drops the store index so its next use reloads it, e.g. after stores
+    * are inserted.
+    */
+   public synchronized void invalidateStoreIndex() {
+      this._storeIndex = null;
+   }
+
+   /**
+    * @param storeID a store's ID
+    * @return the store's manager's user ID, or -1 if there is no such store
+    * @throws java.sql.SQLException when the store cannot be read
+    */
+   public int getStoreManager(int storeID) throws SQLException {
+      Integer managerID = _storeManagers.get(Integer.valueOf(storeID));
+      return managerID == null ? -1 : managerID.intValue();
+   }
+
+   /**
+    * @param storeID a store's ID
+    * @return the names of the store's products; empty if there is no such store
+    * @throws java.sql.SQLException when the products cannot be read
+    */
+   public Set<String> getStoreProducts(int storeID) throws SQLException {
+      return _storeProducts.get(Integer.valueOf(storeID));
+   }
+
+   public ReferenceCache<Integer, Integer> getStoreManagerCache(){return _storeManagers;}
+   public ReferenceCache<Integer, Boolean> getWarehouseCache(){return _warehouses;}
+   public ReferenceCache<Integer, Set<String>> getStoreProductCache(){return _storeProducts;}
+   public ReferenceCache<String, Boolean> getUserNameCache(){return _userNames;}
+   public CustomerHistoryCache getHistory() {
+      checkArchiveLog();
+      return _history;
+   }
+
+   /**
+    * @return one line of hit and miss counts per reference cache
+    */
+   public String getCacheStatistics() {
+      return _storeManagers + "\n" + _warehouses + "\n" + _storeProducts + "\n" + _userNames + "\n" + _history;
+   }
+
+   /**
+    * Returns the dispatcher that places supply requests in batches, opening
+    * its journal on first use.  <code>amazon.supply.journalDir</code> sets
+    * where the journal is kept, by default ~/.amazon-supply/&lt;database&gt;-&lt;port&gt;,
+    * <code>amazon.supply.windowMs</code> how long
+    * a request waits for others to join it and
+    * <code>amazon.supply.batchSize</code> the most rows placed at once.
+    *
+    * @return the supply dispatcher
+    * @throws java.io.IOException when no journal can be opened
+    * @throws java.sql.SQLException when the journal's batches in flight
+    *         cannot be looked up
+    */
+   public synchronized SupplyDispatcher getSupplyDispatcher() throws IOException, SQLException {
+      if (this._supply == null){
+         String journalDir = System.getProperty("amazon.supply.journalDir");
+         this._supply = new SupplyDispatcher(this, journalDir == null ? this._supplyJournalDir : new File(journalDir),
+                                             Long.getLong("amazon.supply.windowMs", 50L),
+                                             Integer.getInteger("amazon.supply.batchSize", 100));
+      }
+      return this._supply;
+   }
+
+   /**
+    * Places the supply requests queued so far, if the dispatcher is in use,
+    * e.g. before a store or warehouse they may name is deleted.
+    *
+    * @throws InterruptedException when interrupted while waiting
+    */
+   public void flushSupplyRequests() throws InterruptedException {
+      SupplyDispatcher supply;
+      synchronized (this){supply = this._supply;}
+      if (supply != null){supply.flush();}
+   }
+
+   /**
+    * Returns the popular products and customers of every store, counting
+    * the Orders table on first use.  <code>amazon.topk.k</code> sets how many
+    * are reported and <code>amazon.topk.capacity</code> how many are tracked
+    * per store.
+    *
+    * @return the popularity index
+    * @throws java.sql.SQLException when the orders cannot be read
+    */
+   public PopularityIndex getPopularity() throws SQLException {
+      checkArchiveLog();
+      PopularityIndex index = this._popularity;
+      if (index != null){return index;}
+      // a lock of its own, so a long first seed holds up only the callers
+      // that need the index
+      synchronized (this._popularityLock){
+         if (this._popularity == null){
+            index = new PopularityIndex(POPULAR_K,
+                                        Integer.getInteger("amazon.topk.capacity", 1000));
+            this._popularitySeeding = index;
+            try{
+               index.seed(this, STREAM_FETCH_SIZE);
+               this._popularity = index;
+            }finally{
+               this._popularitySeeding = null;
+            }
+         }
+         return this._popularity;
+      }
+   }
+
+   /*
+    * Counts Orders afresh into a new popularity index while the current one
+    * keeps answering, then swaps it in.  Orders placed meanwhile are
+    * recorded in both.
+    */
+   private void reseedPopularity() throws SQLException {
+      synchronized (this._popularityLock){
+         // no index yet: the first seed will count the orders as they are
+         if (this._popularity == null){return;}
+         PopularityIndex index = new PopularityIndex(POPULAR_K, Integer.getInteger("amazon.topk.capacity", 1000));
+         this._popularitySeeding = index;
+         try{
+            index.seed(this, STREAM_FETCH_SIZE);
+            this._popularity = index;
+         }finally{
+            this._popularitySeeding = null;
+         }
+      }
+   }
+
+   /*
+    * Months of Orders archived or restored by OrderArchiver change what the
+    * reports count without a statement this client sees, so the popularity
+    * index and the order histories would go on counting them.  Each is
+    * logged in OrderArchiveLog; at most every amazon.archive.checkMs the
+    * log is read, and on a new entry the histories are dropped and the
+    * index is recounted in the background, so every report covers the
+    * orders in the database.
+    */
+   private void checkArchiveLog() {
+      long now = System.currentTimeMillis();
+      if (now < this._archiveCheckDue){return;}
+      synchronized (this._archiveLock){
+         if (now < this._archiveCheckDue){return;}
+         this._archiveCheckDue = now + ARCHIVE_CHECK_MS;
+         long logID = readArchiveLog();
+         if (logID <= this._archiveLogID){return;}
+         this._archiveLogID = logID;
+      }
+
+      this._history.invalidateAll();
+      Thread reseeder = new Thread(new Runnable(){
+         public void run(){
+            try{
+               reseedPopularity();
+            }catch (SQLException e){
+               System.err.println("Unable to recount the popular products: " + e.getMessage());
+            }
+         }
+      }, "popularity-reseed");
+      reseeder.setDaemon(true);
+      reseeder.start();
+   }
+
+   // the last OrderArchiveLog entry, 0 for none, or -1 for a schema without
+   // the log
+   private long readArchiveLog(){
+      try{
+         if (queryInt("SELECT COUNT(*) FROM pg_class WHERE relname = ?", 0, "orderarchivelog") == 0){return -1;}
+         return queryInt("SELECT COALESCE(MAX(logID), 0) FROM OrderArchiveLog", 0);
+      }catch (SQLException e){
+         return this._archiveLogID;
+      }
+   }
+
+   /**
+    * Counts a newly placed order in the popularity index.  Orders placed
+    * while the index is seeded are held until the seed's scan is done, then
+    * counted unless the scan saw them; before any seed starts there is
+    * nothing to do, since seeding will read the order.
+    *
+    * @param storeID the store ordered from
+    * @param productName the product ordered
+    * @param customerID the ordering customer
+    * @param transactionID the committed transaction that placed the order,
+    *        as txid_current() reports it
+    */
+   public void recordOrder(int storeID, String productName, int customerID, long transactionID) {
+      // while an index is seeded both it and the one answering are told.
+      // _popularitySeeding is read first: a seed that starts after it is
+      // read scans the order anyway
+      PopularityIndex seeding = this._popularitySeeding;
+      PopularityIndex index = this._popularity;
+      if (seeding != null){seeding.record(storeID, productName, customerID, transactionID);}
+      if (index != null && index != seeding){index.record(storeID, productName, customerID, transactionID);}
+   }
+
+   /**
+    * Takes a deleted store out of the popularity index.  An index not yet
+    * seeded is left alone, since seeding will not find the store.
+    *
+    * @param storeID the deleted store
+    */
+   public void removeStore(int storeID) {
+      PopularityIndex seeding = this._popularitySeeding;
+      PopularityIndex index = this._popularity;
+      if (seeding != null){seeding.removeStore(storeID);}
+      if (index != null && index != seeding){index.removeStore(storeID);}
+   }
+
+   /**
+    * Takes a deleted customer out of the popularity index, like
+    * {@link #recordOrder(int, String, int, long)} counts an order in.
+    *
+    * @param customerID the deleted customer
+    * @param deleted their order count by store and product, read just
+    *        before the delete
+    * @param transactionID the committed transaction that deleted them
+    */
+   public void removeCustomer(int customerID, ResultTable deleted, long transactionID) {
+      PopularityIndex seeding = this._popularitySeeding;
+      PopularityIndex index = this._popularity;
+      if (seeding != null){seeding.removeCustomer(customerID, deleted, transactionID);}
+      if (index != null && index != seeding){index.removeCustomer(customerID, deleted, transactionID);}
+   }
+
+   /**
+    * Looks a store's location up in the store index, falling back to the
+    * Store table (and indexing the result) for stores added since the index
+    * was loaded.
+    *
+    * @param storeID the store's ID
+    * @return the store's location, or null if there is no such store
+    * @throws java.sql.SQLException when the store cannot be read
+    */
+   public StoreIndex.StoreLocation findStore(int storeID) throws SQLException {
+      StoreIndex index = getStoreIndex();
+      StoreIndex.StoreLocation store = index.get(storeID);
+      if (store != null){return store;}
+
+      ResultTable row = queryRow("SELECT latitude, longitude FROM Store WHERE storeID = ?", Integer.valueOf(storeID));
+      if (row.isEmpty()){return null;}
+      index.put(storeID, row.getDouble(0, 0), row.getDouble(0, 1));
+      return index.get(storeID);
+   }
+
    // Method to calculate euclidean distance between two latitude, longitude pairs. 
-   public double calculateDistance (double lat1, double long1, double lat2, double long2){
+   public static double calculateDistance (double lat1, double long1, double lat2, double long2){
       double t1 = (lat1 - lat2) * (lat1 - lat2);
       double t2 = (long1 - long2) * (long1 - long2);
       return Math.sqrt(t1 + t2); 
    }
    /**
     * Method to execute an update SQL statement.  Update SQL instructions
-    * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
+    * includes CREATE, INSERT, UPDATE, DELETE, and DROP.  The statement is
+    * prepared once per connection and the parameters are bound by position.
     *
-    * @param sql the input SQL string
+    * @param sql the input SQL string with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows affected
     * @throws java.sql.SQLException when update failed
     */
-   public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the update instruction
-      stmt.executeUpdate (sql);
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      Metrics.Operation call = this._metrics.beginStatement("executeUpdate");
+      Connection conn = connect(call);
+      try{
+         // looks up (or prepares) the statement and binds the parameters
+         PreparedStatement stmt = prepare(conn, sql, params);
 
-      // close the instruction
-      stmt.close ();
+         // issues the update instruction
+         return stmt.executeUpdate ();
+      }catch (SQLException e){
+         this._metrics.error(e);
+         throw e;
+      }finally{
+         releaseConnection(conn);
+         call.end();
+      }
    }//end executeUpdate
 
    /**
@@ -101,151 +571,610 @@ public class Amazon {
     * method issues the query to the DBMS and outputs the results to
     * standard out.
     *
-    * @param query the input query string
+    * @param query the input query string with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+      printStartOfOutput();
+      int rowCount = runQuery("executeQueryAndPrintResult", query, 0, new PrintSink(), params);
+      printEndOfOutput(rowCount);
+      return rowCount;
+   }//end executeQuery
+
+   /**
+    * Same as {@link #executeQueryAndPrintResult(String, Object...)}, but the
+    * rows are read through a server side cursor, <code>amazon.fetchSize</code>
+    * at a time, and printed as they arrive.  Use it for scans that may return
+    * whole tables.
+    *
+    * @param query the input query string with '?' placeholders
+    * @param params the values bound to the placeholders, in order
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQueryAndPrintResult (String query) throws SQLException {
+   public int streamQueryAndPrintResult (String query, Object... params) throws SQLException {
+      printStartOfOutput();
+      int rowCount = runQuery("streamQueryAndPrintResult", query, STREAM_FETCH_SIZE, new PrintSink(), params);
+      printEndOfOutput(rowCount);
+      return rowCount;
+   }//end streamQueryAndPrintResult
+
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT) and hand
+    * each row to a sink as it is read.
+    *
+    * With a positive <code>fetchSize</code> the query runs as a cursor inside
+    * a read only transaction and rows are fetched that many at a time, so
+    * memory use does not grow with the size of the result and the first row
+    * is delivered as soon as the server produces it.  Otherwise the whole
+    * result is read with a single round trip.
+    *
+    * @param query the input query string with '?' placeholders
+    * @param fetchSize the number of rows per fetch, or 0 to read all at once
+    * @param sink receives the rows
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int query (String query, int fetchSize, RowSink sink, Object... params) throws SQLException {
+      return runQuery(fetchSize > 0 ? "stream" : "query", query, fetchSize, sink, params);
+   }//end query
+
+   /*
+    * query(), timed under the name of the helper that was called.
+    */
+   private int runQuery (String helper, String query, int fetchSize, RowSink sink, Object... params) throws SQLException {
+      Metrics.Operation call = this._metrics.beginStatement(helper);
+      Connection conn = connect(call);
+      try{
+         if (fetchSize > 0){return stream(conn, query, fetchSize, sink, params);}
+
+         // issues the query instruction
+         ResultSet rs = prepare(conn, query, params).executeQuery ();
+         try{
+            sink.start(rs.getMetaData ());
+            int rowCount = 0;
+            while (rs.next()){
+               sink.row(rs);
+               ++rowCount;
+            }//end while
+            sink.end(rowCount);
+            this._metrics.rows(rowCount);
+            return rowCount;
+         }finally{
+            rs.close ();
+         }
+      }catch (SQLException e){
+         this._metrics.error(e);
+         throw e;
+      }finally{
+         releaseConnection(conn);
+         call.end();
+      }
+   }//end runQuery
+
+   /*
+    * Runs a query through a cursor.  The transaction is left open on failure;
+    * releasing the connection rolls it back, which also drops the cursor.
+    */
+   private int stream(Connection conn, String query, int fetchSize, RowSink sink, Object... params) throws SQLException {
+      conn.setAutoCommit(false);
+      prepare(conn, "SET TRANSACTION READ ONLY").execute();
+      prepare(conn, "DECLARE " + STREAM_CURSOR + " NO SCROLL CURSOR FOR " + query, params).execute();
+
+      PreparedStatement fetch = prepare(conn, "FETCH FORWARD " + fetchSize + " FROM " + STREAM_CURSOR);
+      int rowCount = 0;
+      boolean started = false;
+      int fetched;
+      do{
+         fetched = 0;
+         if (started){this._metrics.roundTrip();}
+         ResultSet rs = fetch.executeQuery ();
+         try{
+            if (!started){
+               sink.start(rs.getMetaData ());
+               started = true;
+            }
+            while (rs.next()){
+               sink.row(rs);
+               ++fetched;
+            }//end while
+         }finally{
+            rs.close ();
+         }
+         rowCount += fetched;
+      }while (fetched == fetchSize);
+      sink.end(rowCount);
+      this._metrics.rows(rowCount);
+
+      // ending the transaction closes the cursor
+      this._metrics.roundTrip();
+      conn.commit();
+      conn.setAutoCommit(true);
+      return rowCount;
+   }//end stream
+
+   /**
+    * Method to output rows that were computed in memory in the same format
+    * as {@link #executeQueryAndPrintResult(String, Object...)}.
+    *
+    * @param columns the column names
+    * @param rows the rows, each a list of attribute values
+    * @return the number of rows printed
+    */
+   public static int printResult (List<String> columns, List<List<String>> rows) {
+      CommandContext context = CommandContext.current();
+      if (context != null){
+         context.columns(columns.toArray(new String[columns.size()]));
+         for (List<String> row : rows){context.row(row.toArray(new String[row.size()]));}
+         return rows.size();
+      }
+      printStartOfOutput();
+      if (!rows.isEmpty()){
+         for (String column : columns)
+            System.out.print(column + "\t");
+         System.out.println();
+      }
+      for (List<String> row : rows){
+         for (String value : row)
+            System.out.print (value + "\t");
+         System.out.println ();
+      }
+      printEndOfOutput(rows.size());
+      return rows.size();
+   }//end printResult
+
+   private static void printStartOfOutput(){
+      if (CommandContext.current() != null){return;}
       System.out.println("_________________");
       System.out.println("START OF OUTPUT |");
       for (int j = 1; j <= 32; j++){System.out.print("_");}
       System.out.println("_");
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-		 if(outputHeader){
-			for(int i = 1; i <= numCol; i++){
-			System.out.print(rsmd.getColumnName(i) + "\t");
-			}
-			System.out.println();
-			outputHeader = false;
-		 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close ();
+   }
 
+   private static void printEndOfOutput(int rowCount){
+      if (CommandContext.current() != null){return;}
       clearScreen(38-rowCount);
       for (int j = 1; j <= 33; j++){System.out.print("_");}
       System.out.println();
       System.out.print("END OF OUTPUT | ");
-      return rowCount;
-   }//end executeQuery
+   }
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and returns the results as
     * a list of records. Each record in turn is a list of attribute values
     *
-    * @param query the input query string
+    * @param query the input query string with '?' placeholders
+    * @param params the values bound to the placeholders, in order
     * @return the query result as a list of records
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and saves the data returned by the query.
-      boolean outputHeader = false;
-      List<List<String>> result  = new ArrayList<List<String>>();
-      while (rs.next()){
-        List<String> record = new ArrayList<String>();
-		for (int i=1; i<=numCol; ++i)
-			record.add(rs.getString (i));
-        result.add(record);
-      }//end while
-      stmt.close ();
-      return result;
+   public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+      ListSink sink = new ListSink();
+      runQuery("executeQueryAndReturnResult", query, 0, sink, params);
+      return sink.result;
    }//end executeQueryAndReturnResult
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and returns the number of results
     *
-    * @param query the input query string
+    * @param query the input query string with '?' placeholders
+    * @param params the values bound to the placeholders, in order
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
-  */
+    */
+   public int executeQuery (String query, Object... params) throws SQLException {
+      return runQuery("executeQuery", query, 0, COUNT_ROWS, params);
+   }
 
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT).  This
+    * method issues the query to the DBMS and returns the results column by
+    * column, with numeric columns read as primitives.
+    *
+    * @param query the input query string with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the query result
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public ResultTable executeQueryAndReturnTable (String query, Object... params) throws SQLException {
+      ResultTable table = new ResultTable();
+      runQuery("executeQueryAndReturnTable", query, 0, table.sink(), params);
+      return table;
+   }//end executeQueryAndReturnTable
 
-   public int executeQuery (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
+   /**
+    * Method to read the first row of a query.  The bundled driver applies
+    * the row limit on the client, so the server still sends every row the
+    * query matches; a query that may match many should say LIMIT 1 itself.
+    *
+    * @param query the input query string with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return a table with at most one row
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public ResultTable queryRow (String query, Object... params) throws SQLException {
+      ResultTable table = new ResultTable();
+      RowSink sink = table.sink();
+      Metrics.Operation call = this._metrics.beginStatement("queryRow");
+      Connection conn = connect(call);
+      try{
+         PreparedStatement stmt = prepare(conn, query, params);
+         ResultSet rs = firstRow(stmt);
+         try{
+            sink.start(rs.getMetaData ());
+            if (rs.next()){
+               sink.row(rs);
+               this._metrics.rows(1);
+            }
+         }finally{
+            rs.close ();
+         }
+      }catch (SQLException e){
+         this._metrics.error(e);
+         throw e;
+      }finally{
+         releaseConnection(conn);
+         call.end();
+      }
+      return table;
+   }//end queryRow
+
+   /**
+    * Method to read the first column of the first row of a query as an int.
+    *
+    * @param query the input query string with '?' placeholders
+    * @param ifNone the value returned when there is no row or it is NULL
+    * @param params the values bound to the placeholders, in order
+    * @return the value read, or ifNone
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int queryInt (String query, int ifNone, Object... params) throws SQLException {
+      Metrics.Operation call = this._metrics.beginStatement("queryInt");
+      Connection conn = connect(call);
+      try{
+         ResultSet rs = firstRow(prepare(conn, query, params));
+         try{
+            if (!rs.next()){return ifNone;}
+            this._metrics.rows(1);
+            int value = rs.getInt(1);
+            return rs.wasNull() ? ifNone : value;
+         }finally{
+            rs.close ();
+         }
+      }catch (SQLException e){
+         this._metrics.error(e);
+         throw e;
+      }finally{
+         releaseConnection(conn);
+         call.end();
+      }
+   }//end queryInt
 
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
+   /**
+    * Method to read the first column of the first row of a query as a double.
+    *
+    * @param query the input query string with '?' placeholders
+    * @param ifNone the value returned when there is no row or it is NULL
+    * @param params the values bound to the placeholders, in order
+    * @return the value read, or ifNone
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public double queryDouble (String query, double ifNone, Object... params) throws SQLException {
+      Metrics.Operation call = this._metrics.beginStatement("queryDouble");
+      Connection conn = connect(call);
+      try{
+         ResultSet rs = firstRow(prepare(conn, query, params));
+         try{
+            if (!rs.next()){return ifNone;}
+            this._metrics.rows(1);
+            double value = rs.getDouble(1);
+            return rs.wasNull() ? ifNone : value;
+         }finally{
+            rs.close ();
+         }
+      }catch (SQLException e){
+         this._metrics.error(e);
+         throw e;
+      }finally{
+         releaseConnection(conn);
+         call.end();
+      }
+   }//end queryDouble
 
-       int rowCount = 0;
+   /**
+    * Method to read the first column of the first row of a query as text.
+    * Fixed width character values are trimmed.
+    *
+    * @param query the input query string with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the value read, or null when there is no row or it is NULL
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public String queryString (String query, Object... params) throws SQLException {
+      Metrics.Operation call = this._metrics.beginStatement("queryString");
+      Connection conn = connect(call);
+      try{
+         ResultSet rs = firstRow(prepare(conn, query, params));
+         try{
+            if (!rs.next()){return null;}
+            this._metrics.rows(1);
+            String value = rs.getString(1);
+            return value == null ? null : value.trim();
+         }finally{
+            rs.close ();
+         }
+      }catch (SQLException e){
+         this._metrics.error(e);
+         throw e;
+      }finally{
+         releaseConnection(conn);
+         call.end();
+      }
+   }//end queryString
 
-       // iterates through the result set and count number of results.
-       while (rs.next()){
-          rowCount++;
-       }//end while
-       stmt.close ();
-       return rowCount;
+   /*
+    * Executes a cached statement with the row limit set to one, which only
+    * keeps the client from holding the other rows.  The limit is
+    * cleared again straight away, since the statement is shared with every
+    * other caller of the same SQL text.
+    */
+   private static ResultSet firstRow(PreparedStatement stmt) throws SQLException {
+      stmt.setMaxRows(1);
+      try{
+         return stmt.executeQuery ();
+      }finally{
+         stmt.setMaxRows(0);
+      }
    }
 
    /**
     * Method to fetch the last value from sequence. This
     * method issues the query to the DBMS and returns the current
-    * value of sequence used for autogenerated keys
+    * value of sequence used for autogenerated keys.  currval() is per
+    * session, so this only sees inserts made by the same thread, which the
+    * pool hands its last connection back to.
     *
     * @param sequence name of the DB sequence
     * @return current value of a sequence
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int getCurrSeqVal(String sequence) throws SQLException {
-	Statement stmt = this._connection.createStatement ();
+      Metrics.Operation call = this._metrics.beginStatement("getCurrSeqVal");
+      Connection conn = connect(call);
+      try{
+         ResultSet rs = prepare(conn, "SELECT currval(?)", sequence).executeQuery ();
+         int value = -1;
+         if (rs.next())
+            value = rs.getInt(1);
+         rs.close ();
+         return value;
+      }catch (SQLException e){
+         this._metrics.error(e);
+         throw e;
+      }finally{
+         releaseConnection(conn);
+         call.end();
+      }
+   }
+
+   // SQLSTATE of an order insert refused for lack of stock
+   private static final String CHECK_VIOLATION = "23514";
 
-	ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-	if (rs.next())
-		return rs.getInt(1);
-	return -1;
+   // inserts nothing when the store does not sell the product
+   private static final String SUBMIT_ORDER =
+      "INSERT INTO Orders (customerID, storeID, productName, unitsOrdered, orderTime, price) " +
+      "SELECT ?, storeID, productName, ?, CURRENT_TIMESTAMP, pricePerUnit * ? " +
+      "FROM Product WHERE storeID = ? AND productName = ? " +
+      "RETURNING orderNumber, orderTime, price, txid_current()";
+
+   /**
+    * Places an order in a single statement.  The price lookup, the insert
+    * and the stock decrement done by place_order_trigger commit or fail
+    * together, so two buyers racing for the last units cannot both succeed.
+    * The price charged is recorded with the order.
+    *
+    * @param customerID the ordering customer's ID
+    * @param storeID the store ordered from
+    * @param productName the product ordered
+    * @param units the number of units ordered
+    * @return the placed order, or why it was refused
+    * @throws java.sql.SQLException when the order failed for any other reason
+    */
+   public OrderResult submitOrder(int customerID, int storeID, String productName, int units) throws SQLException {
+      Metrics.Operation call = this._metrics.beginStatement("submitOrder");
+      Connection conn = connect(call);
+      try{
+         ResultSet rs = prepare(conn, SUBMIT_ORDER, Integer.valueOf(customerID), Integer.valueOf(units),
+                                Integer.valueOf(units), Integer.valueOf(storeID), productName).executeQuery ();
+         try{
+            if (!rs.next()){return OrderResult.rejected(OrderResult.Status.UNKNOWN_PRODUCT);}
+            return OrderResult.placed(rs.getInt(1), rs.getTimestamp(2), rs.getDouble(3), rs.getLong(4));
+         }finally{
+            rs.close ();
+         }
+      }catch(SQLException e){
+         this._metrics.error(e);
+         if (isViolation(e, CHECK_VIOLATION, "not enough units")){
+            return OrderResult.rejected(OrderResult.Status.OUT_OF_STOCK);
+         }
+         throw e;
+      }finally{
+         releaseConnection(conn);
+         call.end();
+      }
+   }//end submitOrder
+
+   /*
+    * Older drivers leave the SQLSTATE empty, so fall back to the message.
+    */
+   private static boolean isViolation(SQLException e, String sqlState, String message){
+      if (e.getSQLState() != null && e.getSQLState().length() > 0){return sqlState.equals(e.getSQLState());}
+      return e.getMessage() != null && e.getMessage().indexOf(message) >= 0;
    }
 
    /**
-    * Method to close the physical connection if it is open.
+    * Returns the cached prepared statement for the given SQL text on a
+    * borrowed connection, with the parameters bound by position and type.
+    * The statement stays owned by the connection's cache and must not be
+    * closed by the caller.  Each call is counted as one round trip in the
+    * metrics, since each prepared statement is executed once.
+    *
+    * @param conn a connection obtained from {@link #getConnection()}
+    * @param sql the SQL text with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the prepared statement, ready to execute
+    * @throws java.sql.SQLException when the statement cannot be prepared or bound
+    */
+   public PreparedStatement prepare(Connection conn, String sql, Object... params) throws SQLException {
+      this._metrics.roundTrip();
+      StatementListener listener = this._listener;
+      if (listener != null){listener.prepared(sql, params);}
+      PreparedStatement stmt = this._pool.statementCache(conn).prepare(sql);
+      for (int i = 0; i < params.length; i++){
+         bind(stmt, i + 1, params[i]);
+      }
+      return stmt;
+   }
+
+   /*
+    * Binds one parameter using the setter that matches its Java type.
+    */
+   private static void bind(PreparedStatement stmt, int index, Object value) throws SQLException {
+      if (value == null){stmt.setNull(index, Types.VARCHAR);}
+      else if (value instanceof String){stmt.setString(index, (String) value);}
+      else if (value instanceof Integer){stmt.setInt(index, ((Integer) value).intValue());}
+      else if (value instanceof Long){stmt.setLong(index, ((Long) value).longValue());}
+      else if (value instanceof Double){stmt.setDouble(index, ((Double) value).doubleValue());}
+      else if (value instanceof Float){stmt.setFloat(index, ((Float) value).floatValue());}
+      else if (value instanceof BigDecimal){stmt.setBigDecimal(index, (BigDecimal) value);}
+      else if (value instanceof Boolean){stmt.setBoolean(index, ((Boolean) value).booleanValue());}
+      else if (value instanceof Timestamp){stmt.setTimestamp(index, (Timestamp) value);}
+      else if (value instanceof Date){stmt.setDate(index, (Date) value);}
+      else {stmt.setObject(index, value);}
+   }
+
+   /*
+    * Prints rows to standard out, with a header line before the first row.
+    */
+   private static class PrintSink implements RowSink {
+      private String[] columns;
+      private boolean outputHeader = true;
+
+      // set when running a headless command, which gets tab separated lines
+      private final CommandContext context = CommandContext.current();
+
+      public void start(ResultSetMetaData rsmd) throws SQLException {
+         columns = new String[rsmd.getColumnCount ()];
+         for (int i = 0; i < columns.length; i++)
+            columns[i] = rsmd.getColumnName(i + 1);
+         if (context != null){context.columns(columns);}
+      }
+
+      public void row(ResultSet rs) throws SQLException {
+         if (context != null){
+            String[] values = new String[columns.length];
+            for (int i = 0; i < values.length; i++)
+               values[i] = rs.getString (i + 1);
+            context.row(values);
+            return;
+         }
+         if (outputHeader){
+            for (String column : columns)
+               System.out.print(column + "\t");
+            System.out.println();
+            outputHeader = false;
+         }
+         for (int i = 1; i <= columns.length; ++i)
+            System.out.print (rs.getString (i) + "\t");
+         System.out.println ();
+      }
+
+      public void end(int rowCount){}
+   }//end PrintSink
+
+   /*
+    * Collects rows as lists of strings.
+    */
+   private static class ListSink implements RowSink {
+      private final List<List<String>> result = new ArrayList<List<String>>();
+      private int numCol;
+
+      public void start(ResultSetMetaData rsmd) throws SQLException {
+         numCol = rsmd.getColumnCount ();
+      }
+
+      public void row(ResultSet rs) throws SQLException {
+         List<String> record = new ArrayList<String>(numCol);
+         for (int i=1; i<=numCol; ++i)
+            record.add(rs.getString (i));
+         result.add(record);
+      }
+
+      public void end(int rowCount){}
+   }//end ListSink
+
+   // only counts; query() does the counting
+   private static final RowSink COUNT_ROWS = new RowSink(){
+      public void start(ResultSetMetaData rsmd){}
+      public void row(ResultSet rs){}
+      public void end(int rowCount){}
+   };
+
+   /**
+    * Method to close the physical connections if they are open.
     */
    public void cleanup(){
-      try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
-      }catch (SQLException e){
-         // ignored.
-      }//end try
+      SupplyDispatcher supply;
+      synchronized (this){supply = this._supply;}
+      if (supply != null){supply.close();}
+      this._metrics.unregister();
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
    }//end cleanup
 
-   public static void clearScreen(int x){for (int i = 1; i <= x; i++){System.out.println();}}
+   public static void clearScreen(int x){
+      if (CommandContext.current() != null){return;}
+      for (int i = 1; i <= x; i++){System.out.println();}
+   }
    public static void clearScreen(){clearScreen(150);}
 
+   /*
+    * The menu functions report through these, so that a headless command
+    * (see CommandContext) gets a status instead of a banner and a sleep.
+    */
+
+   // a refusal: bad input, missing permission, a store rule
+   static void error(String text){
+      CommandContext context = CommandContext.current();
+      if (context == null){System.out.println(text);}
+      else {context.fail(CommandContext.REJECTED, text);}
+   }
+
+   // an outcome worth reporting that is not a query result
+   static void info(String text){
+      CommandContext context = CommandContext.current();
+      if (context == null){System.out.println(text);}
+      else {context.inform(text);}
+   }
+
+   // an unexpected failure, usually from the database
+   static void failed(Exception e){
+      CommandContext context = CommandContext.current();
+      if (context == null){System.err.println (e.getMessage());}
+      else {context.fail(e);}
+   }
+
+   // gives the user time to read a message; headless commands do not wait
+   static void pause(long millis) throws InterruptedException {
+      if (CommandContext.current() == null){Thread.sleep(millis);}
+   }
+
    public static boolean valid_number(String num_in_question, boolean integer){
 
       boolean valid_number = true;
@@ -267,15 +1196,10 @@ public class Amazon {
          
          if (!valid_number(store, true)){return false;}
 
-         List<List<String>> storeIDs = esql.executeQueryAndReturnResult("SELECT storeID FROM Store WHERE storeID = " + store);
-
-         for (List<String> iList : storeIDs) {
-            if (store.equals(iList.get(0).trim())){return true;}
-        }
-        return false;
+         return esql.getStoreManager(Integer.parseInt(store)) >= 0;
 
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
          return false;
       }
    }
@@ -285,60 +1209,48 @@ public class Amazon {
          
          if (!valid_number(warehouse, true)){return false;}
 
-         List<List<String>> storeIDs = esql.executeQueryAndReturnResult("SELECT WarehouseID FROM Warehouse WHERE WarehouseID = " + warehouse);
-
-         for (List<String> iList : storeIDs) {
-            if (warehouse.equals(iList.get(0).trim())){return true;}
-        }
-        return false;
+         return esql.getWarehouseCache().get(Integer.valueOf(warehouse)) != null;
 
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
          return false;
       }
    }
 
    public static boolean valid_product(Amazon esql, String store, String pname){
       try{
-         List<List<String>> pnames = esql.executeQueryAndReturnResult("SELECT Product.productName FROM Product WHERE Product.storeID = " + store + 
-                                                                        " AND Product.productName = \'" + pname + "\'");
 
-         for (List<String> iList : pnames) {
-            if (pname.equals(iList.get(0).trim())){return true;}
-         }
-        return false;
+         if (!valid_number(store, true)){return false;}
+
+         return esql.getStoreProducts(Integer.parseInt(store)).contains(pname);
 
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
          return false;
       }
    }
 
    public static boolean valid_username(Amazon esql, String username){
       try{
-         List<List<String>> usernames = esql.executeQueryAndReturnResult("SELECT Users.name FROM Users WHERE Users.name = \'" + username + "\'");
-         for (List<String> iList : usernames) {
-            if (username.equals(iList.get(0).trim())){return true;}
-         }
-        return false;
+         return esql.getUserNameCache().get(username) != null;
 
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
          return false;
       }
    }
 
    public static boolean valid_password(Amazon esql, String username, String password){
       try{
-         List<List<String>> passwords = esql.executeQueryAndReturnResult("SELECT Users.password FROM Users WHERE Users.name = \'" + username + 
-                                                                                             "\' AND Users.password = \'" + password + "\'");
+         List<List<String>> passwords = esql.executeQueryAndReturnResult("SELECT Users.password FROM Users WHERE Users.name = ? " +
+                                                                                             "AND Users.password = ?", username, password);
          for (List<String> iList : passwords) {
             if (password.equals(iList.get(0).trim())){return true;}
          }
         return false;
 
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
          return false;
       }
    }
@@ -346,17 +1258,15 @@ public class Amazon {
    public static boolean valid_num_units(Amazon esql, String number_of_units, String storeID, String productName){
       try{
 
-         Float num_units_r = Float.parseFloat(number_of_units);
+         int num_units_r = Integer.parseInt(number_of_units);
          
-         String units_available = esql.executeQueryAndReturnResult("SELECT numberOfUnits FROM Product WHERE productName = \'" + productName + 
-                                                                                    "\' AND storeID = " + storeID).get(0).get(0);                                                       
-         Float num_units_a = Float.parseFloat(units_available);
+         int num_units_a = esql.queryInt("SELECT numberOfUnits FROM Product WHERE productName = ? " +
+                                         "AND storeID = ?", -1, productName, Integer.valueOf(storeID));
          
-         if (num_units_a < num_units_r){return false;}
-         else{return true;}
+         return num_units_a >= num_units_r;
 
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
          return false;
       }
 
@@ -393,6 +1303,20 @@ public class Amazon {
          String user = args[2];
          esql = new Amazon (dbname, dbport, user, "");
 
+         // count the popular products and customers while the user logs in
+         final Amazon seeded = esql;
+         Thread seeder = new Thread(new Runnable(){
+            public void run(){
+               try{
+                  seeded.getPopularity();
+               }catch (SQLException e){
+                  System.err.println(e.getMessage());
+               }
+            }
+         }, "popularity-seed");
+         seeder.setDaemon(true);
+         seeder.start();
+
          boolean keepon = true;
 
          while(keepon) {
@@ -404,22 +1328,22 @@ public class Amazon {
             System.out.println("1. Create user");
             System.out.println("2. Log in");
             System.out.println("9. < EXIT");
-            String authorisedUser = null;
+            Session session = null;
             switch (readChoice()){
                case 1: CreateUser(esql); break;
-               case 2: authorisedUser = LogIn(esql); break;
+               case 2: session = LogIn(esql); break;
                case 9: keepon = false; break;
                default : System.out.println("Unrecognized choice!"); break;
             }//end switch
-            if (authorisedUser != null) {
+            if (session != null) {
               boolean usermenu = true;
               while(usermenu) {
                 
                 dashes(15);
                 System.out.println("\nMAIN MENU");
                 dashes(15);
-                System.out.println("\nUser Name: " + authorisedUser);
-                System.out.println("User ID: " + esql.current_userID + "; User Type: " + esql.current_userType);
+                System.out.println("\nUser Name: " + session.getName());
+                System.out.println("User ID: " + session.getUserID() + "; User Type: " + session.getType());
                 
                 dashes(30); dashes(30); dashes(30); dashes(30); dashes(10);
 
@@ -473,10 +1397,14 @@ public class Amazon {
                 System.out.println("23. Delete Warehouse");
 
                 spaces(53);
-                System.out.println("14. View Store Order Information");
+                System.out.print("14. View Store Order Information");
+                spaces(17);
+                System.out.println("24. Import Orders");
 
                 spaces(53);
-                System.out.println("15. View Store Customers");
+                System.out.print("15. View Store Customers");
+                spaces(25);
+                System.out.println("25. View Metrics");
 
                 spaces(53);
                 System.out.print("16. View Top Spenders");
@@ -487,33 +1415,13 @@ public class Amazon {
                 
 
                 System.out.println();
-                switch (readChoice()){
-                   case 1: viewStores(esql); break;
-                   case 2: viewProducts(esql); break;
-                   case 3: placeOrder(esql); break;
-                   case 4: viewRecentOrders(esql); break;
-                   case 5: viewFavoriteProducts(esql); break;
-                   case 6: viewStoreInformation(esql); break;
-                   case 7: managerViewStores(esql); break;
-                   case 8: updateProduct(esql); break;
-                   case 9: viewRecentUpdates(esql); break;
-                   case 10: viewPopularProducts(esql); break;
-                   case 11: viewPopularCustomers(esql); break;
-                   case 12: placeProductSupplyRequests(esql); break;
-                   case 13: viewSupplyRequests(esql); break;
-                   case 14: viewOrderInformation(esql); break;
-                   case 15: viewStoreCustomers(esql); break;
-                   case 16: viewTopSpenders(esql); break;
-                   case 17: adminViewUsers(esql); break;
-                   case 18: adminEditUsers(esql); break;
-                   case 19: adminViewProducts(esql); break;
-                   case 20: adminEditProducts(esql); break;
-                   case 21: viewEverything(esql); break;
-                   case 22: deleteStore(esql); break;
-                   case 23: deleteWarehouse(esql); break;
+                int choice = readChoice();
+                switch (choice){
                    case 0: usermenu = false; break;
-                   case 99: usermenu = !deleteAccount(esql); break;
-                   default : System.out.println("Unrecognized choice!"); break;
+                   case 99: usermenu = !deleteAccount(esql, session); break;
+                   default :
+                      if (!runMenuChoice(choice, esql, session)){System.out.println("Unrecognized choice!");}
+                      break;
                 }
               }
             }
@@ -524,6 +1432,10 @@ public class Amazon {
          // make sure to cleanup the created table and close the connection.
          try{
             if(esql != null) {
+               if (Boolean.getBoolean("amazon.cache.stats")){System.out.println(esql.getCacheStatistics());}
+               if (Boolean.getBoolean("amazon.metrics.dump")){
+                  printResult(Arrays.asList(Metrics.REPORT_COLUMNS), esql.getMetrics().report());
+               }
                System.out.print("Disconnecting from database...");
                esql.cleanup ();
                System.out.println("Done\n\nBye !");
@@ -534,6 +1446,61 @@ public class Amazon {
       }//end try
    }//end main
 
+   // the menu function behind each main menu choice, as named in the metrics
+   private static final String[] MENU_OPERATIONS = {
+      null, "viewStores", "viewProducts", "placeOrder", "viewRecentOrders", "viewFavoriteProducts",
+      "viewStoreInformation", "managerViewStores", "updateProduct", "viewRecentUpdates", "viewPopularProducts",
+      "viewPopularCustomers", "placeProductSupplyRequests", "viewSupplyRequests", "viewOrderInformation",
+      "viewStoreCustomers", "viewTopSpenders", "adminViewUsers", "adminEditUsers", "adminViewProducts",
+      "adminEditProducts", "viewEverything", "deleteStore", "deleteWarehouse", "importOrders", "viewMetrics"
+   };
+
+   /**
+    * Runs the menu function for a main menu choice other than log out and
+    * delete account, timed in the metrics.
+    *
+    * @param choice the menu number
+    * @param esql the database
+    * @param session the logged in user
+    * @return false if there is no such choice
+    */
+   public static boolean runMenuChoice(int choice, Amazon esql, Session session){
+      if (choice < 1 || choice >= MENU_OPERATIONS.length){return false;}
+      Metrics.Operation operation = esql.getMetrics().begin(MENU_OPERATIONS[choice]);
+      try{
+         switch (choice){
+            case 1: viewStores(esql, session); break;
+            case 2: viewProducts(esql, session); break;
+            case 3: placeOrder(esql, session); break;
+            case 4: viewRecentOrders(esql, session); break;
+            case 5: viewFavoriteProducts(esql, session); break;
+            case 6: viewStoreInformation(esql, session); break;
+            case 7: managerViewStores(esql, session); break;
+            case 8: updateProduct(esql, session); break;
+            case 9: viewRecentUpdates(esql, session); break;
+            case 10: viewPopularProducts(esql, session); break;
+            case 11: viewPopularCustomers(esql, session); break;
+            case 12: placeProductSupplyRequests(esql, session); break;
+            case 13: viewSupplyRequests(esql, session); break;
+            case 14: viewOrderInformation(esql, session); break;
+            case 15: viewStoreCustomers(esql, session); break;
+            case 16: viewTopSpenders(esql, session); break;
+            case 17: adminViewUsers(esql, session); break;
+            case 18: adminEditUsers(esql, session); break;
+            case 19: adminViewProducts(esql, session); break;
+            case 20: adminEditProducts(esql, session); break;
+            case 21: viewEverything(esql, session); break;
+            case 22: deleteStore(esql, session); break;
+            case 23: deleteWarehouse(esql, session); break;
+            case 24: importOrders(esql, session); break;
+            default: viewMetrics(esql, session); break;
+         }
+      }finally{
+         operation.end();
+      }
+      return true;
+   }//end runMenuChoice
+
    public static void Greeting(){
       System.out.println(
          "\n\n*******************************************************\n" +
@@ -566,14 +1533,23 @@ public class Amazon {
     * Creates a new user
     **/
    public static void CreateUser(Amazon esql){
+      Metrics.Operation operation = esql.getMetrics().begin("CreateUser");
+      try{
+         readNewUser(esql);
+      }finally{
+         operation.end();
+      }
+   }//end CreateUser
+
+   private static void readNewUser(Amazon esql){
       try{
          System.out.print("\tEnter name: ");
          String name = in.readLine();
 
          // check if this is the correct password
          if (valid_username(esql, name)){
-            System.out.println("\n---------------------\n| Username Already Taken! |\n\n---------------------\n"); 
-            Thread.sleep(3000);
+            error("\n---------------------\n| Username Already Taken! |\n\n---------------------\n"); 
+            pause(3000);
             return;}
 
          System.out.print("\tEnter password: ");
@@ -582,106 +1558,111 @@ public class Amazon {
          String latitude = in.readLine();
          
          if (!valid_number(latitude, false)){
-            System.out.println("\n---------------------\n| Invalid Latitude! |\n\n---------------------\n"); 
-            Thread.sleep(3000);
+            error("\n---------------------\n| Invalid Latitude! |\n\n---------------------\n"); 
+            pause(3000);
             return;}
 
          float fl_latitude = Float.parseFloat(latitude);
 
          // check if this is the correct password
          if ((fl_latitude < 0) || (fl_latitude > 100)){
-            System.out.println("\n---------------------\n| Invalid Latitude! |\n\n---------------------\n"); 
-            Thread.sleep(3000);
+            error("\n---------------------\n| Invalid Latitude! |\n\n---------------------\n"); 
+            pause(3000);
             return;}
 
          System.out.print("\tEnter longitude (between 0.0 and 100.0): ");  //enter long value between [0.0, 100.0]
          String longitude = in.readLine();
 
          if (!valid_number(longitude, false)){
-            System.out.println("\n---------------------\n| Invalid Longitude! |\n\n---------------------\n"); 
-            Thread.sleep(3000);
+            error("\n---------------------\n| Invalid Longitude! |\n\n---------------------\n"); 
+            pause(3000);
             return;}
 
          float fl_longitude = Float.parseFloat(longitude);
  
          // check if this is the correct password
          if ((fl_longitude < 0) || (fl_longitude > 100)){
-            System.out.println("\n---------------------\n| Invalid Longitude! |\n\n---------------------\n"); 
-            Thread.sleep(3000);
+            error("\n---------------------\n| Invalid Longitude! |\n\n---------------------\n"); 
+            pause(3000);
             return;}
 
          String type="customer";
 
-			String query = String.format("INSERT INTO USERS (name, password, latitude, longitude, type) VALUES ('%s','%s', %s, %s,'%s')", name, password, latitude, longitude, type);
+         String query = "INSERT INTO USERS (name, password, latitude, longitude, type) VALUES (?, ?, ?, ?, ?)";
 
-         esql.executeUpdate(query);
-         System.out.println ("User successfully created!");
+         esql.executeUpdate(query, name, password, Double.valueOf(latitude), Double.valueOf(longitude), type);
+         esql.getUserNameCache().invalidate(name);
+         info("User successfully created!");
       }catch(Exception e){
-         System.err.println (e.getMessage ());
+         failed(e);
       }
-   }//end CreateUser
+   }//end readNewUser
 
    /*
-    * Check log in credentials for an existing user
-    * @return User login or null is the user does not exist
+    * Check log in credentials for an existing user.  The user row is read
+    * in a single round trip and the password is checked against it.
+    * @return the logged in user's session or null if the credentials are wrong
     **/
-   public static String LogIn(Amazon esql){
+   public static Session LogIn(Amazon esql){
+      Metrics.Operation operation = esql.getMetrics().begin("LogIn");
+      try{
+         return checkCredentials(esql);
+      }finally{
+         operation.end();
+      }
+   }//end LogIn
+
+   private static Session checkCredentials(Amazon esql){
       try{
          System.out.print("\tEnter name: ");
          String name = in.readLine();
-
-         // check if this is an actual user name
-         if (!valid_username(esql, name)){
-            System.out.println("\n---------------------\n| Invalid User Name! |\n\n---------------------\n"); 
-            Thread.sleep(3000);
-            return null;}
-
          System.out.print("\tEnter password: ");
          String password = in.readLine();
 
-         // check if this is the correct password
-         if (!valid_password(esql, name, password)){
-            System.out.println("\n---------------------\n| Wrong Password! |\n\n---------------------\n"); 
-            Thread.sleep(3000);
-            return null;}
-
-         String query = String.format("SELECT * FROM USERS WHERE name = '%s' AND password = '%s'", name, password);
-         int userNum = esql.executeQuery(query);
-
-         esql.current_username = name;
+         ResultTable users = esql.executeQueryAndReturnTable(
+            "SELECT userID, password, latitude, longitude, type FROM Users WHERE name = ?", name);
 
-         query = String.format("SELECT userID FROM USERS WHERE name = '%s' AND password = '%s'", name, password);
-         esql.current_userID = esql.executeQueryAndReturnResult(query).get(0).get(0);
-          
-         esql.current_userLat = esql.executeQueryAndReturnResult(
-            String.format("SELECT latitude FROM USERS WHERE name = '%s' AND password = '%s'", name, password)
-            ).get(0).get(0);
-
-         esql.current_userLong = esql.executeQueryAndReturnResult(
-            String.format("SELECT longitude FROM USERS WHERE name = '%s' AND password = '%s'", name, password)
-            ).get(0).get(0);
+         // check if this is an actual user name
+         if (users.isEmpty()){
+            error("\n---------------------\n| Invalid User Name! |\n\n---------------------\n"); 
+            pause(3000);
+            return null;}
 
-         esql.current_userType = esql.executeQueryAndReturnResult(
-            String.format("SELECT type FROM USERS WHERE name = '%s' AND password = '%s'", name, password)
-            ).get(0).get(0).trim();
+         // check if this is the correct password; names are not unique, so
+         // any row with a matching password logs in
+         for (int i = 0; i < users.getRowCount(); i++) {
+            if (password.equals(users.getString(i, 1))){
+               return new Session(users.getInt(i, 0), name, users.getDouble(i, 2), users.getDouble(i, 3),
+                                  users.getString(i, 4));
+            }
+         }
 
-	 if (userNum > 0)
-		return name;
+         error("\n---------------------\n| Wrong Password! |\n\n---------------------\n"); 
+         pause(3000);
          return null;
       }catch(Exception e){
-         System.err.println (e.getMessage ());
+         failed(e);
          return null;
       }
    }//end
 
 // Rest of the functions definition go in here
 
-   public static boolean deleteAccount(Amazon esql){
+   public static boolean deleteAccount(Amazon esql, Session session){
+      Metrics.Operation operation = esql.getMetrics().begin("deleteAccount");
+      try{
+         return confirmDeleteAccount(esql, session);
+      }finally{
+         operation.end();
+      }
+   }
+
+   private static boolean confirmDeleteAccount(Amazon esql, Session session){
       try{
 
          // managers cannot perform this function
-         if (esql.current_userType.equals("manager")){
-            System.out.println("Sorry, managers cannot perform this function.\n\n");
+         if (session.isManager()){
+            error("Sorry, managers cannot perform this function.\n\n");
             return false;
          }
 
@@ -689,38 +1670,80 @@ public class Amazon {
          String password = in.readLine();
 
          // check if this is the correct password
-         if (!valid_password(esql, esql.current_username, password)){
-            System.out.println("\n---------------------\n| Wrong Password! |\n\n---------------------\n"); 
-            Thread.sleep(3000);
+         if (!valid_password(esql, session.getName(), password)){
+            error("\n---------------------\n| Wrong Password! |\n\n---------------------\n"); 
+            pause(3000);
             return false;}
          
-         String query = "DELETE FROM Users WHERE Users.userID = " + esql.current_userID;
-         esql.executeUpdate(query);
+         // the orders deleted with the user come off the popular products
+         ResultTable ordered = esql.executeQueryAndReturnTable(
+            "SELECT storeID, productName, COUNT(*) FROM Orders WHERE customerID = ? GROUP BY storeID, productName",
+            Integer.valueOf(session.getUserID()));
+         String query = "DELETE FROM Users WHERE Users.userID = ? RETURNING CAST(txid_current() AS text)";
+         String transactionID = esql.queryString(query, Integer.valueOf(session.getUserID()));
+         if (transactionID != null){esql.removeCustomer(session.getUserID(), ordered, Long.parseLong(transactionID.trim()));}
+         esql.getHistory().invalidate(session.getUserID());
+         esql.getUserNameCache().invalidate(session.getName());
          return true;
 
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
   	   } 
       return false;
 
    }
 
-   public static void viewStores(Amazon esql) {
+   /*
+    * Reads the first day a report covers, as YYYY-MM-DD, or a blank line or
+    * '-' for all of history.  Bounding orderTime lets the planner skip the
+    * partitions of Orders before the day.  The answer is optional for a
+    * headless command: one that leaves it off covers all of history, so
+    * scripts written before the prompt existed still run.  All of history
+    * means the orders in the database, like every report: months archived
+    * by OrderArchiver are left out.
+    *
+    * @return midnight of the day, or null for all of history
+    * @throws IllegalArgumentException when the day is not a date
+    */
+   private static Timestamp readSince() throws IOException {
+      CommandContext context = CommandContext.current();
+      if (context != null && context.getUnusedArguments() == 0){return null;}
+      System.out.print("\tOrders since (YYYY-MM-DD, enter \'-\' or nothing for all): ");
+      String since = in.readLine();
+      if (since == null || since.trim().length() == 0 || since.trim().equals("-")){return null;}
+      since = since.trim();
+      return new Timestamp(Date.valueOf(since).getTime());
+   }
+
+   public static void viewStores(Amazon esql, Session session) {
    	try{
          
-         String query = "SELECT Store.storeID, Store.longitude, Store.latitude "+
-                        "FROM Store "+
-                        "WHERE SQRT(POWER((Store.longitude - " + esql.current_userLong + 
-                           "), 2) + POWER((Store.latitude - " + esql.current_userLat + "), 2)) < 30";
+         // answered from the store index, nearest store first
+         List<StoreIndex.StoreLocation> stores = esql.getStoreIndex().withinRadius(
+                                                    session.getLatitude(), session.getLongitude(), STORE_RADIUS);
+
+         List<List<String>> rows = new ArrayList<List<String>>();
+         for (StoreIndex.StoreLocation store : stores){
+            List<String> row = new ArrayList<String>();
+            row.add(String.valueOf(store.getStoreID()));
+            row.add(String.valueOf(store.getLongitude()));
+            row.add(String.valueOf(store.getLatitude()));
+            rows.add(row);
+         }
+
+         List<String> columns = new ArrayList<String>();
+         columns.add("storeid");
+         columns.add("longitude");
+         columns.add("latitude");
 
-         int rowCount = esql.executeQueryAndPrintResult(query);
+         int rowCount = printResult(columns, rows);
          System.out.println ("total row(s): " + rowCount);
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
   	   } 
    
    }
-   public static void viewProducts(Amazon esql) {
+   public static void viewProducts(Amazon esql, Session session) {
    	try{
 
          System.out.print("\tEnter Store ID: ");
@@ -728,158 +1751,142 @@ public class Amazon {
 
          // check if this is an actual store
          if (!valid_storeID(esql, storeID)){
-            System.out.println("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
+            error("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
             return;}
 
          String query = "SELECT Product.productName, Product.numberOfUnits, Product.pricePerUnit "+
 		                  "FROM Product "+
-		                  "WHERE Product.storeID = " + storeID;
+		                  "WHERE Product.storeID = ?";
 
-         int rowCount = esql.executeQueryAndPrintResult(query);
+         int rowCount = esql.executeQueryAndPrintResult(query, Integer.valueOf(storeID));
          System.out.println ("total row(s): " + rowCount);
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
       }
    
    }
 
-   public static void placeOrder(Amazon esql) {
+   public static void placeOrder(Amazon esql, Session session) {
    	try{
 	      System.out.print("\tEnter storeID: ");
          String storeID = in.readLine();
 
-         // check if this is an actual store
-         if (!valid_storeID(esql, storeID)){
-            System.out.println("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
+         // check if this is an actual store; its location comes from the store index
+         StoreIndex.StoreLocation store = valid_number(storeID, true) ? esql.findStore(Integer.parseInt(storeID)) : null;
+         if (store == null){
+            error("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
             return;}
 
-         String storeLat = esql.executeQueryAndReturnResult(
-                     "SELECT Store.latitude "+
-                     "FROM Store "+
-                     "WHERE Store.storeID = " + storeID
-         ).get(0).get(0);
-
-         String storeLong = esql.executeQueryAndReturnResult(
-                     "SELECT Store.longitude "+
-                     "FROM Store "+
-                     "WHERE Store.storeID = " + storeID
-         ).get(0).get(0);
+         double sLat = store.getLatitude();
+         double sLong = store.getLongitude();
 
-         double sLat = Double.parseDouble(storeLat);
-         double sLong = Double.parseDouble(storeLong);
+         double uLat = session.getLatitude();
+         double uLong = session.getLongitude();
 
-         double uLat = Double.parseDouble(esql.current_userLat);
-         double uLong = Double.parseDouble(esql.current_userLong);
+         double distance = calculateDistance(sLat, sLong, uLat, uLong);
 
-         double distance = esql.calculateDistance(sLat, sLong, uLat, uLong);
-
-         if (distance > 30) {
-            System.out.println("Sorry, you have to be within 30 miles of the store. \nSelect Option 1 to see stores within 30 miles.\n\n");
+         if (distance > STORE_RADIUS) {
+            error("Sorry, you have to be within 30 miles of the store. \nSelect Option 1 to see stores within 30 miles.\n\n");
             return;
          }
 
 	      System.out.print("\tEnter product name: ");
          String productName = in.readLine();
 
-         // check if this is an actual product in the store
-         if (!valid_product(esql, storeID, productName)){
-            System.out.println("\n---------------------\n| Invalid Product Name! |\n\n---------------------\n"); 
+         // one read for both the stock and the unit price
+         ResultTable product = esql.queryRow(
+                     "SELECT numberOfUnits, pricePerUnit FROM Product WHERE storeID = ? AND productName = ?",
+                     Integer.valueOf(storeID), productName);
+
+         if (product.isEmpty()){
+            error("\n---------------------\n| Invalid Product Name! |\n\n---------------------\n"); 
             return;}
 
 	      System.out.print("\tEnter number of units: ");
          String numUnits = in.readLine();
 
          if (!valid_number(numUnits, true)){
-            System.out.println("\n---------------------\n| Invalid Number! |\n\n---------------------\n"); 
+            error("\n---------------------\n| Invalid Number! |\n\n---------------------\n"); 
             return;}
+         int units = Integer.parseInt(numUnits);
          
-         // check if there is enough units available
-         if (!valid_num_units(esql, numUnits, storeID, productName)){
-            System.out.println("\n---------------------\n| Sorry, not enough units available. |\n\n---------------------\n"); 
+         // check if there is enough units available; submitOrder checks again
+         // when it reserves them, so this only saves a pointless confirmation
+         if (product.getInt(0, 0) < units){
+            error("\n---------------------\n| Sorry, not enough units available. |\n\n---------------------\n"); 
             return;}
 
-         String price = esql.executeQueryAndReturnResult(
-                     "SELECT (Product.pricePerUnit * " + numUnits + ") " +
-                     "FROM Product " +
-                     "WHERE Product.storeID = " + storeID + " AND Product.productName = \'" + productName + "\'"
-         ).get(0).get(0);
+         double price = product.getDouble(0, 1) * units;
 
          System.out.print("\nThis costs $" + price + ". \nEnter yes to confirm: ");
          String response_y = in.readLine();
 
          if (! (response_y.equals("yes") || response_y.equals("Yes") || response_y.equals("y") || response_y.equals("Y"))){return;}
          
-         String query = "INSERT INTO Orders (customerID, storeID, productName, unitsOrdered, orderTime) " +
-		 	               "VALUES (" + esql.current_userID + ", " + storeID + 
-                        ", \'" + productName + "\', " + numUnits + ", CURRENT_TIMESTAMP)";
-
-         esql.executeUpdate(query);
-
-         // query = "UPDATE Product SET numberOfUnits = numberOfUnits - " + numUnits + " " +
-         //         "WHERE Product.productName = \'" + productName + "\' AND Product.storeID = " + storeID;
-
-         // esql.executeUpdate(query);
+         OrderResult result = esql.submitOrder(session.getUserID(), Integer.parseInt(storeID), productName, units);
+
+         switch (result.getStatus()){
+            case PLACED:
+               esql.recordOrder(Integer.parseInt(storeID), productName, session.getUserID(), result.getTransactionID());
+               esql.getHistory().record(session.getUserID(), result.getOrderNumber(), Integer.parseInt(storeID),
+                                        productName, units, result.getOrderTime());
+               info("\nOrder " + result.getOrderNumber() + " placed for $" + result.getPrice() + ".\n");
+               break;
+            case OUT_OF_STOCK:
+               error("\n---------------------\n| Sorry, those units were just sold. |\n\n---------------------\n"); 
+               break;
+            default:
+               error("\n---------------------\n| Invalid Product Name! |\n\n---------------------\n"); 
+         }
 
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
       } 
    }
    
-   public static void viewRecentOrders(Amazon esql) {
+   public static void viewRecentOrders(Amazon esql, Session session) {
       try{
-         String query = "SELECT Orders.orderNumber, Orders.productName, Orders.unitsOrdered, Orders.storeId, Orders.orderTime " +
-		                  "FROM Orders "+
-		                  "WHERE Orders.customerID = " + esql.current_userID + " " +
-                        "ORDER BY Orders.orderTime DESC " +
-                        "LIMIT 5";
+         // the last 5 orders, from the history cache; a customer's first
+         // look reads them on the (customerID, orderTime) index
+         List<List<String>> rows = esql.getHistory().recentOrders(session.getUserID());
 
-         int rowCount = esql.executeQueryAndPrintResult(query);
+         int rowCount = printResult(CustomerHistoryCache.RECENT_COLUMNS, rows);
          System.out.println ("total row(s): " + rowCount);
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
       }
 
    }
 
-   public static void viewFavoriteProducts(Amazon esql){
+   public static void viewFavoriteProducts(Amazon esql, Session session){
       try{
 
          System.out.print("\tEnter StoreID (enter \'-\' for all): ");
          String storeID = in.readLine();
 
-         String query = "SELECT productName, SUM(Orders.unitsOrdered) as Total_Units_Ordered";
+         List<String> columns = new ArrayList<String>(Arrays.asList("productname", "total_units_ordered"));
 
          if (!storeID.equals("-")){
             // check if this is an actual store
             if (!valid_storeID(esql, storeID)){
-               System.out.println("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
+               error("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
                return;}
-            query+= ", storeID ";
+            columns.add("storeid");
             }
-         else{query+= " ";}
 
-		   query+= "FROM Orders "+
-		           "WHERE customerID = " + esql.current_userID + " ";
+         // the top 10 from the customer's product tally in the history cache
+         List<List<String>> rows = esql.getHistory().favoriteProducts(session.getUserID(),
+                                      storeID.equals("-") ? -1 : Integer.parseInt(storeID), 10);
 
-         if (!storeID.equals("-")){query+= "AND storeID = " + storeID + " ";}
-
-         query+= "GROUP BY productName";
-
-         if (!storeID.equals("-")){query+= ", storeID ";}
-         else{query+=" ";}
-
-         query+= "ORDER BY Total_Units_Ordered DESC " +
-                 "LIMIT 10";
-
-         int rowCount = esql.executeQueryAndPrintResult(query);
+         int rowCount = printResult(columns, rows);
          System.out.println ("total row(s): " + rowCount);
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
       }
 
    }
 
-   public static void viewStoreInformation(Amazon esql){
+   public static void viewStoreInformation(Amazon esql, Session session){
       try{
 
          System.out.print("\tEnter StoreID (enter \'-\' for all): ");
@@ -887,7 +1894,7 @@ public class Amazon {
 
          // valid storeID check
          if ((!valid_storeID(esql, storeID)) && (!storeID.equals("-"))){
-            System.out.println("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
+            error("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
             return;}
             
          String query = "SELECT Store.storeID, Store.longitude, Store.latitude, Store.dateEstablished, Users.name as manager_name ";
@@ -895,49 +1902,51 @@ public class Amazon {
 		   query+= "FROM Store, Users "+
 		           "WHERE Store.managerID = Users.userID";
 
-         if (!storeID.equals("-")){query+= " AND Store.storeID = " + storeID;}
+         List<Object> params = new ArrayList<Object>();
+         if (!storeID.equals("-")){query+= " AND Store.storeID = ?"; params.add(Integer.valueOf(storeID));}
 
-         int rowCount = esql.executeQueryAndPrintResult(query);
+         int rowCount = esql.executeQueryAndPrintResult(query, params.toArray());
          System.out.println ("total row(s): " + rowCount);
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
       }
 
    }
 
    //__MANAGER_ONLY_FUNCTIONS__________________________________________________________________________________________________________________________________________
 
-   public static void managerViewStores(Amazon esql){
+   public static void managerViewStores(Amazon esql, Session session){
       // only managers can perform this function
-      if (!esql.current_userType.equals("manager")){
-         System.out.println("Sorry, only managers can perform this function.\n\n");
+      if (!session.isManager()){
+         error("Sorry, only managers can perform this function.\n\n");
          return;
       }
       try{
          
+         // the totals are kept in StoreSales by triggers, so this reads one
+         // row per store rather than aggregating the store's orders
          String query = "SELECT Store.storeID, Store.dateEstablished, "+
-                        "COUNT(DISTINCT Product.productName) as number_of_products, COUNT(DISTINCT Orders.orderNumber) as number_of_orders, "+
-                        "SUM(Product.numberOfUnits * Product.pricePerUnit) as total_order_income " +
-                        "FROM Product, Orders, Store " +
-                        "WHERE Store.managerID = " + esql.current_userID + " " +
-                        "AND Product.storeID = Store.storeID AND Orders.storeID = Store.storeID " +
-                        "GROUP BY Store.storeID, Store.dateEstablished " +
+                        "COALESCE(StoreSales.numberOfProducts, 0) as number_of_products, " +
+                        "COALESCE(StoreSales.numberOfOrders, 0) as number_of_orders, "+
+                        "COALESCE(StoreSales.orderIncome, 0) as total_order_income " +
+                        "FROM Store LEFT JOIN StoreSales ON StoreSales.storeID = Store.storeID " +
+                        "WHERE Store.managerID = ? " +
                         "ORDER BY number_of_orders";
 
 
-         int rowCount = esql.executeQueryAndPrintResult(query);
+         int rowCount = esql.executeQueryAndPrintResult(query, Integer.valueOf(session.getUserID()));
          System.out.println ("total row(s): " + rowCount);
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
       }
 
    }
 
-   public static void updateProduct(Amazon esql) {
+   public static void updateProduct(Amazon esql, Session session) {
 
       // only managers can perform this function
-      if (!esql.current_userType.equals("manager")){
-         System.out.println("Sorry, only managers can perform this function.\n\n");
+      if (!session.isManager()){
+         error("Sorry, only managers can perform this function.\n\n");
          return;
       }
 
@@ -948,15 +1957,13 @@ public class Amazon {
          
          // check if this is an actual store
          if (!valid_storeID(esql, storeID)){
-            System.out.println("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
+            error("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
             return;}
 
-         String managerID = esql.executeQueryAndReturnResult(
-               "SELECT Store.managerID FROM Store WHERE Store.storeID = " + storeID
-         ).get(0).get(0);
+         int managerID = esql.getStoreManager(Integer.parseInt(storeID));
 
-         if (!esql.current_userID.equals(managerID)){
-            System.out.println("Sorry, you are not this store's manager.\n\n");
+         if (session.getUserID() != managerID){
+            error("Sorry, you are not this store's manager.\n\n");
             return;
          }
 
@@ -965,83 +1972,89 @@ public class Amazon {
 
          // check if the product is valid
          if (!valid_product(esql, storeID, productName)){
-            System.out.println("\n-------------------------\n| Invalid Product Name! |\n\n-------------------------\n"); 
+            error("\n-------------------------\n| Invalid Product Name! |\n\n-------------------------\n"); 
             return;}
 
          System.out.print("\tNew number of units (enter \"-\" if no change): ");
          String new_numUnits = in.readLine();
 
          if ((!new_numUnits.equals("-")) && (!valid_number(new_numUnits, true))){
-               System.out.println("\n-------------------------\n| Invalid Number! |\n\n-------------------------\n"); 
+               error("\n-------------------------\n| Invalid Number! |\n\n-------------------------\n"); 
                return;}
 
          System.out.print("\tNew price per unit (enter \"-\" if no change): ");
          String new_priceperunit = in.readLine();
 
          if ((!new_priceperunit.equals("-")) && (!valid_number(new_priceperunit, false))){
-            System.out.println("\n-------------------------\n| Invalid Number! |\n\n-------------------------\n"); 
+            error("\n-------------------------\n| Invalid Number! |\n\n-------------------------\n"); 
             return;}
          
          String query;
+         List<Object> params = new ArrayList<Object>();
          if (new_numUnits.equals("-") && new_priceperunit.equals("-")){
-            System.out.println("No changes.");
+            info("No changes.");
             return;
          }
          else if (new_numUnits.equals("-")){
-            query = "UPDATE Product SET pricePerUnit = " + new_priceperunit +
-                    " WHERE storeID = " + storeID + " AND productName = \'" + productName + "\'";
+            query = "UPDATE Product SET pricePerUnit = ?" +
+                    " WHERE storeID = ? AND productName = ?";
+            params.add(Double.valueOf(new_priceperunit));
          }
          else if (new_priceperunit.equals("-")){
-            query = "UPDATE Product SET numberOfUnits = " + new_numUnits +
-                    " WHERE storeID = " + storeID + " AND productName = \'" + productName + "\'";
+            query = "UPDATE Product SET numberOfUnits = ?" +
+                    " WHERE storeID = ? AND productName = ?";
+            params.add(Integer.valueOf(new_numUnits));
          }
          else{
-            query = "UPDATE Product SET numberOfUnits = " + new_numUnits + ", pricePerUnit = " + new_priceperunit +
-                    " WHERE storeID = " + storeID + " AND productName = \'" + productName + "\'";
+            query = "UPDATE Product SET numberOfUnits = ?, pricePerUnit = ?" +
+                    " WHERE storeID = ? AND productName = ?";
+            params.add(Integer.valueOf(new_numUnits));
+            params.add(Double.valueOf(new_priceperunit));
          }
+         params.add(Integer.valueOf(storeID));
+         params.add(productName);
 
-         esql.executeUpdate(query);
+         esql.executeUpdate(query, params.toArray());
 
-         String query2 = String.format("INSERT INTO ProductUpdates (managerID, storeID, productName, updatedOn) VALUES (%s, %s, '%s', %s)", 
-                                    esql.current_userID, storeID, productName, "CURRENT_TIMESTAMP");
+         String query2 = "INSERT INTO ProductUpdates (managerID, storeID, productName, updatedOn) VALUES (?, ?, ?, CURRENT_TIMESTAMP)";
 
-         esql.executeUpdate(query2);
+         esql.executeUpdate(query2, Integer.valueOf(session.getUserID()), Integer.valueOf(storeID), productName);
 
-         System.out.println("Successfully updated product information.\n\n");
+         info("Successfully updated product information.\n\n");
 
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
       }
 
    }
 
-   public static void viewRecentUpdates(Amazon esql) {
+   public static void viewRecentUpdates(Amazon esql, Session session) {
 
       // only managers can perform this function
-      if (!esql.current_userType.equals("manager")){
-         System.out.println("Sorry, only managers can perform this function.\n\n");
+      if (!session.isManager()){
+         error("Sorry, only managers can perform this function.\n\n");
          return;
       }
 
       try{
          String query = "SELECT * " +
 		                  "FROM ProductUpdates "+
-		                  "WHERE ProductUpdates.managerID = " + esql.current_userID +
+		                  "WHERE ProductUpdates.managerID = ? " +
                         "ORDER BY ProductUpdates.updatedOn DESC " +
                         "LIMIT 5";
 
-         int rowCount = esql.executeQueryAndPrintResult(query);
+         int rowCount = esql.executeQueryAndPrintResult(query, Integer.valueOf(session.getUserID()));
          System.out.println ("total row(s): " + rowCount);
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
       }
    }
 
-   public static void viewPopularProducts(Amazon esql) {
+   public static void viewPopularProducts(Amazon esql, Session session) {
 
       // only managers can perform this function
-      if (!esql.current_userType.equals("manager")){
-         System.out.println("Sorry, only managers can perform this function.\n\n");
+      if (!session.isManager()){
+         error("Sorry, only managers can perform this function.\n\n");
          return;
       }
 
@@ -1051,38 +2064,54 @@ public class Amazon {
 
          // valid storeID check
          if (!valid_storeID(esql, storeID)){
-            System.out.println("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
+            error("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
             return;}
 
 
-         String managerID = esql.executeQueryAndReturnResult(
-               "SELECT Store.managerID FROM Store WHERE Store.storeID = " + storeID
-         ).get(0).get(0);
+         int managerID = esql.getStoreManager(Integer.parseInt(storeID));
 
-         if (!esql.current_userID.equals(managerID)){
-            System.out.println("Sorry, you are not this store's manager.\n\n");
+         if (session.getUserID() != managerID){
+            error("Sorry, you are not this store's manager.\n\n");
             return;
          }
 
-         String query = "SELECT Orders.productName, COUNT(*) " +
-		                  "FROM Orders "+
-                        "WHERE Orders.storeID = " + storeID +
-                        "GROUP BY Orders.productName " +
-                        "ORDER BY COUNT(*) DESC " +
-                        "LIMIT 5";
+         Timestamp since;
+         try{
+            since = readSince();
+         }catch (IllegalArgumentException e){
+            error("\n---------------------\n| Invalid Date! |\n\n---------------------\n"); 
+            return;}
 
-         int rowCount = esql.executeQueryAndPrintResult(query);
+         int rowCount;
+         if (since == null){
+            // answered from the popularity index rather than a GROUP BY over
+            // every order the store has taken
+            List<List<String>> rows = new ArrayList<List<String>>();
+            for (TopK.Entry<String> product : esql.getPopularity().topProducts(Integer.parseInt(storeID))){
+               rows.add(Arrays.asList(product.getKey(), Long.toString(product.getCount())));
+            }
+            rowCount = printResult(Arrays.asList("productname", "count"), rows);
+         }
+         else {
+            // only the partitions of Orders since then are read; the index
+            // is not needed, so it is not seeded for its k
+            String query = "SELECT Orders.productName, COUNT(*) as count FROM Orders " +
+                           "WHERE Orders.storeID = ? AND Orders.orderTime >= ? " +
+                           "GROUP BY Orders.productName ORDER BY count DESC LIMIT ?";
+            rowCount = esql.executeQueryAndPrintResult(query, Integer.valueOf(storeID), since,
+                                                      Integer.valueOf(POPULAR_K));
+         }
          System.out.println ("total row(s): " + rowCount);
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
       }
    }
 
-   public static void viewPopularCustomers(Amazon esql) {
+   public static void viewPopularCustomers(Amazon esql, Session session) {
 
       // only managers can perform this function
-      if (!esql.current_userType.equals("manager")){
-         System.out.println("Sorry, only managers can perform this function.\n\n");
+      if (!session.isManager()){
+         error("Sorry, only managers can perform this function.\n\n");
          return;
       }
 
@@ -1092,37 +2121,44 @@ public class Amazon {
 
          // valid storeID check
          if (!valid_storeID(esql, storeID)){
-            System.out.println("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
+            error("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
             return;}
 
-         String managerID = esql.executeQueryAndReturnResult(
-               "SELECT Store.managerID FROM Store WHERE Store.storeID = " + storeID
-         ).get(0).get(0);
+         int managerID = esql.getStoreManager(Integer.parseInt(storeID));
 
-         if (!esql.current_userID.equals(managerID)){
-            System.out.println("Sorry, you are not this store's manager.\n\n");
+         if (session.getUserID() != managerID){
+            error("Sorry, you are not this store's manager.\n\n");
             return;
          }
 
-         String query = "SELECT Orders.customerID, Users.name, COUNT(*) " +
-		                  "FROM Orders, Users "+
-                        "WHERE Users.userID = Orders.customerID AND Orders.storeID = " + storeID +
-                        "GROUP BY Orders.customerID, Users.name " +
-                        "ORDER BY COUNT(*) DESC " +
-                        "LIMIT 5";
+         // answered from the popularity index; only the names are read
+         List<TopK.Entry<Integer>> top = esql.getPopularity().topCustomers(Integer.parseInt(storeID));
+         // in one query, as an array literal like SupplyDispatcher binds
+         StringBuilder userIDs = new StringBuilder("{");
+         for (TopK.Entry<Integer> customer : top){userIDs.append(userIDs.length() > 1 ? "," : "").append(customer.getKey());}
+         ResultTable users = esql.executeQueryAndReturnTable(
+            "SELECT Users.userID, Users.name FROM Users WHERE Users.userID = ANY(CAST(? AS integer[]))",
+            userIDs.append("}").toString());
+         Map<Integer, String> names = new HashMap<Integer, String>();
+         for (int i = 0; i < users.getRowCount(); i++){names.put(Integer.valueOf(users.getInt(i, 0)), users.getString(i, 1).trim());}
+
+         List<List<String>> rows = new ArrayList<List<String>>();
+         for (TopK.Entry<Integer> customer : top){
+            rows.add(Arrays.asList(customer.getKey().toString(), names.get(customer.getKey()), Long.toString(customer.getCount())));
+         }
 
-         int rowCount = esql.executeQueryAndPrintResult(query);
+         int rowCount = printResult(Arrays.asList("customerid", "name", "count"), rows);
          System.out.println ("total row(s): " + rowCount);
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
       }
    }
 
-   public static void placeProductSupplyRequests(Amazon esql) {
+   public static void placeProductSupplyRequests(Amazon esql, Session session) {
 
       // only managers can perform this function
-      if (!esql.current_userType.equals("manager")){
-         System.out.println("Sorry, only managers can perform this function.\n\n");
+      if (!session.isManager()){
+         error("Sorry, only managers can perform this function.\n\n");
          return;
       }
 
@@ -1132,15 +2168,13 @@ public class Amazon {
 
          // valid storeID check
          if (!valid_storeID(esql, storeID)){
-            System.out.println("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
+            error("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
             return;}
  
-         String managerID = esql.executeQueryAndReturnResult(
-               "SELECT Store.managerID FROM Store WHERE Store.storeID = " + storeID
-         ).get(0).get(0);
+         int managerID = esql.getStoreManager(Integer.parseInt(storeID));
 
-         if (!esql.current_userID.equals(managerID)){
-            System.out.println("Sorry, you are not this store's manager.\n\n");
+         if (session.getUserID() != managerID){
+            error("Sorry, you are not this store's manager.\n\n");
             return;
          }
 
@@ -1148,7 +2182,7 @@ public class Amazon {
          String warehouseID = in.readLine();
 
          if (!valid_warehouseID(esql, warehouseID)){
-            System.out.println("\n---------------------\n| Invalid Warehouse ID! |\n\n---------------------\n"); 
+            error("\n---------------------\n| Invalid Warehouse ID! |\n\n---------------------\n"); 
             return;}
 
          System.out.print("\tEnter product name: ");
@@ -1156,7 +2190,7 @@ public class Amazon {
 
          // valid product name check
          if (!valid_product(esql, storeID, productName)){
-            System.out.println("\n---------------------\n| Invalid Product Name! |\n\n---------------------\n"); 
+            error("\n---------------------\n| Invalid Product Name! |\n\n---------------------\n"); 
             return;}
 
          System.out.print("\tUnits Requested: ");
@@ -1164,37 +2198,33 @@ public class Amazon {
 
          // valid number check
          if (!valid_number(unitsRequested, true)){
-            System.out.println("\n---------------------\n| Invalid Number! |\n\n---------------------\n"); 
+            error("\n---------------------\n| Invalid Number! |\n\n---------------------\n"); 
             return;}
 
-         String query = String.format("INSERT INTO ProductSupplyRequests (storeID, managerID, warehouseID, productName, unitsRequested) "+
-                                    "VALUES (%s, %s, %s, '%s', %s)", 
-                                       storeID, managerID, warehouseID, productName, unitsRequested);
-
-         esql.executeUpdate(query);
-
-         String old_numUnits = esql.executeQueryAndReturnResult(
-               "SELECT Product.numberOfUnits FROM Product "+
-               "WHERE Product.productName = \'" + productName + "\' AND Product.storeID = " + storeID
-         ).get(0).get(0);
-
-         // String query2 = "UPDATE Product SET numberOfUnits = (" + old_numUnits + " + " + unitsRequested +
-         //            ") WHERE storeID = " + storeID + " AND productName = \'" + productName + "\'";
-
-         // esql.executeUpdate(query2);
-         
+         // queued with the requests of other managers, and placed with them
+         // in one statement; supply_request_trigger adds the units to stock
+         Future<Integer> placed = esql.getSupplyDispatcher().submit(Integer.parseInt(storeID), managerID,
+                                     Integer.parseInt(warehouseID), productName, Integer.parseInt(unitsRequested));
+         int requestNumber;
+         try{
+            requestNumber = placed.get().intValue();
+         }catch (ExecutionException e){
+            failed(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+            return;
+         }
+         info("Supply request " + requestNumber + " placed.\n");
 
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
       }
    }
 
-   public static void viewSupplyRequests(Amazon esql) {
+   public static void viewSupplyRequests(Amazon esql, Session session) {
       try{
 
          // only managers can perform this function
-         if (!esql.current_userType.equals("manager")){
-            System.out.println("Sorry, only managers can perform this function.\n\n");
+         if (!session.isManager()){
+            error("Sorry, only managers can perform this function.\n\n");
             return;
          }
 
@@ -1203,7 +2233,7 @@ public class Amazon {
 
             // valid storeID check
             if ((!valid_storeID(esql, storeID)) && (!storeID.equals("-"))){
-               System.out.println("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
+               error("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
                return;}
 
             System.out.print("\tHow many results to display (enter \'-\' for all):");
@@ -1212,36 +2242,39 @@ public class Amazon {
 
             if (!recent_s.equals("-")){
                if (!valid_number(recent_s, true)){
-                  System.out.println("\n---------------------\n| Invalid Number! |\n\n---------------------\n"); 
+                  error("\n---------------------\n| Invalid Number! |\n\n---------------------\n"); 
                   return;}
 
                Float fl_num = Float.parseFloat(recent_s);
                if (fl_num < 0){
-                  System.out.println("\n---------------------\n| Invalid Number! |\n\n---------------------\n"); 
+                  error("\n---------------------\n| Invalid Number! |\n\n---------------------\n"); 
                   return;}
             }
             
             String query;
             
-            query = "SELECT * FROM ProductSupplyRequests WHERE managerID = " + esql.current_userID;
+            List<Object> params = new ArrayList<Object>();
+            
+            query = "SELECT * FROM ProductSupplyRequests WHERE managerID = ?";
+            params.add(Integer.valueOf(session.getUserID()));
 
-            if (!storeID.equals("-")){query += " AND storeID = " + storeID;}
+            if (!storeID.equals("-")){query += " AND storeID = ?"; params.add(Integer.valueOf(storeID));}
             // if (recent) {query += " ORDER BY requestNumber DESC";}
             query += " ORDER BY requestNumber DESC";
             
-            int rowCount = esql.executeQueryAndPrintResult(query);
+            int rowCount = esql.executeQueryAndPrintResult(query, params.toArray());
             System.out.println ("total row(s): " + rowCount);
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
       }
    }
 
-   public static void viewOrderInformation(Amazon esql) {
+   public static void viewOrderInformation(Amazon esql, Session session) {
       try{
 
          // only managers can perform this function
-         if (!esql.current_userType.equals("manager")){
-            System.out.println("Sorry, only managers can perform this function.\n\n");
+         if (!session.isManager()){
+            error("Sorry, only managers can perform this function.\n\n");
             return;
          }
 
@@ -1250,42 +2283,52 @@ public class Amazon {
 
          // valid storeID check
          if ((!valid_storeID(esql, storeID)) && (!storeID.equals("-"))){
-            System.out.println("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
+            error("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
             return;}
          
          String query;
+         List<Object> params = new ArrayList<Object>();
          
          if (storeID.equals("-")){
             query = "SELECT * FROM Orders WHERE Orders.storeID IN "+
-                           "(SELECT Store.storeID FROM Store WHERE Store.managerID = " + esql.current_userID + ")";
+                           "(SELECT Store.storeID FROM Store WHERE Store.managerID = ?)";
+            params.add(Integer.valueOf(session.getUserID()));
          }
          else{
 
             // can only view this store if the current user is the store's manager
-            String managerID = esql.executeQueryAndReturnResult(
-               "SELECT Store.managerID FROM Store WHERE Store.storeID = " + storeID
-            ).get(0).get(0);
+            int managerID = esql.getStoreManager(Integer.parseInt(storeID));
 
-            if (!esql.current_userID.equals(managerID)){
-               System.out.println("Sorry, you are not this store's manager.\n\n");
+            if (session.getUserID() != managerID){
+               error("Sorry, you are not this store's manager.\n\n");
                return;
             }
-            query = "SELECT * FROM Orders WHERE Orders.storeID = " + storeID;
+            query = "SELECT * FROM Orders WHERE Orders.storeID = ?";
+            params.add(Integer.valueOf(storeID));
          }
 
-         int rowCount = esql.executeQueryAndPrintResult(query);
+         Timestamp since;
+         try{
+            since = readSince();
+         }catch (IllegalArgumentException e){
+            error("\n---------------------\n| Invalid Date! |\n\n---------------------\n"); 
+            return;}
+         // only the partitions of Orders since then are read
+         if (since != null){query += " AND Orders.orderTime >= ?"; params.add(since);}
+
+         int rowCount = esql.executeQueryAndPrintResult(query, params.toArray());
          System.out.println ("total row(s): " + rowCount);
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
       }
    }
 
-   public static void viewStoreCustomers(Amazon esql){
+   public static void viewStoreCustomers(Amazon esql, Session session){
       try{
 
          // only managers can perform this function
-         if (!esql.current_userType.equals("manager")){
-            System.out.println("Sorry, only managers can perform this function.\n\n");
+         if (!session.isManager()){
+            error("Sorry, only managers can perform this function.\n\n");
             return;
          }
 
@@ -1294,56 +2337,68 @@ public class Amazon {
 
          // valid storeID check
          if ((!valid_storeID(esql, storeID)) && (!storeID.equals("-"))){
-            System.out.println("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
+            error("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
             return;}
          
-         String query;
+         String from;
+         List<Object> params = new ArrayList<Object>();
          
          if (storeID.equals("-")){
-            query = "SELECT Users.userID, Users.name, Users.type, COUNT(*) as number_of_orders "+
-                    "FROM Store, Users, Orders "+
-                    "WHERE Users.userID = Orders.customerID AND Orders.storeID = Store.storeID "+
-                    "AND Store.managerID = " + esql.current_userID +
-                    " GROUP BY Users.userID, Users.name, Users.type";
+            from = "FROM Store, Users, Orders "+
+                   "WHERE Users.userID = Orders.customerID AND Orders.storeID = Store.storeID "+
+                   "AND Store.managerID = ?";
+            params.add(Integer.valueOf(session.getUserID()));
          }
          else{
 
             // can only view this store if the current user is the store's manager
-            String managerID = esql.executeQueryAndReturnResult(
-               "SELECT Store.managerID FROM Store WHERE Store.storeID = " + storeID
-            ).get(0).get(0);
+            int managerID = esql.getStoreManager(Integer.parseInt(storeID));
 
-            if (!esql.current_userID.equals(managerID)){
-               System.out.println("Sorry, you are not this store's manager.\n\n");
+            if (session.getUserID() != managerID){
+               error("Sorry, you are not this store's manager.\n\n");
                return;
             }
 
-            query = "SELECT Users.userID, Users.name, Users.type, COUNT(*) as number_of_orders " +
-                    "FROM Users, Orders WHERE Users.userID = Orders.customerID AND Orders.storeID = " + storeID +
-                     " GROUP BY Users.userID, Users.name, Users.type";
+            from = "FROM Users, Orders WHERE Users.userID = Orders.customerID AND Orders.storeID = ?";
+            params.add(Integer.valueOf(storeID));
          }
 
-         query += " ORDER BY number_of_orders DESC";
-
          System.out.print("\tHow many results do you want to see? (enter \'-\' for all):");
          String input = in.readLine();
 
-         if (!input.equals("-")){query+= " LIMIT " + input;}
+         if (!input.equals("-")){
+            if (!valid_number(input, true)){
+               error("\n---------------------\n| Invalid Number! |\n\n---------------------\n"); 
+               return;}
+            }
+
+         Timestamp since;
+         try{
+            since = readSince();
+         }catch (IllegalArgumentException e){
+            error("\n---------------------\n| Invalid Date! |\n\n---------------------\n"); 
+            return;}
+         // only the partitions of Orders since then are read
+         if (since != null){from += " AND Orders.orderTime >= ?"; params.add(since);}
 
-         int rowCount = esql.executeQueryAndPrintResult(query);
+         String query = "SELECT Users.userID, Users.name, Users.type, COUNT(*) as number_of_orders " + from +
+                        " GROUP BY Users.userID, Users.name, Users.type ORDER BY number_of_orders DESC";
+         if (!input.equals("-")){query+= " LIMIT ?"; params.add(Integer.valueOf(input));}
+
+         int rowCount = esql.executeQueryAndPrintResult(query, params.toArray());
          System.out.println ("total row(s): " + rowCount);
 
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
       }
    }
 
-   public static void viewTopSpenders(Amazon esql){
+   public static void viewTopSpenders(Amazon esql, Session session){
       try{
 
          // only managers can perform this function
-         if (!esql.current_userType.equals("manager")){
-            System.out.println("Sorry, only managers can perform this function.\n\n");
+         if (!session.isManager()){
+            error("Sorry, only managers can perform this function.\n\n");
             return;
          }
 
@@ -1352,54 +2407,78 @@ public class Amazon {
 
          // valid storeID check
          if ((!valid_storeID(esql, storeID)) && (!storeID.equals("-"))){
-            System.out.println("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
+            error("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
             return;}
          
          String query;
+         List<Object> params = new ArrayList<Object>();
          
          if (storeID.equals("-")){
-            query = "SELECT Users.userID, Users.name, Users.type, SUM(Orders.unitsOrdered * Product.pricePerUnit) as total_spending "+
-                    "FROM Store, Users, Orders, Product " +
-                    "WHERE Users.userID = Orders.customerID AND Orders.storeID = Store.storeID AND Orders.storeID = Product.storeID "+
-                    "AND Orders.productName = Product.productName AND Store.managerID = " + esql.current_userID + " " +
-                    "GROUP BY Users.userID, Users.name, Users.type";
+            // add up the ledger rows of the manager's stores
+            query = "SELECT Users.userID, Users.name, Users.type, S.total_spending "+
+                    "FROM (SELECT CustomerSpend.customerID, SUM(CustomerSpend.totalSpent) as total_spending " +
+                          "FROM CustomerSpend, Store " +
+                          "WHERE CustomerSpend.storeID = Store.storeID AND Store.managerID = ? " +
+                          "GROUP BY CustomerSpend.customerID) S, Users " +
+                    "WHERE Users.userID = S.customerID";
+            params.add(Integer.valueOf(session.getUserID()));
          }
          else{
 
             // can only view this store if the current user is the store's manager
-            String managerID = esql.executeQueryAndReturnResult(
-               "SELECT Store.managerID FROM Store WHERE Store.storeID = " + storeID
-            ).get(0).get(0);
+            int managerID = esql.getStoreManager(Integer.parseInt(storeID));
 
-            if (!esql.current_userID.equals(managerID)){
-               System.out.println("Sorry, you are not this store's manager.\n\n");
+            if (session.getUserID() != managerID){
+               error("Sorry, you are not this store's manager.\n\n");
                return;
             }
 
-            query = "SELECT Users.userID, Users.name, Users.type, SUM(Orders.unitsOrdered * Product.pricePerUnit) as total_spending " +
-                    "FROM Users, Orders, Product WHERE Users.userID = Orders.customerID AND Orders.storeID = Product.storeID " +
-                    "AND Orders.productName = Product.productName AND Orders.storeID = " + storeID + " " +
-                    "GROUP BY Users.userID, Users.name, Users.type";
+            // a walk down customer_spend_total_index
+            query = "SELECT Users.userID, Users.name, Users.type, CustomerSpend.totalSpent as total_spending " +
+                    "FROM CustomerSpend, Users WHERE Users.userID = CustomerSpend.customerID " +
+                    "AND CustomerSpend.storeID = ?";
+            params.add(Integer.valueOf(storeID));
          }
 
-         query += " ORDER BY total_spending DESC";
-
          System.out.print("\tHow many results do you want to see? (enter \'-\' for all):");
          String input = in.readLine();
 
          if (!input.equals("-")){
             if (!valid_number(input, true)){
-               System.out.println("\n---------------------\n| Invalid Number! |\n\n---------------------\n"); 
+               error("\n---------------------\n| Invalid Number! |\n\n---------------------\n"); 
                return;}
-
-            query+= " LIMIT " + input;
             }
 
-         int rowCount = esql.executeQueryAndPrintResult(query);
+         Timestamp since;
+         try{
+            since = readSince();
+         }catch (IllegalArgumentException e){
+            error("\n---------------------\n| Invalid Date! |\n\n---------------------\n"); 
+            return;}
+
+         if (since != null){
+            // the ledger covers all time, so the spending since then is
+            // added up from the orders, reading only their partitions
+            query = "SELECT Users.userID, Users.name, Users.type, S.total_spending "+
+                    "FROM (SELECT Orders.customerID, " +
+                          "SUM(COALESCE(Orders.price, Orders.unitsOrdered * Product.pricePerUnit, 0)) as total_spending " +
+                          "FROM Orders LEFT JOIN Product " +
+                          "ON Product.storeID = Orders.storeID AND Product.productName = Orders.productName " +
+                          "WHERE " + (storeID.equals("-") ? "Orders.storeID IN (SELECT Store.storeID FROM Store WHERE Store.managerID = ?)"
+                                                         : "Orders.storeID = ?") +
+                          " AND Orders.orderTime >= ? GROUP BY Orders.customerID) S, Users " +
+                    "WHERE Users.userID = S.customerID";
+            params.add(since);
+         }
+
+         query += " ORDER BY total_spending DESC";
+         if (!input.equals("-")){query+= " LIMIT ?"; params.add(Integer.valueOf(input));}
+
+         int rowCount = esql.executeQueryAndPrintResult(query, params.toArray());
          System.out.println ("total row(s): " + rowCount);
 
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
       }
    }
 
@@ -1407,24 +2486,25 @@ public class Amazon {
 
    //__ADMIN_ONLY_FUNCTIONS__________________________________________________________________________________________________________________________________________
 
-   public static void adminViewUsers(Amazon esql) {
+   public static void adminViewUsers(Amazon esql, Session session) {
       try{
       
          // only admin can use this function
-         if (!esql.current_userType.equals("admin")){
-            System.out.println("Sorry, only administrators can perform this function.\n\n");
+         if (!session.isAdmin()){
+            error("Sorry, only administrators can perform this function.\n\n");
             return;
          }
 
-         String query = "SELECT Users.name, Users.password, Users.userID, Users.type, Users.latitude, Users.longitude FROM Users";
+         Pager pager = new Pager("SELECT Users.name, Users.password, Users.userID, Users.type, Users.latitude, Users.longitude FROM Users",
+                                 new String[] {"userID"}, new String[] {"integer"}, false);
          
          System.out.print("\tEnter first userID to display (enter \'-\' for beginning of list): ");
          String first = in.readLine();
 
          // check if this is a valid userID
          if (!(first.equals("-"))){
-            if (valid_number(first, true)){
-               System.out.println("\n---------------------\n| Invalid User ID! |\n\n---------------------\n"); 
+            if (!valid_number(first, true)){
+               error("\n---------------------\n| Invalid User ID! |\n\n---------------------\n"); 
                return;}}
 
          System.out.print("\tEnter last userID to display (enter \'-\' for end of list): ");
@@ -1432,33 +2512,26 @@ public class Amazon {
 
          // check if this is a valid userID
          if (!(last.equals("-"))){
-            if (valid_number(last, true)){
-               System.out.println("\n---------------------\n| Invalid User ID! |\n\n---------------------\n"); 
+            if (!valid_number(last, true)){
+               error("\n---------------------\n| Invalid User ID! |\n\n---------------------\n"); 
                return;}}
 
-         if (! ( first.equals("-") && last.equals("-") ) ){
-            if (! ( first.equals("-") || last.equals("-") ) ){
-               query+=" WHERE Users.userID >= " + first;
-               query+=" AND Users.userID <= " + last;
-            }
-            else if (!first.equals("-")){query+=" WHERE Users.userID >= " + first;}
-            else{query+= " WHERE Users.userID <= " + last;}
-         }
+         if (!first.equals("-")){pager.where("Users.userID >= ?", Integer.valueOf(first));}
+         if (!last.equals("-")){pager.where("Users.userID <= ?", Integer.valueOf(last));}
 
-         int rowCount = esql.executeQueryAndPrintResult(query);
-         System.out.println ("total row(s): " + rowCount);
+         browse(esql, pager);
 
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
       }
    }
 
-   public static void adminEditUsers(Amazon esql){
+   public static void adminEditUsers(Amazon esql, Session session){
       try{
 
          // only admin can use this function
-         if (!esql.current_userType.equals("admin")){
-            System.out.println("Sorry, only administrators can perform this function.\n\n");
+         if (!session.isAdmin()){
+            error("Sorry, only administrators can perform this function.\n\n");
             return;
          }
 
@@ -1466,10 +2539,10 @@ public class Amazon {
          String userID = in.readLine();
 
          if (!valid_number(userID, true)){
-            System.out.println("\n-----------------------------\n| Invalid Number! |\n\n-----------------------------\n"); 
+            error("\n-----------------------------\n| Invalid Number! |\n\n-----------------------------\n"); 
             return;}
 
-         esql.executeQueryAndPrintResult("SELECT * FROM Users WHERE Users.userID = " + userID);
+         esql.executeQueryAndPrintResult("SELECT * FROM Users WHERE Users.userID = ?", Integer.valueOf(userID));
          System.out.println();
 
          System.out.println("\tWhich attribute(s) do you want to edit?");
@@ -1479,6 +2552,7 @@ public class Amazon {
          if (response.equals("0")){clearScreen(); return;}
 
          String query = "UPDATE Users SET ";
+         List<Object> params = new ArrayList<Object>();
                         
          String response2;
          if (response.equals("1")){
@@ -1488,10 +2562,11 @@ public class Amazon {
 
             // check if this is username has already been taken
             if (valid_username(esql, response2)){
-               System.out.println("\n-----------------------------\n| User Name already taken! |\n\n-----------------------------\n"); 
+               error("\n-----------------------------\n| User Name already taken! |\n\n-----------------------------\n"); 
                return;}
 
-            query+= "name = \'" + response2 + "\'"; 
+            query+= "name = ?"; 
+            params.add(response2);
 
          }
          else if (response.equals("2")){
@@ -1499,7 +2574,8 @@ public class Amazon {
             System.out.print("Enter new password: ");
             response2 = in.readLine();
 
-            query+= "password = \'" + response2 + "\'"; 
+            query+= "password = ?"; 
+            params.add(response2);
          }
          else if (response.equals("3")){
             
@@ -1508,32 +2584,34 @@ public class Amazon {
             response2 = in.readLine();
 
             if (!valid_number(response2, false)){
-               System.out.println("\n---------------------\n| Invalid Latitude! |\n\n---------------------\n"); 
+               error("\n---------------------\n| Invalid Latitude! |\n\n---------------------\n"); 
                return;}
 
             float float_loc = Float.parseFloat(response2);
 
             // check if this is a valid latitude
             if ((float_loc < 0) || (float_loc > 100)){
-               System.out.println("\n---------------------\n| Invalid Latitude! |\n\n---------------------\n"); 
+               error("\n---------------------\n| Invalid Latitude! |\n\n---------------------\n"); 
                return;}
 
-            query+= "latitude = " + response2; 
+            query+= "latitude = ?"; 
+            params.add(Double.valueOf(response2));
 
             response2 = in.readLine();
             
             if (!valid_number(response2, false)){
-               System.out.println("\n---------------------\n| Invalid Latitude! |\n\n---------------------\n"); 
+               error("\n---------------------\n| Invalid Latitude! |\n\n---------------------\n"); 
                return;}
 
             float_loc = Float.parseFloat(response2);
 
             // check if this is a valid longitude
             if ((float_loc < 0) || (float_loc > 100)){
-               System.out.println("\n---------------------\n| Invalid Longitude! |\n\n---------------------\n"); 
+               error("\n---------------------\n| Invalid Longitude! |\n\n---------------------\n"); 
                return;}
 
-            query+= ", longitude = " + response2; 
+            query+= ", longitude = ?"; 
+            params.add(Double.valueOf(response2));
          }
          else if (response.equals("4")){
             
@@ -1541,10 +2619,11 @@ public class Amazon {
             response2 = in.readLine();
 
             if (! ( (response2.equals("customer")) || (response2.equals("manager")) || (response2.equals("admin")) ) ){
-               System.out.println("\n-----------------------------\n| Invalid User Type! |\n\n-----------------------------\n"); 
+               error("\n-----------------------------\n| Invalid User Type! |\n\n-----------------------------\n"); 
                return;}
 
-            query+= "type = \'" + response2 + "\'"; 
+            query+= "type = ?"; 
+            params.add(response2);
          }
          else if (response.equals("5")){
             
@@ -1557,19 +2636,21 @@ public class Amazon {
                
                // check if this is username has already been taken
                if (valid_username(esql, response2)){
-                  System.out.println("\n---------------------\n| User Name already taken! |\n\n-----------------------------\n"); 
+                  error("\n---------------------\n| User Name already taken! |\n\n-----------------------------\n"); 
                   return;}
 
-               if (addQuery.equals("_$_&_@#")){addQuery = "name = \'" + response2 + "\'";}
-               else{addQuery+= ", " + "name = \'" + response2 + "\'";}
+               if (addQuery.equals("_$_&_@#")){addQuery = "name = ?";}
+               else{addQuery+= ", " + "name = ?";}
+               params.add(response2);
             }
 
             System.out.print("Enter new password (enter \'-\' to keep the same): ");
             response2 = in.readLine();
 
             if (!response2.equals("-")){
-               if (addQuery.equals("_$_&_@#")){addQuery = "password = \'" + response2 + "\'";}
-               else{addQuery+= ", " + "password = \'" + response2 + "\'";}
+               if (addQuery.equals("_$_&_@#")){addQuery = "password = ?";}
+               else{addQuery+= ", " + "password = ?";}
+               params.add(response2);
             }
 
             System.out.print("Enter new user type (enter \'-\' to keep the same): ");
@@ -1577,11 +2658,12 @@ public class Amazon {
 
             if (!response2.equals("-")){
                if (! ( (response2.equals("customer")) || (response2.equals("manager")) || (response2.equals("admin")) ) ){
-                  System.out.println("\n-----------------------------\n| Invalid User Type! |\n\n-----------------------------\n"); 
+                  error("\n-----------------------------\n| Invalid User Type! |\n\n-----------------------------\n"); 
                      return;}
 
-               if (addQuery.equals("_$_&_@#")){addQuery = "type = \'" + response2 + "\'";}
-               else{addQuery+= ", " + "type = \'" + response2 + "\'";}
+               if (addQuery.equals("_$_&_@#")){addQuery = "type = ?";}
+               else{addQuery+= ", " + "type = ?";}
+               params.add(response2);
             }
 
             System.out.print("Enter new location (latitude then longitude, enter \'-\' to keep the same): ");
@@ -1590,18 +2672,19 @@ public class Amazon {
             if (!response2.equals("-")){
 
                if (!valid_number(response2, false)){
-               System.out.println("\n---------------------\n| Invalid Latitude! |\n\n---------------------\n"); 
+               error("\n---------------------\n| Invalid Latitude! |\n\n---------------------\n"); 
                return;}
 
                float float_lat = Float.parseFloat(response2);
 
                // check if this is the correct password
                if ((float_lat < 0) || (float_lat > 100)){
-                  System.out.println("\n---------------------\n| Invalid Latitude! |\n\n---------------------\n"); 
+                  error("\n---------------------\n| Invalid Latitude! |\n\n---------------------\n"); 
                   return;}
 
-               if (addQuery.equals("_$_&_@#")){addQuery = "latitude = " + response2;}
-               else{addQuery+= ", " + "latitude = " + response2;}
+               if (addQuery.equals("_$_&_@#")){addQuery = "latitude = ?";}
+               else{addQuery+= ", " + "latitude = ?";}
+               params.add(Double.valueOf(response2));
             }
 
             response2 = in.readLine();
@@ -1609,40 +2692,45 @@ public class Amazon {
             if (!response2.equals("-")){
 
                if (!valid_number(response2, false)){
-               System.out.println("\n---------------------\n| Invalid Latitude! |\n\n---------------------\n"); 
+               error("\n---------------------\n| Invalid Latitude! |\n\n---------------------\n"); 
                return;}
 
                float float_long = Float.parseFloat(response2);
 
                // check if this is the correct password
                if ((float_long < 0) || (float_long > 100)){
-                  System.out.println("\n---------------------\n| Invalid Latitude! |\n\n---------------------\n"); 
+                  error("\n---------------------\n| Invalid Latitude! |\n\n---------------------\n"); 
                   return;}
 
-               if (addQuery.equals("_$_&_@#")){addQuery = "longitude = " + response2;}
-               else{addQuery+= ", " + "longitude = " + response2;}
+               if (addQuery.equals("_$_&_@#")){addQuery = "longitude = ?";}
+               else{addQuery+= ", " + "longitude = ?";}
+               params.add(Double.valueOf(response2));
             }
 
             if (!addQuery.equals("_$_&_@#")){query+=addQuery;}
 
          }
-         else{System.out.println("Unknown input!"); return;}
+         else{error("Unknown input!"); return;}
 
-         query+= " WHERE userID = " + userID;
+         query+= " WHERE userID = ?";
+         params.add(Integer.valueOf(userID));
          //System.out.println(query);
-         esql.executeUpdate(query);
+         esql.executeUpdate(query, params.toArray());
+
+         // the old name is not known here, so forget them all
+         esql.getUserNameCache().invalidateAll();
 
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
       }
    }
 
-   public static void adminViewProducts(Amazon esql){
+   public static void adminViewProducts(Amazon esql, Session session){
       try{
 
          // only admin can use this function
-         if (!esql.current_userType.equals("admin")){
-            System.out.println("Sorry, only administrators can perform this function.\n\n");
+         if (!session.isAdmin()){
+            error("Sorry, only administrators can perform this function.\n\n");
             return;
          }
 
@@ -1651,42 +2739,44 @@ public class Amazon {
 
          // valid storeID check
          if ((!valid_storeID(esql, storeID)) && (!storeID.equals("-"))){
-            System.out.println("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
+            error("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
             return;}
 
-         String query = "SELECT * FROM Product";
-
-         if (!storeID.equals("-")){query += " WHERE Product.storeID = " + storeID;}
-
          System.out.println("Order by?");
          System.out.println("0. No Order\n1. Number of Units Ascending\n2. Number of Units Descending\n3. Price Per Unit Ascending\n4. Price Per Unit Descending");
          System.out.print("Enter a number: ");
          String order_by = in.readLine();
 
-         if (order_by.equals("1")){query+=" ORDER BY Product.numberOfUnits";}
-         else if (order_by.equals("2")){query+=" ORDER BY Product.numberOfUnits DESC";}
-         else if (order_by.equals("3")){query+=" ORDER BY Product.pricePerUnit";}
-         else if (order_by.equals("4")){query+=" ORDER BY Product.pricePerUnit DESC";}
-
-         System.out.print("How many results? (enter \'-\' for all): ");
-         String num_results = in.readLine();
+         // each order ends in the primary key, so every product has its place
+         Pager pager;
+         if (order_by.equals("1") || order_by.equals("2")){
+            pager = new Pager("SELECT * FROM Product", new String[] {"numberOfUnits", "storeID", "productName"},
+                              new String[] {"integer", "integer", "char(30)"}, order_by.equals("2"));
+         }
+         else if (order_by.equals("3") || order_by.equals("4")){
+            pager = new Pager("SELECT * FROM Product", new String[] {"pricePerUnit", "storeID", "productName"},
+                              new String[] {"float", "integer", "char(30)"}, order_by.equals("4"));
+         }
+         else {
+            pager = new Pager("SELECT * FROM Product", new String[] {"storeID", "productName"},
+                              new String[] {"integer", "char(30)"}, false);
+         }
 
-         if (!num_results.equals("-")){query+= " LIMIT " + num_results;}
+         if (!storeID.equals("-")){pager.where("Product.storeID = ?", Integer.valueOf(storeID));}
 
-         int rowCount = esql.executeQueryAndPrintResult(query);
-         System.out.println ("total row(s): " + rowCount);
+         browse(esql, pager);
 
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
       }
    }
 
-   public static void adminEditProducts(Amazon esql){
+   public static void adminEditProducts(Amazon esql, Session session){
       try{
 
          // only admin can use this function
-         if (!esql.current_userType.equals("admin")){
-            System.out.println("Sorry, only administrators can perform this function.\n\n");
+         if (!session.isAdmin()){
+            error("Sorry, only administrators can perform this function.\n\n");
             return;
          }
 
@@ -1695,7 +2785,7 @@ public class Amazon {
 
          // valid storeID check
          if ((!valid_storeID(esql, storeID)) && (!storeID.equals("-"))){
-            System.out.println("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
+            error("\n---------------------\n| Invalid Store ID! |\n\n---------------------\n"); 
             return;}
 
          System.out.print("Enter a product name (enter \'-\' for all): ");
@@ -1705,7 +2795,7 @@ public class Amazon {
          // valid product check
          if (!productName.equals("-")){
             if (!valid_product(esql, storeID, productName)){
-               System.out.println("\n---------------------\n| Invalid Product Name! |\n\n---------------------\n"); 
+               error("\n---------------------\n| Invalid Product Name! |\n\n---------------------\n"); 
                return;}}
 
          System.out.print("Set new number of units (enter \'-\' for no change): ");
@@ -1714,14 +2804,14 @@ public class Amazon {
          // valid number check
          if (!num_units.equals("-")){
             if (!valid_number(num_units, true)){
-               System.out.println("\n---------------------\n| Invalid Number! |\n\n---------------------\n"); 
+               error("\n---------------------\n| Invalid Number! |\n\n---------------------\n"); 
                return;}
 
             float float1_num = Float.parseFloat(num_units);
 
             // no negative numbers here
             if (float1_num < 0){
-               System.out.println("\n---------------------\n| Invalid Number! |\n\n---------------------\n"); 
+               error("\n---------------------\n| Invalid Number! |\n\n---------------------\n"); 
                return;}
             }
 
@@ -1731,78 +2821,124 @@ public class Amazon {
          // valid number check
          if (!price_per.equals("-")){
             if (!valid_number(price_per, false)){
-               System.out.println("\n---------------------\n| Invalid Number! |\n\n---------------------\n"); 
+               error("\n---------------------\n| Invalid Number! |\n\n---------------------\n"); 
                return;}
 
             float float2_num = Float.parseFloat(price_per);
 
             // no negative numbers here
             if (float2_num < 0){
-               System.out.println("\n---------------------\n| Invalid Number! |\n\n---------------------\n"); 
+               error("\n---------------------\n| Invalid Number! |\n\n---------------------\n"); 
                return;}
             }
 
-         if (num_units.equals("-") && price_per.equals("-")){System.out.println("No change."); return;}
+         if (num_units.equals("-") && price_per.equals("-")){info("No change."); return;}
 
          String query = "UPDATE Product SET ";
+         List<Object> params = new ArrayList<Object>();
          
-         if (num_units.equals("-")){query+= "pricePerUnit = " + price_per;}
-         else if (price_per.equals("-")) {query+= "numberOfUnits = " + num_units;}
-         else {query+= "numberOfUnits = " + num_units + ", pricePerUnit = " + price_per;}
+         if (num_units.equals("-")){query+= "pricePerUnit = ?"; params.add(Double.valueOf(price_per));}
+         else if (price_per.equals("-")) {query+= "numberOfUnits = ?"; params.add(Integer.valueOf(num_units));}
+         else {
+            query+= "numberOfUnits = ?, pricePerUnit = ?";
+            params.add(Integer.valueOf(num_units));
+            params.add(Double.valueOf(price_per));
+         }
 
          if (!(storeID.equals("-") && productName.equals("-"))){
             query += " WHERE ";
 
-            if (!(storeID.equals("-") || productName.equals("-"))){query += "productName = \'" + productName + "\' AND storeID = " + storeID;}
-            else if (storeID.equals("-")){query += "productName = \'" + productName + "\'";}
-            else if (productName.equals("-")){query += "storeID = " + storeID;}
+            if (!(storeID.equals("-") || productName.equals("-"))){
+               query += "productName = ? AND storeID = ?";
+               params.add(productName);
+               params.add(Integer.valueOf(storeID));
+            }
+            else if (storeID.equals("-")){query += "productName = ?"; params.add(productName);}
+            else if (productName.equals("-")){query += "storeID = ?"; params.add(Integer.valueOf(storeID));}
             else{return;}
          }
 
-         esql.executeUpdate(query);
+         // only stock and prices change, so the cached product sets stay
+         // valid; they are dropped only when products are added or removed
+         esql.executeUpdate(query, params.toArray());
 
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
       }
    }
 
-   public static String inputRangeQueryOnAttribute(String query, String attribute){
+   public static boolean inputRangeQueryOnAttribute(Pager pager, String attribute){
 
       try{
          System.out.print("\tEnter first " + attribute + " to display (enter \'-\' for beginning of list): ");
          String first = in.readLine();
 
          if ((!first.equals("-")) && (!valid_number(first, true))){
-            System.out.println("\n---------------------\n| Invalid Number! |\n\n---------------------\n"); 
-            return null;}
+            error("\n---------------------\n| Invalid Number! |\n\n---------------------\n"); 
+            return false;}
 
          System.out.print("\tEnter last " + attribute + " to display (enter \'-\' for end of list): ");
          String last = in.readLine();
 
          if ((!last.equals("-")) && (!valid_number(last, true))){
-            System.out.println("\n---------------------\n| Invalid Number! |\n\n---------------------\n"); 
-            return null;}
+            error("\n---------------------\n| Invalid Number! |\n\n---------------------\n"); 
+            return false;}
 
-         if (! ( first.equals("-") && last.equals("-") ) ){
-            if (! ( first.equals("-") || last.equals("-") ) ){
-               query+=" WHERE " + attribute + " >= " + first;
-               query+=" AND " + attribute + " <= " + last;
-         }
-            else if (!first.equals("-")){query+=" WHERE " + attribute + " >= " + first;}
-            else{query+= " WHERE " + attribute + " <= " + last;}
-         }
+         if (!first.equals("-")){pager.where(attribute + " >= ?", Long.valueOf(first));}
+         if (!last.equals("-")){pager.where(attribute + " <= ?", Long.valueOf(last));}
+         return true;
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
+         return false;
       }
-
-      return query;
    }
 
-   public static void viewEverything(Amazon esql){
+   /*
+    * Shows the page asked for: the first, or the one a page token leads to.
+    * An interactive user can then step to the next and previous pages; a
+    * headless command shows one page and reports its neighbours' tokens, to
+    * be given back as the page argument of the same command.
+    */
+   private static void browse(Amazon esql, Pager pager) throws Exception {
+      System.out.print("Enter a page token (enter \'-\' for the first page): ");
+      String token = in.readLine().trim();
+
+      Pager.Page page;
+      try{
+         page = token.equals("-") ? pager.first(esql) : pager.page(esql, token);
+      }catch(IllegalArgumentException e){
+         error("\n---------------------\n| Invalid Page Token! |\n\n---------------------\n"); 
+         return;
+      }
+
+      while (true){
+         int rowCount = printResult(page.getColumns(), page.getRows());
+         System.out.println ("row(s) on this page: " + rowCount);
+
+         String next = page.getNextToken();
+         String previous = page.getPreviousToken();
+         if (CommandContext.current() != null){
+            info("next " + (next == null ? "-" : next) + " previous " + (previous == null ? "-" : previous));
+            return;
+         }
+         if (next == null && previous == null){return;}
+
+         if (next != null){System.out.println("n. Next page (token " + next + ")");}
+         if (previous != null){System.out.println("p. Previous page (token " + previous + ")");}
+         System.out.print("Enter a letter (anything else to stop): ");
+         String response = in.readLine();
+
+         if (response.equals("n") && next != null){page = pager.page(esql, next);}
+         else if (response.equals("p") && previous != null){page = pager.page(esql, previous);}
+         else {return;}
+      }
+   }//end browse
+
+   public static void viewEverything(Amazon esql, Session session){
 
       // only admin can use this function
-      if (!esql.current_userType.equals("admin")){
-         System.out.println("Sorry, only administrators can perform this function.\n\n");
+      if (!session.isAdmin()){
+         error("Sorry, only administrators can perform this function.\n\n");
          return;
       }
 
@@ -1813,50 +2949,64 @@ public class Amazon {
          System.out.print("Enter a number: ");
          String response = in.readLine();
 
-         String query = "SELECT * FROM ";
-
+         // each relation is paged in the order of the attribute asked
+         // about, then its primary key
+         Pager pager;
+         String attribute;
          if (response.equals("0")){return;}
-         else if(response.equals("1")){query+= "Users"; query = inputRangeQueryOnAttribute(query, "userID");}
-         else if(response.equals("2")){query+= "Store"; query = inputRangeQueryOnAttribute(query, "storeID");}
+         else if(response.equals("1")){pager = keyPager("Users", "userID"); attribute = "userID";}
+         else if(response.equals("2")){pager = keyPager("Store", "storeID"); attribute = "storeID";}
          else if(response.equals("3")){
-            query+= "Product";
             System.out.println("\tSelect an attribute to select by:");
             System.out.println("1. Store ID\n2. Price Per Unit\n3. Number of Units");
             System.out.print("Enter a number:");
             String num = in.readLine();
-            String attribute;
 
-            if (num.equals("1")){attribute = "storeID";}
-            else if (num.equals("2")){attribute = "pricePerUnit";}
-            else if (num.equals("3")){attribute = "numberOfUnits";}
-            else {System.out.println("Unknown input!"); return;}
-            query = inputRangeQueryOnAttribute(query, attribute);
+            if (num.equals("1")){
+               attribute = "storeID";
+               pager = new Pager("SELECT * FROM Product", new String[] {"storeID", "productName"},
+                                 new String[] {"integer", "char(30)"}, false);
+            }
+            else if (num.equals("2")){
+               attribute = "pricePerUnit";
+               pager = new Pager("SELECT * FROM Product", new String[] {"pricePerUnit", "storeID", "productName"},
+                                 new String[] {"float", "integer", "char(30)"}, false);
+            }
+            else if (num.equals("3")){
+               attribute = "numberOfUnits";
+               pager = new Pager("SELECT * FROM Product", new String[] {"numberOfUnits", "storeID", "productName"},
+                                 new String[] {"integer", "integer", "char(30)"}, false);
+            }
+            else {error("Unknown input!"); return;}
          }
-         else if(response.equals("4")){query+= "Orders"; query = inputRangeQueryOnAttribute(query, "orderNumber");}
-         else if(response.equals("5")){query+= "Warehouse"; query = inputRangeQueryOnAttribute(query, "WarehouseID");}
-         else if(response.equals("6")){query+= "ProductSupplyRequests"; query = inputRangeQueryOnAttribute(query, "requestNumber");}
-         else if(response.equals("7")){query+= "ProductUpdates"; query = inputRangeQueryOnAttribute(query, "updateNumber");}
-         else{System.out.println("Unknown input!"); return;}   
-
-
-         if (query == null){
-            System.out.println("\n---------------------\n| Invalid Input! |\n\n---------------------\n"); 
+         else if(response.equals("4")){pager = keyPager("Orders", "orderNumber"); attribute = "orderNumber";}
+         else if(response.equals("5")){pager = keyPager("Warehouse", "WarehouseID"); attribute = "WarehouseID";}
+         else if(response.equals("6")){pager = keyPager("ProductSupplyRequests", "requestNumber"); attribute = "requestNumber";}
+         else if(response.equals("7")){pager = keyPager("ProductUpdates", "updateNumber"); attribute = "updateNumber";}
+         else{error("Unknown input!"); return;}   
+
+         if (!inputRangeQueryOnAttribute(pager, attribute)){
+            error("\n---------------------\n| Invalid Input! |\n\n---------------------\n"); 
             return;}
 
-         int rowCount = esql.executeQueryAndPrintResult(query);
-         System.out.println ("total row(s): " + rowCount);
+         browse(esql, pager);
 
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
       }
    }
 
-   public static void deleteStore(Amazon esql) {
+   // pages a relation in the order of its integer primary key
+   private static Pager keyPager(String relation, String key){
+      return new Pager("SELECT * FROM " + relation, new String[] {key}, new String[] {"integer"}, false);
+   }
+
+   public static void deleteStore(Amazon esql, Session session) {
       try{
       
          // only admin can use this function
-         if (!esql.current_userType.equals("admin")){
-            System.out.println("Sorry, only administrators can perform this function.\n\n");
+         if (!session.isAdmin()){
+            error("Sorry, only administrators can perform this function.\n\n");
             return;
          }
 
@@ -1865,24 +3015,33 @@ public class Amazon {
 
          // check if this is a valid userID
          if (!valid_storeID(esql, storeID)){
-            System.out.println("\n---------------------\n| Invalid StoreID! |\n\n---------------------\n"); 
+            error("\n---------------------\n| Invalid StoreID! |\n\n---------------------\n"); 
             return;}
 
-         String query = "DELETE FROM Store WHERE Store.storeID = " + storeID;
+         // requests queued for the store must not land after it is gone
+         esql.flushSupplyRequests();
+
+         String query = "DELETE FROM Store WHERE Store.storeID = ?";
 
-         esql.executeUpdate(query);
+         esql.executeUpdate(query, Integer.valueOf(storeID));
+         esql.getStoreIndex().remove(Integer.parseInt(storeID));
+         esql.removeStore(Integer.parseInt(storeID));
+         // the store's orders went with it, from whoever placed them
+         esql.getHistory().invalidateAll();
+         esql.getStoreManagerCache().invalidate(Integer.valueOf(storeID));
+         esql.getStoreProductCache().invalidate(Integer.valueOf(storeID));
 
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
       }
    }
 
-   public static void deleteWarehouse(Amazon esql) {
+   public static void deleteWarehouse(Amazon esql, Session session) {
       try{
       
          // only admin can use this function
-         if (!esql.current_userType.equals("admin")){
-            System.out.println("Sorry, only administrators can perform this function.\n\n");
+         if (!session.isAdmin()){
+            error("Sorry, only administrators can perform this function.\n\n");
             return;
          }
 
@@ -1891,18 +3050,70 @@ public class Amazon {
 
          // check if this is a valid userID
          if (!valid_warehouseID(esql, warehouseID)){
-            System.out.println("\n---------------------\n| Invalid WarehouseID! |\n\n---------------------\n"); 
+            error("\n---------------------\n| Invalid WarehouseID! |\n\n---------------------\n"); 
             return;}
 
-         String query = "DELETE FROM Warehouse WHERE Warehouse.WarehouseID = " + warehouseID;
+         esql.flushSupplyRequests();
 
-         esql.executeUpdate(query);
+         String query = "DELETE FROM Warehouse WHERE Warehouse.WarehouseID = ?";
+
+         esql.executeUpdate(query, Integer.valueOf(warehouseID));
+         esql.getWarehouseCache().invalidate(Integer.valueOf(warehouseID));
 
       }catch(Exception e){
-         System.err.println (e.getMessage());
+         failed(e);
       }
    }
 
+   public static void importOrders(Amazon esql, Session session) {
+      try{
+      
+         // only admin can use this function
+         if (!session.isAdmin()){
+            error("Sorry, only administrators can perform this function.\n\n");
+            return;
+         }
+
+         System.out.print("\tEnter path of the order file: ");
+         String path = in.readLine();
+
+         if (!new File(path).isFile()){
+            error("\n---------------------\n| No such file! |\n\n---------------------\n"); 
+            return;}
+
+         OrderImporter importer = new OrderImporter(esql, Integer.getInteger("amazon.import.chunkSize", 5000));
+         OrderImporter.Result result = importer.importFile(path);
+
+         // show the first few rejects as rows; the rest are only counted
+         List<OrderImporter.Reject> rejects = result.getRejects();
+         if (!rejects.isEmpty()){
+            List<List<String>> rows = new ArrayList<List<String>>();
+            for (int i = 0; i < rejects.size() && i < 20; i++){
+               rows.add(Arrays.asList(String.valueOf(rejects.get(i).getLine()), rejects.get(i).getReason()));
+            }
+            printResult(Arrays.asList("line", "reason"), rows);
+         }
+         info("\nImported " + result.getImported() + " order(s) in " + result.getElapsedMillis() + " ms (" +
+              result.getRatePerMinute() + " per minute); rejected " + result.getRejected() +
+              (rejects.size() > 20 ? ", " + (rejects.size() - 20) + " not shown" : "") + ".\n");
+
+      }catch(Exception e){
+         failed(e);
+      }
+   }
+
+   public static void viewMetrics(Amazon esql, Session session) {
+
+      // only admin can use this function
+      if (!session.isAdmin()){
+         error("Sorry, only administrators can perform this function.\n\n");
+         return;
+      }
+
+      // latencies in milliseconds; the metrics are also published through JMX
+      printResult(Arrays.asList(Metrics.REPORT_COLUMNS), esql.getMetrics().report());
+   }
+
 
 
 }//end Amazon
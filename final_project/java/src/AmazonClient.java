@@ -0,0 +1,303 @@
+/*
+ * Network client for the Amazon store server
+ * ============================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One session with an {@link AmazonServer}.  Commands are sent one at a
+ * time and their responses read back whole.
+ *
+ * A client is not thread safe; open one per concurrent session.
+ */
+public class AmazonClient implements Closeable {
+
+   /**
+    * The response to one command.
+    */
+   public static class Response {
+      private final int status;
+      private final String message;
+      private final List<String> columns;
+      private final List<List<String>> rows;
+
+      Response(int status, String message, List<String> columns, List<List<String>> rows){
+         this.status = status;
+         this.message = message;
+         this.columns = columns;
+         this.rows = rows;
+      }
+
+      /** @return the status, {@link CommandContext#OK} on success */
+      public int getStatus(){return status;}
+      public boolean isOk(){return status == CommandContext.OK;}
+      public String getMessage(){return message;}
+      /** @return the column names of the last result, or empty */
+      public List<String> getColumns(){return columns;}
+      /** @return the result rows; a NULL value is null */
+      public List<List<String>> getRows(){return rows;}
+
+      /**
+       * @return the token of the next page of a paged command, or null
+       *         when it showed the last page; see {@link Pager}
+       */
+      public String getNextPage(){return pageToken("next");}
+
+      /**
+       * @return the token of the previous page of a paged command, or null
+       *         when it showed the first page
+       */
+      public String getPreviousPage(){return pageToken("previous");}
+
+      // paged commands report "next <token> previous <token>", '-' for none
+      private String pageToken(String which){
+         String[] words = message.split(" ");
+         for (int i = 0; i + 1 < words.length; i++){
+            if (words[i].equals(which)){return words[i + 1].equals("-") ? null : words[i + 1];}
+         }
+         return null;
+      }
+
+      public String toString() {
+         return (isOk() ? "ok " + rows.size() + " row(s)" : "error " + status) + (message.length() > 0 ? ": " + message : "");
+      }
+   }//end Response
+
+   private final Socket socket;
+   private final BufferedReader in;
+   private final PrintStream out;
+
+   /**
+    * Connects to a server.
+    *
+    * @param host the server's host
+    * @param port the server's port
+    * @throws java.io.IOException when the server cannot be reached
+    */
+   public AmazonClient(String host, int port) throws IOException {
+      socket = new Socket(host, port);
+      socket.setTcpNoDelay(true);
+      in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+      out = new PrintStream(new BufferedOutputStream(socket.getOutputStream()), false, "UTF-8");
+   }
+
+   /**
+    * Sends a command and reads its response.
+    *
+    * @param command the command and its arguments; see
+    *        {@link #quote(String)} for arguments with spaces
+    * @return the response
+    * @throws java.io.IOException when the connection fails or the server
+    *         closes it
+    */
+   public Response send(String command) throws IOException {
+      if (command.indexOf('\n') >= 0 || command.indexOf('\r') >= 0){
+         throw new IllegalArgumentException("a command is one line");
+      }
+      out.println(command);
+      out.flush();
+
+      List<String> columns = new ArrayList<String>();
+      List<List<String>> rows = new ArrayList<List<String>>();
+      while (true){
+         String line = in.readLine();
+         if (line == null){throw new EOFException("server closed the session");}
+         String[] fields = line.split("\t", -1);
+         if (fields[0].equals("columns")){
+            columns = new ArrayList<String>();
+            for (int i = 1; i < fields.length; i++){columns.add(unescape(fields[i]));}
+         }
+         else if (fields[0].equals("row")){
+            List<String> row = new ArrayList<String>();
+            for (int i = 1; i < fields.length; i++){row.add(unescape(fields[i]));}
+            rows.add(row);
+         }
+         else if (fields[0].equals("ok")){
+            return new Response(CommandContext.OK, fields.length > 2 ? unescape(fields[2]) : "", columns, rows);
+         }
+         else if (fields[0].equals("error")){
+            int status = fields.length > 1 ? Integer.parseInt(fields[1]) : CommandContext.ERROR;
+            return new Response(status, fields.length > 2 ? unescape(fields[2]) : "", columns, rows);
+         }
+      }
+   }//end send
+
+   /**
+    * Ends the session.
+    */
+   public void close() {
+      try{
+         out.println("quit");
+         out.flush();
+         socket.close();
+      }catch (IOException e){
+         // already closed
+      }
+   }
+
+   /**
+    * Quotes a command argument so spaces, quotes and backslashes survive.
+    *
+    * @param argument the argument
+    * @return the quoted argument
+    */
+   public static String quote(String argument) {
+      return "\"" + argument.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+   }
+
+   // reverses CommandContext.escape; \N is NULL
+   private static String unescape(String value){
+      if (value.equals("\\N")){return null;}
+      if (value.indexOf('\\') < 0){return value;}
+      StringBuilder text = new StringBuilder(value.length());
+      for (int i = 0; i < value.length(); i++){
+         char c = value.charAt(i);
+         if (c == '\\' && i + 1 < value.length()){
+            char next = value.charAt(++i);
+            text.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+         }
+         else {text.append(c);}
+      }
+      return text.toString();
+   }
+
+   /**
+    * Opens many sessions at once and runs the same commands in each, then
+    * reports how many completed and how long the commands took.  Exits with
+    * 0 only if every session connected and every command succeeded.
+    *
+    * usage: java [-classpath &lt;classpath&gt;] AmazonClient &lt;host&gt; &lt;port&gt;
+    *        [-sessions n] [-rounds n] [-login "name password"] [-c command]...
+    *
+    * Without -c each session runs help.  With -login every session logs in
+    * as that user first.
+    *
+    * @param args the server, then the options
+    */
+   public static void main (String[] args) {
+      if (args.length < 2 || (args.length - 2) % 2 != 0){
+         System.err.println("Usage: java [-classpath <classpath>] AmazonClient <host> <port> " +
+                            "[-sessions n] [-rounds n] [-login \"name password\"] [-c command]...");
+         System.exit(CommandContext.USAGE);
+      }
+      final String host = args[0];
+      final int port = Integer.parseInt(args[1]);
+      int sessions = 1000;
+      int rounds = 10;
+      String login = null;
+      final List<String> commands = new ArrayList<String>();
+      for (int i = 2; i < args.length; i += 2){
+         if (args[i].equals("-sessions")){sessions = Integer.parseInt(args[i + 1]);}
+         else if (args[i].equals("-rounds")){rounds = Integer.parseInt(args[i + 1]);}
+         else if (args[i].equals("-login")){login = args[i + 1];}
+         else if (args[i].equals("-c")){commands.add(args[i + 1]);}
+         else {
+            System.err.println("Unknown option " + args[i]);
+            System.exit(CommandContext.USAGE);
+         }
+      }
+      if (commands.isEmpty()){commands.add("help");}
+
+      final String loginCommand = login == null ? null : "login " + login;
+      final int roundsPerSession = rounds;
+      final AtomicLong completed = new AtomicLong();
+      final AtomicLong failedCommands = new AtomicLong();
+      final AtomicLong failedSessions = new AtomicLong();
+      final LatencyHistogram latencies = new LatencyHistogram();
+      final String[] firstFailure = new String[1];
+
+      // every session connects before any sends, so all are open at once
+      final CountDownLatch connected = new CountDownLatch(sessions);
+      final CountDownLatch done = new CountDownLatch(sessions);
+      long started = System.nanoTime();
+      ExecutorService executor = CommandProcessor.newSessionExecutor();
+      for (int s = 0; s < sessions; s++){
+         executor.execute(new Runnable(){
+            public void run(){
+               AmazonClient client = null;
+               LatencyHistogram mine = new LatencyHistogram();
+               try{
+                  try{
+                     client = new AmazonClient(host, port);
+                  }finally{
+                     connected.countDown();
+                  }
+                  connected.await();
+                  if (loginCommand != null){check(client.send(loginCommand), loginCommand);}
+                  for (int r = 0; r < roundsPerSession; r++){
+                     for (String command : commands){
+                        long began = System.nanoTime();
+                        Response response = client.send(command);
+                        mine.record((System.nanoTime() - began) / 1000);
+                        if (!response.isOk()){
+                           failedCommands.incrementAndGet();
+                           note(firstFailure, command + ": " + response);
+                        }
+                     }
+                  }
+                  completed.incrementAndGet();
+               }catch (Exception e){
+                  failedSessions.incrementAndGet();
+                  note(firstFailure, e.toString());
+               }finally{
+                  if (client != null){client.close();}
+                  synchronized (latencies){latencies.add(mine);}
+                  done.countDown();
+               }
+            }
+         });
+      }
+
+      int exitCode = CommandContext.OK;
+      try{
+         done.await();
+      }catch (InterruptedException e){
+         exitCode = CommandContext.ERROR;
+      }
+      executor.shutdown();
+      double seconds = (System.nanoTime() - started) / 1e9;
+
+      System.out.println(completed.get() + " of " + sessions + " session(s) completed in " +
+                         String.format("%.1f", seconds) + " s; " + failedSessions.get() + " failed, " +
+                         failedCommands.get() + " command(s) failed.");
+      System.out.println(latencies.getCount() + " command(s), " + String.format("%.1f", latencies.getCount() / seconds) +
+                         "/s; p50 " + latencies.getPercentile(50) / 1000.0 + " ms, p95 " +
+                         latencies.getPercentile(95) / 1000.0 + " ms, p99 " + latencies.getPercentile(99) / 1000.0 +
+                         " ms, max " + latencies.getMax() / 1000.0 + " ms");
+      if (firstFailure[0] != null){System.out.println("first failure: " + firstFailure[0]);}
+      if (failedSessions.get() > 0 || failedCommands.get() > 0){exitCode = CommandContext.ERROR;}
+      System.exit(exitCode);
+   }
+
+   private static void check(Response response, String command) throws IOException {
+      if (!response.isOk()){throw new IOException(command + ": " + response);}
+   }
+
+   private static void note(String[] firstFailure, String failure){
+      synchronized (firstFailure){
+         if (firstFailure[0] == null){firstFailure[0] = failure;}
+      }
+   }
+
+}//end AmazonClient
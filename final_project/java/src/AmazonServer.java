@@ -0,0 +1,244 @@
+/*
+ * Network server for the Amazon store client
+ * ============================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves the menu functions to many clients at once over TCP.  Each
+ * connection is a session: it gets its own {@link CommandProcessor}, so its
+ * own log in, and runs on its own thread (virtual where the JVM has them).
+ * All sessions share one Amazon instance and so one connection pool.
+ *
+ * The protocol is the headless command protocol, one command per line, in
+ * UTF-8.  A client sends a command such as
+ * <pre>
+ *    login Alice secret
+ *    view-products 5
+ * </pre>
+ * and reads back any <code>columns</code> and <code>row</code> lines, then
+ * one status line starting with <code>ok</code> or <code>error</code>, which
+ * ends the response; see {@link CommandProcessor}.  <code>quit</code> closes
+ * the session.  {@link AmazonClient} speaks the protocol.
+ */
+public class AmazonServer {
+
+   private final Amazon esql;
+   private final ServerSocket listener;
+   private final Semaphore slots;
+   private final int idleMillis;
+   private final ExecutorService sessions = CommandProcessor.newSessionExecutor();
+   private final Set<Socket> open = ConcurrentHashMap.<Socket>newKeySet();
+   private final AtomicLong accepted = new AtomicLong();
+   private final AtomicLong refused = new AtomicLong();
+   private volatile boolean running = true;
+
+   /**
+    * Opens the listening socket.
+    *
+    * @param esql the database the sessions share
+    * @param bind the address to listen on
+    * @param port the port to listen on; 0 picks a free one
+    * @param maxSessions the most sessions open at once; more are refused
+    * @param idleMillis how long a session may wait for a command before it
+    *        is closed; 0 waits for ever
+    * @throws java.io.IOException when the port cannot be opened
+    */
+   public AmazonServer(Amazon esql, InetAddress bind, int port, int maxSessions, int idleMillis) throws IOException {
+      this.esql = esql;
+      this.slots = new Semaphore(maxSessions);
+      this.idleMillis = idleMillis;
+      this.listener = new ServerSocket();
+      this.listener.setReuseAddress(true);
+      // a burst of clients connecting at once waits in the backlog
+      this.listener.bind(new InetSocketAddress(bind, port), Math.max(50, maxSessions));
+   }
+
+   public int getPort(){return listener.getLocalPort();}
+   public int getOpenSessions(){return open.size();}
+   public long getAcceptedSessions(){return accepted.get();}
+   public long getRefusedSessions(){return refused.get();}
+
+   /**
+    * Accepts connections until {@link #close()} is called.
+    *
+    * @throws java.io.IOException when the listening socket fails
+    */
+   public void serve() throws IOException {
+      while (running){
+         final Socket socket;
+         try{
+            socket = listener.accept();
+         }catch (SocketException e){
+            if (!running){break;}
+            throw e;
+         }
+
+         if (!slots.tryAcquire()){
+            refused.incrementAndGet();
+            refuse(socket);
+            continue;
+         }
+         accepted.incrementAndGet();
+         open.add(socket);
+         sessions.execute(new Runnable(){
+            public void run(){
+               try{
+                  session(socket);
+               }finally{
+                  open.remove(socket);
+                  slots.release();
+               }
+            }
+         });
+      }
+   }//end serve
+
+   /*
+    * Runs one client's commands until it quits, goes idle or disconnects.
+    */
+   private void session(Socket socket){
+      try{
+         socket.setTcpNoDelay(true);
+         socket.setSoTimeout(idleMillis);
+         BufferedReader commands = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+         PrintStream out = new PrintStream(new BufferedOutputStream(socket.getOutputStream()), false, "UTF-8");
+         CommandProcessor processor = new CommandProcessor(esql);
+
+         String line;
+         while ((line = commands.readLine()) != null){
+            String command = line.trim();
+            if (command.equals("quit") || command.equals("exit")){break;}
+            if (command.length() == 0){continue;}
+            processor.execute(command, out);
+            out.flush();
+         }
+      }catch (SocketTimeoutException e){
+         // idle too long
+      }catch (IOException e){
+         // the client went away
+      }finally{
+         close(socket);
+      }
+   }//end session
+
+   private static void refuse(Socket socket){
+      try{
+         PrintStream out = new PrintStream(socket.getOutputStream(), true, "UTF-8");
+         out.println("error\t" + CommandContext.ERROR + "\tserver busy");
+      }catch (IOException e){
+         // nothing more to tell it
+      }finally{
+         close(socket);
+      }
+   }
+
+   private static void close(Socket socket){
+      try{
+         socket.close();
+      }catch (IOException e){
+         // already closed
+      }
+   }
+
+   /**
+    * Stops accepting connections and closes every open session.
+    */
+   public void close() {
+      running = false;
+      close(listener);
+      for (Socket socket : open){close(socket);}
+      sessions.shutdown();
+      try{
+         sessions.awaitTermination(10, TimeUnit.SECONDS);
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   private static void close(ServerSocket socket){
+      try{
+         socket.close();
+      }catch (IOException e){
+         // already closed
+      }
+   }
+
+   /**
+    * Serves a database until the process is stopped.
+    *
+    * usage: java [-classpath &lt;classpath&gt;] AmazonServer &lt;dbname&gt; &lt;dbport&gt; &lt;user&gt;
+    *        [-port n] [-bind address] [-sessions n] [-idle seconds]
+    *
+    * By default the server listens on localhost:16600, allows 2000 sessions
+    * and closes a session after 30 idle minutes.  Size the connection pool
+    * with -Damazon.pool.size.
+    *
+    * @param args the database, then the options
+    */
+   public static void main (String[] args) {
+      if (args.length < 3 || (args.length - 3) % 2 != 0){
+         System.err.println("Usage: java [-classpath <classpath>] AmazonServer <dbname> <dbport> <user> " +
+                            "[-port n] [-bind address] [-sessions n] [-idle seconds]");
+         return;
+      }
+      int port = 16600;
+      String bind = "localhost";
+      int maxSessions = 2000;
+      int idleSeconds = 1800;
+      for (int i = 3; i < args.length; i += 2){
+         if (args[i].equals("-port")){port = Integer.parseInt(args[i + 1]);}
+         else if (args[i].equals("-bind")){bind = args[i + 1];}
+         else if (args[i].equals("-sessions")){maxSessions = Integer.parseInt(args[i + 1]);}
+         else if (args[i].equals("-idle")){idleSeconds = Integer.parseInt(args[i + 1]);}
+         else {
+            System.err.println("Unknown option " + args[i]);
+            return;
+         }
+      }
+
+      Amazon esql = null;
+      try{
+         Class.forName("org.postgresql.Driver").newInstance();
+         esql = new Amazon(args[0], args[1], args[2], "");
+         esql.getPopularity();
+
+         final AmazonServer server = new AmazonServer(esql, InetAddress.getByName(bind), port, maxSessions,
+                                                      (int) Math.min(Integer.MAX_VALUE, idleSeconds * 1000L));
+         Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+            public void run(){server.close();}
+         }, "server-shutdown"));
+         System.out.println("Serving on " + bind + ":" + server.getPort() + ", up to " + maxSessions + " sessions.");
+         server.serve();
+      }catch (Exception e){
+         System.err.println(e.getMessage());
+      }finally{
+         if (esql != null){esql.cleanup();}
+      }
+   }
+
+}//end AmazonServer
@@ -0,0 +1,671 @@
+/*
+ * Bulk CSV loader for the Amazon store database
+ * ===============================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads the tables from CSV files laid out like <code>data/*.csv</code>,
+ * streaming each file from the client, so the files need not be readable by
+ * the database server.
+ *
+ * The tables are loaded in stages that follow the foreign keys:
+ * <pre>
+ *    Users, Warehouse
+ *    Store
+ *    Product
+ *    Orders, ProductSupplyRequests, ProductUpdates
+ * </pre>
+ * The tables of a stage are loaded at the same time on separate
+ * connections, and a large file is split at line boundaries into parts that
+ * are loaded at the same time too, so a file of millions of orders is read
+ * by several backends at once.  Each part is loaded in its own transaction.
+ * The columns are named by each file's header.
+ *
+ * The insert triggers are switched off for the load
+ * (<code>amazon.bulk_load</code>): the files hold history, which has already
+ * been applied to the stock.  Afterwards orders without a price are priced at
+ * their products' prices, each serial sequence is set past the largest key
+ * loaded, and StoreSales and CustomerSpend are rebuilt if triggers.sql has
+ * been run.
+ *
+ * With the driver the client ships, lib/pg73jdbc3.jar, the rows are
+ * inserted a batch at a time, one INSERT per batch with each column sent as
+ * an array.  When a driver with the copy API (PostgreSQL JDBC 8.4 or later)
+ * is on the classpath instead, each part is streamed with COPY ... FROM
+ * STDIN, which loads the same rows faster.
+ */
+public class BulkLoader {
+
+   /**
+    * A table and the file it is loaded from.
+    */
+   static class Source {
+      final String table;
+      final String file;
+      final String serial;   // the serial key column, or null
+
+      Source(String table, String file, String serial){
+         this.table = table;
+         this.file = file;
+         this.serial = serial;
+      }
+   }//end Source
+
+   // each stage only references tables loaded by the stages before it
+   private static final Source[][] STAGES = {
+      {new Source("Users", "users.csv", "userID"), new Source("Warehouse", "warehouse.csv", null)},
+      {new Source("Store", "stores.csv", null)},
+      {new Source("Product", "products.csv", null)},
+      {new Source("Orders", "orders.csv", "orderNumber"),
+       new Source("ProductSupplyRequests", "productSupplyRequests.csv", "requestNumber"),
+       new Source("ProductUpdates", "productUpdates.csv", "updateNumber")}
+   };
+
+   /**
+    * What a load did.
+    */
+   public static class Result {
+      private final Map<String, Long> rows = new LinkedHashMap<String, Long>();
+      private final Map<String, Long> millis = new LinkedHashMap<String, Long>();
+      private boolean copied = true;
+      private long elapsedMillis = 0;
+
+      /** @return the rows loaded into each table, in load order */
+      public Map<String, Long> getRows(){return rows;}
+      /** @return how long each table took to load, in milliseconds */
+      public Map<String, Long> getMillis(){return millis;}
+      /** @return false when the driver had no copy API and rows were inserted */
+      public boolean isCopied(){return copied;}
+      public long getElapsedMillis(){return elapsedMillis;}
+
+      synchronized void add(String table, long count, long elapsed){
+         Long before = rows.get(table);
+         rows.put(table, Long.valueOf((before == null ? 0 : before.longValue()) + count));
+         Long slowest = millis.get(table);
+         millis.put(table, Long.valueOf(Math.max(slowest == null ? 0 : slowest.longValue(), elapsed)));
+      }
+   }//end Result
+
+   /**
+    * The byte range of a file loaded in one transaction.  The header is
+    * never part of a range.
+    */
+   static class Part {
+      final long start;
+      final long end;
+
+      Part(long start, long end){
+         this.start = start;
+         this.end = end;
+      }
+   }//end Part
+
+   // a file is split into parts of at least this many bytes
+   private static final long MIN_PART_BYTES = 8L << 20;
+   // rows per batch when the driver cannot COPY
+   private static final int BATCH_SIZE = 5000;
+
+   private final Amazon esql;
+   private final File dataDir;
+   private final int threads;
+
+   /**
+    * @param esql the database to load
+    * @param dataDir the directory holding the CSV files
+    * @param threads how many files or parts are loaded at once; the
+    *        connection pool should have at least this many connections
+    */
+   public BulkLoader(Amazon esql, File dataDir, int threads) {
+      this.esql = esql;
+      this.dataDir = dataDir;
+      this.threads = Math.max(1, threads);
+   }
+
+   /**
+    * Loads every table whose file is in the data directory.  The tables
+    * should be empty; see {@link #truncate()}.
+    *
+    * @return the rows loaded into each table
+    * @throws java.io.IOException when a file cannot be read
+    * @throws java.sql.SQLException when a part fails to load; parts already
+    *         committed stay loaded
+    */
+   public Result load() throws IOException, SQLException {
+      long start = System.currentTimeMillis();
+      final Result result = new Result();
+      List<Source> loaded = new ArrayList<Source>();
+
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try{
+         for (Source[] stage : STAGES){
+            List<Future<Long>> parts = new ArrayList<Future<Long>>();
+            for (final Source source : stage){
+               final File file = new File(dataDir, source.file);
+               if (!file.isFile()){continue;}
+               loaded.add(source);
+
+               final String columns = columns(file);
+               if (source.table.equals("Orders")){createPartitions(file, columns);}
+               final long began = System.currentTimeMillis();
+               for (final Part part : split(file)){
+                  parts.add(executor.submit(new Callable<Long>(){
+                     public Long call() throws Exception {
+                        long count = loadPart(source, columns, file, part, result);
+                        result.add(source.table, count, System.currentTimeMillis() - began);
+                        return Long.valueOf(count);
+                     }
+                  }));
+               }
+            }
+            await(parts);
+         }
+      }finally{
+         executor.shutdownNow();
+      }
+
+      finish(loaded);
+      result.elapsedMillis = System.currentTimeMillis() - start;
+      return result;
+   }//end load
+
+   /*
+    * Waits for every part of a stage; the first failure cancels the rest and
+    * is rethrown.
+    */
+   private static void await(List<Future<Long>> parts) throws IOException, SQLException {
+      try{
+         for (Future<Long> part : parts){part.get();}
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+         throw new SQLException("load interrupted");
+      }catch (ExecutionException e){
+         for (Future<Long> part : parts){part.cancel(true);}
+         Throwable cause = e.getCause();
+         if (cause instanceof SQLException){throw (SQLException) cause;}
+         if (cause instanceof IOException){throw (IOException) cause;}
+         if (cause instanceof RuntimeException){throw (RuntimeException) cause;}
+         throw new SQLException(cause.toString());
+      }
+   }
+
+   /*
+    * Loads one part of a file in one transaction.
+    */
+   private long loadPart(Source source, String columns, File file, Part part, Result result) throws IOException, SQLException {
+      Connection conn = esql.getConnection();
+      try{
+         conn.setAutoCommit(false);
+         esql.prepare(conn, "SET LOCAL amazon.bulk_load = 'on'").execute();
+         // stores.csv writes dates as month/day/year
+         esql.prepare(conn, "SET LOCAL DateStyle = 'ISO, MDY'").execute();
+
+         long count;
+         Reader in = new InputStreamReader(new BufferedInputStream(new Slice(file, part), 1 << 16), "UTF-8");
+         try{
+            Object copy = copyAPI(conn);
+            if (copy != null){
+               esql.getMetrics().roundTrip();
+               count = copyIn(copy, "COPY " + source.table + " (" + columns + ") FROM STDIN WITH DELIMITER ',' CSV", in);
+            }
+            else {
+               synchronized (result){result.copied = false;}
+               count = insert(conn, source.table, columns, in);
+            }
+         }finally{
+            in.close();
+         }
+         conn.commit();
+         return count;
+      }catch (SQLException e){
+         rollback(conn);
+         throw new SQLException(source.table + " from " + source.file + " bytes " + part.start + "-" + part.end +
+                                ": " + e.getMessage(), e.getSQLState());
+      }finally{
+         esql.releaseConnection(conn);
+      }
+   }//end loadPart
+
+   private static void rollback(Connection conn){
+      try{
+         conn.rollback();
+      }catch (SQLException e){
+         // the connection is closed by the pool if it is broken
+      }
+   }
+
+   /*
+    * The driver's CopyManager for a connection, or null if the driver has
+    * none.  Looked up by reflection, so the client still compiles and runs
+    * against the bundled 7.3 driver.
+    */
+   private static Object copyAPI(Connection conn) throws SQLException {
+      try{
+         Class<?> pgConnection = Class.forName("org.postgresql.PGConnection");
+         if (!pgConnection.isInstance(conn)){return null;}
+         return pgConnection.getMethod("getCopyAPI").invoke(conn);
+      }catch (ClassNotFoundException e){
+         return null;
+      }catch (NoSuchMethodException e){
+         return null;
+      }catch (IllegalAccessException e){
+         return null;
+      }catch (InvocationTargetException e){
+         if (e.getCause() instanceof SQLException){throw (SQLException) e.getCause();}
+         throw new SQLException(e.getCause().toString());
+      }
+   }
+
+   private static long copyIn(Object copy, String sql, Reader in) throws IOException, SQLException {
+      try{
+         Method copyIn = copy.getClass().getMethod("copyIn", String.class, Reader.class);
+         return ((Long) copyIn.invoke(copy, sql, in)).longValue();
+      }catch (NoSuchMethodException e){
+         throw new SQLException("the driver cannot COPY: " + e.getMessage());
+      }catch (IllegalAccessException e){
+         throw new SQLException("the driver cannot COPY: " + e.getMessage());
+      }catch (InvocationTargetException e){
+         Throwable cause = e.getCause();
+         if (cause instanceof SQLException){throw (SQLException) cause;}
+         if (cause instanceof IOException){throw (IOException) cause;}
+         throw new SQLException(cause.toString());
+      }
+   }
+
+   /*
+    * Inserts the rows of a part, for drivers without COPY, with one
+    * statement per batch: each column of the batch is sent as one array
+    * literal and the server unnests the arrays into rows, so a batch costs
+    * one round trip and one statement however old the driver.  Each value
+    * is cast to its column's type by the server, as COPY would parse it; an
+    * empty field is NULL.
+    */
+   private long insert(Connection conn, String table, String columns, Reader in) throws IOException, SQLException {
+      String[] names = columns.split(",");
+      Map<String, String> types = new LinkedHashMap<String, String>();
+      ResultSet rs = esql.prepare(conn,
+         "SELECT lower(attname), format_type(atttypid, atttypmod) FROM pg_attribute " +
+         "WHERE attrelid = CAST(? AS regclass) AND attnum > 0 AND NOT attisdropped", table.toLowerCase()).executeQuery();
+      try{
+         while (rs.next()){types.put(rs.getString(1), rs.getString(2));}
+      }finally{
+         rs.close();
+      }
+
+      StringBuilder sql = new StringBuilder("INSERT INTO " + table + " (" + columns + ") SELECT * FROM unnest(");
+      for (int i = 0; i < names.length; i++){
+         String type = types.get(names[i].toLowerCase());
+         if (type == null){throw new SQLException(table + " has no column " + names[i]);}
+         sql.append(i == 0 ? "" : ", ").append("CAST(? AS ").append(type).append("[])");
+      }
+      sql.append(")");
+      PreparedStatement stmt = esql.prepare(conn, sql.toString());
+
+      StringBuilder[] arrays = new StringBuilder[names.length];
+      for (int i = 0; i < names.length; i++){arrays[i] = new StringBuilder("{");}
+      BufferedReader lines = new BufferedReader(in, 1 << 16);
+      long count = 0;
+      int batched = 0;
+      String line;
+      while ((line = lines.readLine()) != null){
+         if (line.length() == 0){continue;}
+         List<String> values = fields(line);
+         if (values.size() != names.length){
+            throw new SQLException(table + ": expected " + names.length + " fields in " + line);
+         }
+         for (int i = 0; i < names.length; i++){
+            if (batched > 0){arrays[i].append(',');}
+            String value = values.get(i);
+            if (value == null){arrays[i].append("NULL");}
+            else {arrays[i].append('"').append(value.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');}
+         }
+         count++;
+         if (++batched == BATCH_SIZE){
+            insert(stmt, arrays);
+            batched = 0;
+         }
+      }
+      if (batched > 0){insert(stmt, arrays);}
+      return count;
+   }//end insert
+
+   // inserts one batch of array literals and starts the next
+   private static void insert(PreparedStatement stmt, StringBuilder[] arrays) throws SQLException {
+      for (int i = 0; i < arrays.length; i++){
+         stmt.setString(i + 1, arrays[i].append('}').toString());
+         arrays[i].setLength(0);
+         arrays[i].append('{');
+      }
+      stmt.executeUpdate();
+   }
+
+   /*
+    * Splits one CSV line as COPY would: an unquoted empty field is NULL, a
+    * quoted one is the empty string, and "" inside quotes is one quote.
+    */
+   static List<String> fields(String line){
+      List<String> fields = new ArrayList<String>();
+      StringBuilder field = new StringBuilder();
+      boolean quoted = false;
+      boolean wasQuoted = false;
+      for (int i = 0; i < line.length(); i++){
+         char c = line.charAt(i);
+         if (quoted){
+            if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"'){field.append('"'); i++;}
+            else if (c == '"'){quoted = false;}
+            else {field.append(c);}
+         }
+         else if (c == '"'){quoted = true; wasQuoted = true;}
+         else if (c == ','){
+            fields.add(field.length() == 0 && !wasQuoted ? null : field.toString());
+            field.setLength(0);
+            wasQuoted = false;
+         }
+         else if (c != '\r'){field.append(c);}
+      }
+      fields.add(field.length() == 0 && !wasQuoted ? null : field.toString());
+      return fields;
+   }
+
+   /*
+    * After every stage: prices the orders, moves the sequences past the
+    * loaded keys, rebuilds the summaries and refreshes the planner's
+    * statistics.
+    */
+   private void finish(List<Source> loaded) throws SQLException {
+      Connection conn = esql.getConnection();
+      try{
+         for (Source source : loaded){
+            // a client sharing this Amazon reloads its store locations
+            if (source.table.equals("Store")){esql.invalidateStoreIndex();}
+            if (source.table.equals("Orders") && exists(conn, "move_default_orders")){
+               // orders of months createPartitions did not foresee
+               esql.prepare(conn, "SELECT move_default_orders()").executeQuery().close();
+            }
+            if (source.table.equals("Orders")){
+               esql.prepare(conn,
+                  "UPDATE Orders SET price = Orders.unitsOrdered * Product.pricePerUnit " +
+                  "FROM Product " +
+                  "WHERE Orders.price IS NULL " +
+                  "AND Product.storeID = Orders.storeID AND Product.productName = Orders.productName").executeUpdate();
+            }
+            if (source.serial != null){
+               // the next key is one past the largest loaded, or 1 for an empty table
+               esql.prepare(conn,
+                  "SELECT setval(pg_get_serial_sequence(?, ?), COALESCE(MAX(" + source.serial + "), 0) + 1, false) " +
+                  "FROM " + source.table, source.table.toLowerCase(), source.serial.toLowerCase()).executeQuery().close();
+            }
+         }
+
+         String[] summaries = {"refresh_store_sales", "refresh_customer_spend"};
+         for (String refresh : summaries){
+            if (exists(conn, refresh)){esql.prepare(conn, "SELECT " + refresh + "()").executeQuery().close();}
+         }
+
+         for (Source source : loaded){esql.prepare(conn, "ANALYZE " + source.table).execute();}
+      }finally{
+         esql.releaseConnection(conn);
+      }
+   }//end finish
+
+   /*
+    * Whether a function exists, e.g. one defined by triggers.sql.
+    */
+   private boolean exists(Connection conn, String function) throws SQLException {
+      ResultSet rs = esql.prepare(conn, "SELECT COUNT(*) FROM pg_proc WHERE proname = ?", function).executeQuery();
+      try{
+         return rs.next() && rs.getInt(1) > 0;
+      }finally{
+         rs.close();
+      }
+   }
+
+   /*
+    * Creates the monthly partitions of Orders from the month of the file's
+    * first order to that of its last, before any row arrives, so the rows
+    * are not loaded into the default partition and moved out after.  The
+    * files are in time order, as DataGenerator writes them; orders outside
+    * the range are moved by finish().
+    */
+   private void createPartitions(File file, String columns) throws IOException, SQLException {
+      int column = Arrays.asList(columns.toLowerCase().split(",")).indexOf("ordertime");
+      if (column < 0){return;}
+
+      String first;
+      BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+      try{
+         in.readLine();
+         first = in.readLine();
+      }finally{
+         in.close();
+      }
+      String last = null;
+      RandomAccessFile tail = new RandomAccessFile(file, "r");
+      try{
+         byte[] bytes = new byte[(int) Math.min(tail.length(), 4096)];
+         tail.seek(tail.length() - bytes.length);
+         tail.readFully(bytes);
+         for (String line : new String(bytes, "UTF-8").split("\n")){
+            if (line.trim().length() > 0){last = line;}
+         }
+      }finally{
+         tail.close();
+      }
+      if (first == null || last == null){return;}
+
+      Timestamp from;
+      Timestamp to;
+      try{
+         from = Timestamp.valueOf(fields(first).get(column).trim());
+         to = Timestamp.valueOf(fields(last).get(column).trim());
+      }catch (RuntimeException e){
+         return;
+      }
+
+      Connection conn = esql.getConnection();
+      try{
+         if (!exists(conn, "create_orders_partitions")){return;}
+         esql.prepare(conn, "SELECT create_orders_partitions(?, ?)", from.before(to) ? from : to,
+                      from.before(to) ? to : from).executeQuery().close();
+      }finally{
+         esql.releaseConnection(conn);
+      }
+   }//end createPartitions
+
+   /**
+    * Empties every table the loader fills, and the summaries.  No delete
+    * triggers fire.
+    *
+    * @throws java.sql.SQLException when the tables cannot be truncated
+    */
+   public void truncate() throws SQLException {
+      Connection conn = esql.getConnection();
+      try{
+         esql.prepare(conn, "TRUNCATE Users, Store, Product, Warehouse, Orders, ProductSupplyRequests, " +
+                            "ProductUpdates, StoreSales, CustomerSpend").execute();
+      }finally{
+         esql.releaseConnection(conn);
+      }
+   }
+
+   /*
+    * The column list named by a file's header.
+    */
+   private static String columns(File file) throws IOException {
+      BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+      try{
+         String header = in.readLine();
+         if (header == null){throw new IOException(file + " is empty");}
+         StringBuilder columns = new StringBuilder();
+         for (String column : header.split(",")){
+            String name = column.trim();
+            if (!name.matches("[A-Za-z_][A-Za-z0-9_]*")){throw new IOException(file + ": bad column name " + name);}
+            columns.append(columns.length() == 0 ? "" : ",").append(name);
+         }
+         return columns.toString();
+      }finally{
+         in.close();
+      }
+   }
+
+   /*
+    * Splits a file after its header into about one part per thread, each at
+    * least MIN_PART_BYTES, ending at line boundaries.
+    */
+   List<Part> split(File file) throws IOException {
+      List<Part> parts = new ArrayList<Part>();
+      RandomAccessFile in = new RandomAccessFile(file, "r");
+      try{
+         long size = in.length();
+         long start = lineEnd(in, 0);
+         int count = (int) Math.max(1, Math.min(threads, (size - start) / MIN_PART_BYTES));
+         for (int i = 1; i < count; i++){
+            long end = lineEnd(in, start + (size - start) / (count - i + 1));
+            if (end >= size){break;}
+            parts.add(new Part(start, end));
+            start = end;
+         }
+         if (start < size){parts.add(new Part(start, size));}
+      }finally{
+         in.close();
+      }
+      return parts;
+   }
+
+   // the offset just past the first newline at or after a position
+   private static long lineEnd(RandomAccessFile in, long position) throws IOException {
+      byte[] buffer = new byte[8192];
+      in.seek(position);
+      while (true){
+         int read = in.read(buffer);
+         if (read < 0){return in.length();}
+         for (int i = 0; i < read; i++){
+            if (buffer[i] == '\n'){return position + i + 1;}
+         }
+         position += read;
+      }
+   }
+
+   /*
+    * Reads one part of a file.
+    */
+   static class Slice extends InputStream {
+      private final FileInputStream in;
+      private long remaining;
+
+      Slice(File file, Part part) throws IOException {
+         in = new FileInputStream(file);
+         in.getChannel().position(part.start);
+         remaining = part.end - part.start;
+      }
+
+      public int read() throws IOException {
+         if (remaining <= 0){return -1;}
+         int b = in.read();
+         if (b >= 0){remaining--;}
+         return b;
+      }
+
+      public int read(byte[] buffer, int offset, int length) throws IOException {
+         if (remaining <= 0){return -1;}
+         int read = in.read(buffer, offset, (int) Math.min(length, remaining));
+         if (read > 0){remaining -= read;}
+         return read;
+      }
+
+      public void close() throws IOException {
+         in.close();
+      }
+   }//end Slice
+
+   /**
+    * Loads a database from a directory of CSV files.
+    *
+    * usage: java [-classpath &lt;classpath&gt;] BulkLoader &lt;dbname&gt; &lt;dbport&gt; &lt;user&gt;
+    *        [-data dir] [-threads n] [-truncate]
+    *
+    * By default the files are read from ../../data, and one part is loaded
+    * per processor.  With -truncate the tables are emptied first.
+    *
+    * @param args the database, then the options
+    */
+   public static void main (String[] args) {
+      if (args.length < 3){
+         System.err.println("Usage: java [-classpath <classpath>] BulkLoader <dbname> <dbport> <user> " +
+                            "[-data dir] [-threads n] [-truncate]");
+         return;
+      }
+      String data = "../../data";
+      int threads = Runtime.getRuntime().availableProcessors();
+      boolean truncate = false;
+      for (int i = 3; i < args.length; i++){
+         if (args[i].equals("-data") && i + 1 < args.length){data = args[++i];}
+         else if (args[i].equals("-threads") && i + 1 < args.length){threads = Integer.parseInt(args[++i]);}
+         else if (args[i].equals("-truncate")){truncate = true;}
+         else {
+            System.err.println("Unknown option " + args[i]);
+            return;
+         }
+      }
+      // one connection per part in flight; a large part holds its
+      // connection for longer than the pool's leak threshold
+      if (Integer.getInteger("amazon.pool.size", 8) < threads){System.setProperty("amazon.pool.size", String.valueOf(threads));}
+      if (System.getProperty("amazon.pool.leakMs") == null){System.setProperty("amazon.pool.leakMs", "3600000");}
+
+      Amazon esql = null;
+      try{
+         Class.forName("org.postgresql.Driver").newInstance();
+         esql = new Amazon(args[0], args[1], args[2], "");
+         BulkLoader loader = new BulkLoader(esql, new File(data), threads);
+         if (truncate){loader.truncate();}
+
+         Result result = loader.load();
+         for (Map.Entry<String, Long> table : result.getRows().entrySet()){
+            long millis = result.getMillis().get(table.getKey()).longValue();
+            System.out.println(String.format("%-22s %10d rows %8.1f s %12.0f rows/s", table.getKey(),
+                               table.getValue().longValue(), millis / 1000.0,
+                               table.getValue().longValue() * 1000.0 / Math.max(1, millis)));
+         }
+         System.out.println("Loaded in " + String.format("%.1f", result.getElapsedMillis() / 1000.0) + " s" +
+                            (result.isCopied() ? " with COPY." : " with batched array inserts."));
+      }catch (Exception e){
+         System.err.println(e.getMessage());
+      }finally{
+         if (esql != null){esql.cleanup();}
+      }
+   }
+
+}//end BulkLoader
@@ -0,0 +1,238 @@
+/*
+ * Headless command state for the Amazon store client
+ * ====================================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * The state of one command run without a terminal by
+ * {@link CommandProcessor}.  While a context is active on a thread, the menu
+ * functions in {@link Amazon} run headless:
+ * <ul>
+ * <li>their prompts are answered from the command's arguments, in order;</li>
+ * <li>anything they print to standard out is dropped, except query results,
+ *     which are written as tab separated lines;</li>
+ * <li>error banners, sleeps and screen clears become a status code.</li>
+ * </ul>
+ * Threads without a context, such as the interactive menu, are unaffected,
+ * so any number of commands can run at once on different threads.
+ *
+ * Result lines are written as
+ * <pre>
+ *    columns &lt;TAB&gt; name ...
+ *    row &lt;TAB&gt; value ...
+ * </pre>
+ * and the command ends with one status line written by the caller.
+ */
+public class CommandContext {
+
+   /** the command succeeded */
+   public static final int OK = 0;
+   /** the command was refused: bad input, permissions, or a rule of the store */
+   public static final int REJECTED = 1;
+   /** the command or its arguments were malformed */
+   public static final int USAGE = 2;
+   /** the command failed in the database or with an unexpected error */
+   public static final int ERROR = 3;
+
+   private static final ThreadLocal<CommandContext> CURRENT = new ThreadLocal<CommandContext>();
+
+   private static PrintStream console = null;
+
+   private final Deque<String> arguments;
+   private final PrintStream out;
+   private int status = OK;
+   private String message = "";
+   private int rowCount = 0;
+   private String sqlState = null;
+
+   /**
+    * @param arguments the answers to the prompts, in order
+    * @param out where result lines are written
+    */
+   public CommandContext(List<String> arguments, PrintStream out) {
+      this.arguments = new ArrayDeque<String>(arguments);
+      this.out = out;
+   }
+
+   /**
+    * @return the context of the command running on this thread, or null when
+    *         the thread is interactive
+    */
+   public static CommandContext current() {
+      return CURRENT.get();
+   }
+
+   /**
+    * Makes this the context of the current thread until {@link #end()}.
+    */
+   public void begin() {
+      install();
+      CURRENT.set(this);
+   }
+
+   public void end() {
+      CURRENT.remove();
+   }
+
+   /**
+    * @return the real standard out; System.out itself drops the output of
+    *         threads running a command
+    */
+   public static synchronized PrintStream console() {
+      install();
+      return console;
+   }
+
+   /*
+    * Replaces System.out, once, with a stream that drops output from threads
+    * running a command and passes everything else through.
+    */
+   private static synchronized void install() {
+      if (console != null){return;}
+      console = System.out;
+      final PrintStream passThrough = console;
+      System.setOut(new PrintStream(new OutputStream(){
+         public void write(int b){
+            if (CURRENT.get() == null){passThrough.write(b);}
+         }
+         public void write(byte[] b, int off, int len){
+            if (CURRENT.get() == null){passThrough.write(b, off, len);}
+         }
+         public void flush(){passThrough.flush();}
+      }, true));
+   }
+
+   /**
+    * @return the next prompt answer
+    * @throws java.io.IOException when the command has no arguments left
+    */
+   String nextArgument() throws IOException {
+      String argument = arguments.poll();
+      if (argument == null){
+         fail(USAGE, "missing argument");
+         throw new IOException("missing argument");
+      }
+      return argument;
+   }
+
+   public int getUnusedArguments(){return arguments.size();}
+
+   /**
+    * Records a failure.  The first failure of a command wins, since later
+    * ones are usually its consequences.
+    *
+    * @param status the status code
+    * @param message what went wrong
+    */
+   public void fail(int status, String message) {
+      if (this.status != OK){return;}
+      this.status = status;
+      this.message = clean(message);
+   }
+
+   /**
+    * Records a failure caused by an exception.  A database error keeps its
+    * SQLSTATE, so a caller can tell deadlocks and other conflicts apart.
+    *
+    * @param e the exception
+    */
+   public void fail(Exception e) {
+      if (status != OK){return;}
+      fail(ERROR, e.getMessage());
+      if (e instanceof SQLException){sqlState = ((SQLException) e).getSQLState();}
+   }
+
+   /**
+    * Records an informational message for the status line.
+    *
+    * @param message the message
+    */
+   public void inform(String message) {
+      if (status == OK){this.message = clean(message);}
+   }
+
+   public int getStatus(){return status;}
+   public String getMessage(){return message;}
+   public String getSQLState(){return sqlState;}
+   public int getRowCount(){return rowCount;}
+
+   void columns(String[] names) {
+      StringBuilder line = new StringBuilder("columns");
+      for (String name : names){line.append('\t').append(escape(name));}
+      out.println(line);
+   }
+
+   void row(String[] values) {
+      StringBuilder line = new StringBuilder("row");
+      for (String value : values){line.append('\t').append(value == null ? "\\N" : escape(trimRight(value)));}
+      out.println(line);
+      rowCount++;
+   }
+
+   /*
+    * Turns an error banner into a one line message.
+    */
+   private static String clean(String text){
+      if (text == null){return "";}
+      return text.replaceAll("-{3,}", " ").replace('|', ' ').replaceAll("\\s+", " ").trim();
+   }
+
+   private static String trimRight(String value){
+      int end = value.length();
+      while (end > 0 && value.charAt(end - 1) == ' '){end--;}
+      return value.substring(0, end);
+   }
+
+   /**
+    * Escapes tabs, newlines and backslashes so a value stays on one field.
+    *
+    * @param value the value
+    * @return the escaped value
+    */
+   static String escape(String value){
+      StringBuilder escaped = null;
+      for (int i = 0; i < value.length(); i++){
+         char c = value.charAt(i);
+         String replacement = c == '\t' ? "\\t" : c == '\n' ? "\\n" : c == '\r' ? "\\r" : c == '\\' ? "\\\\" : null;
+         if (replacement != null && escaped == null){escaped = new StringBuilder(value.substring(0, i));}
+         if (escaped != null){
+            if (replacement != null){escaped.append(replacement);}
+            else {escaped.append(c);}
+         }
+      }
+      return escaped == null ? value : escaped.toString();
+   }
+
+   /**
+    * The reader behind {@link Amazon#in}: a thread running a command reads
+    * its arguments, any other thread reads standard in.
+    */
+   static class Input extends BufferedReader {
+      Input(){
+         super(new InputStreamReader(System.in));
+      }
+
+      public String readLine() throws IOException {
+         CommandContext context = CURRENT.get();
+         return context == null ? super.readLine() : context.nextArgument();
+      }
+   }//end Input
+
+}//end CommandContext
@@ -0,0 +1,366 @@
+/*
+ * Headless command mode for the Amazon store client
+ * ===================================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the menu functions of {@link Amazon} from commands, one per line,
+ * with no prompts, sleeps or screen clears.  A command is a name followed by
+ * the answers to the function's prompts, in the order it asks them, e.g.
+ * <pre>
+ *    login Alice secret
+ *    view-products 5
+ *    place-order 5 Pepsi 2 yes
+ *    view-everything 4 100 200 -
+ * </pre>
+ * Arguments are separated by white space; double quote one that contains
+ * spaces.  A menu number works as well as a name.
+ *
+ * The commands that list a whole relation (view-everything,
+ * admin-view-users, admin-view-products) show one page at a time, see
+ * {@link Pager}.  Their last argument is '-' for the first page or a page
+ * token, and the status message names the tokens of the pages around it:
+ * <pre>
+ *    ok &lt;TAB&gt; 30 &lt;TAB&gt; next &lt;token&gt; previous -
+ * </pre>
+ *
+ * Query results are written as <code>columns</code> and <code>row</code>
+ * lines (see {@link CommandContext}), then every command ends with a status
+ * line:
+ * <pre>
+ *    ok &lt;TAB&gt; rows &lt;TAB&gt; message
+ *    error &lt;TAB&gt; status &lt;TAB&gt; message
+ * </pre>
+ * where status is one of the codes in {@link CommandContext}.
+ *
+ * A processor holds one user's log in and is used by one thread at a time;
+ * processors on different threads can share an Amazon instance.
+ */
+public class CommandProcessor {
+
+   // command names, indexed by menu number
+   private static final String[] MENU = new String[26];
+   static {
+      MENU[1] = "view-stores";
+      MENU[2] = "view-products";
+      MENU[3] = "place-order";
+      MENU[4] = "view-recent-orders";
+      MENU[5] = "view-favorite-products";
+      MENU[6] = "view-store-information";
+      MENU[7] = "manager-view-stores";
+      MENU[8] = "update-product";
+      MENU[9] = "view-recent-updates";
+      MENU[10] = "view-popular-products";
+      MENU[11] = "view-popular-customers";
+      MENU[12] = "place-supply-request";
+      MENU[13] = "view-supply-requests";
+      MENU[14] = "view-order-information";
+      MENU[15] = "view-store-customers";
+      MENU[16] = "view-top-spenders";
+      MENU[17] = "admin-view-users";
+      MENU[18] = "admin-edit-users";
+      MENU[19] = "admin-view-products";
+      MENU[20] = "admin-edit-products";
+      MENU[21] = "view-everything";
+      MENU[22] = "delete-store";
+      MENU[23] = "delete-warehouse";
+      MENU[24] = "import-orders";
+      MENU[25] = "view-metrics";
+   }
+
+   private final Amazon esql;
+   private Session session = null;
+
+   /**
+    * @param esql the database the commands run against
+    */
+   public CommandProcessor(Amazon esql) {
+      this.esql = esql;
+   }
+
+   /**
+    * @return the logged in user, or null
+    */
+   public Session getSession(){return session;}
+
+   /**
+    * Runs one command.
+    *
+    * @param line the command and its arguments
+    * @param out where the results and the status line are written
+    * @return the command's status, {@link CommandContext#OK} on success
+    */
+   public int execute(String line, PrintStream out) {
+      CommandContext context = perform(line, out);
+      String message = context.getMessage();
+      if (context.getStatus() == CommandContext.OK && context.getUnusedArguments() > 0){
+         message = (message + " (ignored " + context.getUnusedArguments() + " argument(s))").trim();
+      }
+      return finish(out, context.getStatus(), context.getRowCount(), message);
+   }//end execute
+
+   /**
+    * Runs one command without writing its status line.
+    *
+    * @param line the command and its arguments
+    * @param out where the results are written
+    * @return the finished command's context, with its status and message
+    */
+   public CommandContext perform(String line, PrintStream out) {
+      List<String> words;
+      try{
+         words = split(line);
+      }catch (IllegalArgumentException e){
+         CommandContext context = new CommandContext(new ArrayList<String>(), out);
+         context.fail(CommandContext.USAGE, e.getMessage());
+         return context;
+      }
+
+      CommandContext context = new CommandContext(words.isEmpty() ? words : words.subList(1, words.size()), out);
+      if (words.isEmpty()){
+         context.fail(CommandContext.USAGE, "empty command");
+         return context;
+      }
+      context.begin();
+      try{
+         dispatch(words.get(0).toLowerCase(), context);
+      }catch (Exception e){
+         context.fail(e);
+      }finally{
+         context.end();
+      }
+      return context;
+   }//end perform
+
+   /**
+    * Runs commands read from a stream until it ends or a <code>quit</code>
+    * line.  Blank lines and lines starting with '#' are skipped.
+    *
+    * @param commands the commands, one per line
+    * @param out where the results and status lines are written
+    * @param keepGoing whether to carry on after a command fails
+    * @return the status of the first failed command, or OK
+    * @throws java.io.IOException when the commands cannot be read
+    */
+   public int run(Reader commands, PrintStream out, boolean keepGoing) throws IOException {
+      BufferedReader lines = new BufferedReader(commands);
+      int firstFailure = CommandContext.OK;
+      String line;
+      while ((line = lines.readLine()) != null){
+         String command = line.trim();
+         if (command.length() == 0 || command.startsWith("#")){continue;}
+         if (command.equals("quit") || command.equals("exit")){break;}
+
+         int status = execute(command, out);
+         if (status != CommandContext.OK){
+            if (firstFailure == CommandContext.OK){firstFailure = status;}
+            if (!keepGoing){break;}
+         }
+      }
+      out.flush();
+      return firstFailure;
+   }//end run
+
+   /**
+    * Returns an executor that runs each task on a new thread, for sessions
+    * that spend most of their time waiting on a client or the database.
+    * The threads are virtual where the JVM has them (Java 21 and later);
+    * the factory is looked up reflectively so the client still builds and
+    * runs on older JVMs, which get platform threads.
+    *
+    * @return the executor
+    */
+   public static ExecutorService newSessionExecutor() {
+      try{
+         Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+         return (ExecutorService) virtual.invoke(null);
+      }catch (Exception e){
+         return Executors.newCachedThreadPool();
+      }
+   }
+
+   private void dispatch(String name, CommandContext context) throws Exception {
+      if (name.equals("help")){
+         help(context);
+         return;
+      }
+      if (name.equals("login")){
+         session = Amazon.LogIn(esql);
+         if (session == null){context.fail(CommandContext.REJECTED, "log in failed");}
+         else {context.inform("logged in as " + session.getUserID() + " " + session.getType());}
+         return;
+      }
+      if (name.equals("create-user")){
+         Amazon.CreateUser(esql);
+         return;
+      }
+      if (name.equals("logout")){
+         session = null;
+         return;
+      }
+
+      int choice = menuNumber(name);
+      if (choice < 0){
+         context.fail(CommandContext.USAGE, "unknown command " + name);
+         return;
+      }
+      if (session == null){
+         context.fail(CommandContext.REJECTED, "not logged in");
+         return;
+      }
+      if (choice == 99){
+         if (Amazon.deleteAccount(esql, session)){session = null;}
+         return;
+      }
+      Amazon.runMenuChoice(choice, esql, session);
+   }
+
+   private static int menuNumber(String name){
+      if (name.equals("delete-account") || name.equals("99")){return 99;}
+      for (int i = 1; i < MENU.length; i++){
+         if (name.equals(MENU[i]) || name.equals(Integer.toString(i))){return i;}
+      }
+      return -1;
+   }
+
+   private static void help(CommandContext context){
+      context.columns(new String[] {"number", "command"});
+      context.row(new String[] {"", "login"});
+      context.row(new String[] {"", "logout"});
+      context.row(new String[] {"", "create-user"});
+      for (int i = 1; i < MENU.length; i++){context.row(new String[] {Integer.toString(i), MENU[i]});}
+      context.row(new String[] {"99", "delete-account"});
+   }
+
+   private static int finish(PrintStream out, int status, int rowCount, String message){
+      if (status == CommandContext.OK){out.println("ok\t" + rowCount + "\t" + CommandContext.escape(message));}
+      else {out.println("error\t" + status + "\t" + CommandContext.escape(message == null ? "" : message));}
+      return status;
+   }
+
+   /**
+    * Splits a command into words on white space.  A double quoted word may
+    * contain spaces, and \" or \\ inside it.
+    *
+    * @param line the command
+    * @return the words
+    * @throws IllegalArgumentException on an unterminated quote
+    */
+   static List<String> split(String line) {
+      List<String> words = new ArrayList<String>();
+      StringBuilder word = null;
+      boolean quoted = false;
+      for (int i = 0; i < line.length(); i++){
+         char c = line.charAt(i);
+         if (quoted){
+            if (c == '\\' && i + 1 < line.length()){word.append(line.charAt(++i));}
+            else if (c == '"'){quoted = false;}
+            else {word.append(c);}
+         }
+         else if (c == '"'){
+            if (word == null){word = new StringBuilder();}
+            quoted = true;
+         }
+         else if (Character.isWhitespace(c)){
+            if (word != null){
+               words.add(word.toString());
+               word = null;
+            }
+         }
+         else {
+            if (word == null){word = new StringBuilder();}
+            word.append(c);
+         }
+      }
+      if (quoted){throw new IllegalArgumentException("unterminated quote");}
+      if (word != null){words.add(word.toString());}
+      return words;
+   }
+
+   /**
+    * Runs commands headless and exits with the status of the first one that
+    * failed.
+    *
+    * usage: java [-classpath &lt;classpath&gt;] CommandProcessor &lt;dbname&gt; &lt;port&gt; &lt;user&gt;
+    *        [-c &lt;command&gt;]... [-f &lt;script&gt;] [-k]
+    *
+    * With neither -c nor -f the commands are read from standard in.  -k keeps
+    * going after a failed command.
+    *
+    * @param args the database, then the options
+    */
+   public static void main (String[] args) {
+      if (args.length < 3){
+         System.err.println("Usage: java [-classpath <classpath>] CommandProcessor <dbname> <port> <user> " +
+                            "[-c <command>]... [-f <script>] [-k]");
+         System.exit(CommandContext.USAGE);
+      }
+
+      StringBuilder commands = new StringBuilder();
+      String script = null;
+      boolean keepGoing = false;
+      for (int i = 3; i < args.length; i++){
+         if (args[i].equals("-c") && i + 1 < args.length){commands.append(args[++i]).append('\n');}
+         else if (args[i].equals("-f") && i + 1 < args.length){script = args[++i];}
+         else if (args[i].equals("-k")){keepGoing = true;}
+         else {
+            System.err.println("Unknown option " + args[i]);
+            System.exit(CommandContext.USAGE);
+         }
+      }
+
+      PrintStream out = CommandContext.console();
+      Amazon esql = null;
+      int status = CommandContext.OK;
+      try{
+         Class.forName ("org.postgresql.Driver").newInstance();
+
+         // keep the connection messages off the result stream; the filter
+         // console() installed is put back, not the raw stream under it
+         PrintStream filtered = System.out;
+         System.setOut(System.err);
+         try{
+            esql = new Amazon(args[0], args[1], args[2], "");
+         }finally{
+            System.setOut(filtered);
+         }
+
+         CommandProcessor processor = new CommandProcessor(esql);
+         if (commands.length() > 0){status = processor.run(new StringReader(commands.toString()), out, keepGoing);}
+         if (script != null && (status == CommandContext.OK || keepGoing)){
+            int scriptStatus = processor.run(new FileReader(script), out, keepGoing);
+            if (status == CommandContext.OK){status = scriptStatus;}
+         }
+         if (commands.length() == 0 && script == null){
+            status = processor.run(new InputStreamReader(System.in), out, keepGoing);
+         }
+      }catch (Exception e){
+         System.err.println(e.getMessage());
+         status = CommandContext.ERROR;
+      }finally{
+         if (esql != null){esql.cleanup();}
+      }
+      System.exit(status);
+   }
+
+}//end CommandProcessor
@@ -0,0 +1,392 @@
+/*
+ * Connection pool for the Amazon store client
+ * ============================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of physical PostgreSQL connections.
+ *
+ * Connections are created lazily up to <code>maxSize</code>.  A borrowed
+ * connection is validated with a cheap query when it has been idle for longer
+ * than the validation interval, idle connections above <code>minIdle</code>
+ * are closed by a background housekeeper, and connections that stay borrowed
+ * for longer than the leak threshold are reported on standard error together
+ * with the stack that borrowed them.
+ *
+ * Every connection handed out must be given back with
+ * {@link #release(Connection)}.
+ */
+public class ConnectionPool {
+
+   private static final String VALIDATION_QUERY = "SELECT 1";
+
+   /*
+    * Book keeping for one physical connection.
+    */
+   private static class PooledConnection {
+      final Connection connection;
+      final StatementCache statements;
+      volatile long lastReleased;
+      volatile long borrowedAt;
+      volatile Throwable borrowSite;
+      volatile boolean leakReported;
+
+      PooledConnection(Connection connection, int statementCacheSize){
+         this.connection = connection;
+         this.statements = new StatementCache(connection, statementCacheSize);
+         this.lastReleased = System.currentTimeMillis();
+      }
+   }//end PooledConnection
+
+   private final String url;
+   private final String user;
+   private final String passwd;
+
+   private final int maxSize;
+   private final int minIdle;
+   private final long borrowTimeoutMillis;
+   private final long validationIntervalMillis;
+   private final long idleTimeoutMillis;
+   private final long leakThresholdMillis;
+   private final int statementCacheSize;
+
+   // one permit per connection that may be handed out
+   private final Semaphore permits;
+
+   // idle connections, most recently released first
+   private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<PooledConnection>();
+
+   // connections currently handed out
+   private final Map<Connection, PooledConnection> leased = new ConcurrentHashMap<Connection, PooledConnection>();
+
+   // the connection this thread used last; handing it back keeps session state
+   // such as currval() and per-connection caches with the same caller
+   private final ThreadLocal<PooledConnection> lastUsed = new ThreadLocal<PooledConnection>();
+
+   private final AtomicLong borrowCount = new AtomicLong();
+   private final AtomicLong waitNanos = new AtomicLong();
+   private final AtomicLong maxWaitNanos = new AtomicLong();
+   private final AtomicLong createdCount = new AtomicLong();
+   private final AtomicLong evictedCount = new AtomicLong();
+   private final AtomicLong invalidCount = new AtomicLong();
+   private final AtomicLong leakCount = new AtomicLong();
+
+   private final Thread housekeeper;
+   private volatile boolean closed = false;
+
+   /**
+    * Creates a new pool.  No connection is opened until the first borrow.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param maxSize the maximum number of open connections
+    * @param minIdle the number of idle connections never evicted
+    * @param borrowTimeoutMillis how long a borrow may wait for a free connection
+    * @param validationIntervalMillis idle time after which a connection is validated on borrow
+    * @param idleTimeoutMillis idle time after which a connection is evicted
+    * @param leakThresholdMillis borrow time after which a connection is reported as leaked
+    * @param statementCacheSize the number of prepared statements cached per connection
+    */
+   public ConnectionPool(String url, String user, String passwd, int maxSize, int minIdle,
+                         long borrowTimeoutMillis, long validationIntervalMillis,
+                         long idleTimeoutMillis, long leakThresholdMillis, int statementCacheSize) {
+      if (maxSize < 1){throw new IllegalArgumentException("pool size must be at least 1");}
+
+      this.url = url;
+      this.user = user;
+      this.passwd = passwd;
+      this.maxSize = maxSize;
+      this.minIdle = Math.min(Math.max(minIdle, 0), maxSize);
+      this.borrowTimeoutMillis = borrowTimeoutMillis;
+      this.validationIntervalMillis = validationIntervalMillis;
+      this.idleTimeoutMillis = idleTimeoutMillis;
+      this.leakThresholdMillis = leakThresholdMillis;
+      this.statementCacheSize = Math.max(statementCacheSize, 1);
+      this.permits = new Semaphore(maxSize, true);
+
+      this.housekeeper = new Thread(new Runnable(){
+         public void run(){housekeep();}
+      }, "amazon-pool-housekeeper");
+      this.housekeeper.setDaemon(true);
+      this.housekeeper.start();
+   }//end ConnectionPool
+
+   /**
+    * Borrows a connection, waiting up to the borrow timeout for one to become
+    * free.
+    *
+    * @return an open, validated connection in autocommit mode
+    * @throws java.sql.SQLException when no connection could be obtained in time
+    */
+   public Connection borrow() throws SQLException {
+      if (closed){throw new SQLException("Connection pool is closed");}
+
+      long start = System.nanoTime();
+      boolean acquired;
+      try{
+         acquired = permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while waiting for a database connection");
+      }
+      long waited = System.nanoTime() - start;
+      waitNanos.addAndGet(waited);
+      borrowCount.incrementAndGet();
+      updateMax(maxWaitNanos, waited);
+
+      if (!acquired){
+         throw new SQLException("Timed out after " + borrowTimeoutMillis + " ms waiting for a database connection (" +
+                                getActiveCount() + " active, " + maxSize + " max)");
+      }
+
+      try{
+         PooledConnection pc;
+         while ((pc = takeIdle()) != null){
+            if (isUsable(pc)){return lease(pc);}
+            invalidCount.incrementAndGet();
+            closeQuietly(pc.connection);
+         }
+         pc = new PooledConnection(DriverManager.getConnection(url, user, passwd), statementCacheSize);
+         createdCount.incrementAndGet();
+         return lease(pc);
+      }catch (SQLException e){
+         permits.release();
+         throw e;
+      }catch (RuntimeException e){
+         permits.release();
+         throw e;
+      }
+   }//end borrow
+
+   /**
+    * Returns a borrowed connection to the pool.  An open transaction is rolled
+    * back and autocommit is switched back on; a connection that fails either
+    * step is closed instead of being reused.
+    *
+    * @param connection a connection obtained from {@link #borrow()}
+    */
+   public void release(Connection connection) {
+      if (connection == null){return;}
+      PooledConnection pc = leased.remove(connection);
+      if (pc == null){return;}
+
+      try{
+         boolean reusable = !closed && !connection.isClosed();
+         if (reusable && !connection.getAutoCommit()){
+            try{
+               connection.rollback();
+               connection.setAutoCommit(true);
+            }catch (SQLException e){
+               reusable = false;
+            }
+         }
+
+         if (reusable){
+            pc.borrowSite = null;
+            pc.lastReleased = System.currentTimeMillis();
+            idle.offerFirst(pc);
+            lastUsed.set(pc);
+         }else{
+            closeQuietly(connection);
+         }
+      }catch (SQLException e){
+         closeQuietly(connection);
+      }finally{
+         permits.release();
+      }
+   }//end release
+
+   /**
+    * Returns the prepared statement cache of a borrowed connection.
+    *
+    * @param connection a connection obtained from {@link #borrow()}
+    * @return the statement cache belonging to that connection
+    * @throws java.sql.SQLException when the connection is not currently borrowed
+    */
+   public StatementCache statementCache(Connection connection) throws SQLException {
+      PooledConnection pc = leased.get(connection);
+      if (pc == null){throw new SQLException("Connection does not belong to this pool or was already released");}
+      return pc.statements;
+   }
+
+   /**
+    * Closes every connection and stops the housekeeper.  Connections that are
+    * still borrowed are closed as well.
+    */
+   public void close() {
+      closed = true;
+      housekeeper.interrupt();
+
+      PooledConnection pc;
+      while ((pc = idle.pollFirst()) != null){closeQuietly(pc.connection);}
+      for (Connection c : new ArrayList<Connection>(leased.keySet())){
+         leased.remove(c);
+         closeQuietly(c);
+      }
+   }//end close
+
+   public int getMaxSize(){return maxSize;}
+   public int getActiveCount(){return leased.size();}
+   public int getIdleCount(){return idle.size();}
+   public long getBorrowCount(){return borrowCount.get();}
+   public long getCreatedCount(){return createdCount.get();}
+   public long getEvictedCount(){return evictedCount.get();}
+   public long getInvalidCount(){return invalidCount.get();}
+   public long getLeakCount(){return leakCount.get();}
+
+   /**
+    * @return the total time callers spent waiting in {@link #borrow()}, in milliseconds
+    */
+   public double getTotalWaitMillis(){return waitNanos.get() / 1e6;}
+
+   /**
+    * @return the mean time a borrow waited for a connection, in milliseconds
+    */
+   public double getAverageWaitMillis(){
+      long n = borrowCount.get();
+      return n == 0 ? 0 : waitNanos.get() / 1e6 / n;
+   }
+
+   /**
+    * @return the longest time a single borrow waited, in milliseconds
+    */
+   public double getMaxWaitMillis(){return maxWaitNanos.get() / 1e6;}
+
+   public String toString(){
+      return String.format("pool: %d active, %d idle, %d max; %d borrows, avg wait %.3f ms, max wait %.3f ms; " +
+                           "%d created, %d evicted, %d invalid, %d leaked",
+                           getActiveCount(), getIdleCount(), maxSize, getBorrowCount(), getAverageWaitMillis(),
+                           getMaxWaitMillis(), getCreatedCount(), getEvictedCount(), getInvalidCount(), getLeakCount());
+   }
+
+   /*
+    * Prefers the connection this thread released last, otherwise the most
+    * recently released one.
+    */
+   private PooledConnection takeIdle(){
+      PooledConnection mine = lastUsed.get();
+      if (mine != null && idle.remove(mine)){return mine;}
+      return idle.pollFirst();
+   }
+
+   private Connection lease(PooledConnection pc){
+      pc.borrowedAt = System.currentTimeMillis();
+      pc.borrowSite = new Throwable("Connection borrowed by " + Thread.currentThread().getName());
+      pc.leakReported = false;
+      leased.put(pc.connection, pc);
+      return pc.connection;
+   }
+
+   /*
+    * A connection that sat idle for less than the validation interval is
+    * trusted; older ones must answer the validation query.
+    */
+   private boolean isUsable(PooledConnection pc){
+      try{
+         if (pc.connection.isClosed()){return false;}
+         if (System.currentTimeMillis() - pc.lastReleased < validationIntervalMillis){return true;}
+
+         Statement stmt = pc.connection.createStatement();
+         try{
+            ResultSet rs = stmt.executeQuery(VALIDATION_QUERY);
+            return rs.next();
+         }finally{
+            stmt.close();
+         }
+      }catch (SQLException e){
+         return false;
+      }
+   }
+
+   /*
+    * Runs until the pool is closed: evicts connections that have been idle
+    * too long and reports connections that have been borrowed too long.
+    */
+   private void housekeep(){
+      long period = Math.max(1000, Math.min(idleTimeoutMillis, leakThresholdMillis) / 4);
+      while (!closed){
+         try{
+            Thread.sleep(period);
+         }catch (InterruptedException e){
+            return;
+         }
+         evictIdle();
+         detectLeaks();
+      }
+   }
+
+   private void evictIdle(){
+      long now = System.currentTimeMillis();
+      List<PooledConnection> expired = new ArrayList<PooledConnection>();
+
+      // the deque is ordered most recent first, so the oldest are at the tail
+      Iterator<PooledConnection> it = idle.descendingIterator();
+      int keep = idle.size();
+      while (it.hasNext() && keep > minIdle){
+         PooledConnection pc = it.next();
+         if (now - pc.lastReleased < idleTimeoutMillis){break;}
+         expired.add(pc);
+         keep--;
+      }
+
+      for (PooledConnection pc : expired){
+         if (idle.remove(pc)){
+            evictedCount.incrementAndGet();
+            closeQuietly(pc.connection);
+         }
+      }
+   }
+
+   private void detectLeaks(){
+      long now = System.currentTimeMillis();
+      for (PooledConnection pc : leased.values()){
+         Throwable site = pc.borrowSite;
+         if (pc.leakReported || site == null || now - pc.borrowedAt < leakThresholdMillis){continue;}
+
+         pc.leakReported = true;
+         leakCount.incrementAndGet();
+         System.err.println("Warning - database connection held for " + (now - pc.borrowedAt) +
+                            " ms without being released; possible leak:");
+         site.printStackTrace();
+      }
+   }
+
+   private static void updateMax(AtomicLong max, long value){
+      long current;
+      while (value > (current = max.get())){
+         if (max.compareAndSet(current, value)){return;}
+      }
+   }
+
+   private static void closeQuietly(Connection c){
+      try{
+         c.close();
+      }catch (SQLException e){
+         // ignored.
+      }
+   }
+
+}//end ConnectionPool
@@ -0,0 +1,322 @@
+/*
+ * Customer order history cache for the Amazon store client
+ * ===========================================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Each active customer's most recent orders and how many units of each
+ * product they have ordered at each store, for the recent orders and
+ * favorite products reports.
+ *
+ * A customer's history is read on first use with two queries on the
+ * (customerID, orderTime) index, then kept up to date by
+ * {@link #record(int, int, int, String, int, Timestamp)} as the customer
+ * places orders, so later reports are answered from memory.  The recent
+ * orders are a ring buffer of the last {@link #RECENT}; the tally has one
+ * counter per store and product the customer has ever ordered.
+ *
+ * Histories are evicted least recently used first once the cache is full,
+ * and reread once older than the time to live, which bounds how stale one
+ * can get when orders are placed outside this client.  Code that removes or
+ * imports orders must call {@link #invalidate(int)} or
+ * {@link #invalidateAll()}.
+ */
+public class CustomerHistoryCache {
+
+   /** the number of recent orders kept per customer */
+   public static final int RECENT = 5;
+
+   /** the columns of {@link #recentOrders(int)}, as viewRecentOrders names them */
+   public static final List<String> RECENT_COLUMNS = Collections.unmodifiableList(Arrays.asList(
+      "ordernumber", "productname", "unitsordered", "storeid", "ordertime"));
+
+   /*
+    * One order in a ring buffer.
+    */
+   private static class Order {
+      final int orderNumber;
+      final String productName;
+      final int units;
+      final int storeID;
+      final Timestamp orderTime;
+
+      Order(int orderNumber, String productName, int units, int storeID, Timestamp orderTime){
+         this.orderNumber = orderNumber;
+         this.productName = productName;
+         this.units = units;
+         this.storeID = storeID;
+         this.orderTime = orderTime;
+      }
+   }//end Order
+
+   /*
+    * One customer's history.  Guarded by the cache's lock.
+    */
+   private static class History {
+      final Order[] recent = new Order[RECENT];
+      int newest = -1;
+      int size = 0;
+      // units ordered, by store and then product
+      final Map<Integer, Map<String, long[]>> tally = new HashMap<Integer, Map<String, long[]>>();
+      final long loadedAt;
+
+      History(long loadedAt){
+         this.loadedAt = loadedAt;
+      }
+
+      // orders must be added oldest first
+      void add(Order order){
+         newest = (newest + 1) % RECENT;
+         recent[newest] = order;
+         if (size < RECENT){size++;}
+      }
+
+      void count(int storeID, String productName, long units){
+         Map<String, long[]> products = tally.get(Integer.valueOf(storeID));
+         if (products == null){
+            products = new HashMap<String, long[]>();
+            tally.put(Integer.valueOf(storeID), products);
+         }
+         long[] total = products.get(productName);
+         if (total == null){products.put(productName, new long[] {units});}
+         else {total[0] += units;}
+      }
+   }//end History
+
+   private final Amazon esql;
+   private final long ttlMillis;
+   private final LinkedHashMap<Integer, History> histories;
+
+   private long hits = 0;
+   private long misses = 0;
+   private long evictions = 0;
+
+   // bumped by every invalidation, so a load that raced one is not cached
+   private long generation = 0;
+   // for each customer being loaded: the loads in flight, and the orders
+   // recorded since the first began, so a load that raced an order is not
+   // cached
+   private final Map<Integer, long[]> loading = new HashMap<Integer, long[]>();
+
+   /**
+    * @param esql the database histories are read from
+    * @param capacity the number of customers kept
+    * @param ttlMillis how long a history is used before it is reread
+    */
+   public CustomerHistoryCache(Amazon esql, final int capacity, long ttlMillis) {
+      if (capacity <= 0){throw new IllegalArgumentException("capacity must be positive");}
+      this.esql = esql;
+      this.ttlMillis = ttlMillis;
+      this.histories = new LinkedHashMap<Integer, History>(Math.min(capacity, 1024) * 4 / 3 + 1, 0.75f, true){
+         protected boolean removeEldestEntry(Map.Entry<Integer, History> eldest){
+            if (size() <= capacity){return false;}
+            evictions++;
+            return true;
+         }
+      };
+   }
+
+   /**
+    * A customer's most recent orders, newest first, with the columns in
+    * {@link #RECENT_COLUMNS}.
+    *
+    * @param customerID the customer
+    * @return up to {@link #RECENT} orders
+    * @throws java.sql.SQLException when the history cannot be read
+    */
+   public List<List<String>> recentOrders(int customerID) throws SQLException {
+      History history = get(customerID);
+      synchronized (this){
+         List<List<String>> rows = new ArrayList<List<String>>(history.size);
+         for (int i = 0; i < history.size; i++){
+            Order order = history.recent[(history.newest - i + RECENT) % RECENT];
+            rows.add(Arrays.asList(String.valueOf(order.orderNumber), order.productName, String.valueOf(order.units),
+                                   String.valueOf(order.storeID), format(order.orderTime)));
+         }
+         return rows;
+      }
+   }
+
+   /**
+    * The products a customer has ordered the most units of, most first,
+    * with the columns of viewFavoriteProducts: the product name and the
+    * units, then the store ID when one store is asked about.
+    *
+    * @param customerID the customer
+    * @param storeID a store, or -1 for all stores taken together
+    * @param limit the most products returned
+    * @return the products
+    * @throws java.sql.SQLException when the history cannot be read
+    */
+   public List<List<String>> favoriteProducts(int customerID, int storeID, int limit) throws SQLException {
+      History history = get(customerID);
+      final Map<String, long[]> units = new HashMap<String, long[]>();
+      synchronized (this){
+         for (Map.Entry<Integer, Map<String, long[]>> store : history.tally.entrySet()){
+            if (storeID >= 0 && store.getKey().intValue() != storeID){continue;}
+            for (Map.Entry<String, long[]> product : store.getValue().entrySet()){
+               long[] total = units.get(product.getKey());
+               if (total == null){units.put(product.getKey(), new long[] {product.getValue()[0]});}
+               else {total[0] += product.getValue()[0];}
+            }
+         }
+      }
+
+      List<String> names = new ArrayList<String>(units.keySet());
+      Collections.sort(names, new Comparator<String>(){
+         public int compare(String a, String b){
+            long difference = units.get(b)[0] - units.get(a)[0];
+            return difference != 0 ? (difference > 0 ? 1 : -1) : a.compareTo(b);
+         }
+      });
+
+      List<List<String>> rows = new ArrayList<List<String>>();
+      for (String name : names.subList(0, Math.min(limit, names.size()))){
+         List<String> row = new ArrayList<String>();
+         row.add(name);
+         row.add(String.valueOf(units.get(name)[0]));
+         if (storeID >= 0){row.add(String.valueOf(storeID));}
+         rows.add(row);
+      }
+      return rows;
+   }//end favoriteProducts
+
+   /**
+    * Adds an order just placed to its customer's history, if it is cached.
+    *
+    * @param customerID the ordering customer
+    * @param orderNumber the order's number
+    * @param storeID the store ordered from
+    * @param productName the product ordered
+    * @param units the units ordered
+    * @param orderTime when the order was placed
+    */
+   public synchronized void record(int customerID, int orderNumber, int storeID, String productName, int units,
+                                   Timestamp orderTime) {
+      // a load in flight may have read the orders before this one
+      long[] load = loading.get(Integer.valueOf(customerID));
+      if (load != null){load[1]++;}
+
+      History history = histories.get(Integer.valueOf(customerID));
+      if (history == null){return;}
+      history.add(new Order(orderNumber, productName, units, storeID, orderTime));
+      history.count(storeID, productName, units);
+   }
+
+   /**
+    * Forgets one customer's history, so the next report reads it again.
+    *
+    * @param customerID the customer
+    */
+   public synchronized void invalidate(int customerID) {
+      generation++;
+      histories.remove(Integer.valueOf(customerID));
+   }
+
+   /**
+    * Forgets every history.
+    */
+   public synchronized void invalidateAll() {
+      generation++;
+      histories.clear();
+   }
+
+   /*
+    * A customer's history, read on a miss.  The queries run outside the
+    * lock, like ReferenceCache's loader.
+    */
+   private History get(int customerID) throws SQLException {
+      long now = System.currentTimeMillis();
+      long loadedIn;
+      long[] load;
+      long ordersIn;
+      synchronized (this){
+         History history = histories.get(Integer.valueOf(customerID));
+         if (history != null && now - history.loadedAt < ttlMillis){
+            hits++;
+            return history;
+         }
+         misses++;
+         loadedIn = generation;
+         load = loading.get(Integer.valueOf(customerID));
+         if (load == null){
+            load = new long[2];
+            loading.put(Integer.valueOf(customerID), load);
+         }
+         load[0]++;
+         ordersIn = load[1];
+      }
+
+      final History history = new History(now);
+      try{
+         read(customerID, history);
+      }finally{
+         synchronized (this){
+            if (--load[0] == 0){loading.remove(Integer.valueOf(customerID));}
+            if (generation == loadedIn && load[1] == ordersIn){histories.put(Integer.valueOf(customerID), history);}
+         }
+      }
+      return history;
+   }//end get
+
+   private void read(int customerID, final History history) throws SQLException {
+      final List<Order> newestFirst = new ArrayList<Order>(RECENT);
+      esql.query("SELECT orderNumber, productName, unitsOrdered, storeID, orderTime FROM Orders " +
+                 "WHERE customerID = ? ORDER BY orderTime DESC LIMIT " + RECENT, 0, new RowSink(){
+         public void start(ResultSetMetaData rsmd){}
+         public void row(ResultSet rs) throws SQLException {
+            newestFirst.add(new Order(rs.getInt(1), rs.getString(2).trim(), rs.getInt(3), rs.getInt(4), rs.getTimestamp(5)));
+         }
+         public void end(int rowCount){}
+      }, Integer.valueOf(customerID));
+      for (int i = newestFirst.size() - 1; i >= 0; i--){history.add(newestFirst.get(i));}
+
+      esql.query("SELECT storeID, productName, SUM(unitsOrdered) FROM Orders " +
+                 "WHERE customerID = ? GROUP BY storeID, productName", 0, new RowSink(){
+         public void start(ResultSetMetaData rsmd){}
+         public void row(ResultSet rs) throws SQLException {
+            history.count(rs.getInt(1), rs.getString(2).trim(), rs.getLong(3));
+         }
+         public void end(int rowCount){}
+      }, Integer.valueOf(customerID));
+   }
+
+   // as the server prints a timestamp: no fraction when it is zero
+   private static String format(Timestamp time){
+      if (time == null){return null;}
+      String text = time.toString();
+      return text.endsWith(".0") ? text.substring(0, text.length() - 2) : text;
+   }
+
+   public synchronized int size(){return histories.size();}
+   public synchronized long getHits(){return hits;}
+   public synchronized long getMisses(){return misses;}
+
+   public synchronized String toString() {
+      long lookups = hits + misses;
+      return "customerHistory: size=" + histories.size() + " hits=" + hits + " misses=" + misses +
+             " hitRate=" + (lookups == 0 ? 0 : Math.round(hits * 1000.0 / lookups) / 10.0) + "%" +
+             " evictions=" + evictions;
+   }
+
+}//end CustomerHistoryCache
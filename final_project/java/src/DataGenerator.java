@@ -0,0 +1,506 @@
+/*
+ * Synthetic data generator for the Amazon store database
+ * ========================================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes the seven CSV files of <code>data/</code>, in the same column
+ * layouts, at a chosen scale factor: scale 1 has as many rows as the shipped
+ * files, scale 1000 has 100,000 users, 20,000 stores and 500,000 orders.
+ *
+ * The data is shaped like a real store's:
+ * <ul>
+ * <li>users and stores are clustered around cities, five stores to a city,
+ *     and most customers order from a store in their own city;</li>
+ * <li>every store sells ten products, the five best known names everywhere
+ *     and five drawn from a catalog that grows with the scale; which product
+ *     is ordered follows Zipf's law over the store's ten;</li>
+ * <li>a few stores and customers place most orders: they are drawn as
+ *     n&middot;u&sup3; for a uniform u, a power transform rather than Zipf's
+ *     law, which gives the top 1% about a fifth of the orders;</li>
+ * <li>orders, and product updates, are numbered in time order.</li>
+ * </ul>
+ *
+ * The output depends only on the scale and the seed, not on the number of
+ * threads: each file is made in blocks of rows, each block from its own
+ * random stream, by a pool of threads, and the blocks are written in order
+ * as they complete.  Only a few blocks per thread are held at once, so memory
+ * does not grow with the scale, and 100 million orders take minutes.
+ */
+public class DataGenerator {
+
+   // the shipped names, best known first, and their prices
+   private static final String[] NAMES = {
+      "7up", "Pepsi", "Egg", "Donuts", "Orange Juice", "Lemonade", "Brisk", "Pudding", "Ice Cream", "Hot and Sour Soup"
+   };
+   private static final int[] PRICES = {3, 4, 3, 7, 6, 8, 3, 3, 6, 5};
+
+   // words the rest of the catalog is named from
+   private static final String[] ADJECTIVES = {
+      "Fresh", "Organic", "Spicy", "Sweet", "Frozen", "Smoked", "Roasted", "Sparkling", "Classic", "Golden",
+      "Wild", "Crispy", "Honey", "Salted", "Mini", "Family Size"
+   };
+   private static final String[] NOUNS = {
+      "Apples", "Bagels", "Cereal", "Cheddar", "Coffee", "Cookies", "Crackers", "Granola", "Iced Tea", "Milk",
+      "Noodles", "Oatmeal", "Peanuts", "Pretzels", "Rice", "Salsa", "Soda", "Tortillas", "Waffles", "Yogurt"
+   };
+   private static final String[] FIRST = {
+      "Amy", "Bob", "Carlos", "Dana", "Elena", "Farid", "Grace", "Hiro", "Ines", "Jamal", "Kara", "Liam",
+      "Maya", "Nikhil", "Olga", "Priya", "Quinn", "Rosa", "Sam", "Tariq", "Uma", "Victor", "Wen", "Yusuf"
+   };
+   private static final String[] LAST = {
+      "Adams", "Baker", "Chen", "Diaz", "Evans", "Fischer", "Garcia", "Haddad", "Ito", "Johns", "Kim", "Lopez",
+      "Moreno", "Nguyen", "Okafor", "Patel", "Quist", "Reyes", "Singh", "Tanaka", "Usman", "Volkov", "Walsh", "Young"
+   };
+
+   private static final int PRODUCTS_PER_STORE = 10;
+   private static final int STAPLES = 5;            // products every store sells
+   private static final int STORES_PER_CITY = 5;
+   private static final int MANAGER_EVERY = 16;     // one user in 16 of each city manages
+   private static final double LOCAL = 0.9;         // orders placed in the customer's city
+   private static final double SKEW = 3;            // P(in the top 1%) is about 21%
+   private static final int BLOCK_ROWS = 65536;
+
+   // orders and updates run from 2016-09-10, like the shipped ones, for three years
+   private static final long START = 1473465600L;
+   private static final long SPAN = 3L * 365 * 24 * 3600;
+
+   private final long seed;
+   private final int threads;
+   private final long users;
+   private final long stores;
+   private final long warehouses;
+   private final long orders;
+   private final long requests;
+   private final long updates;
+   private final long cities;
+   private final int catalog;
+   private final double[] productCdf;
+
+   /**
+    * @param scale the scale factor; 1 is the size of the shipped data
+    * @param orders the number of orders, or 0 for 500 per unit of scale
+    * @param seed the seed; the same seed and scale give the same files
+    * @param threads the number of threads making blocks
+    */
+   public DataGenerator(int scale, long orders, long seed, int threads) {
+      if (scale < 1){throw new IllegalArgumentException("the scale must be at least 1");}
+      this.seed = seed;
+      this.threads = Math.max(1, threads);
+      this.users = 100L * scale;
+      this.stores = 20L * scale;
+      this.warehouses = 5L * scale;
+      this.orders = orders > 0 ? orders : 500L * scale;
+      this.requests = 10L * scale;
+      this.updates = 50L * scale;
+      this.cities = Math.max(1, stores / STORES_PER_CITY);
+      this.catalog = NAMES.length + (int) Math.min(ADJECTIVES.length * NOUNS.length * 100,
+                                                   Math.ceil(10 * Math.sqrt(scale)) - NAMES.length);
+
+      // Zipf's law over the ten products of a store
+      productCdf = new double[PRODUCTS_PER_STORE];
+      double total = 0;
+      for (int k = 0; k < PRODUCTS_PER_STORE; k++){total += 1.0 / (k + 1);}
+      double sum = 0;
+      for (int k = 0; k < PRODUCTS_PER_STORE; k++){
+         sum += 1.0 / (k + 1) / total;
+         productCdf[k] = sum;
+      }
+   }
+
+   /*
+    * One file: its header, its row count and how to write a row.
+    */
+   abstract class Table {
+      final String file;
+      final String header;
+      final long rows;
+
+      Table(String file, String header, long rows){
+         this.file = file;
+         this.header = header;
+         this.rows = rows;
+      }
+
+      /** appends row number i, counting from 0, with its line end */
+      abstract void row(long i, SplittableRandom random, StringBuilder out);
+   }//end Table
+
+   /**
+    * Writes every file into a directory.
+    *
+    * @param dir the directory, created if need be
+    * @throws java.io.IOException when a file cannot be written
+    */
+   public void generate(File dir) throws IOException {
+      if (!dir.isDirectory() && !dir.mkdirs()){throw new IOException("cannot create " + dir);}
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try{
+         Table[] tables = {users(), stores(), products(), warehouses(), orders(), requests(), updates()};
+         for (int t = 0; t < tables.length; t++){
+            long began = System.currentTimeMillis();
+            write(executor, t, tables[t], new File(dir, tables[t].file));
+            System.out.println(String.format("%-26s %12d rows %8.1f s", tables[t].file, tables[t].rows,
+                                             (System.currentTimeMillis() - began) / 1000.0));
+         }
+      }finally{
+         executor.shutdownNow();
+      }
+   }//end generate
+
+   /*
+    * Makes a file's blocks on the pool and writes them in order, with at
+    * most two blocks per thread in flight.
+    */
+   private void write(ExecutorService executor, final int tableNumber, final Table table, File file) throws IOException {
+      long blocks = (table.rows + BLOCK_ROWS - 1) / BLOCK_ROWS;
+      ArrayDeque<Future<byte[]>> window = new ArrayDeque<Future<byte[]>>();
+      OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 20);
+      try{
+         out.write((table.header + "\n").getBytes("US-ASCII"));
+         long next = 0;
+         while (next < blocks || !window.isEmpty()){
+            while (next < blocks && window.size() < 2 * threads){
+               final long block = next++;
+               window.add(executor.submit(new Callable<byte[]>(){
+                  public byte[] call() throws Exception {
+                     SplittableRandom random = new SplittableRandom(mix(seed, tableNumber, block));
+                     long first = block * BLOCK_ROWS;
+                     long last = Math.min(table.rows, first + BLOCK_ROWS);
+                     StringBuilder text = new StringBuilder((int) (last - first) * 64);
+                     for (long i = first; i < last; i++){table.row(i, random, text);}
+                     return text.toString().getBytes("UTF-8");
+                  }
+               }));
+            }
+            out.write(take(window.poll()));
+         }
+      }finally{
+         out.close();
+      }
+   }//end write
+
+   private static byte[] take(Future<byte[]> block) throws IOException {
+      try{
+         return block.get();
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+         throw new IOException("interrupted");
+      }catch (ExecutionException e){
+         if (e.getCause() instanceof IOException){throw (IOException) e.getCause();}
+         throw new IOException(e.getCause().toString());
+      }
+   }
+
+   // userID 1 is the admin; within each city every 16th user is a manager
+   private boolean isManager(long userID){
+      return userID != 1 && ((userID - 1) / cities) % MANAGER_EVERY == MANAGER_EVERY - 1;
+   }
+
+   private long cityOfUser(long userID){return (userID - 1) % cities;}
+   private long cityOfStore(long storeID){return (storeID - 1) % cities;}
+
+   // the users of a city are 1 + city, 1 + city + cities, ...
+   private long usersIn(long city){return (users - 1 - city) / cities + 1;}
+
+   /*
+    * A store's manager, one of its city's.  Every city has 25 users, so at
+    * least one manager.
+    */
+   private long managerOf(long storeID){
+      long city = cityOfStore(storeID);
+      long j = Math.abs(mix(seed, 100, storeID)) % (usersIn(city) / MANAGER_EVERY);
+      return 1 + city + (MANAGER_EVERY - 1 + j * MANAGER_EVERY) * cities;
+   }
+
+   /*
+    * A customer of a city, the city's heavy buyers more often.
+    */
+   private long customerIn(long city, SplittableRandom random){
+      for (int attempt = 0; attempt < 8; attempt++){
+         long userID = 1 + city + skewed(random, usersIn(city)) * cities;
+         if (userID != 1 && !isManager(userID)){return userID;}
+      }
+      // a city too small to have a customer: anyone will do
+      long userID;
+      do{
+         userID = 2 + random.nextLong(users - 1);
+      } while (isManager(userID));
+      return userID;
+   }
+
+   /*
+    * The catalog number of a store's k-th product: the staples, then five
+    * more from the rest of the catalog, or the remaining shipped names at
+    * scale 1.
+    */
+   private int productOf(long storeID, int k){
+      if (k < STAPLES){return k;}
+      int rest = catalog - STAPLES;
+      return STAPLES + (int) ((Math.abs(mix(seed, 101, storeID)) + k - STAPLES) % rest);
+   }
+
+   private static String productName(int number){
+      if (number < NAMES.length){return NAMES[number];}
+      int n = number - NAMES.length;
+      int words = ADJECTIVES.length * NOUNS.length;
+      String name = ADJECTIVES[n % ADJECTIVES.length] + " " + NOUNS[(n / ADJECTIVES.length) % NOUNS.length];
+      return n < words ? name : name + " " + (n / words + 1);
+   }
+
+   private static int priceOf(int number){
+      return number < PRICES.length ? PRICES[number] : 2 + number * 7 % 13;
+   }
+
+   private int product(SplittableRandom random){
+      double u = random.nextDouble();
+      for (int k = 0; k < PRODUCTS_PER_STORE - 1; k++){
+         if (u < productCdf[k]){return k;}
+      }
+      return PRODUCTS_PER_STORE - 1;
+   }
+
+   /*
+    * 0 to n - 1, low numbers much more often: n * u^3 for a uniform u,
+    * whose density falls off as x^(-2/3).  Not Zipf's law, which would need
+    * a table or rejection sampling per row, but cheap enough to draw for
+    * every row.
+    */
+   private static long skewed(SplittableRandom random, long n){
+      return Math.min(n - 1, (long) (n * Math.pow(random.nextDouble(), SKEW)));
+   }
+
+   // cities are spread over the 100 x 100 map, with stores and users near them
+   private double[] centre(long city){
+      SplittableRandom random = new SplittableRandom(mix(seed, 102, city));
+      return new double[]{5 + 90 * random.nextDouble(), 5 + 90 * random.nextDouble()};
+   }
+
+   private void appendPlace(long city, SplittableRandom random, StringBuilder out){
+      double[] centre = centre(city);
+      appendFixed(out, clamp(centre[0] + 3 * random.nextGaussian()));
+      out.append(',');
+      appendFixed(out, clamp(centre[1] + 3 * random.nextGaussian()));
+   }
+
+   private static double clamp(double coordinate){
+      return Math.max(0, Math.min(100, coordinate));
+   }
+
+   private Table users(){
+      return new Table("users.csv", "userID,name,password,latitude,longitude,type", users){
+         void row(long i, SplittableRandom random, StringBuilder out){
+            long userID = i + 1;
+            out.append(userID).append(',');
+            if (userID == 1){out.append("Admin");}
+            else {
+               out.append(FIRST[random.nextInt(FIRST.length)]).append('.')
+                  .append(LAST[random.nextInt(LAST.length)]).append(userID);
+            }
+            out.append(",xyz,");
+            appendPlace(cityOfUser(userID), random, out);
+            out.append(',').append(userID == 1 ? "admin" : isManager(userID) ? "manager" : "customer").append('\n');
+         }
+      };
+   }
+
+   private Table stores(){
+      return new Table("stores.csv", "storeID,latitude,longitude,managerID,dateEstablished", stores){
+         void row(long i, SplittableRandom random, StringBuilder out){
+            long storeID = i + 1;
+            out.append(storeID).append(',');
+            appendPlace(cityOfStore(storeID), random, out);
+            out.append(',').append(managerOf(storeID)).append(',');
+            // established between 1950 and 2015
+            int[] date = civil(-7305 + random.nextInt(23741));
+            out.append(date[1]).append('/').append(date[2]).append('/').append(date[0]).append('\n');
+         }
+      };
+   }
+
+   private Table products(){
+      return new Table("products.csv", "storeID,productName,numberOfUnits,pricePerUnit", stores * PRODUCTS_PER_STORE){
+         void row(long i, SplittableRandom random, StringBuilder out){
+            long storeID = i / PRODUCTS_PER_STORE + 1;
+            int number = productOf(storeID, (int) (i % PRODUCTS_PER_STORE));
+            out.append(storeID).append(',').append(productName(number)).append(',')
+               .append(10 + random.nextInt(91)).append(',').append(priceOf(number)).append('\n');
+         }
+      };
+   }
+
+   private Table warehouses(){
+      return new Table("warehouse.csv", "wareHouseID,area,latitude,longitude", warehouses){
+         void row(long i, SplittableRandom random, StringBuilder out){
+            long warehouseID = i + 1;
+            out.append(warehouseID).append(',').append(10000 + 50 * random.nextInt(801)).append(',');
+            appendPlace((warehouseID - 1) % cities, random, out);
+            out.append('\n');
+         }
+      };
+   }
+
+   private Table orders(){
+      return new Table("orders.csv", "orderNumber,customerID,storeID,productName,unitsOrdered,orderTime", orders){
+         void row(long i, SplittableRandom random, StringBuilder out){
+            long storeID = 1 + skewed(random, stores);
+            long city = random.nextDouble() < LOCAL ? cityOfStore(storeID) : random.nextLong(cities);
+            int units = (int) Math.min(50, 1 + (long) (-8 * Math.log(1 - random.nextDouble())));
+            out.append(i + 1).append(',').append(customerIn(city, random)).append(',').append(storeID).append(',')
+               .append(productName(productOf(storeID, product(random)))).append(',').append(units).append(',');
+            appendTimestamp(out, START + i * SPAN / rows);
+            out.append('\n');
+         }
+      };
+   }
+
+   private Table requests(){
+      return new Table("productSupplyRequests.csv",
+                       "requestNumber,managerID,warehouseID,storeID,productName,unitsRequested", requests){
+         void row(long i, SplittableRandom random, StringBuilder out){
+            long storeID = 1 + random.nextLong(stores);
+            // a warehouse of the store's city; there are more warehouses than cities
+            long city = cityOfStore(storeID);
+            long inCity = (warehouses - 1 - city) / cities + 1;
+            long warehouseID = 1 + city + random.nextLong(inCity) * cities;
+            out.append(i + 1).append(',').append(managerOf(storeID)).append(',').append(warehouseID).append(',')
+               .append(storeID).append(',').append(productName(productOf(storeID, product(random)))).append(',')
+               .append(10 + random.nextInt(91)).append('\n');
+         }
+      };
+   }
+
+   private Table updates(){
+      return new Table("productUpdates.csv", "updateNumber,managerID,storeID,productName,updatedOn", updates){
+         void row(long i, SplittableRandom random, StringBuilder out){
+            long storeID = 1 + random.nextLong(stores);
+            out.append(i + 1).append(',').append(managerOf(storeID)).append(',').append(storeID).append(',')
+               .append(productName(productOf(storeID, random.nextInt(PRODUCTS_PER_STORE)))).append(',');
+            appendTimestamp(out, START + i * SPAN / rows);
+            out.append('\n');
+         }
+      };
+   }
+
+   /*
+    * A seed for one block of one file, so blocks are independent of each
+    * other and of the thread that makes them.
+    */
+   private static long mix(long seed, long table, long block){
+      long z = seed ^ (table * 0x9E3779B97F4A7C15L) ^ (block * 0xC2B2AE3D27D4EB4FL);
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      return z ^ (z >>> 31);
+   }
+
+   // five decimals, as the shipped coordinates have
+   private static void appendFixed(StringBuilder out, double value){
+      long scaled = Math.round(value * 100000);
+      out.append(scaled / 100000).append('.');
+      String fraction = String.valueOf(scaled % 100000);
+      for (int i = fraction.length(); i < 5; i++){out.append('0');}
+      out.append(fraction);
+   }
+
+   // yyyy-mm-dd hh:mm:ss, without a formatter per row
+   private static void appendTimestamp(StringBuilder out, long epochSeconds){
+      int[] date = civil(epochSeconds / 86400);
+      long seconds = epochSeconds % 86400;
+      out.append(date[0]).append('-');
+      two(out, date[1]);
+      out.append('-');
+      two(out, date[2]);
+      out.append(' ');
+      two(out, (int) (seconds / 3600));
+      out.append(':');
+      two(out, (int) (seconds / 60 % 60));
+      out.append(':');
+      two(out, (int) (seconds % 60));
+   }
+
+   private static void two(StringBuilder out, int value){
+      if (value < 10){out.append('0');}
+      out.append(value);
+   }
+
+   /*
+    * The year, month and day of a day number counted from 1970-01-01.
+    */
+   static int[] civil(long days){
+      days += 719468;
+      long era = (days >= 0 ? days : days - 146096) / 146097;
+      long dayOfEra = days - era * 146097;
+      long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+      long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+      long mp = (5 * dayOfYear + 2) / 153;
+      int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+      int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+      int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+      return new int[]{year, month, day};
+   }
+
+   /**
+    * Writes a scaled copy of the data set.
+    *
+    * usage: java [-classpath &lt;classpath&gt;] DataGenerator [-scale n] [-orders n]
+    *        [-seed n] [-threads n] [-out dir]
+    *
+    * By default scale 1 and seed 1 are written to ./generated with one
+    * thread per processor.  Load the files with BulkLoader -data dir.
+    *
+    * @param args the options
+    */
+   public static void main (String[] args) {
+      int scale = 1;
+      long orders = 0;
+      long seed = 1;
+      int threads = Runtime.getRuntime().availableProcessors();
+      String out = "generated";
+      for (int i = 0; i < args.length; i += 2){
+         if (i + 1 >= args.length){
+            System.err.println("Usage: java [-classpath <classpath>] DataGenerator " +
+                               "[-scale n] [-orders n] [-seed n] [-threads n] [-out dir]");
+            return;
+         }
+         if (args[i].equals("-scale")){scale = Integer.parseInt(args[i + 1]);}
+         else if (args[i].equals("-orders")){orders = Long.parseLong(args[i + 1]);}
+         else if (args[i].equals("-seed")){seed = Long.parseLong(args[i + 1]);}
+         else if (args[i].equals("-threads")){threads = Integer.parseInt(args[i + 1]);}
+         else if (args[i].equals("-out")){out = args[i + 1];}
+         else {
+            System.err.println("Unknown option " + args[i]);
+            return;
+         }
+      }
+
+      try{
+         long began = System.currentTimeMillis();
+         new DataGenerator(scale, orders, seed, threads).generate(new File(out));
+         System.out.println("Written to " + out + " in " +
+                            String.format("%.1f", (System.currentTimeMillis() - began) / 1000.0) + " s.");
+      }catch (Exception e){
+         System.err.println(e.getMessage());
+      }
+   }
+
+}//end DataGenerator
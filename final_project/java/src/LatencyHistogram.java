@@ -0,0 +1,106 @@
+/*
+ * Latency histogram for the Amazon store load generator
+ * =======================================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+/**
+ * Counts latencies in log-linear buckets: each power of two is split into
+ * 32 equal buckets, so a percentile is read to within about 3% of the true
+ * value from about a thousand counters, however many samples are recorded.
+ * Values are in microseconds, up to about 19 hours.
+ *
+ * A histogram is not thread safe; give each thread its own and
+ * {@link #add(LatencyHistogram)} them together.
+ */
+public class LatencyHistogram {
+
+   private static final int SUB_BUCKET_BITS = 5;
+   private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+   private static final int MAX_EXPONENT = 32;   // values up to 2^36 microseconds
+
+   private final long[] counts = new long[(MAX_EXPONENT + 1) * SUB_BUCKETS];
+   private long count = 0;
+   private long sum = 0;
+   private long max = 0;
+
+   /**
+    * Records one latency.
+    *
+    * @param micros the latency in microseconds
+    */
+   public void record(long micros) {
+      if (micros < 0){micros = 0;}
+      counts[bucket(micros)]++;
+      count++;
+      sum += micros;
+      if (micros > max){max = micros;}
+   }
+
+   /**
+    * Adds another histogram's samples to this one.
+    *
+    * @param other the histogram to add
+    */
+   public void add(LatencyHistogram other) {
+      for (int i = 0; i < counts.length; i++){counts[i] += other.counts[i];}
+      count += other.count;
+      sum += other.sum;
+      if (other.max > max){max = other.max;}
+   }
+
+   public long getCount(){return count;}
+   public long getMax(){return max;}
+
+   /**
+    * @return the mean latency in microseconds, or 0 with no samples
+    */
+   public double getMean() {
+      return count == 0 ? 0 : (double) sum / count;
+   }
+
+   /**
+    * @param percentile the percentile, 0 to 100
+    * @return the latency in microseconds that the given percent of samples
+    *         are at or below, or 0 with no samples
+    */
+   public long getPercentile(double percentile) {
+      if (count == 0){return 0;}
+      long rank = (long) Math.ceil(percentile / 100 * count);
+      if (rank < 1){rank = 1;}
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++){
+         seen += counts[i];
+         if (seen >= rank){return Math.min(upperBound(i), max);}
+      }
+      return max;
+   }
+
+   /*
+    * Values below SUB_BUCKETS get a bucket each.  Above that, exponent e
+    * covers [SUB_BUCKETS << (e - 1), SUB_BUCKETS << e), split into
+    * SUB_BUCKETS buckets of width 1 << (e - 1).
+    */
+   private static int bucket(long value){
+      if (value < SUB_BUCKETS){return (int) value;}
+      int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+      if (exponent > MAX_EXPONENT){return (MAX_EXPONENT + 1) * SUB_BUCKETS - 1;}
+      int sub = (int) (value >>> (exponent - 1)) - SUB_BUCKETS;
+      return exponent * SUB_BUCKETS + sub;
+   }
+
+   // the largest value that falls in a bucket
+   private static long upperBound(int bucket){
+      int exponent = bucket / SUB_BUCKETS;
+      int sub = bucket % SUB_BUCKETS;
+      if (exponent == 0){return sub;}
+      return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 1)) - 1;
+   }
+
+}//end LatencyHistogram
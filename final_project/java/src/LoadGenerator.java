@@ -0,0 +1,448 @@
+/*
+ * Load generator for the Amazon store client
+ * ============================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a mix of menu operations from many concurrent simulated users and
+ * reports the throughput and latency percentiles of each kind of operation,
+ * with how many were refused, lost a race for stock, deadlocked or failed.
+ *
+ * Every simulated user logs in as a user from data/users.csv and runs the
+ * menu functions headless through its own {@link CommandProcessor}, so the
+ * load goes through exactly the code the interactive menu runs.  Customers
+ * browse and order from the stores within reach of their location; managers
+ * run reports on and request supplies for the stores they manage.  Store and
+ * product names come from data/stores.csv and data/products.csv.
+ *
+ * Each user runs on a thread of its own from
+ * {@link CommandProcessor#newSessionExecutor()}, a virtual thread where the
+ * JVM has them.  All users share one
+ * Amazon instance, so its connection pool (amazon.pool.size) bounds how many
+ * reach the database at once.
+ */
+public class LoadGenerator {
+
+   /** the operations and their relative weights, used when -m is not given */
+   public static final String DEFAULT_MIX = "browse=15,products=25,order=25,recent=10,report=15,supply=10";
+
+   // the operations run by managers; the rest are run by customers
+   private static final String[] MANAGER_OPERATIONS = {"report", "supply"};
+
+   private static final PrintStream NOWHERE = new PrintStream(new OutputStream(){
+      public void write(int b){}
+      public void write(byte[] b, int off, int len){}
+   });
+
+   /**
+    * A user from users.csv, with the stores they can order from or manage.
+    */
+   private static class User {
+      final String name;
+      final String password;
+      final List<Integer> stores = new ArrayList<Integer>();
+
+      User(String name, String password){
+         this.name = name;
+         this.password = password;
+      }
+   }
+
+   /**
+    * The results of one kind of operation.
+    */
+   private static class OperationStats {
+      final LatencyHistogram latencies = new LatencyHistogram();
+      long rejected = 0;
+      long conflicts = 0;
+      long deadlocks = 0;
+      long errors = 0;
+      String lastError = null;
+
+      void add(OperationStats other){
+         latencies.add(other.latencies);
+         rejected += other.rejected;
+         conflicts += other.conflicts;
+         deadlocks += other.deadlocks;
+         errors += other.errors;
+         if (other.lastError != null){lastError = other.lastError;}
+      }
+   }
+
+   private final Amazon esql;
+   private final List<User> customers = new ArrayList<User>();
+   private final List<User> managers = new ArrayList<User>();
+   private final List<Integer> storeIDs = new ArrayList<Integer>();
+   private final Map<Integer, List<String>> products = new HashMap<Integer, List<String>>();
+   private final List<Integer> warehouseIDs = new ArrayList<Integer>();
+
+   private final String[] operations;
+   private final int[] cumulativeWeights;
+   private final int managerWeight;
+
+   /**
+    * @param esql the database to load
+    * @param data the directory holding the CSV files
+    * @param mix the operations and their weights, as name=weight,...
+    * @throws java.io.IOException when the CSV files cannot be read
+    */
+   public LoadGenerator(Amazon esql, File data, String mix) throws IOException {
+      this.esql = esql;
+
+      Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+      for (String entry : mix.split(",")){
+         String[] pair = entry.trim().split("=");
+         if (pair.length != 2 || !DEFAULT_MIX.contains(pair[0] + "=")){
+            throw new IllegalArgumentException("bad mix entry " + entry + "; expected name=weight with names from " + DEFAULT_MIX);
+         }
+         weights.put(pair[0], Integer.valueOf(pair[1]));
+      }
+      operations = weights.keySet().toArray(new String[weights.size()]);
+      cumulativeWeights = new int[operations.length];
+      int total = 0, manager = 0;
+      for (int i = 0; i < operations.length; i++){
+         int weight = weights.get(operations[i]);
+         total += weight;
+         cumulativeWeights[i] = total;
+         if (isManagerOperation(operations[i])){manager += weight;}
+      }
+      if (total <= 0){throw new IllegalArgumentException("the mix has no weight");}
+      managerWeight = manager * 1000 / total;
+
+      load(data);
+   }
+
+   private static boolean isManagerOperation(String operation){
+      for (String name : MANAGER_OPERATIONS){
+         if (name.equals(operation)){return true;}
+      }
+      return false;
+   }
+
+   /*
+    * Reads the users, stores, products and warehouses.  Customers are given
+    * the stores within Amazon.STORE_RADIUS of them, managers the stores they
+    * manage.
+    */
+   private void load(File data) throws IOException {
+      Map<Integer, User> managersByID = new HashMap<Integer, User>();
+      List<double[]> customerLocations = new ArrayList<double[]>();
+      for (String[] row : readCSV(new File(data, "users.csv"))){
+         User user = new User(row[1], row[2]);
+         String type = row[5].trim();
+         if (type.equals("customer")){
+            customers.add(user);
+            customerLocations.add(new double[] {Double.parseDouble(row[3]), Double.parseDouble(row[4])});
+         }
+         else if (type.equals("manager")){
+            managers.add(user);
+            managersByID.put(Integer.valueOf(row[0]), user);
+         }
+      }
+
+      List<double[]> storeLocations = new ArrayList<double[]>();
+      for (String[] row : readCSV(new File(data, "stores.csv"))){
+         Integer storeID = Integer.valueOf(row[0]);
+         storeIDs.add(storeID);
+         storeLocations.add(new double[] {Double.parseDouble(row[1]), Double.parseDouble(row[2])});
+         User manager = managersByID.get(Integer.valueOf(row[3]));
+         if (manager != null){manager.stores.add(storeID);}
+      }
+
+      for (int c = 0; c < customers.size(); c++){
+         double[] location = customerLocations.get(c);
+         for (int s = 0; s < storeIDs.size(); s++){
+            double[] store = storeLocations.get(s);
+            if (Amazon.calculateDistance(location[0], location[1], store[0], store[1]) <= Amazon.STORE_RADIUS){
+               customers.get(c).stores.add(storeIDs.get(s));
+            }
+         }
+      }
+
+      for (String[] row : readCSV(new File(data, "products.csv"))){
+         Integer storeID = Integer.valueOf(row[0]);
+         List<String> names = products.get(storeID);
+         if (names == null){
+            names = new ArrayList<String>();
+            products.put(storeID, names);
+         }
+         names.add(row[1]);
+      }
+
+      for (String[] row : readCSV(new File(data, "warehouse.csv"))){warehouseIDs.add(Integer.valueOf(row[0]));}
+
+      // customers with no store in reach could only ever be refused an order
+      List<User> inReach = new ArrayList<User>();
+      for (User customer : customers){
+         if (!customer.stores.isEmpty()){inReach.add(customer);}
+      }
+      if (!inReach.isEmpty()){
+         customers.clear();
+         customers.addAll(inReach);
+      }
+      for (int i = managers.size() - 1; i >= 0; i--){
+         if (managers.get(i).stores.isEmpty()){managers.remove(i);}
+      }
+      if (customers.isEmpty() || storeIDs.isEmpty()){throw new IOException("no customers or stores in " + data);}
+   }
+
+   private static List<String[]> readCSV(File file) throws IOException {
+      List<String[]> rows = new ArrayList<String[]>();
+      BufferedReader csv = new BufferedReader(new FileReader(file));
+      try{
+         csv.readLine();   // header
+         String line;
+         while ((line = csv.readLine()) != null){
+            if (line.length() > 0){rows.add(line.split(",", -1));}
+         }
+      }finally{
+         csv.close();
+      }
+      return rows;
+   }
+
+   /**
+    * Runs the load and prints a report.
+    *
+    * @param sessions the number of simulated users
+    * @param seconds how long to measure for
+    * @param warmupSeconds how long to run before measuring
+    * @param thinkMillis the pause between a user's operations
+    * @param seed the seed for every random choice
+    * @param out where the report is printed
+    * @throws java.lang.InterruptedException when interrupted while waiting
+    */
+   public void run(int sessions, int seconds, int warmupSeconds, final long thinkMillis, long seed, PrintStream out)
+      throws InterruptedException {
+      if (managers.isEmpty() && managerWeight == 1000){throw new IllegalStateException("the mix needs managers and there are none");}
+      final long start = System.nanoTime();
+      final long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+      final long stopAt = measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+
+      List<Map<String, OperationStats>> results = new ArrayList<Map<String, OperationStats>>();
+      final long[] loginFailures = new long[1];
+      ExecutorService executor = CommandProcessor.newSessionExecutor();
+      Random seeds = new Random(seed);
+      for (int i = 0; i < sessions; i++){
+         final Random random = new Random(seeds.nextLong());
+         final boolean manager = !managers.isEmpty() && random.nextInt(1000) < managerWeight;
+         final User user = manager ? managers.get(random.nextInt(managers.size())) : customers.get(random.nextInt(customers.size()));
+         final Map<String, OperationStats> stats = new HashMap<String, OperationStats>();
+         results.add(stats);
+
+         executor.execute(new Runnable(){
+            public void run(){
+               CommandProcessor processor = new CommandProcessor(esql);
+               CommandContext login = processor.perform("login " + quote(user.name) + " " + quote(user.password), NOWHERE);
+               if (login.getStatus() != CommandContext.OK){
+                  synchronized (loginFailures){loginFailures[0]++;}
+                  return;
+               }
+               try{
+                  while (System.nanoTime() < stopAt){
+                     String operation = pick(random, manager);
+                     String command = command(operation, user, random);
+                     long began = System.nanoTime();
+                     CommandContext context = processor.perform(command, NOWHERE);
+                     long ended = System.nanoTime();
+                     if (began >= measureFrom && ended <= stopAt){record(stats, operation, context, (ended - began) / 1000);}
+                     if (thinkMillis > 0){Thread.sleep(thinkMillis);}
+                  }
+               }catch (InterruptedException e){
+                  Thread.currentThread().interrupt();
+               }
+            }
+         });
+      }
+      executor.shutdown();
+      executor.awaitTermination(warmupSeconds + seconds + 600, TimeUnit.SECONDS);
+
+      Map<String, OperationStats> totals = new LinkedHashMap<String, OperationStats>();
+      for (String operation : operations){totals.put(operation, new OperationStats());}
+      for (Map<String, OperationStats> stats : results){
+         for (Map.Entry<String, OperationStats> entry : stats.entrySet()){totals.get(entry.getKey()).add(entry.getValue());}
+      }
+      report(totals, sessions, seconds, loginFailures[0], out);
+   }//end run
+
+   private String pick(Random random, boolean manager){
+      while (true){
+         int r = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+         int i = 0;
+         while (cumulativeWeights[i] <= r){i++;}
+         if (isManagerOperation(operations[i]) == manager){return operations[i];}
+      }
+   }
+
+   private String command(String operation, User user, Random random){
+      int storeID = pick(random, user.stores.isEmpty() ? storeIDs : user.stores);
+      List<String> names = products.get(storeID);
+      if (names == null && (operation.equals("order") || operation.equals("supply"))){return "view-products " + storeID;}
+      if (operation.equals("browse")){return "view-stores";}
+      if (operation.equals("products")){return "view-products " + pick(random, storeIDs);}
+      if (operation.equals("order")){
+         return "place-order " + storeID + " " + quote(pick(random, names)) + " " + (1 + random.nextInt(3)) + " yes";
+      }
+      if (operation.equals("recent")){return "view-recent-orders";}
+      if (operation.equals("supply")){
+         return "place-supply-request " + storeID + " " + pick(random, warehouseIDs) + " " +
+                quote(pick(random, names)) + " " + (10 + random.nextInt(41));
+      }
+      switch (random.nextInt(7)){
+         case 0: return "manager-view-stores";
+         case 1: return "view-recent-updates";
+         case 2: return "view-popular-products " + storeID;
+         case 3: return "view-popular-customers " + storeID;
+         case 4: return "view-top-spenders " + storeID + " 5";
+         case 5: return "view-store-customers " + storeID + " 10";
+         default: return "view-supply-requests " + storeID + " 10";
+      }
+   }
+
+   private static <T> T pick(Random random, List<T> values){
+      return values.get(random.nextInt(values.size()));
+   }
+
+   private static String quote(String word){
+      return "\"" + word.trim().replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+   }
+
+   /*
+    * Sorts a finished command into ok, refused, a lost race, a deadlock or
+    * an error.  The SQLSTATE is checked first; older drivers do not report
+    * it, so the server's message is the fallback.
+    */
+   private static void record(Map<String, OperationStats> stats, String operation, CommandContext context, long micros){
+      OperationStats operationStats = stats.get(operation);
+      if (operationStats == null){
+         operationStats = new OperationStats();
+         stats.put(operation, operationStats);
+      }
+      operationStats.latencies.record(micros);
+      if (context.getStatus() == CommandContext.OK){return;}
+
+      String sqlState = context.getSQLState();
+      String message = context.getMessage();
+      if ("40P01".equals(sqlState) || message.contains("deadlock detected")){operationStats.deadlocks++;}
+      else if ("40001".equals(sqlState) || "55P03".equals(sqlState) || message.contains("could not serialize") ||
+               message.contains("just sold")){
+         operationStats.conflicts++;
+      }
+      else if (context.getStatus() == CommandContext.REJECTED){operationStats.rejected++;}
+      else {
+         operationStats.errors++;
+         operationStats.lastError = message;
+      }
+   }
+
+   private static void report(Map<String, OperationStats> totals, int sessions, int seconds, long loginFailures, PrintStream out){
+      out.println();
+      out.println(sessions + " session(s), " + seconds + " s measured" +
+                  (loginFailures > 0 ? ", " + loginFailures + " log in(s) failed" : ""));
+      out.printf("%-10s %9s %9s %9s %9s %9s %9s %9s %9s %9s %9s%n",
+                 "operation", "count", "ops/s", "p50 ms", "p95 ms", "p99 ms", "max ms",
+                 "rejected", "conflicts", "deadlocks", "errors");
+
+      OperationStats all = new OperationStats();
+      for (Map.Entry<String, OperationStats> entry : totals.entrySet()){
+         line(out, entry.getKey(), entry.getValue(), seconds);
+         all.add(entry.getValue());
+      }
+      line(out, "total", all, seconds);
+
+      for (Map.Entry<String, OperationStats> entry : totals.entrySet()){
+         if (entry.getValue().lastError != null){out.println(entry.getKey() + " error: " + entry.getValue().lastError);}
+      }
+   }
+
+   private static void line(PrintStream out, String name, OperationStats stats, int seconds){
+      LatencyHistogram latencies = stats.latencies;
+      out.printf("%-10s %9d %9.1f %9.2f %9.2f %9.2f %9.2f %9d %9d %9d %9d%n",
+                 name, latencies.getCount(), (double) latencies.getCount() / seconds,
+                 latencies.getPercentile(50) / 1000.0, latencies.getPercentile(95) / 1000.0,
+                 latencies.getPercentile(99) / 1000.0, latencies.getMax() / 1000.0,
+                 stats.rejected, stats.conflicts, stats.deadlocks, stats.errors);
+   }
+
+   /**
+    * Runs a load against a local database and prints the report.
+    *
+    * usage: java [-classpath &lt;classpath&gt;] LoadGenerator &lt;dbname&gt; &lt;port&gt; &lt;user&gt;
+    *        [-s sessions] [-d seconds] [-w warmupSeconds] [-t thinkMillis]
+    *        [-m mix] [-seed n] [-data dir] [-restock units]
+    *
+    * -restock raises every product to at least the given number of units
+    * first, so a long run does not end up measuring refused orders.
+    *
+    * @param args the database, then the options
+    */
+   public static void main (String[] args) {
+      if (args.length < 3 || (args.length - 3) % 2 != 0){
+         System.err.println("Usage: java [-classpath <classpath>] LoadGenerator <dbname> <port> <user> " +
+                            "[-s sessions] [-d seconds] [-w warmupSeconds] [-t thinkMillis] " +
+                            "[-m mix] [-seed n] [-data dir] [-restock units]");
+         return;
+      }
+
+      Map<String, String> options = new HashMap<String, String>();
+      for (int i = 3; i < args.length; i += 2){options.put(args[i], args[i + 1]);}
+
+      Amazon esql = null;
+      try{
+         Class.forName("org.postgresql.Driver").newInstance();
+         esql = new Amazon(args[0], args[1], args[2], "");
+         LoadGenerator generator = new LoadGenerator(esql, new File(option(options, "-data", "data")),
+                                                     option(options, "-m", DEFAULT_MIX));
+
+         int restock = Integer.parseInt(option(options, "-restock", "0"));
+         if (restock > 0){
+            int rows = esql.executeUpdate("UPDATE Product SET numberOfUnits = ? WHERE numberOfUnits < ?",
+                                          Integer.valueOf(restock), Integer.valueOf(restock));
+            System.out.println("Restocked " + rows + " product(s).");
+         }
+
+         // load the in-memory indexes before the clock starts
+         esql.getPopularity();
+         esql.getStoreIndex();
+
+         generator.run(Integer.parseInt(option(options, "-s", "100")),
+                       Integer.parseInt(option(options, "-d", "60")),
+                       Integer.parseInt(option(options, "-w", "10")),
+                       Long.parseLong(option(options, "-t", "0")),
+                       Long.parseLong(option(options, "-seed", "166")),
+                       CommandContext.console());
+      }catch (Exception e){
+         System.err.println(e.getMessage());
+      }finally{
+         if (esql != null){esql.cleanup();}
+      }
+   }
+
+   private static String option(Map<String, String> options, String name, String fallback){
+      String value = options.get(name);
+      return value == null ? fallback : value;
+   }
+
+}//end LoadGenerator
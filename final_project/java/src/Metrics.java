@@ -0,0 +1,341 @@
+/*
+ * Metrics for the Amazon store client
+ * =====================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counts what each menu operation and each execute helper costs: calls,
+ * latency percentiles, database round trips, rows returned and errors by
+ * SQLSTATE.
+ *
+ * An operation is timed from {@link #begin(String)} to
+ * {@link Operation#end()}.  Statements run on the same thread in between are
+ * charged to it, so the round trips per call show how chatty each menu
+ * function is.  Each call of an execute helper is timed the same way with
+ * {@link #beginStatement(String)}, nested inside the menu operation.
+ *
+ * In the interactive menu an operation's latency includes the time spent
+ * answering its prompts; headless commands answer at once.
+ *
+ * With {@link #register(String)} every operation, every helper and the
+ * totals are published as MXBeans, e.g. Amazon:type=Operation,name=placeOrder.
+ */
+public class Metrics {
+
+   /**
+    * What one operation or helper has cost so far.
+    */
+   public interface StatsMXBean {
+      long getCalls();
+      long getFailedCalls();
+      long getRoundTrips();
+      double getRoundTripsPerCall();
+      long getRows();
+      double getMeanMillis();
+      double getP50Millis();
+      double getP95Millis();
+      double getP99Millis();
+      double getMaxMillis();
+      void reset();
+   }
+
+   /**
+    * The totals over every statement.
+    */
+   public interface TotalsMXBean {
+      long getRoundTrips();
+      long getRows();
+      /** errors by SQLSTATE; "none" for drivers that do not report one */
+      Map<String, Long> getErrors();
+      void reset();
+   }
+
+   /**
+    * One kind of operation or helper.
+    */
+   static class Stats implements StatsMXBean {
+      private final String name;
+      private LatencyHistogram latencies = new LatencyHistogram();
+      private long failedCalls = 0;
+      private long roundTrips = 0;
+      private long rows = 0;
+
+      Stats(String name){
+         this.name = name;
+      }
+
+      String getName(){return name;}
+
+      synchronized void record(long nanos, long roundTrips, long rows, boolean failed){
+         latencies.record(nanos / 1000);
+         this.roundTrips += roundTrips;
+         this.rows += rows;
+         if (failed){failedCalls++;}
+      }
+
+      public synchronized long getCalls(){return latencies.getCount();}
+      public synchronized long getFailedCalls(){return failedCalls;}
+      public synchronized long getRoundTrips(){return roundTrips;}
+      public synchronized long getRows(){return rows;}
+
+      public synchronized double getRoundTripsPerCall() {
+         return latencies.getCount() == 0 ? 0 : (double) roundTrips / latencies.getCount();
+      }
+
+      public synchronized double getMeanMillis(){return latencies.getMean() / 1000;}
+      public synchronized double getP50Millis(){return latencies.getPercentile(50) / 1000.0;}
+      public synchronized double getP95Millis(){return latencies.getPercentile(95) / 1000.0;}
+      public synchronized double getP99Millis(){return latencies.getPercentile(99) / 1000.0;}
+      public synchronized double getMaxMillis(){return latencies.getMax() / 1000.0;}
+
+      public synchronized void reset() {
+         latencies = new LatencyHistogram();
+         failedCalls = 0;
+         roundTrips = 0;
+         rows = 0;
+      }
+   }//end Stats
+
+   /**
+    * A running operation, charged with the statements its thread runs until
+    * it ends.  Operations nest, and a statement is charged to every
+    * operation it runs inside.
+    */
+   public class Operation {
+      private final Stats stats;
+      private final Operation outer;
+      private final long started = System.nanoTime();
+      private long roundTrips = 0;
+      private long rows = 0;
+      private boolean failed = false;
+
+      Operation(Stats stats, Operation outer){
+         this.stats = stats;
+         this.outer = outer;
+      }
+
+      /**
+       * Records the operation and makes the enclosing one current again.
+       */
+      public void end() {
+         stats.record(System.nanoTime() - started, roundTrips, rows, failed);
+         if (outer == null){current.remove();}
+         else {current.set(outer);}
+      }
+   }//end Operation
+
+   private final ConcurrentHashMap<String, Stats> operations = new ConcurrentHashMap<String, Stats>();
+   private final ConcurrentHashMap<String, Stats> helpers = new ConcurrentHashMap<String, Stats>();
+   private final ThreadLocal<Operation> current = new ThreadLocal<Operation>();
+
+   private final Object totalsLock = new Object();
+   private long roundTrips = 0;
+   private long rows = 0;
+   private final Map<String, Long> errors = new TreeMap<String, Long>();
+
+   private MBeanServer server = null;
+   private String domain = null;
+   private final List<ObjectName> registered = new ArrayList<ObjectName>();
+
+   /**
+    * Starts timing an operation on the current thread.  The caller must call
+    * {@link Operation#end()} in a finally block.
+    *
+    * @param name the operation, e.g. the menu function's name
+    * @return the running operation
+    */
+   public Operation begin(String name) {
+      Operation operation = new Operation(stats(operations, "Operation", name), current.get());
+      current.set(operation);
+      return operation;
+   }
+
+   /**
+    * Starts timing a call of an execute helper on the current thread.  The
+    * caller must call {@link Operation#end()} in a finally block.
+    *
+    * @param helper the helper's name
+    * @return the running call
+    */
+   public Operation beginStatement(String helper) {
+      Operation operation = new Operation(stats(helpers, "Statement", helper), current.get());
+      current.set(operation);
+      return operation;
+   }
+
+   /**
+    * Counts one round trip to the database, charged to the running
+    * operations.
+    */
+   public void roundTrip() {
+      for (Operation operation = current.get(); operation != null; operation = operation.outer){operation.roundTrips++;}
+      synchronized (totalsLock){roundTrips++;}
+   }
+
+   /**
+    * Counts rows returned by a query, charged to the running operations.
+    *
+    * @param count the number of rows
+    */
+   public void rows(int count) {
+      for (Operation operation = current.get(); operation != null; operation = operation.outer){operation.rows += count;}
+      synchronized (totalsLock){rows += count;}
+   }
+
+   /**
+    * Counts a failed statement by its SQLSTATE and marks the running
+    * operations failed.
+    *
+    * @param e the error
+    */
+   public void error(SQLException e) {
+      for (Operation operation = current.get(); operation != null; operation = operation.outer){operation.failed = true;}
+      String sqlState = e.getSQLState() == null || e.getSQLState().length() == 0 ? "none" : e.getSQLState();
+      synchronized (totalsLock){
+         Long count = errors.get(sqlState);
+         errors.put(sqlState, Long.valueOf(count == null ? 1 : count.longValue() + 1));
+      }
+   }
+
+   /**
+    * @return the totals, readable through JMX as Amazon:type=Totals
+    */
+   public TotalsMXBean getTotals() {
+      return new TotalsMXBean(){
+         public long getRoundTrips(){synchronized (totalsLock){return roundTrips;}}
+         public long getRows(){synchronized (totalsLock){return rows;}}
+         public Map<String, Long> getErrors(){synchronized (totalsLock){return new TreeMap<String, Long>(errors);}}
+         public void reset(){
+            synchronized (totalsLock){
+               roundTrips = 0;
+               rows = 0;
+               errors.clear();
+            }
+         }
+      };
+   }
+
+   /**
+    * Publishes the metrics to the platform MBean server under a JMX domain.
+    * Operations and helpers seen later are published as they appear.
+    *
+    * @param domain the JMX domain, e.g. "Amazon"
+    */
+   public void register(String domain) {
+      synchronized (registered){
+         this.server = ManagementFactory.getPlatformMBeanServer();
+         this.domain = domain;
+         publish("Totals", null, getTotals());
+         for (Stats stats : operations.values()){publish("Operation", stats.getName(), stats);}
+         for (Stats stats : helpers.values()){publish("Statement", stats.getName(), stats);}
+      }
+   }
+
+   /**
+    * Removes everything {@link #register(String)} published.
+    */
+   public void unregister() {
+      synchronized (registered){
+         for (ObjectName name : registered){
+            try{
+               server.unregisterMBean(name);
+            }catch (JMException e){
+               // already gone
+            }
+         }
+         registered.clear();
+         server = null;
+      }
+   }
+
+   /**
+    * One row per operation, helper and SQLSTATE, for the metrics report.
+    *
+    * @return the rows, with the columns in {@link #REPORT_COLUMNS}
+    */
+   public List<List<String>> report() {
+      List<List<String>> rows = new ArrayList<List<String>>();
+      addRows(rows, "operation", new TreeMap<String, Stats>(operations));
+      addRows(rows, "statement", new TreeMap<String, Stats>(helpers));
+      TotalsMXBean totals = getTotals();
+      for (Map.Entry<String, Long> error : totals.getErrors().entrySet()){
+         List<String> row = new ArrayList<String>();
+         row.add("error");
+         row.add(error.getKey());
+         row.add(String.valueOf(error.getValue()));
+         for (int i = 0; i < REPORT_COLUMNS.length - 3; i++){row.add("");}
+         rows.add(row);
+      }
+      return rows;
+   }
+
+   /** the columns of {@link #report()} */
+   public static final String[] REPORT_COLUMNS = {
+      "kind", "name", "calls", "failed", "roundTrips", "perCall", "rows", "p50ms", "p95ms", "p99ms", "maxms"
+   };
+
+   private static void addRows(List<List<String>> rows, String kind, Map<String, Stats> stats){
+      for (Stats s : stats.values()){
+         List<String> row = new ArrayList<String>();
+         row.add(kind);
+         row.add(s.getName());
+         row.add(String.valueOf(s.getCalls()));
+         row.add(String.valueOf(s.getFailedCalls()));
+         row.add(String.valueOf(s.getRoundTrips()));
+         row.add(String.format("%.1f", s.getRoundTripsPerCall()));
+         row.add(String.valueOf(s.getRows()));
+         row.add(String.format("%.2f", s.getP50Millis()));
+         row.add(String.format("%.2f", s.getP95Millis()));
+         row.add(String.format("%.2f", s.getP99Millis()));
+         row.add(String.format("%.2f", s.getMaxMillis()));
+         rows.add(row);
+      }
+   }
+
+   private Stats stats(ConcurrentHashMap<String, Stats> map, String type, String name){
+      Stats stats = map.get(name);
+      if (stats == null){
+         Stats created = new Stats(name);
+         stats = map.putIfAbsent(name, created);
+         if (stats == null){
+            stats = created;
+            synchronized (registered){
+               if (server != null){publish(type, name, stats);}
+            }
+         }
+      }
+      return stats;
+   }
+
+   private void publish(String type, String name, Object mbean){
+      try{
+         ObjectName objectName = new ObjectName(domain + ":type=" + type +
+                                                (name == null ? "" : ",name=" + name));
+         if (server.isRegistered(objectName)){return;}
+         server.registerMBean(mbean, objectName);
+         registered.add(objectName);
+      }catch (JMException e){
+         System.err.println("Metrics: " + e.getMessage());
+      }
+   }
+
+}//end Metrics
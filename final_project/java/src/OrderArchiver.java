@@ -0,0 +1,510 @@
+/*
+ * Order archiving for the Amazon store client
+ * =============================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Moves old months of Orders out of the database into compressed files, and
+ * answers queries over them.
+ *
+ * Orders is partitioned by month (see sql/src/partitions.sql).  Archiving a
+ * month writes its partition to <code>orders-YYYY-MM.csv.gz</code>, laid
+ * out like <code>data/orders.csv</code> with the price after the order
+ * time, checks the row count, then detaches and drops the partition in the
+ * transaction that read it, so no order is lost or kept twice.  An archive
+ * keeps the orders of users deleted later.
+ *
+ * Every report covers the orders in the database only: an archived month
+ * drops out of them all, and a restored one comes back.  Dropping or
+ * attaching a partition fires no triggers, so the transaction that does it
+ * also recounts StoreSales and CustomerSpend, and logs the month in
+ * OrderArchiveLog.  Clients read that log now and then, and on a new entry
+ * drop their cached order histories and recount their popularity index
+ * (see Amazon).  The reports bounded by a since date read Orders itself.
+ *
+ * A month is read back with {@link #query(String, String, int, int, PrintStream)},
+ * which scans the archives and Orders alike, or put back into the database
+ * with {@link #restore(String)}.
+ */
+public class OrderArchiver {
+
+   private static final String COLUMNS = "orderNumber,customerID,storeID,productName,unitsOrdered,orderTime,price";
+   private static final int FETCH_SIZE = 1000;
+   private static final int BATCH_SIZE = 1000;
+
+   private final Amazon esql;
+   private final File dir;
+
+   /**
+    * @param esql the database
+    * @param dir the directory the archives are kept in
+    */
+   public OrderArchiver(Amazon esql, File dir) {
+      this.esql = esql;
+      this.dir = dir;
+   }
+
+   /**
+    * The months of Orders that have a partition, oldest first.
+    *
+    * @return the months, as YYYY-MM
+    * @throws java.sql.SQLException when the catalog cannot be read
+    */
+   public List<String> partitions() throws SQLException {
+      final List<String> months = new ArrayList<String>();
+      esql.query("SELECT child.relname FROM pg_inherits, pg_class child " +
+                 "WHERE pg_inherits.inhparent = CAST('orders' AS regclass) AND child.oid = pg_inherits.inhrelid " +
+                 "AND child.relname ~ '^orders_[0-9]{4}_[0-9]{2}$' ORDER BY child.relname", 0, new RowSink(){
+         public void start(ResultSetMetaData rsmd){}
+         public void row(ResultSet rs) throws SQLException {
+            months.add(rs.getString(1).substring("orders_".length()).replace('_', '-'));
+         }
+         public void end(int rowCount){}
+      });
+      return months;
+   }
+
+   /**
+    * Archives every month before a given one.
+    *
+    * @param before the first month kept, as YYYY-MM
+    * @param out where each month archived is reported
+    * @return the number of orders archived
+    * @throws java.sql.SQLException when a month cannot be read or dropped
+    * @throws java.io.IOException when an archive cannot be written
+    */
+   public long archive(String before, PrintStream out) throws SQLException, IOException {
+      checkMonth(before);
+      if (!dir.isDirectory() && !dir.mkdirs()){throw new IOException("cannot create " + dir);}
+      long orders = 0;
+      for (String month : partitions()){
+         if (month.compareTo(before) >= 0){break;}
+         long rows = archiveMonth(month);
+         out.println(month + ": " + rows + " orders archived to " + archiveOf(month));
+         orders += rows;
+      }
+      return orders;
+   }
+
+   /*
+    * Writes one partition to its archive and drops it.  The partition is
+    * locked against writes while it is read, and dropped only once the
+    * archive is on disk with every row.  A failure rolls the drop back but
+    * never deletes the archive: once renamed into place it may be the only
+    * copy, if the commit went through before the connection failed.  A
+    * partition whose drop failed is archived again by the next run, which
+    * replaces the archive with the same rows.
+    */
+   private long archiveMonth(String month) throws SQLException, IOException {
+      String partition = partitionOf(month);
+      File archive = archiveOf(month);
+      File part = new File(dir, archive.getName() + ".part");
+      Connection conn = esql.getConnection();
+      try{
+         conn.setAutoCommit(false);
+         Statement stmt = conn.createStatement();
+         try{
+            stmt.execute("LOCK TABLE " + partition + " IN SHARE MODE");
+            long expected;
+            ResultSet count = stmt.executeQuery("SELECT COUNT(*) FROM " + partition);
+            try{
+               count.next();
+               expected = count.getLong(1);
+            }finally{
+               count.close();
+            }
+
+            long written = 0;
+            FileOutputStream file = new FileOutputStream(part);
+            GZIPOutputStream gzip = new GZIPOutputStream(file);
+            Writer writer = new BufferedWriter(new OutputStreamWriter(gzip, StandardCharsets.UTF_8));
+            try{
+               writer.write(COLUMNS);
+               writer.write('\n');
+               // a cursor, so a month is never held in memory; the driver
+               // has no fetch size, so it is declared and fetched by hand
+               stmt.execute("DECLARE archive_cursor NO SCROLL CURSOR FOR SELECT " + COLUMNS + " FROM " + partition +
+                            " ORDER BY orderNumber");
+               int fetched;
+               do{
+                  fetched = 0;
+                  ResultSet rs = stmt.executeQuery("FETCH FORWARD " + FETCH_SIZE + " FROM archive_cursor");
+                  try{
+                     while (rs.next()){
+                        writer.write(rs.getInt(1) + "," + rs.getInt(2) + "," + rs.getInt(3) + "," +
+                                     quote(rs.getString(4).trim()) + "," + rs.getInt(5) + "," + rs.getTimestamp(6) + ",");
+                        double price = rs.getDouble(7);
+                        if (!rs.wasNull()){writer.write(String.valueOf(price));}
+                        writer.write('\n');
+                        fetched++;
+                     }
+                  }finally{
+                     rs.close();
+                  }
+                  written += fetched;
+               }while (fetched == FETCH_SIZE);
+               stmt.execute("CLOSE archive_cursor");
+               // the gzip trailer is written by finish(), so it is synced too
+               writer.flush();
+               gzip.finish();
+               file.getFD().sync();
+            }finally{
+               writer.close();
+            }
+            if (written != expected){throw new SQLException(partition + " has " + expected + " orders but " + written + " were read");}
+            if (!part.renameTo(archive)){throw new IOException("cannot rename " + part + " to " + archive);}
+
+            stmt.execute("ALTER TABLE Orders DETACH PARTITION " + partition);
+            stmt.execute("DROP TABLE " + partition);
+            changed(conn, month, "archive", written);
+            conn.commit();
+            return written;
+         }finally{
+            stmt.close();
+         }
+      }catch (SQLException e){
+         rollback(conn);
+         throw e;
+      }catch (IOException e){
+         rollback(conn);
+         throw e;
+      }finally{
+         part.delete();
+         conn.setAutoCommit(true);
+         esql.releaseConnection(conn);
+      }
+   }//end archiveMonth
+
+   /**
+    * Prints the orders of a range of months, reading archived months from
+    * their archives and the others from Orders.
+    *
+    * @param from the first month, as YYYY-MM
+    * @param to the last month, as YYYY-MM
+    * @param storeID a store, or -1 for every store
+    * @param customerID a customer, or -1 for every customer
+    * @param out where the orders are printed, tab separated
+    * @return the number of orders printed
+    * @throws java.sql.SQLException when Orders cannot be read
+    * @throws java.io.IOException when an archive cannot be read
+    */
+   public long query(String from, String to, final int storeID, final int customerID, final PrintStream out)
+      throws SQLException, IOException {
+      checkMonth(from);
+      checkMonth(to);
+      out.println(COLUMNS.replace(',', '\t'));
+      final long[] printed = new long[1];
+      for (String month = from; month.compareTo(to) <= 0; month = next(month)){
+         File archive = archiveOf(month);
+         if (archive.isFile()){
+            BufferedReader in = open(archive);
+            try{
+               in.readLine();
+               String line;
+               while ((line = in.readLine()) != null){
+                  List<String> fields = OrderImporter.splitCsv(line);
+                  if (customerID >= 0 && Integer.parseInt(fields.get(1)) != customerID){continue;}
+                  if (storeID >= 0 && Integer.parseInt(fields.get(2)) != storeID){continue;}
+                  out.println(join(fields));
+                  printed[0]++;
+               }
+            }finally{
+               in.close();
+            }
+            continue;
+         }
+
+         // a live month: the bounds on orderTime prune Orders to its partition
+         StringBuilder sql = new StringBuilder("SELECT " + COLUMNS + " FROM Orders WHERE orderTime >= ? AND orderTime < ?");
+         List<Object> params = new ArrayList<Object>();
+         params.add(start(month));
+         params.add(start(next(month)));
+         if (storeID >= 0){sql.append(" AND storeID = ?"); params.add(Integer.valueOf(storeID));}
+         if (customerID >= 0){sql.append(" AND customerID = ?"); params.add(Integer.valueOf(customerID));}
+         sql.append(" ORDER BY orderNumber");
+         esql.query(sql.toString(), FETCH_SIZE, new RowSink(){
+            public void start(ResultSetMetaData rsmd){}
+            public void row(ResultSet rs) throws SQLException {
+               List<String> fields = new ArrayList<String>(7);
+               for (int i = 1; i <= 7; i++){
+                  String value = rs.getString(i);
+                  fields.add(value == null ? "" : value.trim());
+               }
+               out.println(join(fields));
+               printed[0]++;
+            }
+            public void end(int rowCount){}
+         }, params.toArray());
+      }
+      return printed[0];
+   }//end query
+
+   /**
+    * Puts an archived month back into Orders as its own partition, and
+    * back into the summaries.  The archive is kept.
+    *
+    * @param month the month, as YYYY-MM
+    * @return the number of orders restored
+    * @throws java.sql.SQLException when the month already has a partition,
+    *         or cannot be created
+    * @throws java.io.IOException when the archive cannot be read
+    */
+   public long restore(String month) throws SQLException, IOException {
+      checkMonth(month);
+      File archive = archiveOf(month);
+      if (!archive.isFile()){throw new IOException("no archive " + archive);}
+      if (partitions().contains(month)){throw new SQLException(month + " is already in Orders");}
+
+      String partition = partitionOf(month);
+      long restored = 0;
+      Connection conn = esql.getConnection();
+      BufferedReader in = open(archive);
+      try{
+         conn.setAutoCommit(false);
+         Statement stmt = conn.createStatement();
+         try{
+            stmt.execute("CREATE TABLE " + partition + " (LIKE Orders INCLUDING DEFAULTS INCLUDING CONSTRAINTS)");
+            PreparedStatement insert = conn.prepareStatement("INSERT INTO " + partition + " (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?)");
+            try{
+               in.readLine();
+               String line;
+               int batched = 0;
+               while ((line = in.readLine()) != null){
+                  List<String> fields = OrderImporter.splitCsv(line);
+                  insert.setInt(1, Integer.parseInt(fields.get(0)));
+                  insert.setInt(2, Integer.parseInt(fields.get(1)));
+                  insert.setInt(3, Integer.parseInt(fields.get(2)));
+                  insert.setString(4, fields.get(3));
+                  insert.setInt(5, Integer.parseInt(fields.get(4)));
+                  insert.setTimestamp(6, Timestamp.valueOf(fields.get(5)));
+                  if (fields.get(6).isEmpty()){insert.setNull(7, java.sql.Types.DOUBLE);}
+                  else {insert.setDouble(7, Double.parseDouble(fields.get(6)));}
+                  insert.addBatch();
+                  restored++;
+                  if (++batched == BATCH_SIZE){
+                     insert.executeBatch();
+                     batched = 0;
+                  }
+               }
+               if (batched > 0){insert.executeBatch();}
+            }finally{
+               insert.close();
+            }
+            // attaching builds the partition's indexes and checks its rows
+            stmt.execute("ALTER TABLE Orders ATTACH PARTITION " + partition + " FOR VALUES FROM ('" +
+                         start(month) + "') TO ('" + start(next(month)) + "')");
+            changed(conn, month, "restore", restored);
+            conn.commit();
+            return restored;
+         }finally{
+            stmt.close();
+         }
+      }catch (SQLException e){
+         rollback(conn);
+         throw e;
+      }catch (IOException e){
+         rollback(conn);
+         throw e;
+      }catch (RuntimeException e){
+         rollback(conn);
+         throw new IOException(archive + " is not an archive of orders: " + e.getMessage());
+      }finally{
+         in.close();
+         conn.setAutoCommit(true);
+         esql.releaseConnection(conn);
+      }
+   }//end restore
+
+   /**
+    * The upkeep to run now and then, e.g. daily from cron: creates the
+    * partitions of the coming months, and moves orders left in the default
+    * partition into partitions of their own.
+    *
+    * @param monthsAhead how many months after this one get a partition
+    * @return the number of months moved out of the default partition
+    * @throws java.sql.SQLException when a partition cannot be created
+    */
+   public int maintain(int monthsAhead) throws SQLException {
+      esql.createOrderPartitions(monthsAhead);
+      return esql.queryInt("SELECT move_default_orders()", 0);
+   }
+
+   /*
+    * Recounts the summaries triggers.sql keeps from the orders now in
+    * Orders, where it is installed, and logs the month for the clients, in
+    * the transaction that archived or restored it.  Recounting locks the
+    * summaries, so orders placed meanwhile wait for the commit.
+    */
+   private void changed(Connection conn, String month, String action, long orders) throws SQLException {
+      String[] summaries = {"refresh_store_sales", "refresh_customer_spend"};
+      for (String refresh : summaries){
+         if (esql.queryInt("SELECT COUNT(*) FROM pg_proc WHERE proname = ?", 0, refresh) > 0){
+            esql.prepare(conn, "SELECT " + refresh + "()").executeQuery().close();
+         }
+      }
+      esql.prepare(conn, "INSERT INTO OrderArchiveLog (month, action, orders) VALUES (?, ?, ?)",
+                   month, action, Long.valueOf(orders)).executeUpdate();
+   }
+
+   private File archiveOf(String month){
+      return new File(dir, "orders-" + month + ".csv.gz");
+   }
+
+   private static String partitionOf(String month){
+      return "orders_" + month.replace('-', '_');
+   }
+
+   // a month is spliced into table names, so it is checked strictly
+   private static void checkMonth(String month){
+      if (!month.matches("[0-9]{4}-(0[1-9]|1[0-2])")){throw new IllegalArgumentException("not a month (YYYY-MM): " + month);}
+   }
+
+   private static String next(String month){
+      int year = Integer.parseInt(month.substring(0, 4));
+      int number = Integer.parseInt(month.substring(5));
+      if (number == 12){year++; number = 1;}
+      else {number++;}
+      return String.format("%04d-%02d", year, number);
+   }
+
+   private static Timestamp start(String month){
+      return Timestamp.valueOf(month + "-01 00:00:00");
+   }
+
+   private static BufferedReader open(File archive) throws IOException {
+      return new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(archive)), StandardCharsets.UTF_8));
+   }
+
+   private static String quote(String value){
+      if (value.indexOf(',') < 0 && value.indexOf('"') < 0){return value;}
+      return "\"" + value.replace("\"", "\"\"") + "\"";
+   }
+
+   private static String join(List<String> fields){
+      StringBuilder line = new StringBuilder();
+      for (int i = 0; i < fields.size(); i++){line.append(i == 0 ? "" : "\t").append(fields.get(i));}
+      return line.toString();
+   }
+
+   private static void rollback(Connection conn){
+      try{
+         conn.rollback();
+      }catch (SQLException e){
+         // the original failure is the one reported
+      }
+   }
+
+   /**
+    * Archives, queries and restores months of Orders, or runs the partition
+    * upkeep:
+    * <pre>
+    *    OrderArchiver db port user [-dir d] archive -before YYYY-MM
+    *    OrderArchiver db port user [-dir d] query -from YYYY-MM -to YYYY-MM [-store n] [-customer n]
+    *    OrderArchiver db port user [-dir d] restore YYYY-MM
+    *    OrderArchiver db port user maintain [-ahead n]
+    * </pre>
+    * Archives are kept in ./archive unless -dir says otherwise.
+    *
+    * @param args the database, then the command and its options
+    */
+   public static void main (String[] args) {
+      String usage = "Usage: java [-classpath <classpath>] OrderArchiver <dbname> <dbport> <user> [-dir dir] " +
+                     "archive -before YYYY-MM | query -from YYYY-MM -to YYYY-MM [-store n] [-customer n] | " +
+                     "restore YYYY-MM | maintain [-ahead n]";
+      String dir = "archive";
+      String command = null;
+      String month = null;
+      String from = null;
+      String to = null;
+      int storeID = -1;
+      int customerID = -1;
+      int ahead = Integer.getInteger("amazon.partitions.ahead", 2);
+      try{
+         for (int i = 3; i < args.length; i++){
+            if (args[i].equals("-dir") && i + 1 < args.length){dir = args[++i];}
+            else if (args[i].equals("-before") && i + 1 < args.length){month = args[++i];}
+            else if (args[i].equals("-from") && i + 1 < args.length){from = args[++i];}
+            else if (args[i].equals("-to") && i + 1 < args.length){to = args[++i];}
+            else if (args[i].equals("-store") && i + 1 < args.length){storeID = Integer.parseInt(args[++i]);}
+            else if (args[i].equals("-customer") && i + 1 < args.length){customerID = Integer.parseInt(args[++i]);}
+            else if (args[i].equals("-ahead") && i + 1 < args.length){ahead = Integer.parseInt(args[++i]);}
+            else if (command == null && !args[i].startsWith("-")){command = args[i];}
+            else if (command != null && command.equals("restore") && month == null && !args[i].startsWith("-")){month = args[i];}
+            else {throw new IllegalArgumentException("Unknown option " + args[i]);}
+         }
+      }catch (NumberFormatException e){
+         command = null;
+      }catch (IllegalArgumentException e){
+         System.err.println(e.getMessage());
+         command = null;
+      }
+      boolean complete = command != null &&
+         ((command.equals("archive") || command.equals("restore")) && month != null ||
+          command.equals("query") && from != null && to != null ||
+          command.equals("maintain"));
+      if (args.length < 3 || !complete){
+         System.err.println(usage);
+         System.exit(CommandContext.USAGE);
+      }
+
+      Amazon esql = null;
+      int status = CommandContext.OK;
+      try{
+         Class.forName("org.postgresql.Driver").newInstance();
+         esql = new Amazon(args[0], args[1], args[2], "");
+         OrderArchiver archiver = new OrderArchiver(esql, new File(dir));
+         if (command.equals("archive")){
+            System.out.println(archiver.archive(month, System.out) + " orders archived.");
+         }
+         else if (command.equals("query")){
+            System.err.println(archiver.query(from, to, storeID, customerID, System.out) + " orders.");
+         }
+         else if (command.equals("restore")){
+            System.out.println(archiver.restore(month) + " orders restored to " + month + ".");
+         }
+         else {
+            System.out.println(archiver.maintain(ahead) + " months moved out of the default partition.");
+         }
+      }catch (IllegalArgumentException e){
+         System.err.println(e.getMessage());
+         status = CommandContext.USAGE;
+      }catch (Exception e){
+         System.err.println(e.getMessage());
+         status = CommandContext.ERROR;
+      }finally{
+         if (esql != null){esql.cleanup();}
+      }
+      System.exit(status);
+   }
+
+}//end OrderArchiver
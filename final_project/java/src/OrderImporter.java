@@ -0,0 +1,419 @@
+/*
+ * Bulk order import for the Amazon store client
+ * ===============================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Imports orders from a CSV file laid out like <code>data/orders.csv</code>:
+ * <pre>
+ *    orderNumber,customerID,storeID,productName,unitsOrdered,orderTime
+ * </pre>
+ * The partner's order numbers are ignored; orders are numbered by the
+ * Orders sequence as usual, and priced at the products' current prices.
+ *
+ * The file is streamed in chunks, each imported in its own transaction:
+ * the products of every store in the chunk are locked, the chunk's
+ * customers are checked in groups, each row is checked against a running
+ * stock count, the accepted rows are inserted as one JDBC batch and the stock
+ * of each product touched is decremented once.  place_order_trigger is
+ * switched off for the transaction (<code>amazon.bulk_import</code>) since
+ * the importer has already applied the decrement.
+ *
+ * Before a chunk's transaction, the monthly partitions of Orders for the
+ * chunk's order times are created in one of their own, so imported history
+ * does not land in the default partition.
+ *
+ * A bad row is reported and skipped; the rest of its chunk is imported.  A
+ * chunk that fails in the database is rolled back as a whole and all of its
+ * rows are reported.
+ */
+public class OrderImporter {
+
+   /**
+    * A row that was not imported.
+    */
+   public static class Reject {
+      private final int line;
+      private final String reason;
+
+      Reject(int line, String reason){
+         this.line = line;
+         this.reason = reason;
+      }
+
+      /** @return the row's line number in the file, counting the header as 1 */
+      public int getLine(){return line;}
+      public String getReason(){return reason;}
+
+      public String toString(){return "line " + line + ": " + reason;}
+   }//end Reject
+
+   /**
+    * What an import did.
+    */
+   public static class Result {
+      private int imported = 0;
+      private int chunks = 0;
+      private final List<Reject> rejects = new ArrayList<Reject>();
+      private long elapsedMillis = 0;
+
+      public int getImported(){return imported;}
+      public int getRejected(){return rejects.size();}
+      public int getChunks(){return chunks;}
+      public List<Reject> getRejects(){return rejects;}
+      public long getElapsedMillis(){return elapsedMillis;}
+
+      /** @return rows imported per minute */
+      public long getRatePerMinute(){
+         return elapsedMillis == 0 ? 0 : imported * 60000L / elapsedMillis;
+      }
+   }//end Result
+
+   // one order parsed from the file
+   private static class Row {
+      int line;
+      int customerID;
+      int storeID;
+      String productName;
+      int units;
+      Timestamp orderTime;
+   }
+
+   // customers are looked up this many at a time; short groups are padded
+   private static final int CUSTOMER_GROUP = 64;
+   private static final String CUSTOMER_QUERY;
+   static {
+      StringBuilder sql = new StringBuilder("SELECT userID FROM Users WHERE userID IN (");
+      for (int i = 0; i < CUSTOMER_GROUP; i++){sql.append(i == 0 ? "?" : ", ?");}
+      CUSTOMER_QUERY = sql.append(") FOR SHARE").toString();
+   }
+
+   private static final String LOCK_PRODUCTS =
+      "SELECT productName, numberOfUnits, pricePerUnit FROM Product WHERE storeID = ? ORDER BY productName FOR UPDATE";
+   private static final String INSERT_ORDER =
+      "INSERT INTO Orders (customerID, storeID, productName, unitsOrdered, orderTime, price) VALUES (?, ?, ?, ?, ?, ?)";
+   private static final String DECREMENT_STOCK =
+      "UPDATE Product SET numberOfUnits = numberOfUnits - ? WHERE storeID = ? AND productName = ?";
+
+   private final Amazon esql;
+   private final int chunkSize;
+
+   /**
+    * @param esql the database the orders go into
+    * @param chunkSize the number of rows imported per transaction
+    */
+   public OrderImporter(Amazon esql, int chunkSize) {
+      if (chunkSize <= 0){throw new IllegalArgumentException("chunk size must be positive");}
+      this.esql = esql;
+      this.chunkSize = chunkSize;
+   }
+
+   /**
+    * Imports an order file.
+    *
+    * @param path the file's path
+    * @return the number of rows imported and the rows rejected
+    * @throws java.io.IOException when the file cannot be read
+    * @throws java.sql.SQLException when no connection could be obtained
+    */
+   public Result importFile(String path) throws IOException, SQLException {
+      Reader reader = new FileReader(path);
+      try{
+         return importOrders(reader);
+      }finally{
+         reader.close();
+      }
+   }
+
+   /**
+    * Imports orders read from a stream with a header line.
+    *
+    * @param source the CSV text
+    * @return the number of rows imported and the rows rejected
+    * @throws java.io.IOException when the stream cannot be read
+    * @throws java.sql.SQLException when no connection could be obtained
+    */
+   public Result importOrders(Reader source) throws IOException, SQLException {
+      long start = System.currentTimeMillis();
+      Result result = new Result();
+      BufferedReader in = new BufferedReader(source, 1 << 16);
+
+      Connection conn = esql.getConnection();
+      try{
+         // the months partitions have been made for; null without partitions.sql
+         Timestamp[] partitioned = hasPartitions(conn) ? new Timestamp[2] : null;
+         conn.setAutoCommit(false);
+
+         String line = in.readLine();   // header
+         int lineNumber = 1;
+         List<Row> chunk = new ArrayList<Row>(chunkSize);
+         while ((line = in.readLine()) != null){
+            lineNumber++;
+            if (line.trim().length() == 0){continue;}
+            Row row = parse(line, lineNumber, result);
+            if (row == null){continue;}
+            chunk.add(row);
+            if (chunk.size() == chunkSize){
+               importChunk(conn, chunk, result, partitioned);
+               chunk.clear();
+            }
+         }
+         if (!chunk.isEmpty()){importChunk(conn, chunk, result, partitioned);}
+      }finally{
+         esql.releaseConnection(conn);
+      }
+
+      result.elapsedMillis = System.currentTimeMillis() - start;
+      return result;
+   }//end importOrders
+
+   /*
+    * Imports one chunk in one transaction.
+    */
+   private void importChunk(Connection conn, List<Row> chunk, Result result, Timestamp[] partitioned) {
+      result.chunks++;
+      List<Reject> rejects = new ArrayList<Reject>();
+      try{
+         createPartitions(conn, chunk, partitioned);
+         esql.prepare(conn, "SET LOCAL amazon.bulk_import = 'on'").execute();
+
+         // lock every product of the chunk's stores, in store order so that
+         // concurrent imports cannot deadlock
+         Set<Integer> storeIDs = new TreeSet<Integer>();
+         for (Row row : chunk){storeIDs.add(row.storeID);}
+         Map<String, int[]> stock = new HashMap<String, int[]>();
+         Map<String, Double> prices = new HashMap<String, Double>();
+         for (Integer storeID : storeIDs){
+            ResultSet rs = esql.prepare(conn, LOCK_PRODUCTS, storeID).executeQuery();
+            while (rs.next()){
+               String key = key(storeID.intValue(), rs.getString(1).trim());
+               stock.put(key, new int[] {rs.getInt(2), 0});
+               prices.put(key, Double.valueOf(rs.getDouble(3)));
+            }
+            rs.close();
+         }
+
+         Set<Integer> customers = existingCustomers(conn, chunk);
+
+         // check each row against the running stock; int[] {left, taken}
+         List<Row> accepted = new ArrayList<Row>(chunk.size());
+         for (Row row : chunk){
+            int[] units = stock.get(key(row.storeID, row.productName));
+            if (!customers.contains(row.customerID)){rejects.add(new Reject(row.line, "unknown customer " + row.customerID));}
+            else if (units == null){rejects.add(new Reject(row.line, "store " + row.storeID + " does not sell " + row.productName));}
+            else if (units[0] < row.units){rejects.add(new Reject(row.line, "not enough units of " + row.productName + " at store " + row.storeID));}
+            else{
+               units[0] -= row.units;
+               units[1] += row.units;
+               accepted.add(row);
+            }
+         }
+
+         if (!accepted.isEmpty()){
+            PreparedStatement insert = esql.prepare(conn, INSERT_ORDER);
+            for (Row row : accepted){
+               insert.setInt(1, row.customerID);
+               insert.setInt(2, row.storeID);
+               insert.setString(3, row.productName);
+               insert.setInt(4, row.units);
+               insert.setTimestamp(5, row.orderTime);
+               insert.setDouble(6, row.units * prices.get(key(row.storeID, row.productName)).doubleValue());
+               insert.addBatch();
+            }
+            insert.executeBatch();
+
+            PreparedStatement decrement = esql.prepare(conn, DECREMENT_STOCK);
+            for (Map.Entry<String, int[]> e : stock.entrySet()){
+               int taken = e.getValue()[1];
+               if (taken == 0){continue;}
+               String key = e.getKey();
+               int split = key.indexOf('|');
+               decrement.setInt(1, taken);
+               decrement.setInt(2, Integer.parseInt(key.substring(0, split)));
+               decrement.setString(3, key.substring(split + 1));
+               decrement.addBatch();
+            }
+            decrement.executeBatch();
+         }
+
+         // the popularity index may be seeding, and must know whether its
+         // scan saw this chunk
+         long transactionID = -1;
+         if (!accepted.isEmpty()){
+            ResultSet rs = esql.prepare(conn, "SELECT txid_current()").executeQuery();
+            rs.next();
+            transactionID = rs.getLong(1);
+            rs.close();
+         }
+         conn.commit();
+         for (Row row : accepted){
+            esql.recordOrder(row.storeID, row.productName, row.customerID, transactionID);
+            // imported orders carry their own times, so their histories are reread
+            esql.getHistory().invalidate(row.customerID);
+         }
+         result.imported += accepted.size();
+         result.rejects.addAll(rejects);
+      }catch (SQLException e){
+         try{
+            conn.rollback();
+         }catch (SQLException ignored){
+            // the connection is discarded by the pool on release.
+         }
+         String reason = "chunk rolled back: " + e.getMessage();
+         for (Row row : chunk){result.rejects.add(new Reject(row.line, reason));}
+      }
+   }//end importChunk
+
+   /*
+    * Whether Orders is partitioned, i.e. partitions.sql has been run.
+    */
+   private boolean hasPartitions(Connection conn) throws SQLException {
+      ResultSet rs = esql.prepare(conn, "SELECT COUNT(*) FROM pg_proc WHERE proname = ?", "create_orders_partitions").executeQuery();
+      try{
+         return rs.next() && rs.getInt(1) > 0;
+      }finally{
+         rs.close();
+      }
+   }
+
+   /*
+    * Creates the partitions of the months from the chunk's first order time
+    * to its last, unless an earlier chunk already did, and commits them, so
+    * the lock creating a partition takes on Orders is not held while the
+    * chunk imports.  partitioned holds the range done so far, and grows.
+    */
+   private void createPartitions(Connection conn, List<Row> chunk, Timestamp[] partitioned) throws SQLException {
+      if (partitioned == null){return;}
+      Timestamp from = chunk.get(0).orderTime;
+      Timestamp to = from;
+      for (Row row : chunk){
+         if (row.orderTime.before(from)){from = row.orderTime;}
+         if (row.orderTime.after(to)){to = row.orderTime;}
+      }
+      if (partitioned[0] != null){
+         if (!from.before(partitioned[0]) && !to.after(partitioned[1])){return;}
+         if (partitioned[0].before(from)){from = partitioned[0];}
+         if (partitioned[1].after(to)){to = partitioned[1];}
+      }
+      esql.prepare(conn, "SELECT create_orders_partitions(?, ?)", from, to).executeQuery().close();
+      conn.commit();
+      partitioned[0] = from;
+      partitioned[1] = to;
+   }
+
+   /*
+    * Returns which of the chunk's customers exist, locking them against
+    * deletion until the chunk commits.
+    */
+   private Set<Integer> existingCustomers(Connection conn, List<Row> chunk) throws SQLException {
+      Set<Integer> wanted = new TreeSet<Integer>();
+      for (Row row : chunk){wanted.add(row.customerID);}
+
+      Set<Integer> found = new HashSet<Integer>();
+      Object[] group = new Object[CUSTOMER_GROUP];
+      int n = 0;
+      for (Integer customerID : wanted){
+         group[n++] = customerID;
+         if (n == CUSTOMER_GROUP){
+            lookUpCustomers(conn, group, n, found);
+            n = 0;
+         }
+      }
+      if (n > 0){lookUpCustomers(conn, group, n, found);}
+      return found;
+   }
+
+   private void lookUpCustomers(Connection conn, Object[] group, int n, Set<Integer> found) throws SQLException {
+      for (int i = n; i < CUSTOMER_GROUP; i++){group[i] = group[0];}
+      ResultSet rs = esql.prepare(conn, CUSTOMER_QUERY, group).executeQuery();
+      while (rs.next()){found.add(rs.getInt(1));}
+      rs.close();
+   }
+
+   /*
+    * Parses one line, recording a reject and returning null if it is bad.
+    */
+   private static Row parse(String line, int lineNumber, Result result) {
+      List<String> fields = splitCsv(line);
+      if (fields.size() != 6){
+         result.rejects.add(new Reject(lineNumber, "expected 6 fields, found " + fields.size()));
+         return null;
+      }
+      Row row = new Row();
+      row.line = lineNumber;
+      try{
+         row.customerID = Integer.parseInt(fields.get(1).trim());
+         row.storeID = Integer.parseInt(fields.get(2).trim());
+         row.units = Integer.parseInt(fields.get(4).trim());
+         row.orderTime = Timestamp.valueOf(fields.get(5).trim());
+      }catch (IllegalArgumentException e){
+         result.rejects.add(new Reject(lineNumber, "malformed field: " + e.getMessage()));
+         return null;
+      }
+      row.productName = fields.get(3).trim();
+      if (row.productName.length() == 0 || row.productName.length() > 30){
+         result.rejects.add(new Reject(lineNumber, "invalid product name"));
+         return null;
+      }
+      if (row.units <= 0){
+         result.rejects.add(new Reject(lineNumber, "units ordered must be positive"));
+         return null;
+      }
+      return row;
+   }
+
+   /*
+    * Splits a CSV line on commas; a field may be double quoted, with "" for
+    * a quote inside it.
+    */
+   static List<String> splitCsv(String line) {
+      List<String> fields = new ArrayList<String>(6);
+      StringBuilder field = new StringBuilder();
+      boolean quoted = false;
+      for (int i = 0; i < line.length(); i++){
+         char c = line.charAt(i);
+         if (quoted){
+            if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"'){field.append('"'); i++;}
+            else if (c == '"'){quoted = false;}
+            else {field.append(c);}
+         }
+         else if (c == '"'){quoted = true;}
+         else if (c == ','){
+            fields.add(field.toString());
+            field.setLength(0);
+         }
+         else {field.append(c);}
+      }
+      fields.add(field.toString());
+      return fields;
+   }
+
+   private static String key(int storeID, String productName){
+      return storeID + "|" + productName;
+   }
+
+}//end OrderImporter
@@ -0,0 +1,76 @@
+/*
+ * Outcome of placing an order in the Amazon store
+ * ================================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.sql.Timestamp;
+
+/**
+ * What happened to one order submitted through
+ * {@link Amazon#submitOrder(int, int, String, int)}.
+ */
+public final class OrderResult {
+
+   public enum Status {
+      /** the order was inserted and the stock reserved */
+      PLACED,
+      /** the store does not have enough units; nothing was changed */
+      OUT_OF_STOCK,
+      /** the store does not sell the product; nothing was changed */
+      UNKNOWN_PRODUCT
+   }
+
+   private final Status status;
+   private final int orderNumber;
+   private final Timestamp orderTime;
+   private final double price;
+   private final long transactionID;
+
+   private OrderResult(Status status, int orderNumber, Timestamp orderTime, double price, long transactionID){
+      this.status = status;
+      this.orderNumber = orderNumber;
+      this.orderTime = orderTime;
+      this.price = price;
+      this.transactionID = transactionID;
+   }
+
+   static OrderResult placed(int orderNumber, Timestamp orderTime, double price, long transactionID){
+      return new OrderResult(Status.PLACED, orderNumber, orderTime, price, transactionID);
+   }
+
+   static OrderResult rejected(Status status){
+      return new OrderResult(status, -1, null, 0, -1);
+   }
+
+   public Status getStatus(){return status;}
+   public boolean isPlaced(){return status == Status.PLACED;}
+
+   /**
+    * @return the new order's number, or -1 if it was not placed
+    */
+   public int getOrderNumber(){return orderNumber;}
+
+   /**
+    * @return the time the order was recorded, or null if it was not placed
+    */
+   public Timestamp getOrderTime(){return orderTime;}
+
+   /**
+    * @return the total charged, at the unit price when the order was placed
+    */
+   public double getPrice(){return price;}
+
+   /**
+    * @return the ID of the transaction that inserted the order, as
+    *         txid_current() reports it, or -1 if it was not placed
+    */
+   public long getTransactionID(){return transactionID;}
+
+}//end OrderResult
@@ -0,0 +1,245 @@
+/*
+ * Keyset pagination for the Amazon store client
+ * ===============================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Pages through a query's rows in the order of a key, a fixed number of rows
+ * at a time.  A page is found by seeking past the key of the row before it
+ * (keyset pagination) rather than by skipping rows, so with an index on the
+ * key every page costs the same as the first, however deep it is.
+ *
+ * The key is one or more NOT NULL columns ending in the table's primary key,
+ * so that it orders the rows completely, e.g. pricePerUnit, storeID,
+ * productName.  The key columns must be among the columns selected.
+ *
+ * Each page carries opaque tokens for the pages after and before it.  A
+ * token holds the key of the row to seek from, so it stays valid while rows
+ * are added and removed, and can be handed to a client and back.
+ */
+public class Pager {
+
+   /** rows per page, from <code>amazon.pageSize</code> */
+   public static final int PAGE_SIZE = Integer.getInteger("amazon.pageSize", 30);
+
+   private static final char SEPARATOR = '\u001f';
+
+   /**
+    * One page of rows and the tokens of its neighbours.
+    */
+   public static class Page {
+      private final List<String> columns;
+      private final List<List<String>> rows;
+      private final String nextToken;
+      private final String previousToken;
+
+      Page(List<String> columns, List<List<String>> rows, String nextToken, String previousToken){
+         this.columns = columns;
+         this.rows = rows;
+         this.nextToken = nextToken;
+         this.previousToken = previousToken;
+      }
+
+      public List<String> getColumns(){return columns;}
+      public List<List<String>> getRows(){return rows;}
+      /** @return the token of the next page, or null on the last page */
+      public String getNextToken(){return nextToken;}
+      /** @return the token of the previous page, or null on the first page */
+      public String getPreviousToken(){return previousToken;}
+   }//end Page
+
+   private final String select;
+   private final String[] keys;
+   private final String[] types;
+   private final boolean descending;
+   private final int pageSize;
+   private final List<String> conditions = new ArrayList<String>();
+   private final List<Object> params = new ArrayList<Object>();
+
+   /**
+    * @param select the query without WHERE, ORDER BY or LIMIT, e.g.
+    *        "SELECT * FROM Product"
+    * @param keys the key columns, most significant first
+    * @param types the SQL type of each key column, e.g. "integer", "char(30)"
+    * @param descending whether the pages run from the largest key down
+    */
+   public Pager(String select, String[] keys, String[] types, boolean descending) {
+      this(select, keys, types, descending, PAGE_SIZE);
+   }
+
+   /**
+    * @param select the query without WHERE, ORDER BY or LIMIT
+    * @param keys the key columns, most significant first
+    * @param types the SQL type of each key column
+    * @param descending whether the pages run from the largest key down
+    * @param pageSize the rows per page
+    */
+   public Pager(String select, String[] keys, String[] types, boolean descending, int pageSize) {
+      if (keys.length == 0 || keys.length != types.length){throw new IllegalArgumentException("one type per key column");}
+      this.select = select;
+      this.keys = keys;
+      this.types = types;
+      this.descending = descending;
+      this.pageSize = Math.max(1, pageSize);
+   }
+
+   /**
+    * Limits the rows paged through.
+    *
+    * @param condition a condition with '?' placeholders, e.g. "storeID = ?"
+    * @param values the values bound to the placeholders, in order
+    * @return this pager
+    */
+   public Pager where(String condition, Object... values) {
+      conditions.add(condition);
+      Collections.addAll(params, values);
+      return this;
+   }
+
+   /**
+    * @param esql the database
+    * @return the first page
+    * @throws java.sql.SQLException when the query fails
+    */
+   public Page first(Amazon esql) throws SQLException {
+      return fetch(esql, null, true, false);
+   }
+
+   /**
+    * @param esql the database
+    * @param token a token from {@link Page#getNextToken()} or
+    *        {@link Page#getPreviousToken()} of this kind of pager
+    * @return the page the token leads to
+    * @throws java.sql.SQLException when the query fails
+    * @throws IllegalArgumentException when the token is not one of this
+    *         pager's
+    */
+   public Page page(Amazon esql, String token) throws SQLException {
+      String[] decoded = decode(token);
+      boolean forward = decoded[0].equals("n");
+      String[] key = new String[keys.length];
+      System.arraycopy(decoded, 1, key, 0, key.length);
+      return fetch(esql, key, forward, true);
+   }
+
+   /*
+    * Reads one page, plus one row to tell whether another page follows.
+    * Going back reads the rows before the key in reverse and turns them
+    * round.
+    */
+   private Page fetch(Amazon esql, String[] after, boolean forward, boolean fromToken) throws SQLException {
+      List<Object> values = new ArrayList<Object>(params);
+      List<String> where = new ArrayList<String>(conditions);
+      if (after != null){
+         StringBuilder seek = new StringBuilder("(");
+         StringBuilder bound = new StringBuilder("(");
+         for (int i = 0; i < keys.length; i++){
+            seek.append(i == 0 ? "" : ", ").append(keys[i]);
+            bound.append(i == 0 ? "" : ", ").append("CAST(? AS ").append(types[i]).append(")");
+            values.add(after[i]);
+         }
+         // a row comparison, so the index on the key is searched once
+         where.add(seek + ") " + (forward != descending ? ">" : "<") + " " + bound + ")");
+      }
+
+      StringBuilder query = new StringBuilder(select);
+      for (int i = 0; i < where.size(); i++){query.append(i == 0 ? " WHERE " : " AND ").append(where.get(i));}
+      query.append(" ORDER BY ");
+      for (int i = 0; i < keys.length; i++){
+         query.append(i == 0 ? "" : ", ").append(keys[i]).append(forward != descending ? "" : " DESC");
+      }
+      query.append(" LIMIT ?");
+      values.add(Integer.valueOf(pageSize + 1));
+
+      final List<String> columns = new ArrayList<String>();
+      final List<List<String>> rows = new ArrayList<List<String>>();
+      esql.query(query.toString(), 0, new RowSink(){
+         public void start(ResultSetMetaData rsmd) throws SQLException {
+            for (int i = 1; i <= rsmd.getColumnCount(); i++){columns.add(rsmd.getColumnName(i));}
+         }
+         public void row(ResultSet rs) throws SQLException {
+            List<String> row = new ArrayList<String>(columns.size());
+            for (int i = 1; i <= columns.size(); i++){row.add(rs.getString(i));}
+            rows.add(row);
+         }
+         public void end(int rowCount){}
+      }, values.toArray());
+
+      boolean more = rows.size() > pageSize;
+      if (more){rows.remove(rows.size() - 1);}
+      if (!forward){Collections.reverse(rows);}
+      if (rows.isEmpty()){return new Page(columns, rows, null, null);}
+
+      int[] positions = keyPositions(columns);
+      boolean hasNext = forward ? more : true;
+      boolean hasPrevious = forward ? fromToken : more;
+      return new Page(columns, rows,
+                      hasNext ? encode("n", rows.get(rows.size() - 1), positions) : null,
+                      hasPrevious ? encode("p", rows.get(0), positions) : null);
+   }//end fetch
+
+   private int[] keyPositions(List<String> columns){
+      int[] positions = new int[keys.length];
+      for (int i = 0; i < keys.length; i++){
+         positions[i] = -1;
+         for (int c = 0; c < columns.size(); c++){
+            if (columns.get(c).equalsIgnoreCase(keys[i])){positions[i] = c;}
+         }
+         if (positions[i] < 0){throw new IllegalStateException("the key column " + keys[i] + " is not selected");}
+      }
+      return positions;
+   }
+
+   // which pager a token belongs to: its key and direction
+   private String kind(){
+      StringBuilder kind = new StringBuilder();
+      for (String key : keys){kind.append(key.toLowerCase()).append(',');}
+      return kind.append(descending ? "desc" : "asc").toString();
+   }
+
+   private String encode(String direction, List<String> row, int[] positions){
+      StringBuilder text = new StringBuilder(kind()).append(SEPARATOR).append(direction);
+      for (int position : positions){
+         // char(n) values come back padded; the cast pads them again
+         String value = row.get(position);
+         int end = value.length();
+         while (end > 0 && value.charAt(end - 1) == ' '){end--;}
+         text.append(SEPARATOR).append(value, 0, end);
+      }
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(text.toString().getBytes(StandardCharsets.UTF_8));
+   }
+
+   private String[] decode(String token){
+      String text;
+      try{
+         text = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+      }catch (IllegalArgumentException e){
+         throw new IllegalArgumentException("not a page token");
+      }
+      String[] parts = text.split(String.valueOf(SEPARATOR), -1);
+      if (parts.length != keys.length + 2 || !parts[0].equals(kind()) ||
+          !(parts[1].equals("n") || parts[1].equals("p"))){
+         throw new IllegalArgumentException("not a page token for this list");
+      }
+      String[] decoded = new String[keys.length + 1];
+      System.arraycopy(parts, 1, decoded, 0, decoded.length);
+      return decoded;
+   }
+
+}//end Pager
@@ -0,0 +1,690 @@
+/*
+ * Query plan regression check for the Amazon store client
+ * ==========================================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Explains every statement the menu functions issue, to catch a query or an
+ * index change that makes a plan worse.
+ *
+ * The menu commands in a script (see {@link CommandProcessor}) are run
+ * against a database, normally one loaded by {@link BulkLoader} from the
+ * output of {@link DataGenerator} at a large scale.  Every distinct SQL text
+ * they prepare is captured with the first parameters bound to it, and named
+ * after the command that issued it first: <code>view-products#1</code> is
+ * the first new statement of view-products.  Each statement is then run
+ * under <code>EXPLAIN (ANALYZE, BUFFERS)</code>, inside a transaction that
+ * is rolled back, and its plan, estimated and actual rows and execution
+ * time are reported.
+ *
+ * A budget file lists the statements that are checked, one per line:
+ * <pre>
+ *    # statement              ms    scans
+ *    view-recent-orders       5     index
+ *    view-order-information   -     any
+ * </pre>
+ * where the statement is a command, for all of its statements, or one
+ * statement of it, the budget is the most milliseconds its execution may
+ * take ('-' for no limit), and <code>index</code> forbids sequential scans
+ * that read at least <code>-minRows</code> rows, and nested loops that throw
+ * away that many row pairs in a join filter.  The check fails when a listed
+ * statement breaks its budget or cannot be explained, or when a command of
+ * the script fails.
+ *
+ * For every large sequential scan whose filter throws most rows away, an
+ * index on the filtered columns is suggested unless create_indexes.sql or a
+ * primary key in create_tables.sql already has one leading with them.
+ *
+ * The script runs for real, orders and supply requests included, so point
+ * this at a scratch database.
+ */
+public class PlanCheck {
+
+   private static final Pattern NODE = Pattern.compile(
+      "^(\\s*)(?:->\\s+)?(.+?)\\s+\\(cost=[0-9.]+\\.\\.[0-9.]+ rows=([0-9]+) width=[0-9]+\\)" +
+      "(?: \\(actual time=[0-9.]+\\.\\.([0-9.]+) rows=([0-9]+) loops=([0-9]+)\\))?");
+   private static final Pattern EXECUTION_TIME = Pattern.compile("(?i)^\\s*(?:execution time|total runtime):\\s*([0-9.]+)");
+   private static final Pattern SEQ_SCAN = Pattern.compile("Seq Scan on (\\w+)");
+   // a monthly or default partition, e.g. orders_2019_08; see partitions.sql
+   private static final Pattern PARTITION = Pattern.compile("(?i)^(\\w+?)_(?:[0-9]{4}_[0-9]{2}|default)$");
+   private static final Pattern REMOVED = Pattern.compile("Rows Removed by (Join )?Filter: ([0-9]+)");
+   // a column compared with a value: (storeid = 5), ((name)::text = 'x'::text)
+   private static final Pattern COMPARISON = Pattern.compile(
+      "(?:\\w+\\.)?([a-z_][a-z0-9_]*)\\)?(?:::[a-z ]+)?\\s*(=|<=|>=|<|>)\\s");
+   private static final Pattern INDEX = Pattern.compile("(?is)\\bON\\s+(\\w+)\\s+(?:USING\\s+\\w+\\s*)?\\(([^)]*)\\)");
+   private static final Pattern TABLE = Pattern.compile("(?is)CREATE\\s+TABLE\\s+(\\w+)\\s*\\((.*?)\\)\\s*;");
+   private static final Pattern PRIMARY_KEY = Pattern.compile("(?is)PRIMARY\\s+KEY\\s*\\(([^)]*)\\)");
+   private static final Pattern VARIABLE = Pattern.compile("\\$\\{([\\w.]+)\\}");
+
+   /*
+    * A statement the commands issued.
+    */
+   static class Shape {
+      final String id;
+      final String command;
+      final String sql;
+      final Object[] params;
+
+      Shape(String id, String command, String sql, Object[] params){
+         this.id = id;
+         this.command = command;
+         this.sql = sql;
+         this.params = params;
+      }
+   }//end Shape
+
+   /*
+    * One node of a plan, with the detail lines under it.
+    */
+   static class Node {
+      final int depth;
+      final String label;
+      final long estimatedRows;
+      final long actualRows;
+      final long loops;
+      final double millis;
+      final List<String> details = new ArrayList<String>();
+
+      Node(int depth, String label, long estimatedRows, long actualRows, long loops, double millis){
+         this.depth = depth;
+         this.label = label;
+         this.estimatedRows = estimatedRows;
+         this.actualRows = actualRows;
+         this.loops = loops;
+         this.millis = millis;
+      }
+
+      // the rows a filter threw away, over all loops
+      long removed(boolean join){
+         for (String detail : details){
+            Matcher m = REMOVED.matcher(detail);
+            if (m.find() && (m.group(1) != null) == join){return Long.parseLong(m.group(2)) * Math.max(1, loops);}
+         }
+         return 0;
+      }
+
+      String detail(String name){
+         for (String detail : details){
+            if (detail.startsWith(name + ": ")){return detail.substring(name.length() + 2);}
+         }
+         return null;
+      }
+   }//end Node
+
+   /*
+    * The limits on a statement: the most milliseconds, or -1, and whether
+    * large sequential scans are forbidden.
+    */
+   static class Budget {
+      final double millis;
+      final boolean indexOnly;
+
+      Budget(double millis, boolean indexOnly){
+         this.millis = millis;
+         this.indexOnly = indexOnly;
+      }
+   }//end Budget
+
+   private final Amazon esql;
+   private final int runs;
+   private final long minRows;
+   private final Map<String, Shape> shapes = new LinkedHashMap<String, Shape>();
+   private final Map<String, int[]> statementsPerCommand = new HashMap<String, int[]>();
+   private final List<String> failedCommands = new ArrayList<String>();
+   private String command = null;
+
+   /**
+    * @param esql the database the commands run against
+    * @param runs how many times each statement is explained; the fastest
+    *        run is reported
+    * @param minRows the fewest rows a sequential scan or a join filter must
+    *        read or discard to count
+    */
+   public PlanCheck(Amazon esql, int runs, long minRows) {
+      this.esql = esql;
+      this.runs = Math.max(1, runs);
+      this.minRows = minRows;
+   }
+
+   /**
+    * Runs a script of commands and captures the statements they prepare.
+    * A command that fails is remembered, since its statements may be
+    * missing.
+    *
+    * @param script the commands, one per line, with ${name} variables
+    * @param variables the values of the variables
+    * @throws java.io.IOException when the script cannot be read
+    */
+   public void capture(File script, Map<String, String> variables) throws IOException {
+      CommandProcessor processor = new CommandProcessor(esql);
+      PrintStream discard = new PrintStream(new OutputStream(){
+         public void write(int b){}
+         public void write(byte[] b, int off, int len){}
+      });
+      Map<String, String> values = new HashMap<String, String>(variables);
+
+      esql.setStatementListener(new StatementListener(){
+         public void prepared(String sql, Object[] params){
+            record(sql, params);
+         }
+      });
+      BufferedReader lines = new BufferedReader(new FileReader(script));
+      try{
+         String line;
+         while ((line = lines.readLine()) != null){
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#")){continue;}
+            line = substitute(line, values);
+            synchronized (this){command = CommandProcessor.split(line).get(0).toLowerCase();}
+
+            CommandContext context = processor.perform(line, discard);
+            if (context.getStatus() != CommandContext.OK){failedCommands.add(line + ": " + context.getMessage());}
+
+            // a paged command names the tokens of the pages around it
+            String[] words = context.getMessage().split(" ");
+            for (int i = 0; i + 1 < words.length; i++){
+               if (words[i].equals("next") || words[i].equals("previous")){values.put(words[i], words[i + 1]);}
+            }
+         }
+      }finally{
+         esql.setStatementListener(null);
+         lines.close();
+      }
+   }//end capture
+
+   /*
+    * Keeps the first instance of each statement.  A streamed query is kept
+    * without its cursor, and statements that read no table are left out.
+    */
+   private synchronized void record(String sql, Object[] params){
+      String text = sql.trim().replaceAll("\\s+", " ");
+      int cursor = text.toUpperCase().indexOf(" CURSOR FOR ");
+      if (text.toUpperCase().startsWith("DECLARE ") && cursor > 0){text = text.substring(cursor + 12);}
+
+      String upper = text.toUpperCase();
+      boolean read = (upper.startsWith("SELECT ") || upper.startsWith("WITH ")) && upper.indexOf(" FROM ") > 0;
+      boolean write = upper.startsWith("INSERT ") || upper.startsWith("UPDATE ") || upper.startsWith("DELETE ");
+      if (!(read || write) || shapes.containsKey(text)){return;}
+
+      String issuer = command == null ? "startup" : command;
+      int[] count = statementsPerCommand.get(issuer);
+      if (count == null){
+         count = new int[1];
+         statementsPerCommand.put(issuer, count);
+      }
+      count[0]++;
+      shapes.put(text, new Shape(issuer + "#" + count[0], issuer, text, params.clone()));
+   }
+
+   /**
+    * @return the statements captured, in the order they were first issued
+    */
+   public synchronized List<Shape> getShapes(){return new ArrayList<Shape>(shapes.values());}
+
+   /**
+    * @return the script's commands that failed, with their messages
+    */
+   public List<String> getFailedCommands(){return failedCommands;}
+
+   /**
+    * Explains one statement, {@link #runs} times, each in a transaction that
+    * is rolled back so writes leave no trace.
+    *
+    * @param shape the statement
+    * @param millis receives the fastest execution time
+    * @return the plan of the fastest run
+    * @throws java.sql.SQLException when the statement cannot be explained
+    */
+   public List<Node> explain(Shape shape, double[] millis) throws SQLException {
+      List<Node> fastest = null;
+      millis[0] = Double.MAX_VALUE;
+      Connection conn = esql.getConnection();
+      try{
+         conn.setAutoCommit(false);
+         for (int run = 0; run < runs; run++){
+            List<String> lines = new ArrayList<String>();
+            try{
+               ResultSet rs = esql.prepare(conn, "EXPLAIN (ANALYZE, BUFFERS) " + shape.sql, shape.params).executeQuery();
+               while (rs.next()){lines.add(rs.getString(1));}
+               rs.close();
+            }finally{
+               conn.rollback();
+            }
+            double[] time = new double[] {-1};
+            List<Node> plan = parse(lines, time);
+            if (fastest == null || time[0] < millis[0]){
+               fastest = plan;
+               millis[0] = time[0];
+            }
+         }
+      }finally{
+         esql.releaseConnection(conn);
+      }
+      return fastest;
+   }//end explain
+
+   /**
+    * Reads the nodes out of a text EXPLAIN ANALYZE.
+    *
+    * @param lines the QUERY PLAN rows
+    * @param millis receives the execution time, or -1 when not given
+    * @return the nodes, parents before children
+    */
+   static List<Node> parse(List<String> lines, double[] millis) {
+      List<Node> nodes = new ArrayList<Node>();
+      for (String line : lines){
+         Matcher node = NODE.matcher(line);
+         Matcher time = EXECUTION_TIME.matcher(line);
+         if (node.find()){
+            boolean executed = node.group(4) != null;
+            nodes.add(new Node(node.group(1).length(), node.group(2).trim(), Long.parseLong(node.group(3)),
+                               executed ? Long.parseLong(node.group(5)) : 0, executed ? Long.parseLong(node.group(6)) : 0,
+                               executed ? Double.parseDouble(node.group(4)) : 0));
+         }
+         else if (time.find()){millis[0] = Double.parseDouble(time.group(1));}
+         else if (!nodes.isEmpty() && line.trim().length() > 0){nodes.get(nodes.size() - 1).details.add(line.trim());}
+      }
+      return nodes;
+   }//end parse
+
+   /**
+    * Lists how a plan breaks a budget.
+    *
+    * @param plan the plan
+    * @param millis its execution time
+    * @param budget the statement's budget
+    * @return the problems, none when it is within budget
+    */
+   public List<String> check(List<Node> plan, double millis, Budget budget) {
+      List<String> problems = new ArrayList<String>();
+      if (budget.millis >= 0 && millis > budget.millis){
+         problems.add("took " + millis + " ms, over its budget of " + budget.millis + " ms");
+      }
+      if (!budget.indexOnly){return problems;}
+      for (Node node : plan){
+         Matcher scan = SEQ_SCAN.matcher(node.label);
+         long read = node.actualRows * Math.max(1, node.loops) + node.removed(false);
+         if (scan.find() && read >= minRows){problems.add("sequential scan on " + scan.group(1) + " read " + read + " rows");}
+         if (node.label.startsWith("Nested Loop") && node.removed(true) >= minRows){
+            problems.add("nested loop threw away " + node.removed(true) + " row pairs in its join filter");
+         }
+      }
+      return problems;
+   }//end check
+
+   /*
+    * The table a scanned relation belongs to: a partition's parent, or the
+    * relation itself.
+    */
+   private static String tableOf(String relation){
+      Matcher partition = PARTITION.matcher(relation);
+      return partition.matches() ? partition.group(1) : relation;
+   }
+
+   /**
+    * Suggests an index for each large sequential scan whose filter throws
+    * most rows away, unless an existing index leads with the same column.
+    *
+    * @param plan the plan
+    * @param indexes the key columns of the existing indexes, by table, in
+    *        lower case
+    * @return the suggested columns, as "table(column, ...)", in lower case
+    */
+   public List<String> suggest(List<Node> plan, Map<String, List<List<String>>> indexes) {
+      List<String> suggestions = new ArrayList<String>();
+      for (Node node : plan){
+         Matcher scan = SEQ_SCAN.matcher(node.label);
+         String filter = node.detail("Filter");
+         long kept = node.actualRows * Math.max(1, node.loops);
+         if (!scan.find() || filter == null || kept + node.removed(false) < minRows || node.removed(false) <= kept){continue;}
+
+         // equality columns first, then one range column
+         List<String> equal = new ArrayList<String>();
+         String range = null;
+         Matcher m = COMPARISON.matcher(filter);
+         while (m.find()){
+            if (m.group(2).equals("=")){if (!equal.contains(m.group(1))){equal.add(m.group(1));}}
+            else if (range == null){range = m.group(1);}
+         }
+         List<String> columns = new ArrayList<String>(equal);
+         if (range != null && !columns.contains(range)){columns.add(range);}
+         if (columns.isEmpty()){continue;}
+
+         // indexes are declared on the partitioned table, not its partitions
+         String table = tableOf(scan.group(1)).toLowerCase();
+         boolean covered = false;
+         List<List<String>> existing = indexes.get(table);
+         if (existing != null){
+            for (List<String> index : existing){covered |= index.get(0).equals(columns.get(0));}
+         }
+         String suggestion = table + "(" + join(columns) + ")";
+         if (!covered && !suggestions.contains(suggestion)){suggestions.add(suggestion);}
+      }
+      return suggestions;
+   }//end suggest
+
+   /**
+    * Reads the key columns of the indexes and primary keys the schema
+    * scripts create.
+    *
+    * @param sql the directory holding create_tables.sql and create_indexes.sql
+    * @param names receives the names as written in the scripts, by their
+    *        lower case
+    * @return the key columns of each index, by table, in lower case
+    * @throws java.io.IOException when a script cannot be read
+    */
+   public static Map<String, List<List<String>>> readIndexes(File sql, Map<String, String> names) throws IOException {
+      Map<String, List<List<String>>> indexes = new HashMap<String, List<List<String>>>();
+      String tables = stripComments(read(new File(sql, "create_tables.sql")));
+      String created = stripComments(read(new File(sql, "create_indexes.sql")));
+
+      Matcher word = Pattern.compile("\\w+").matcher(tables);
+      while (word.find()){
+         if (!names.containsKey(word.group().toLowerCase())){names.put(word.group().toLowerCase(), word.group());}
+      }
+
+      Matcher table = TABLE.matcher(tables);
+      while (table.find()){
+         Matcher key = PRIMARY_KEY.matcher(table.group(2));
+         if (key.find()){addIndex(indexes, table.group(1), key.group(1));}
+      }
+      Matcher index = INDEX.matcher(created);
+      while (index.find()){addIndex(indexes, index.group(1), index.group(2));}
+      return indexes;
+   }//end readIndexes
+
+   private static void addIndex(Map<String, List<List<String>>> indexes, String table, String columns){
+      List<String> keys = new ArrayList<String>();
+      for (String column : columns.split(",")){keys.add(column.trim().split("\\s+")[0].toLowerCase());}
+      List<List<String>> existing = indexes.get(table.toLowerCase());
+      if (existing == null){
+         existing = new ArrayList<List<String>>();
+         indexes.put(table.toLowerCase(), existing);
+      }
+      existing.add(keys);
+   }
+
+   /**
+    * Reads a budget file.
+    *
+    * @param file the budgets, one statement or command per line
+    * @return the budgets, by statement or command
+    * @throws java.io.IOException when the file cannot be read or a line is
+    *         malformed
+    */
+   public static Map<String, Budget> readBudgets(File file) throws IOException {
+      Map<String, Budget> budgets = new LinkedHashMap<String, Budget>();
+      BufferedReader lines = new BufferedReader(new FileReader(file));
+      try{
+         String line;
+         while ((line = lines.readLine()) != null){
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#")){continue;}
+            String[] fields = line.split("\\s+");
+            if (fields.length != 3 || !(fields[2].equals("index") || fields[2].equals("any"))){
+               throw new IOException(file + ": expected <statement> <ms or -> <index or any>: " + line);
+            }
+            try{
+               double millis = fields[1].equals("-") ? -1 : Double.parseDouble(fields[1]);
+               budgets.put(fields[0], new Budget(millis, fields[2].equals("index")));
+            }catch (NumberFormatException e){
+               throw new IOException(file + ": not a number of milliseconds: " + line);
+            }
+         }
+      }finally{
+         lines.close();
+      }
+      return budgets;
+   }//end readBudgets
+
+   /**
+    * Finds the users, stores and products the script's ${name} variables
+    * stand for: the admin; the customer and store with the most orders
+    * between them, and a product in stock there; the manager of the store
+    * with the most orders, and one of its products; a warehouse; and the
+    * first day of the latest month with orders.
+    *
+    * @return the values, by variable name
+    * @throws java.sql.SQLException when a query fails or the tables are
+    *         empty
+    */
+   public Map<String, String> resolve() throws SQLException {
+      Map<String, String> values = new HashMap<String, String>();
+
+      ResultTable admin = esql.queryRow("SELECT name, password FROM Users WHERE type = 'admin' ORDER BY userID LIMIT 1");
+      require(admin, "an admin");
+      values.put("admin.name", admin.getString(0, 0).trim());
+      values.put("admin.password", admin.getString(0, 1).trim());
+
+      ResultTable customer = esql.queryRow(
+         "SELECT Users.name, Users.password, Orders.storeID, COUNT(*) AS n FROM Orders, Users " +
+         "WHERE Users.userID = Orders.customerID AND Users.type = 'customer' " +
+         "GROUP BY Users.userID, Users.name, Users.password, Orders.storeID ORDER BY n DESC LIMIT 1");
+      require(customer, "a customer with orders");
+      values.put("customer.name", customer.getString(0, 0).trim());
+      values.put("customer.password", customer.getString(0, 1).trim());
+      values.put("customer.store", customer.getString(0, 2).trim());
+      values.put("customer.product", esql.queryString(
+         "SELECT productName FROM Product WHERE storeID = ? AND numberOfUnits > 0 ORDER BY productName LIMIT 1",
+         Integer.valueOf(customer.getInt(0, 2))));
+      if (values.get("customer.product") == null){throw new SQLException("PlanCheck needs a product in stock at store " + values.get("customer.store"));}
+
+      int storeID = esql.queryInt("SELECT storeID FROM Orders GROUP BY storeID ORDER BY COUNT(*) DESC LIMIT 1", -1);
+      ResultTable manager = esql.queryRow("SELECT Users.name, Users.password FROM Store, Users " +
+                                          "WHERE Users.userID = Store.managerID AND Store.storeID = ?", Integer.valueOf(storeID));
+      require(manager, "a store with orders");
+      values.put("manager.name", manager.getString(0, 0).trim());
+      values.put("manager.password", manager.getString(0, 1).trim());
+      values.put("manager.store", String.valueOf(storeID));
+      values.put("manager.product", esql.queryString(
+         "SELECT productName FROM Product WHERE storeID = ? ORDER BY productName LIMIT 1", Integer.valueOf(storeID)));
+      if (values.get("manager.product") == null){throw new SQLException("PlanCheck needs a product at store " + storeID);}
+
+      values.put("warehouse", String.valueOf(esql.queryInt("SELECT MIN(WarehouseID) FROM Warehouse", -1)));
+      values.put("since", esql.queryString("SELECT CAST(date_trunc('month', MAX(orderTime)) AS date) FROM Orders"));
+      for (Map.Entry<String, String> value : values.entrySet()){
+         if (value.getValue() != null){value.setValue(value.getValue().trim());}
+      }
+      return values;
+   }//end resolve
+
+   private static void require(ResultTable row, String what) throws SQLException {
+      if (row.isEmpty()){throw new SQLException("PlanCheck needs " + what + " in the database");}
+   }
+
+   private static String substitute(String line, Map<String, String> values) throws IOException {
+      Matcher m = VARIABLE.matcher(line);
+      StringBuffer text = new StringBuffer();
+      while (m.find()){
+         String value = values.get(m.group(1));
+         if (value == null){throw new IOException("no value for ${" + m.group(1) + "} in: " + line);}
+         m.appendReplacement(text, Matcher.quoteReplacement(value));
+      }
+      m.appendTail(text);
+      return text.toString();
+   }
+
+   private static String read(File file) throws IOException {
+      StringBuilder text = new StringBuilder();
+      BufferedReader lines = new BufferedReader(new FileReader(file));
+      try{
+         String line;
+         while ((line = lines.readLine()) != null){text.append(line).append('\n');}
+      }finally{
+         lines.close();
+      }
+      return text.toString();
+   }
+
+   private static String stripComments(String sql){
+      return sql.replaceAll("--[^\n]*", "");
+   }
+
+   private static String join(List<String> words){
+      StringBuilder text = new StringBuilder();
+      for (String word : words){text.append(text.length() == 0 ? "" : ", ").append(word);}
+      return text.toString();
+   }
+
+   // the budget of a statement: its own line, else its command's
+   private static Budget budgetOf(Shape shape, Map<String, Budget> budgets){
+      Budget budget = budgets.get(shape.id);
+      return budget != null ? budget : budgets.get(shape.command);
+   }
+
+   // writes a suggestion the way create_indexes.sql declares its indexes
+   private static void printIndex(PrintStream out, String suggestion, Map<String, String> names){
+      String table = suggestion.substring(0, suggestion.indexOf('('));
+      List<String> columns = new ArrayList<String>();
+      for (String column : suggestion.substring(table.length() + 1, suggestion.length() - 1).split(", ")){
+         columns.add(names.containsKey(column) ? names.get(column) : column);
+      }
+      String name = table + "_" + join(columns).replace(", ", "_").toLowerCase() + "_index";
+      out.println("DROP INDEX IF EXISTS " + name + ";");
+      out.println("CREATE INDEX " + name);
+      out.println("ON " + (names.containsKey(table) ? names.get(table) : table) + " USING BTREE (" + join(columns) + ");");
+      out.println();
+   }
+
+   /**
+    * Captures and explains the statements of a script, and exits non-zero
+    * when a statement breaks its budget or a command fails.
+    *
+    * usage: java [-classpath &lt;classpath&gt;] PlanCheck &lt;dbname&gt; &lt;port&gt; &lt;user&gt;
+    *        [-plans dir] [-sql dir] [-runs n] [-minRows n] [-out file]
+    *
+    * The plans directory holds commands.txt, the script, and budgets.txt; the
+    * sql directory holds the schema scripts.  The report goes to standard
+    * out unless -out names a file.
+    *
+    * @param args the database, then the options
+    */
+   public static void main (String[] args) {
+      if (args.length < 3){
+         System.err.println("Usage: java [-classpath <classpath>] PlanCheck <dbname> <dbport> <user> " +
+                            "[-plans dir] [-sql dir] [-runs n] [-minRows n] [-out file]");
+         System.exit(CommandContext.USAGE);
+      }
+      String plans = "../plans";
+      String sql = "../../sql/src";
+      String report = null;
+      int runs = 3;
+      long minRows = 1000;
+      for (int i = 3; i < args.length; i++){
+         if (args[i].equals("-plans") && i + 1 < args.length){plans = args[++i];}
+         else if (args[i].equals("-sql") && i + 1 < args.length){sql = args[++i];}
+         else if (args[i].equals("-runs") && i + 1 < args.length){runs = Integer.parseInt(args[++i]);}
+         else if (args[i].equals("-minRows") && i + 1 < args.length){minRows = Long.parseLong(args[++i]);}
+         else if (args[i].equals("-out") && i + 1 < args.length){report = args[++i];}
+         else {
+            System.err.println("Unknown option " + args[i]);
+            System.exit(CommandContext.USAGE);
+         }
+      }
+
+      Amazon esql = null;
+      int status = CommandContext.OK;
+      PrintStream out = null;
+      try{
+         Map<String, Budget> budgets = readBudgets(new File(plans, "budgets.txt"));
+         Map<String, String> names = new HashMap<String, String>();
+         Map<String, List<List<String>>> indexes = readIndexes(new File(sql), names);
+
+         Class.forName("org.postgresql.Driver").newInstance();
+         esql = new Amazon(args[0], args[1], args[2], "");
+         PlanCheck check = new PlanCheck(esql, runs, minRows);
+         check.capture(new File(plans, "commands.txt"), check.resolve());
+
+         out = report == null ? CommandContext.console() : new PrintStream(new FileOutputStream(report));
+         int regressions = 0;
+         Set<String> suggestions = new LinkedHashSet<String>();
+         Set<String> budgeted = new LinkedHashSet<String>();
+         for (Shape shape : check.getShapes()){
+            Budget budget = budgetOf(shape, budgets);
+            if (budget != null){budgeted.add(budgets.containsKey(shape.id) ? shape.id : shape.command);}
+            out.println(shape.id + "  " + shape.sql);
+            out.println("   params " + Arrays.toString(shape.params));
+
+            double[] millis = new double[1];
+            List<Node> plan;
+            try{
+               plan = check.explain(shape, millis);
+            }catch (SQLException e){
+               out.println("   ERROR " + e.getMessage().trim());
+               if (budget != null){regressions++;}
+               out.println();
+               continue;
+            }
+
+            for (Node node : plan){
+               StringBuilder line = new StringBuilder("   ");
+               for (int i = 0; i < node.depth; i++){line.append(' ');}
+               line.append(node.label);
+               out.println(String.format("%-90s rows %9d est %9d actual x%-6d %10.3f ms", line, node.estimatedRows,
+                                         node.actualRows, node.loops, node.millis));
+            }
+            out.println(String.format("   execution %.3f ms", millis[0]));
+
+            for (String problem : budget == null ? new ArrayList<String>() : check.check(plan, millis[0], budget)){
+               out.println("   REGRESSION " + problem);
+               regressions++;
+            }
+            for (String suggestion : check.suggest(plan, indexes)){
+               out.println("   suggest an index on " + suggestion);
+               suggestions.add(suggestion);
+            }
+            out.println();
+         }
+
+         for (String failed : check.getFailedCommands()){out.println("FAILED COMMAND " + failed);}
+         for (String id : budgets.keySet()){
+            if (!budgeted.contains(id)){out.println("NOT RUN " + id + " is in budgets.txt but issued no statement");}
+         }
+         if (!suggestions.isEmpty()){
+            out.println();
+            out.println("-- Suggested indexes");
+            out.println();
+            for (String suggestion : suggestions){printIndex(out, suggestion, names);}
+         }
+         out.println(check.getShapes().size() + " statement(s), " + regressions + " regression(s), " +
+                     check.getFailedCommands().size() + " failed command(s), " + suggestions.size() + " suggested index(es)");
+         if (regressions > 0 || !check.getFailedCommands().isEmpty()){status = CommandContext.REJECTED;}
+      }catch (Exception e){
+         System.err.println(e.getMessage());
+         status = CommandContext.ERROR;
+      }finally{
+         if (out != null){out.flush();}
+         if (esql != null){esql.cleanup();}
+      }
+      System.exit(status);
+   }//end main
+
+}//end PlanCheck
@@ -0,0 +1,320 @@
+/*
+ * Popular products and customers for the Amazon store client
+ * ============================================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * For each store, the products ordered most often and the customers who
+ * order most often, kept in memory so the popular items and popular
+ * customers reports do not aggregate the store's whole order history.
+ *
+ * The index is seeded from Orders with one streamed scan and then fed every
+ * order placed through this client.  Orders placed and customers deleted
+ * while the scan runs are held back, and applied after it unless the scan's
+ * snapshot already included the transaction that made them.  Counts are exact as long as a store has
+ * no more distinct products (or customers) than the tracker capacity; see
+ * {@link TopK}.  {@link #verify(Amazon, int)} compares the index against
+ * the SQL it replaces.
+ */
+public class PopularityIndex {
+
+   /**
+    * One store's trackers.
+    */
+   private static class StoreCounts {
+      final TopK<String> products;
+      final TopK<Integer> customers;
+
+      StoreCounts(int capacity){
+         products = new TopK<String>(capacity);
+         customers = new TopK<Integer>(capacity);
+      }
+   }
+
+   /*
+    * An order placed, a customer deleted with their orders, or a store
+    * deleted, while the index is seeded.
+    */
+   private static class Pending {
+      final long transactionID;
+      final int storeID;
+      final String productName;
+      final int customerID;
+      // the deleted customer's order count by store and product, or null
+      // for an order or a store
+      final ResultTable deleted;
+
+      Pending(long transactionID, int storeID, String productName, int customerID, ResultTable deleted){
+         this.transactionID = transactionID;
+         this.storeID = storeID;
+         this.productName = productName;
+         this.customerID = customerID;
+         this.deleted = deleted;
+      }
+   }//end Pending
+
+   private final int k;
+   private final int capacity;
+   private final ConcurrentHashMap<Integer, StoreCounts> stores = new ConcurrentHashMap<Integer, StoreCounts>();
+
+   // held back until the seed's scan is done; null once it is
+   private final Object seedLock = new Object();
+   private volatile List<Pending> pending = new ArrayList<Pending>();
+
+   /**
+    * @param k the number of products or customers reported per store
+    * @param capacity the number of products and customers tracked per store
+    */
+   public PopularityIndex(int k, int capacity) {
+      if (k <= 0 || capacity < k){throw new IllegalArgumentException("need 0 < k <= capacity");}
+      this.k = k;
+      this.capacity = capacity;
+   }
+
+   public int getK(){return k;}
+
+   /**
+    * Counts every order in the Orders table, then applies the changes held
+    * back meanwhile that the scan did not see.  An index is seeded once.
+    *
+    * @param esql the database
+    * @param fetchSize the number of orders read per round trip
+    * @throws java.sql.SQLException when the orders cannot be read
+    */
+   public void seed(Amazon esql, int fetchSize) throws SQLException {
+      // the last row carries the scan's snapshot; one statement, so the
+      // snapshot is the one the orders were read in
+      final String[] snapshot = new String[1];
+      esql.query("SELECT storeID, productName, customerID, NULL AS snapshot FROM Orders " +
+                 "UNION ALL SELECT NULL, NULL, NULL, CAST(txid_current_snapshot() AS text)", fetchSize, new RowSink(){
+         public void start(ResultSetMetaData rsmd){}
+
+         public void row(ResultSet rs) throws SQLException {
+            if (rs.getString(4) != null){snapshot[0] = rs.getString(4);}
+            else {count(rs.getInt(1), rs.getString(2).trim(), rs.getInt(3));}
+         }
+
+         public void end(int rowCount){}
+      });
+
+      synchronized (seedLock){
+         for (Pending change : pending){
+            // a deleted store goes whatever the scan saw of it
+            if (change.productName == null && change.deleted == null){
+               stores.remove(change.storeID);
+               continue;
+            }
+            if (visible(change.transactionID, snapshot[0])){continue;}
+            if (change.deleted == null){count(change.storeID, change.productName, change.customerID);}
+            else {forget(change.customerID, change.deleted);}
+         }
+         pending = null;
+      }
+   }//end seed
+
+   /*
+    * Whether a committed transaction's changes are in a snapshot, given as
+    * txid_current_snapshot() prints it, xmin:xmax:xip,...
+    */
+   private static boolean visible(long transactionID, String snapshot){
+      String[] parts = snapshot.split(":");
+      if (transactionID < Long.parseLong(parts[0])){return true;}
+      if (transactionID >= Long.parseLong(parts[1])){return false;}
+      if (parts.length > 2){
+         for (String running : parts[2].split(",")){
+            if (!running.isEmpty() && Long.parseLong(running) == transactionID){return false;}
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Counts one new order.
+    *
+    * @param storeID the store ordered from
+    * @param productName the product ordered
+    * @param customerID the ordering customer
+    * @param transactionID the committed transaction that placed it, as
+    *        txid_current() reports it
+    */
+   public void record(int storeID, String productName, int customerID, long transactionID) {
+      if (pending != null){
+         synchronized (seedLock){
+            if (pending != null){
+               pending.add(new Pending(transactionID, storeID, productName, customerID, null));
+               return;
+            }
+         }
+      }
+      count(storeID, productName, customerID);
+   }
+
+   private void count(int storeID, String productName, int customerID){
+      StoreCounts counts = counts(storeID);
+      counts.products.add(productName, 1);
+      counts.customers.add(Integer.valueOf(customerID), 1);
+   }
+
+   /**
+    * @param storeID the store
+    * @return the store's k most ordered products, most ordered first
+    */
+   public List<TopK.Entry<String>> topProducts(int storeID) {
+      StoreCounts counts = stores.get(storeID);
+      return counts == null ? new ArrayList<TopK.Entry<String>>() : counts.products.top(k);
+   }
+
+   /**
+    * @param storeID the store
+    * @return the store's k most frequent customers, most frequent first
+    */
+   public List<TopK.Entry<Integer>> topCustomers(int storeID) {
+      StoreCounts counts = stores.get(storeID);
+      return counts == null ? new ArrayList<TopK.Entry<Integer>>() : counts.customers.top(k);
+   }
+
+   /**
+    * Forgets a deleted store.  While the index is seeded the store is
+    * forgotten again once the scan is done, in case the scan counted it.
+    *
+    * @param storeID the store
+    */
+   public void removeStore(int storeID) {
+      stores.remove(storeID);
+      if (pending != null){
+         synchronized (seedLock){
+            if (pending != null){pending.add(new Pending(0, storeID, null, -1, null));}
+         }
+      }
+   }
+
+   /**
+    * Forgets a deleted customer, and takes their orders, which were deleted
+    * with them, off the products they bought.
+    *
+    * @param customerID the customer
+    * @param deleted the customer's order count by store and product, as
+    *        storeID, productName, count rows read just before the delete
+    * @param transactionID the committed transaction that deleted them, as
+    *        txid_current() reports it
+    */
+   public void removeCustomer(int customerID, ResultTable deleted, long transactionID) {
+      if (pending != null){
+         synchronized (seedLock){
+            if (pending != null){
+               pending.add(new Pending(transactionID, -1, null, customerID, deleted));
+               return;
+            }
+         }
+      }
+      forget(customerID, deleted);
+   }
+
+   private void forget(int customerID, ResultTable deleted){
+      for (int i = 0; i < deleted.getRowCount(); i++){
+         StoreCounts counts = stores.get(deleted.getInt(i, 0));
+         if (counts != null){counts.products.subtract(deleted.getString(i, 1).trim(), deleted.getLong(i, 2));}
+      }
+      for (StoreCounts counts : stores.values()){counts.customers.remove(Integer.valueOf(customerID));}
+   }
+
+   /**
+    * Checks a store's top k against the GROUP BY queries it replaces.  Ties
+    * may be listed in either order, so an entry only has to have the exact
+    * count of the entry at its rank.
+    *
+    * @param esql the database
+    * @param storeID the store
+    * @return one line per difference; empty when the index agrees
+    * @throws java.sql.SQLException when the queries fail
+    */
+   public List<String> verify(Amazon esql, int storeID) throws SQLException {
+      List<String> differences = new ArrayList<String>();
+
+      ResultTable products = esql.executeQueryAndReturnTable(
+         "SELECT productName, COUNT(*) FROM Orders WHERE storeID = ? " +
+         "GROUP BY productName ORDER BY COUNT(*) DESC LIMIT ?", Integer.valueOf(storeID), Integer.valueOf(k));
+      List<TopK.Entry<String>> topProducts = topProducts(storeID);
+      compare("store " + storeID + " product", products, topProducts, differences);
+
+      ResultTable customers = esql.executeQueryAndReturnTable(
+         "SELECT customerID, COUNT(*) FROM Orders WHERE storeID = ? " +
+         "GROUP BY customerID ORDER BY COUNT(*) DESC LIMIT ?", Integer.valueOf(storeID), Integer.valueOf(k));
+      List<TopK.Entry<Integer>> topCustomers = topCustomers(storeID);
+      compare("store " + storeID + " customer", customers, topCustomers, differences);
+
+      return differences;
+   }
+
+   private static <K> void compare(String what, ResultTable exact, List<TopK.Entry<K>> tracked, List<String> differences){
+      if (exact.getRowCount() != tracked.size()){
+         differences.add(what + " count: SQL has " + exact.getRowCount() + ", index has " + tracked.size());
+      }
+      for (int i = 0; i < exact.getRowCount() && i < tracked.size(); i++){
+         TopK.Entry<K> entry = tracked.get(i);
+         if (entry.getCount() != exact.getLong(i, 1)){
+            differences.add(what + " #" + (i + 1) + ": SQL has " + exact.getString(i, 0) + " x" + exact.getLong(i, 1) +
+                            ", index has " + entry.getKey() + " x" + entry.getCount() + " (error " + entry.getError() + ")");
+         }
+      }
+   }
+
+   private StoreCounts counts(int storeID){
+      StoreCounts counts = stores.get(storeID);
+      if (counts == null){
+         StoreCounts created = new StoreCounts(capacity);
+         counts = stores.putIfAbsent(storeID, created);
+         if (counts == null){counts = created;}
+      }
+      return counts;
+   }
+
+   /**
+    * Seeds an index and verifies every store against SQL.
+    *
+    * usage: java [-classpath &lt;classpath&gt;] PopularityIndex &lt;dbname&gt; &lt;port&gt; &lt;user&gt; [&lt;passwd&gt;]
+    *
+    * @param args the database to check
+    */
+   public static void main (String[] args) {
+      if (args.length < 3){
+         System.err.println("Usage: java [-classpath <classpath>] PopularityIndex <dbname> <port> <user> [<passwd>]");
+         return;
+      }
+      Amazon esql = null;
+      try{
+         Class.forName("org.postgresql.Driver").newInstance();
+         esql = new Amazon(args[0], args[1], args[2], args.length > 3 ? args[3] : "");
+         PopularityIndex index = esql.getPopularity();
+
+         int checked = 0, failed = 0;
+         ResultTable storeIDs = esql.executeQueryAndReturnTable("SELECT storeID FROM Store ORDER BY storeID");
+         for (int i = 0; i < storeIDs.getRowCount(); i++){
+            List<String> differences = index.verify(esql, storeIDs.getInt(i, 0));
+            checked++;
+            if (!differences.isEmpty()){failed++;}
+            for (String difference : differences){System.out.println(difference);}
+         }
+         System.out.println(checked + " store(s) checked, " + failed + " differ.");
+      }catch (Exception e){
+         System.err.println(e.getMessage());
+      }finally{
+         if (esql != null){esql.cleanup();}
+      }
+   }
+
+}//end PopularityIndex
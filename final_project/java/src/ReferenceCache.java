@@ -0,0 +1,161 @@
+/*
+ * Reference data cache for the Amazon store client
+ * ==================================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded read-through cache for data that rarely changes, such as which
+ * stores, warehouses and products exist.  Entries are evicted least recently
+ * used first once the cache is full, and are reloaded once they are older
+ * than the time to live.  "Not found" is cached like any other value, so
+ * repeated lookups of a bad ID do not reach the database either.
+ *
+ * Code that changes the underlying table must call {@link #invalidate(Object)}
+ * or {@link #invalidateAll()}; the time to live only bounds how stale an
+ * entry can get when a change is made outside this client.
+ *
+ * @param <K> the key type
+ * @param <V> the value type; null means not found
+ */
+public class ReferenceCache<K, V> {
+
+   /**
+    * Reads the value for a key from the database.
+    */
+   public interface Loader<K, V> {
+      /**
+       * @param key the key
+       * @return the value, or null if there is none
+       * @throws java.sql.SQLException when the value cannot be read
+       */
+      V load(K key) throws SQLException;
+   }
+
+   private static class Entry<V> {
+      final V value;
+      final long loadedAt;
+
+      Entry(V value, long loadedAt){
+         this.value = value;
+         this.loadedAt = loadedAt;
+      }
+   }
+
+   private final String name;
+   private final Loader<K, V> loader;
+   private final long ttlMillis;
+   private final LinkedHashMap<K, Entry<V>> entries;
+
+   private long hits = 0;
+   private long misses = 0;
+   private long evictions = 0;
+   private long expirations = 0;
+   private long invalidations = 0;
+
+   // bumped by every invalidation, so a load that raced one is not cached
+   private long generation = 0;
+
+   /**
+    * @param name the name reported in statistics
+    * @param capacity the number of entries kept
+    * @param ttlMillis how long an entry is used before it is reloaded
+    * @param loader reads a value on a miss
+    */
+   public ReferenceCache(String name, final int capacity, long ttlMillis, Loader<K, V> loader) {
+      if (capacity <= 0){throw new IllegalArgumentException("capacity must be positive");}
+      this.name = name;
+      this.loader = loader;
+      this.ttlMillis = ttlMillis;
+      this.entries = new LinkedHashMap<K, Entry<V>>(Math.min(capacity, 1024) * 4 / 3 + 1, 0.75f, true){
+         protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest){
+            if (size() <= capacity){return false;}
+            evictions++;
+            return true;
+         }
+      };
+   }
+
+   /**
+    * Returns the value for a key, loading it on a miss.  The loader runs
+    * outside the cache's lock, so a slow query does not hold up other keys.
+    *
+    * @param key the key
+    * @return the value, or null if there is none
+    * @throws java.sql.SQLException when the value cannot be loaded
+    */
+   public V get(K key) throws SQLException {
+      long now = System.currentTimeMillis();
+      long loadedIn;
+      synchronized (this){
+         Entry<V> entry = entries.get(key);
+         if (entry != null){
+            if (now - entry.loadedAt < ttlMillis){
+               hits++;
+               return entry.value;
+            }
+            entries.remove(key);
+            expirations++;
+         }
+         misses++;
+         loadedIn = generation;
+      }
+
+      V value = loader.load(key);
+      synchronized (this){
+         if (generation == loadedIn){entries.put(key, new Entry<V>(value, now));}
+      }
+      return value;
+   }
+
+   /**
+    * Forgets one key, so the next lookup reads it again.
+    *
+    * @param key the key
+    */
+   public synchronized void invalidate(K key) {
+      generation++;
+      if (entries.remove(key) != null){invalidations++;}
+   }
+
+   /**
+    * Forgets every key.
+    */
+   public synchronized void invalidateAll() {
+      generation++;
+      invalidations += entries.size();
+      entries.clear();
+   }
+
+   public synchronized int size(){return entries.size();}
+   public synchronized long getHits(){return hits;}
+   public synchronized long getMisses(){return misses;}
+   public synchronized long getEvictions(){return evictions;}
+   public synchronized long getExpirations(){return expirations;}
+   public synchronized long getInvalidations(){return invalidations;}
+
+   /**
+    * @return the fraction of lookups answered without a query, 0 to 1
+    */
+   public synchronized double getHitRate() {
+      long lookups = hits + misses;
+      return lookups == 0 ? 0 : (double) hits / lookups;
+   }
+
+   public synchronized String toString() {
+      return name + ": size=" + entries.size() + " hits=" + hits + " misses=" + misses +
+             " hitRate=" + Math.round(getHitRate() * 1000) / 10.0 + "%" +
+             " evictions=" + evictions + " expirations=" + expirations + " invalidations=" + invalidations;
+   }
+
+}//end ReferenceCache
@@ -0,0 +1,258 @@
+/*
+ * Typed query result for the Amazon store client
+ * ================================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A query result stored column by column.  Integer, bigint and floating point
+ * columns are kept in primitive arrays, read straight from the result set
+ * without going through strings; every other column is dictionary encoded,
+ * so repeated values (store names, user types, product names) are held once.
+ *
+ * Rows and columns are numbered from 0.  A table is filled by the
+ * {@link RowSink} returned from {@link #sink()} and is read only afterwards.
+ */
+public class ResultTable {
+
+   public enum ColumnType { INT, LONG, DOUBLE, STRING }
+
+   private String[] names = new String[0];
+   private Column[] columns = new Column[0];
+   private int rowCount = 0;
+
+   /**
+    * @return a sink that fills this table; it may only be used for one query
+    */
+   public RowSink sink() {
+      return new RowSink(){
+         public void start(ResultSetMetaData rsmd) throws SQLException {
+            int numCol = rsmd.getColumnCount ();
+            names = new String[numCol];
+            columns = new Column[numCol];
+            for (int i = 0; i < numCol; i++){
+               names[i] = rsmd.getColumnName(i + 1);
+               columns[i] = new Column(typeOf(rsmd.getColumnType(i + 1)));
+            }
+         }
+
+         public void row(ResultSet rs) throws SQLException {
+            for (int i = 0; i < columns.length; i++){
+               columns[i].read(rs, i + 1, rowCount);
+            }
+            rowCount++;
+         }
+
+         public void end(int count){}
+      };
+   }
+
+   public int getRowCount(){return rowCount;}
+   public int getColumnCount(){return columns.length;}
+   public boolean isEmpty(){return rowCount == 0;}
+
+   public String getColumnName(int column){return names[column];}
+   public ColumnType getColumnType(int column){return columns[column].type;}
+
+   /**
+    * @param name a column name, matched ignoring case
+    * @return the column's position, or -1 if there is no such column
+    */
+   public int findColumn(String name) {
+      for (int i = 0; i < names.length; i++){
+         if (names[i].equalsIgnoreCase(name)){return i;}
+      }
+      return -1;
+   }
+
+   public boolean isNull(int row, int column) {
+      checkRow(row);
+      return columns[column].nulls[row];
+   }
+
+   /**
+    * @return the value, or 0 for SQL NULL
+    * @throws IllegalStateException if the column is not numeric
+    */
+   public int getInt(int row, int column) {
+      checkRow(row);
+      Column c = columns[column];
+      switch (c.type){
+         case INT: return c.ints[row];
+         case LONG: return (int) c.longs[row];
+         case DOUBLE: return (int) c.doubles[row];
+         default: throw new IllegalStateException("column " + names[column] + " is not numeric");
+      }
+   }
+
+   /**
+    * @return the value, or 0 for SQL NULL
+    * @throws IllegalStateException if the column is not numeric
+    */
+   public long getLong(int row, int column) {
+      checkRow(row);
+      Column c = columns[column];
+      switch (c.type){
+         case INT: return c.ints[row];
+         case LONG: return c.longs[row];
+         case DOUBLE: return (long) c.doubles[row];
+         default: throw new IllegalStateException("column " + names[column] + " is not numeric");
+      }
+   }
+
+   /**
+    * @return the value, or 0 for SQL NULL
+    * @throws IllegalStateException if the column is not numeric
+    */
+   public double getDouble(int row, int column) {
+      checkRow(row);
+      Column c = columns[column];
+      switch (c.type){
+         case INT: return c.ints[row];
+         case LONG: return c.longs[row];
+         case DOUBLE: return c.doubles[row];
+         default: throw new IllegalStateException("column " + names[column] + " is not numeric");
+      }
+   }
+
+   /**
+    * Returns a value as text.  Fixed width character values are trimmed.
+    *
+    * @return the value, or null for SQL NULL
+    */
+   public String getString(int row, int column) {
+      checkRow(row);
+      Column c = columns[column];
+      if (c.nulls[row]){return null;}
+      switch (c.type){
+         case INT: return Integer.toString(c.ints[row]);
+         case LONG: return Long.toString(c.longs[row]);
+         case DOUBLE: return Double.toString(c.doubles[row]);
+         default: return c.dictionary.get(c.codes[row]);
+      }
+   }
+
+   /**
+    * @return a copy of an int column, without the unused capacity
+    */
+   public int[] intColumn(int column) {
+      return Arrays.copyOf(columns[column].ints, rowCount);
+   }
+
+   /**
+    * @return a copy of a floating point column, without the unused capacity
+    */
+   public double[] doubleColumn(int column) {
+      return Arrays.copyOf(columns[column].doubles, rowCount);
+   }
+
+   /**
+    * Converts the table to the row-of-strings form printed by
+    * {@link Amazon#printResult(List, List)}.
+    *
+    * @return the rows, each a list of values as text
+    */
+   public List<List<String>> toRows() {
+      List<List<String>> rows = new ArrayList<List<String>>(rowCount);
+      for (int r = 0; r < rowCount; r++){
+         List<String> row = new ArrayList<String>(columns.length);
+         for (int c = 0; c < columns.length; c++){row.add(getString(r, c));}
+         rows.add(row);
+      }
+      return rows;
+   }
+
+   public List<String> getColumnNames(){return Arrays.asList(names);}
+
+   private void checkRow(int row){
+      if (row < 0 || row >= rowCount){throw new IndexOutOfBoundsException("row " + row + " of " + rowCount);}
+   }
+
+   private static ColumnType typeOf(int sqlType){
+      switch (sqlType){
+         case Types.INTEGER: case Types.SMALLINT: case Types.TINYINT:
+            return ColumnType.INT;
+         case Types.BIGINT:
+            return ColumnType.LONG;
+         case Types.FLOAT: case Types.DOUBLE: case Types.REAL: case Types.NUMERIC: case Types.DECIMAL:
+            return ColumnType.DOUBLE;
+         default:
+            return ColumnType.STRING;
+      }
+   }
+
+   /*
+    * One column's values; only the array for its type is allocated.
+    */
+   private static class Column {
+      final ColumnType type;
+      boolean[] nulls = new boolean[16];
+      int[] ints;
+      long[] longs;
+      double[] doubles;
+      int[] codes;
+      List<String> dictionary;
+      Map<String, Integer> lookup;
+
+      Column(ColumnType type){
+         this.type = type;
+         switch (type){
+            case INT: ints = new int[16]; break;
+            case LONG: longs = new long[16]; break;
+            case DOUBLE: doubles = new double[16]; break;
+            default:
+               codes = new int[16];
+               dictionary = new ArrayList<String>();
+               lookup = new HashMap<String, Integer>();
+         }
+      }
+
+      void read(ResultSet rs, int index, int row) throws SQLException {
+         if (row == nulls.length){grow(row * 2);}
+         switch (type){
+            case INT: ints[row] = rs.getInt(index); break;
+            case LONG: longs[row] = rs.getLong(index); break;
+            case DOUBLE: doubles[row] = rs.getDouble(index); break;
+            default:
+               String value = rs.getString(index);
+               if (value != null){codes[row] = encode(value.trim());}
+         }
+         nulls[row] = rs.wasNull();
+      }
+
+      private int encode(String value){
+         Integer code = lookup.get(value);
+         if (code == null){
+            code = Integer.valueOf(dictionary.size());
+            dictionary.add(value);
+            lookup.put(value, code);
+         }
+         return code.intValue();
+      }
+
+      private void grow(int capacity){
+         nulls = Arrays.copyOf(nulls, capacity);
+         if (ints != null){ints = Arrays.copyOf(ints, capacity);}
+         if (longs != null){longs = Arrays.copyOf(longs, capacity);}
+         if (doubles != null){doubles = Arrays.copyOf(doubles, capacity);}
+         if (codes != null){codes = Arrays.copyOf(codes, capacity);}
+      }
+   }//end Column
+
+}//end ResultTable
@@ -0,0 +1,49 @@
+/*
+ * Row consumer for queries run by the Amazon store client
+ * ========================================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Receives the rows of a query one at a time, as they arrive from the
+ * server.  See {@link Amazon#query(String, int, RowSink, Object...)}.
+ *
+ * The result set handed to {@link #row(ResultSet)} is positioned on the
+ * current row and is only valid for the duration of the call.
+ */
+public interface RowSink {
+
+   /**
+    * Called once before the first row, even when there are no rows.
+    *
+    * @param rsmd the columns of the result
+    * @throws java.sql.SQLException when the metadata cannot be read
+    */
+   void start(ResultSetMetaData rsmd) throws SQLException;
+
+   /**
+    * Called for each row, in order.
+    *
+    * @param rs the result set, positioned on the row
+    * @throws java.sql.SQLException when the row cannot be read
+    */
+   void row(ResultSet rs) throws SQLException;
+
+   /**
+    * Called once after the last row.
+    *
+    * @param rowCount the number of rows delivered
+    */
+   void end(int rowCount);
+
+}//end RowSink
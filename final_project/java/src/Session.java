@@ -0,0 +1,55 @@
+/*
+ * Logged in user session for the Amazon store client
+ * ====================================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+/**
+ * The user a menu function acts for, as read from the Users table at log in.
+ *
+ * A session is immutable and carries no reference to the database, so any
+ * number of sessions can share one Amazon instance and its connection pool.
+ */
+public final class Session {
+
+   public static final String CUSTOMER = "customer";
+   public static final String MANAGER = "manager";
+   public static final String ADMIN = "admin";
+
+   private final int userID;
+   private final String name;
+   private final double latitude;
+   private final double longitude;
+   private final String type;
+
+   /**
+    * @param userID the user's ID
+    * @param name the user's name
+    * @param latitude the user's latitude
+    * @param longitude the user's longitude
+    * @param type the user's type: customer, manager or admin
+    */
+   public Session(int userID, String name, double latitude, double longitude, String type) {
+      this.userID = userID;
+      this.name = name;
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.type = type;
+   }
+
+   public int getUserID(){return userID;}
+   public String getName(){return name;}
+   public double getLatitude(){return latitude;}
+   public double getLongitude(){return longitude;}
+   public String getType(){return type;}
+
+   public boolean isManager(){return MANAGER.equals(type);}
+   public boolean isAdmin(){return ADMIN.equals(type);}
+
+}//end Session
@@ -0,0 +1,282 @@
+/*
+ * Concurrent session check for the Amazon store server
+ * ======================================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks that an {@link AmazonServer} serves many sessions at once.
+ *
+ * The server is started in this process on a free port, against a loaded
+ * database, and the given number of {@link AmazonClient} sessions are
+ * opened together.  Each session logs in as a customer, runs view-stores
+ * and places an order at a store within reach, then logs in as a manager
+ * and runs the manager-view-stores report.  The check passes only when
+ * every session finishes within the time limit, every command in it
+ * answers ok, and the server refused none of them.
+ *
+ * Orders are placed for real, and every product is restocked first so an
+ * order is never refused for want of stock, so use a scratch database.
+ */
+public class SessionCheck {
+
+   /**
+    * A user and their password, as the login command wants them.
+    */
+   private static class Login {
+      final String name;
+      final String password;
+
+      Login(String name, String password){
+         this.name = name.trim();
+         this.password = password.trim();
+      }
+
+      String command(){return "login " + AmazonClient.quote(name) + " " + AmazonClient.quote(password);}
+   }
+
+   /**
+    * A customer and the stores with products within their reach.
+    */
+   private static class Customer extends Login {
+      final List<Integer> stores = new ArrayList<Integer>();
+
+      Customer(String name, String password){super(name, password);}
+   }
+
+   private final List<Customer> customers = new ArrayList<Customer>();
+   private final List<Login> managers = new ArrayList<Login>();
+   private final Map<Integer, List<String>> products = new HashMap<Integer, List<String>>();
+
+   private final AtomicLong completed = new AtomicLong();
+   private final AtomicLong failedCommands = new AtomicLong();
+   private final AtomicLong failedSessions = new AtomicLong();
+   private final LatencyHistogram latencies = new LatencyHistogram();
+   private String firstFailure = null;
+
+   /**
+    * Reads the customers, managers and products the sessions use.
+    * Customers are given the stores within Amazon.STORE_RADIUS of them that
+    * have products; customers with none are left out.
+    *
+    * @param esql the database the server runs against
+    * @throws java.sql.SQLException when the users or products cannot be read
+    */
+   public SessionCheck(Amazon esql) throws java.sql.SQLException {
+      ResultTable rows = esql.executeQueryAndReturnTable("SELECT storeID, productName FROM Product");
+      for (int i = 0; i < rows.getRowCount(); i++){
+         Integer storeID = Integer.valueOf(rows.getInt(i, 0));
+         List<String> names = products.get(storeID);
+         if (names == null){
+            names = new ArrayList<String>();
+            products.put(storeID, names);
+         }
+         names.add(rows.getString(i, 1).trim());
+      }
+
+      StoreIndex stores = esql.getStoreIndex();
+      rows = esql.executeQueryAndReturnTable("SELECT name, password, latitude, longitude FROM Users WHERE type = 'customer'");
+      for (int i = 0; i < rows.getRowCount(); i++){
+         Customer customer = new Customer(rows.getString(i, 0), rows.getString(i, 1));
+         for (StoreIndex.StoreLocation store : stores.withinRadius(rows.getDouble(i, 2), rows.getDouble(i, 3), Amazon.STORE_RADIUS)){
+            if (products.containsKey(Integer.valueOf(store.getStoreID()))){customer.stores.add(Integer.valueOf(store.getStoreID()));}
+         }
+         if (!customer.stores.isEmpty()){customers.add(customer);}
+      }
+
+      rows = esql.executeQueryAndReturnTable(
+         "SELECT name, password FROM Users WHERE type = 'manager' AND userID IN (SELECT managerID FROM Store)");
+      for (int i = 0; i < rows.getRowCount(); i++){managers.add(new Login(rows.getString(i, 0), rows.getString(i, 1)));}
+
+      if (customers.isEmpty() || managers.isEmpty()){
+         throw new IllegalStateException("the database needs a customer with a store in reach and a manager with a store");
+      }
+   }
+
+   /**
+    * Opens the sessions against a server and waits for them.
+    *
+    * @param port the server's port on this host
+    * @param sessions the number of sessions, all open at once
+    * @param timeoutSeconds how long the sessions may take altogether
+    * @param seed the seed for the users, stores and products picked
+    * @return whether every session finished in time
+    * @throws java.lang.InterruptedException when interrupted while waiting
+    */
+   public boolean run(final int port, int sessions, int timeoutSeconds, long seed) throws InterruptedException {
+      final String host = InetAddress.getLoopbackAddress().getHostAddress();
+      final CountDownLatch connected = new CountDownLatch(sessions);
+      final CountDownLatch done = new CountDownLatch(sessions);
+      Random seeds = new Random(seed);
+      ExecutorService executor = CommandProcessor.newSessionExecutor();
+      for (int s = 0; s < sessions; s++){
+         final Random random = new Random(seeds.nextLong());
+         executor.execute(new Runnable(){
+            public void run(){
+               AmazonClient client = null;
+               LatencyHistogram mine = new LatencyHistogram();
+               try{
+                  try{
+                     client = new AmazonClient(host, port);
+                  }finally{
+                     connected.countDown();
+                  }
+                  // every session connects before any sends, so all are open at once
+                  connected.await();
+                  boolean ok = true;
+                  for (String command : commands(random)){
+                     long began = System.nanoTime();
+                     AmazonClient.Response response = client.send(command);
+                     mine.record((System.nanoTime() - began) / 1000);
+                     if (!response.isOk()){
+                        failedCommands.incrementAndGet();
+                        note(command + ": " + response);
+                        ok = false;
+                     }
+                  }
+                  if (ok){completed.incrementAndGet();}
+                  else {failedSessions.incrementAndGet();}
+               }catch (Exception e){
+                  failedSessions.incrementAndGet();
+                  note(e.toString());
+               }finally{
+                  if (client != null){client.close();}
+                  synchronized (latencies){latencies.add(mine);}
+                  done.countDown();
+               }
+            }
+         });
+      }
+      executor.shutdown();
+      return done.await(timeoutSeconds, TimeUnit.SECONDS);
+   }//end run
+
+   /*
+    * One session's commands: a customer browses and orders one to three
+    * units of a product at a store in reach, then a manager runs a report.
+    */
+   private List<String> commands(Random random){
+      Customer customer = customers.get(random.nextInt(customers.size()));
+      Integer storeID = customer.stores.get(random.nextInt(customer.stores.size()));
+      List<String> names = products.get(storeID);
+
+      List<String> commands = new ArrayList<String>();
+      commands.add(customer.command());
+      commands.add("view-stores");
+      commands.add("place-order " + storeID + " " + AmazonClient.quote(names.get(random.nextInt(names.size()))) + " " +
+                   (1 + random.nextInt(3)) + " yes");
+      commands.add(managers.get(random.nextInt(managers.size())).command());
+      commands.add("manager-view-stores");
+      commands.add("logout");
+      return commands;
+   }
+
+   private synchronized void note(String failure){
+      if (firstFailure == null){firstFailure = failure;}
+   }
+
+   /**
+    * Starts a server in this process, runs the sessions against it and
+    * exits 0 only if every session finished and every command answered ok.
+    *
+    * usage: java [-classpath &lt;classpath&gt;] SessionCheck &lt;dbname&gt; &lt;port&gt; &lt;user&gt;
+    *        [-sessions n] [-timeout seconds] [-seed n]
+    *
+    * By default 1000 sessions are given 10 minutes.
+    *
+    * @param args the database, then the options
+    */
+   public static void main (String[] args) {
+      if (args.length < 3 || (args.length - 3) % 2 != 0){
+         System.err.println("Usage: java [-classpath <classpath>] SessionCheck <dbname> <dbport> <user> " +
+                            "[-sessions n] [-timeout seconds] [-seed n]");
+         System.exit(CommandContext.USAGE);
+      }
+      int sessions = 1000;
+      int timeoutSeconds = 600;
+      long seed = 166;
+      for (int i = 3; i < args.length; i += 2){
+         if (args[i].equals("-sessions")){sessions = Integer.parseInt(args[i + 1]);}
+         else if (args[i].equals("-timeout")){timeoutSeconds = Integer.parseInt(args[i + 1]);}
+         else if (args[i].equals("-seed")){seed = Long.parseLong(args[i + 1]);}
+         else {
+            System.err.println("Unknown option " + args[i]);
+            System.exit(CommandContext.USAGE);
+         }
+      }
+
+      Amazon esql = null;
+      AmazonServer server = null;
+      int status = CommandContext.OK;
+      try{
+         Class.forName("org.postgresql.Driver").newInstance();
+         esql = new Amazon(args[0], args[1], args[2], "");
+
+         // each session orders at most 3 units, possibly all of one product
+         int restock = sessions * 3;
+         int restocked = esql.executeUpdate("UPDATE Product SET numberOfUnits = ? WHERE numberOfUnits < ?",
+                                            Integer.valueOf(restock), Integer.valueOf(restock));
+         System.out.println("Restocked " + restocked + " product(s).");
+         SessionCheck check = new SessionCheck(esql);
+         esql.getPopularity();
+
+         server = new AmazonServer(esql, InetAddress.getLoopbackAddress(), 0, sessions, timeoutSeconds * 1000);
+         final AmazonServer serving = server;
+         Thread listener = new Thread(new Runnable(){
+            public void run(){
+               try{
+                  serving.serve();
+               }catch (IOException e){
+                  System.err.println(e.getMessage());
+               }
+            }
+         }, "session-check-server");
+         listener.setDaemon(true);
+         listener.start();
+
+         long started = System.nanoTime();
+         boolean finished = check.run(server.getPort(), sessions, timeoutSeconds, seed);
+         double seconds = (System.nanoTime() - started) / 1e9;
+
+         System.out.println(check.completed.get() + " of " + sessions + " session(s) completed in " +
+                            String.format("%.1f", seconds) + " s; " + check.failedSessions.get() + " failed, " +
+                            check.failedCommands.get() + " command(s) failed, " + server.getRefusedSessions() +
+                            " refused by the server.");
+         synchronized (check.latencies){
+            System.out.println(check.latencies.getCount() + " command(s); p50 " + check.latencies.getPercentile(50) / 1000.0 +
+                               " ms, p99 " + check.latencies.getPercentile(99) / 1000.0 + " ms, max " +
+                               check.latencies.getMax() / 1000.0 + " ms");
+         }
+         if (!finished){System.out.println("FAILED " + (sessions - check.completed.get() - check.failedSessions.get()) +
+                                           " session(s) did not finish within " + timeoutSeconds + " s");}
+         if (check.firstFailure != null){System.out.println("first failure: " + check.firstFailure);}
+         if (!finished || check.completed.get() != sessions || server.getRefusedSessions() > 0){status = CommandContext.REJECTED;}
+      }catch (Exception e){
+         System.err.println(e.getMessage());
+         status = CommandContext.ERROR;
+      }finally{
+         if (server != null){server.close();}
+         if (esql != null){esql.cleanup();}
+      }
+      System.exit(status);
+   }//end main
+
+}//end SessionCheck
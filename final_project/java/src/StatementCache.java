@@ -0,0 +1,135 @@
+/*
+ * Prepared statement cache for the Amazon store client
+ * =====================================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least recently used cache of prepared statements for one connection,
+ * keyed by SQL text.  The statement evicted to make room is closed.
+ *
+ * The driver binds parameters into the SQL text on the client, so a plain
+ * prepared statement is parsed and planned by the server on every execution.
+ * Cached queries and updates are therefore switched to server side prepare
+ * (PREPARE once, then EXECUTE), so reusing one skips the parse and plan; set
+ * <code>amazon.serverPrepare</code> to false to turn this off.  Other
+ * statements, e.g. SET, DECLARE and FETCH, cannot be PREPAREd and are sent as
+ * text.  Closing an evicted statement deallocates it on the server.
+ *
+ * A cache belongs to exactly one connection and, like the connection, is only
+ * used by the thread that borrowed it, so it is not synchronized.
+ */
+public class StatementCache {
+
+   private static final boolean SERVER_PREPARE = Boolean.parseBoolean(System.getProperty("amazon.serverPrepare", "true"));
+
+   private final Connection connection;
+   private final LinkedHashMap<String, PreparedStatement> statements;
+
+   private long hits = 0;
+   private long misses = 0;
+
+   /**
+    * @param connection the connection statements are prepared on
+    * @param capacity the number of statements kept open
+    */
+   public StatementCache(Connection connection, final int capacity) {
+      this.connection = connection;
+      this.statements = new LinkedHashMap<String, PreparedStatement>(capacity * 4 / 3 + 1, 0.75f, true){
+         protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest){
+            if (size() <= capacity){return false;}
+            closeQuietly(eldest.getValue());
+            return true;
+         }
+      };
+   }
+
+   /**
+    * Returns the prepared statement for the given SQL text, preparing it on
+    * first use.  The caller must not close it.
+    *
+    * @param sql the SQL text with '?' placeholders
+    * @return a prepared statement owned by this cache
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public PreparedStatement prepare(String sql) throws SQLException {
+      PreparedStatement ps = statements.get(sql);
+      if (ps != null){
+         hits++;
+         return ps;
+      }
+      misses++;
+      ps = connection.prepareStatement(sql);
+      if (SERVER_PREPARE && preparable(sql)){useServerPrepare(ps);}
+      statements.put(sql, ps);
+      return ps;
+   }
+
+   /**
+    * Closes and forgets the statement for the given SQL text, e.g. after it
+    * failed in a way that may have left it unusable.
+    *
+    * @param sql the SQL text
+    */
+   public void evict(String sql) {
+      PreparedStatement ps = statements.remove(sql);
+      if (ps != null){closeQuietly(ps);}
+   }
+
+   public int size(){return statements.size();}
+   public long getHits(){return hits;}
+   public long getMisses(){return misses;}
+
+   // the statements PREPARE accepts
+   private static boolean preparable(String sql){
+      String head = sql.trim();
+      head = head.substring(0, Math.min(head.length(), 7)).toUpperCase();
+      return head.startsWith("SELECT") || head.startsWith("INSERT") || head.startsWith("UPDATE") || head.startsWith("DELETE");
+   }
+
+   /*
+    * Calls PGStatement.setUseServerPrepare(true) through reflection, like
+    * BulkLoader reaches the COPY API, so the client still compiles without
+    * the driver.  A driver without it is left to prepare on the client.
+    */
+   private static void useServerPrepare(PreparedStatement ps) throws SQLException {
+      try{
+         Class<?> pgStatement = Class.forName("org.postgresql.PGStatement");
+         if (!pgStatement.isInstance(ps)){return;}
+         Method setUseServerPrepare = pgStatement.getMethod("setUseServerPrepare", boolean.class);
+         setUseServerPrepare.invoke(ps, Boolean.TRUE);
+      }catch (ClassNotFoundException e){
+         // not the Postgres driver.
+      }catch (NoSuchMethodException e){
+         // a driver without server side prepare.
+      }catch (IllegalAccessException e){
+         // left to prepare on the client.
+      }catch (InvocationTargetException e){
+         if (e.getCause() instanceof SQLException){throw (SQLException) e.getCause();}
+         throw new SQLException(e.getCause().toString());
+      }
+   }
+
+   private static void closeQuietly(PreparedStatement ps){
+      try{
+         ps.close();
+      }catch (SQLException e){
+         // ignored.
+      }
+   }
+
+}//end StatementCache
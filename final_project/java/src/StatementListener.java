@@ -0,0 +1,28 @@
+/*
+ * Statement observer for the Amazon store client
+ * ================================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+/**
+ * Told of every statement the client prepares, with the parameters bound to
+ * it, before it runs.  See {@link Amazon#setStatementListener(StatementListener)}.
+ *
+ * The listener is called on the thread preparing the statement, so it must
+ * be quick and must not run statements of its own.
+ */
+public interface StatementListener {
+
+   /**
+    * @param sql the SQL text with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    */
+   void prepared(String sql, Object[] params);
+
+}//end StatementListener
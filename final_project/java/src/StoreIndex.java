@@ -0,0 +1,270 @@
+/*
+ * Spatial index over store locations for the Amazon store client
+ * ================================================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory uniform grid over store coordinates.  Stores are bucketed into
+ * square cells of <code>cellSize</code> units, so a radius query only looks
+ * at the cells overlapping the query circle and a k-nearest query walks rings
+ * of cells outward until no closer store can exist.
+ *
+ * Distances are euclidean over (latitude, longitude), the same measure as
+ * {@link Amazon#calculateDistance(double, double, double, double)}.
+ *
+ * The index is safe for concurrent readers; updates take a write lock.
+ */
+public class StoreIndex {
+
+   /**
+    * A store's position, and for query results its distance from the query
+    * point.
+    */
+   public static class StoreLocation {
+      private final int storeID;
+      private final double latitude;
+      private final double longitude;
+      private final double distance;
+
+      StoreLocation(int storeID, double latitude, double longitude, double distance){
+         this.storeID = storeID;
+         this.latitude = latitude;
+         this.longitude = longitude;
+         this.distance = distance;
+      }
+
+      public int getStoreID(){return storeID;}
+      public double getLatitude(){return latitude;}
+      public double getLongitude(){return longitude;}
+      public double getDistance(){return distance;}
+   }//end StoreLocation
+
+   private static final Comparator<StoreLocation> BY_DISTANCE = new Comparator<StoreLocation>(){
+      public int compare(StoreLocation a, StoreLocation b){
+         int c = Double.compare(a.distance, b.distance);
+         return c != 0 ? c : a.storeID - b.storeID;
+      }
+   };
+
+   private final double cellSize;
+   private final Map<Long, List<StoreLocation>> cells = new HashMap<Long, List<StoreLocation>>();
+   private final Map<Integer, StoreLocation> stores = new HashMap<Integer, StoreLocation>();
+   private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+   // bounds of the occupied cells, so ring searches know when to stop
+   private int minCellX = Integer.MAX_VALUE, maxCellX = Integer.MIN_VALUE;
+   private int minCellY = Integer.MAX_VALUE, maxCellY = Integer.MIN_VALUE;
+
+   /**
+    * @param cellSize the side of a grid cell, in coordinate units
+    */
+   public StoreIndex(double cellSize) {
+      if (!(cellSize > 0)){throw new IllegalArgumentException("cell size must be positive");}
+      this.cellSize = cellSize;
+   }
+
+   /**
+    * Adds a store, or moves it if it is already indexed.
+    *
+    * @param storeID the store's ID
+    * @param latitude the store's latitude
+    * @param longitude the store's longitude
+    */
+   public void put(int storeID, double latitude, double longitude) {
+      lock.writeLock().lock();
+      try{
+         removeLocked(storeID);
+         StoreLocation s = new StoreLocation(storeID, latitude, longitude, 0);
+         int cx = cell(latitude), cy = cell(longitude);
+         Long key = key(cx, cy);
+         List<StoreLocation> bucket = cells.get(key);
+         if (bucket == null){
+            bucket = new ArrayList<StoreLocation>();
+            cells.put(key, bucket);
+         }
+         bucket.add(s);
+         stores.put(storeID, s);
+
+         minCellX = Math.min(minCellX, cx); maxCellX = Math.max(maxCellX, cx);
+         minCellY = Math.min(minCellY, cy); maxCellY = Math.max(maxCellY, cy);
+      }finally{
+         lock.writeLock().unlock();
+      }
+   }
+
+   /**
+    * Removes a store.
+    *
+    * @param storeID the store's ID
+    * @return true if the store was indexed
+    */
+   public boolean remove(int storeID) {
+      lock.writeLock().lock();
+      try{
+         return removeLocked(storeID);
+      }finally{
+         lock.writeLock().unlock();
+      }
+   }
+
+   /**
+    * Removes every store.
+    */
+   public void clear() {
+      lock.writeLock().lock();
+      try{
+         cells.clear();
+         stores.clear();
+         minCellX = minCellY = Integer.MAX_VALUE;
+         maxCellX = maxCellY = Integer.MIN_VALUE;
+      }finally{
+         lock.writeLock().unlock();
+      }
+   }
+
+   /**
+    * @param storeID the store's ID
+    * @return the store's location, or null if it is not indexed
+    */
+   public StoreLocation get(int storeID) {
+      lock.readLock().lock();
+      try{
+         return stores.get(storeID);
+      }finally{
+         lock.readLock().unlock();
+      }
+   }
+
+   public int size() {
+      lock.readLock().lock();
+      try{
+         return stores.size();
+      }finally{
+         lock.readLock().unlock();
+      }
+   }
+
+   /**
+    * Finds every store strictly closer than <code>radius</code> to a point.
+    *
+    * @param latitude the query latitude
+    * @param longitude the query longitude
+    * @param radius the search radius
+    * @return the stores found, nearest first
+    */
+   public List<StoreLocation> withinRadius(double latitude, double longitude, double radius) {
+      List<StoreLocation> found = new ArrayList<StoreLocation>();
+      lock.readLock().lock();
+      try{
+         int x0 = Math.max(cell(latitude - radius), minCellX), x1 = Math.min(cell(latitude + radius), maxCellX);
+         int y0 = Math.max(cell(longitude - radius), minCellY), y1 = Math.min(cell(longitude + radius), maxCellY);
+         for (int x = x0; x <= x1; x++){
+            for (int y = y0; y <= y1; y++){
+               List<StoreLocation> bucket = cells.get(key(x, y));
+               if (bucket == null){continue;}
+               for (int i = 0, n = bucket.size(); i < n; i++){
+                  StoreLocation s = bucket.get(i);
+                  double d = distance(latitude, longitude, s);
+                  if (d < radius){found.add(new StoreLocation(s.storeID, s.latitude, s.longitude, d));}
+               }
+            }
+         }
+      }finally{
+         lock.readLock().unlock();
+      }
+
+      Collections.sort(found, BY_DISTANCE);
+      return found;
+   }
+
+   /**
+    * Finds the <code>k</code> stores nearest to a point.
+    *
+    * @param latitude the query latitude
+    * @param longitude the query longitude
+    * @param k the number of stores wanted
+    * @return up to k stores, nearest first
+    */
+   public List<StoreLocation> nearest(double latitude, double longitude, int k) {
+      List<StoreLocation> found = new ArrayList<StoreLocation>();
+      if (k <= 0){return found;}
+
+      // max-heap on distance holding the best k seen so far
+      PriorityQueue<StoreLocation> best = new PriorityQueue<StoreLocation>(k, Collections.reverseOrder(BY_DISTANCE));
+      lock.readLock().lock();
+      try{
+         if (stores.isEmpty()){return found;}
+         int cx = cell(latitude), cy = cell(longitude);
+         int maxRing = Math.max(Math.max(Math.abs(cx - minCellX), Math.abs(cx - maxCellX)),
+                                Math.max(Math.abs(cy - minCellY), Math.abs(cy - maxCellY)));
+
+         for (int ring = 0; ring <= maxRing; ring++){
+            for (int x = cx - ring; x <= cx + ring; x++){
+               for (int y = cy - ring; y <= cy + ring; y++){
+                  // only the border of the square is new in this ring
+                  if (ring > 0 && x != cx - ring && x != cx + ring && y != cy - ring && y != cy + ring){continue;}
+                  List<StoreLocation> bucket = cells.get(key(x, y));
+                  if (bucket == null){continue;}
+                  for (StoreLocation s : bucket){
+                     StoreLocation candidate = new StoreLocation(s.storeID, s.latitude, s.longitude,
+                                                                 distance(latitude, longitude, s));
+                     if (best.size() < k){best.add(candidate);}
+                     else if (BY_DISTANCE.compare(candidate, best.peek()) < 0){
+                        best.poll();
+                        best.add(candidate);
+                     }
+                  }
+               }
+            }
+            // every cell of the next ring is at least ring * cellSize away
+            if (best.size() == k && best.peek().distance <= ring * cellSize){break;}
+         }
+      }finally{
+         lock.readLock().unlock();
+      }
+      found.addAll(best);
+      Collections.sort(found, BY_DISTANCE);
+      return found;
+   }
+
+   private boolean removeLocked(int storeID){
+      StoreLocation old = stores.remove(storeID);
+      if (old == null){return false;}
+      Long key = key(cell(old.latitude), cell(old.longitude));
+      List<StoreLocation> bucket = cells.get(key);
+      bucket.remove(old);
+      if (bucket.isEmpty()){cells.remove(key);}
+      return true;
+   }
+
+   private int cell(double coordinate){
+      return (int) Math.floor(coordinate / cellSize);
+   }
+
+   private static Long key(int x, int y){
+      return Long.valueOf(((long) x << 32) | (y & 0xffffffffL));
+   }
+
+   private static double distance(double latitude, double longitude, StoreLocation s){
+      double dLat = latitude - s.latitude;
+      double dLong = longitude - s.longitude;
+      return Math.sqrt(dLat * dLat + dLong * dLong);
+   }
+
+}//end StoreIndex
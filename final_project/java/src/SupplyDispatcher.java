@@ -0,0 +1,568 @@
+/*
+ * Batched supply request dispatcher for the Amazon store client
+ * ================================================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * Queues product supply requests and places them in batches, so a burst of
+ * requests costs one statement per batch rather than one per request.
+ *
+ * Requests for the same product of the same store from the same warehouse
+ * that arrive within the window are coalesced into one row with the units
+ * added up.  A batch is written once its oldest request has waited the
+ * window, or as soon as it holds the batch size of rows, as a single INSERT
+ * of every row; supply_request_trigger then adds each product's units to its
+ * stock once for the whole batch.
+ *
+ * A request is acknowledged, by completing the future {@link #submit} returns
+ * with the number of the row it went into, only once that row is committed.
+ * Until then it is kept in a journal file, so requests accepted by a client
+ * that dies are placed by the next one to start.  Request lines are written
+ * but not forced to disk, so they survive the process dying, not the
+ * machine crashing; a request lost that way was never acknowledged.  Each row carries the ID of
+ * its batch, which tells on recovery whether a batch in flight was committed,
+ * so no request is placed twice.
+ *
+ * The journal is one of supply-0.journal, supply-1.journal, ... in the
+ * journal directory, locked by the process using it.
+ */
+public class SupplyDispatcher {
+
+   private static final String INSERT =
+      "INSERT INTO ProductSupplyRequests (storeID, managerID, warehouseID, productName, unitsRequested, batchID) " +
+      "SELECT R.storeID, R.managerID, R.warehouseID, R.productName, R.units, ? " +
+      "FROM unnest(CAST(? AS integer[]), CAST(? AS integer[]), CAST(? AS integer[]), CAST(? AS text[]), CAST(? AS integer[])) " +
+      "AS R (storeID, managerID, warehouseID, productName, units) " +
+      "RETURNING requestNumber, storeID, managerID, warehouseID, productName";
+
+   private static final String PLACED =
+      "SELECT requestNumber, storeID, managerID, warehouseID, productName FROM ProductSupplyRequests WHERE batchID = ?";
+
+   // journals tried before giving up; one per process using the directory
+   private static final int JOURNALS = 64;
+   // the journal is emptied once everything in it is settled and it has
+   // grown past this
+   private static final long JOURNAL_COMPACT_BYTES = 1 << 20;
+
+   /*
+    * One request as submitted.  Requests recovered from the journal have no
+    * one waiting on them.
+    */
+   private static class Request {
+      final long seq;
+      final int storeID;
+      final int managerID;
+      final int warehouseID;
+      final String productName;
+      final int units;
+      final CompletableFuture<Integer> ack;
+
+      Request(long seq, int storeID, int managerID, int warehouseID, String productName, int units,
+              CompletableFuture<Integer> ack){
+         this.seq = seq;
+         this.storeID = storeID;
+         this.managerID = managerID;
+         this.warehouseID = warehouseID;
+         this.productName = productName;
+         this.units = units;
+         this.ack = ack;
+      }
+   }//end Request
+
+   /*
+    * The requests coalesced into one row.
+    */
+   private static class Group {
+      final String key;
+      final Request first;
+      final long queuedAt;
+      final List<Request> requests = new ArrayList<Request>();
+      long units = 0;
+
+      Group(String key, Request first, long queuedAt){
+         this.key = key;
+         this.first = first;
+         this.queuedAt = queuedAt;
+      }
+   }//end Group
+
+   private final Amazon esql;
+   private final long windowMillis;
+   private final int batchSize;
+   private final Journal journal;
+   private final Thread writer;
+
+   // guarded by this
+   private final LinkedHashMap<String, Group> pending = new LinkedHashMap<String, Group>();
+   private int inFlight = 0;
+   // batches whose outcome could not be looked up; they keep the journal
+   private int unsettled = 0;
+   private int flushesWaiting = 0;
+   private boolean closed = false;
+   private long nextSeq = 1;
+
+   private long submitted = 0;
+   private long coalesced = 0;
+   private long batches = 0;
+   private long rows = 0;
+   private long rejected = 0;
+   private long recovered = 0;
+
+   /**
+    * Opens a journal in the directory, queues the requests it holds that
+    * were never placed, and starts the writer.
+    *
+    * @param esql the database requests are placed in
+    * @param directory where the journal is kept
+    * @param windowMillis how long a request may wait for others to join it
+    * @param batchSize the most rows written in one statement
+    * @throws java.io.IOException when no journal can be opened or read
+    * @throws java.sql.SQLException when the batches in flight when the
+    *         journal was last used cannot be looked up
+    */
+   public SupplyDispatcher(Amazon esql, File directory, long windowMillis, int batchSize) throws IOException, SQLException {
+      this.esql = esql;
+      this.windowMillis = Math.max(0, windowMillis);
+      this.batchSize = Math.max(1, batchSize);
+      this.journal = Journal.open(directory);
+      try{
+         recover();
+      }catch (IOException e){
+         journal.close();
+         throw e;
+      }catch (SQLException e){
+         journal.close();
+         throw e;
+      }
+
+      this.writer = new Thread(new Runnable(){
+         public void run(){write();}
+      }, "amazon-supply-dispatcher");
+      this.writer.setDaemon(true);
+      this.writer.start();
+   }//end SupplyDispatcher
+
+   /**
+    * Queues a supply request.
+    *
+    * @param storeID the store to supply
+    * @param managerID the store's manager, who asks
+    * @param warehouseID the warehouse to supply it from
+    * @param productName the product
+    * @param units the units requested
+    * @return completes with the number of the request's row once it is
+    *         committed, or with the reason it could not be placed
+    * @throws java.io.IOException when the request cannot be journaled
+    */
+   public Future<Integer> submit(int storeID, int managerID, int warehouseID, String productName, int units) throws IOException {
+      CompletableFuture<Integer> ack = new CompletableFuture<Integer>();
+      synchronized (this){
+         if (closed){throw new IllegalStateException("the supply dispatcher is closed");}
+         Request request = new Request(nextSeq++, storeID, managerID, warehouseID, trimEnd(productName), units, ack);
+         journal.append("request\t" + request.seq + "\t" + storeID + "\t" + managerID + "\t" + warehouseID + "\t" +
+                        units + "\t" + request.productName, false);
+         submitted++;
+         enqueue(request);
+      }
+      return ack;
+   }//end submit
+
+   /**
+    * Places every request queued so far, without waiting for the window, and
+    * waits until they are committed or rejected.
+    *
+    * @throws InterruptedException when interrupted while waiting
+    */
+   public synchronized void flush() throws InterruptedException {
+      flushesWaiting++;
+      notifyAll();
+      try{
+         while (!pending.isEmpty() || inFlight > 0){wait();}
+      }finally{
+         flushesWaiting--;
+      }
+   }
+
+   /**
+    * Places the requests still queued, stops the writer and releases the
+    * journal.
+    */
+   public void close() {
+      synchronized (this){
+         if (closed){return;}
+         closed = true;
+         notifyAll();
+      }
+      try{
+         writer.join();
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+      }
+      journal.close();
+   }
+
+   // guarded by this
+   private void enqueue(Request request){
+      String key = key(request.storeID, request.managerID, request.warehouseID, request.productName);
+      Group group = pending.get(key);
+      if (group == null){
+         group = new Group(key, request, System.currentTimeMillis());
+         pending.put(key, group);
+      }
+      else {coalesced++;}
+      group.requests.add(request);
+      group.units += request.units;
+      if (pending.size() == 1 || pending.size() >= batchSize){notifyAll();}
+   }
+
+   /*
+    * The writer: takes a batch once the oldest queued row has waited the
+    * window, the batch is full, or someone is flushing, and places it.
+    */
+   private void write(){
+      while (true){
+         List<Group> batch = new ArrayList<Group>();
+         synchronized (this){
+            try{
+               while (true){
+                  if (pending.isEmpty()){
+                     if (closed){return;}
+                     wait();
+                     continue;
+                  }
+                  long due = pending.values().iterator().next().queuedAt + windowMillis - System.currentTimeMillis();
+                  if (due <= 0 || pending.size() >= batchSize || flushesWaiting > 0 || closed){break;}
+                  wait(due);
+               }
+            }catch (InterruptedException e){
+               return;
+            }
+            Iterator<Group> groups = pending.values().iterator();
+            while (groups.hasNext() && batch.size() < batchSize){
+               batch.add(groups.next());
+               groups.remove();
+            }
+            inFlight += batch.size();
+         }
+
+         try{
+            place(batch);
+         }catch (RuntimeException e){
+            reject(batch, new SQLException(e.toString()));
+         }finally{
+            synchronized (this){
+               inFlight -= batch.size();
+               // a batch left unsettled must stay for the next start to look up
+               if (pending.isEmpty() && inFlight == 0 && unsettled == 0){
+                  try{
+                     if (journal.size() > JOURNAL_COMPACT_BYTES){journal.truncate();}
+                  }catch (IOException e){
+                     System.err.println("Unable to compact the supply journal: " + e.getMessage());
+                  }
+               }
+               notifyAll();
+            }
+         }
+      }
+   }//end write
+
+   /*
+    * Places a batch in one statement.  When the statement fails the batch
+    * is split, so one bad row (e.g. for a store deleted meanwhile) does not
+    * reject the rest.
+    */
+   private void place(List<Group> batch){
+      String batchID = UUID.randomUUID().toString();
+      Map<String, Integer> placed;
+      try{
+         StringBuilder seqs = new StringBuilder();
+         for (Group group : batch){
+            for (Request request : group.requests){seqs.append(seqs.length() == 0 ? "" : ",").append(request.seq);}
+         }
+         // forced to disk, so recovery knows the batch may be in the database
+         journal.append("batch\t" + batchID + "\t" + seqs, true);
+      }catch (IOException e){
+         reject(batch, new SQLException("Unable to journal the supply requests: " + e.getMessage()));
+         return;
+      }
+
+      try{
+         placed = insert(batchID, batch);
+      }catch (SQLException e){
+         // the statement may have committed before the error reached us
+         try{
+            placed = placedBy(batchID);
+         }catch (SQLException unknown){
+            // left unresolved in the journal, for the next start to settle
+            synchronized (this){unsettled++;}
+            for (Group group : batch){
+               for (Request request : group.requests){
+                  if (request.ack != null){
+                     request.ack.completeExceptionally(new SQLException(
+                        "Supply request not confirmed; it will be placed when the client next starts: " + e.getMessage()));
+                  }
+               }
+            }
+            return;
+         }
+         if (placed.isEmpty()){
+            journalQuietly("failed\t" + batchID);
+            if (batch.size() > 1){
+               for (Group group : batch){place(Collections.singletonList(group));}
+            }
+            else {reject(batch, e);}
+            return;
+         }
+      }
+
+      journalQuietly("placed\t" + batchID);
+      synchronized (this){
+         batches++;
+         rows += batch.size();
+      }
+      for (Group group : batch){
+         Integer requestNumber = placed.get(group.key);
+         for (Request request : group.requests){
+            if (request.ack != null){request.ack.complete(requestNumber);}
+         }
+      }
+   }//end place
+
+   private Map<String, Integer> insert(String batchID, List<Group> batch) throws SQLException {
+      StringBuilder stores = new StringBuilder("{");
+      StringBuilder managers = new StringBuilder("{");
+      StringBuilder warehouses = new StringBuilder("{");
+      StringBuilder names = new StringBuilder("{");
+      StringBuilder units = new StringBuilder("{");
+      for (Group group : batch){
+         String separator = stores.length() == 1 ? "" : ",";
+         stores.append(separator).append(group.first.storeID);
+         managers.append(separator).append(group.first.managerID);
+         warehouses.append(separator).append(group.first.warehouseID);
+         names.append(separator).append('"').append(group.first.productName.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+         units.append(separator).append(group.units);
+      }
+
+      Connection conn = esql.getConnection();
+      try{
+         ResultSet rs = esql.prepare(conn, INSERT, batchID, stores.append('}').toString(), managers.append('}').toString(),
+                                     warehouses.append('}').toString(), names.append('}').toString(),
+                                     units.append('}').toString()).executeQuery();
+         return placed(rs);
+      }finally{
+         esql.releaseConnection(conn);
+      }
+   }
+
+   // the rows a batch placed, by group key; none when it was rolled back
+   private Map<String, Integer> placedBy(String batchID) throws SQLException {
+      Connection conn = esql.getConnection();
+      try{
+         return placed(esql.prepare(conn, PLACED, batchID).executeQuery());
+      }finally{
+         esql.releaseConnection(conn);
+      }
+   }
+
+   private static Map<String, Integer> placed(ResultSet rs) throws SQLException {
+      Map<String, Integer> placed = new HashMap<String, Integer>();
+      while (rs.next()){
+         placed.put(key(rs.getInt(2), rs.getInt(3), rs.getInt(4), trimEnd(rs.getString(5))), Integer.valueOf(rs.getInt(1)));
+      }
+      rs.close();
+      return placed;
+   }
+
+   private void reject(List<Group> batch, SQLException e){
+      for (Group group : batch){
+         for (Request request : group.requests){
+            journalQuietly("rejected\t" + request.seq);
+            if (request.ack != null){request.ack.completeExceptionally(e);}
+         }
+         synchronized (this){rejected += group.requests.size();}
+      }
+   }
+
+   private void journalQuietly(String line){
+      try{
+         journal.append(line, false);
+      }catch (IOException e){
+         System.err.println("Unable to write the supply journal: " + e.getMessage());
+      }
+   }
+
+   /*
+    * Queues the journaled requests that were neither placed nor rejected.
+    * A batch with no outcome recorded was in flight: it is looked up by its
+    * ID, and its requests queued again if it never committed.
+    */
+   private void recover() throws IOException, SQLException {
+      Map<Long, Request> requests = new LinkedHashMap<Long, Request>();
+      Map<String, List<Long>> inBatch = new LinkedHashMap<String, List<Long>>();
+      Set<String> settled = new HashSet<String>();
+      Set<Long> done = new HashSet<Long>();
+      Set<String> placedBatches = new HashSet<String>();
+
+      for (String line : journal.lines()){
+         String[] fields = line.split("\t", 7);
+         try{
+            if (fields[0].equals("request") && fields.length == 7){
+               long seq = Long.parseLong(fields[1]);
+               requests.put(Long.valueOf(seq), new Request(seq, Integer.parseInt(fields[2]), Integer.parseInt(fields[3]),
+                            Integer.parseInt(fields[4]), fields[6], Integer.parseInt(fields[5]), null));
+               nextSeq = Math.max(nextSeq, seq + 1);
+            }
+            else if (fields[0].equals("batch") && fields.length == 3){
+               List<Long> seqs = new ArrayList<Long>();
+               for (String seq : fields[2].split(",")){seqs.add(Long.valueOf(seq));}
+               inBatch.put(fields[1], seqs);
+            }
+            else if (fields[0].equals("placed") && fields.length == 2){
+               settled.add(fields[1]);
+               placedBatches.add(fields[1]);
+            }
+            else if (fields[0].equals("failed") && fields.length == 2){settled.add(fields[1]);}
+            else if (fields[0].equals("rejected") && fields.length == 2){done.add(Long.valueOf(fields[1]));}
+         }catch (NumberFormatException e){
+            // a line cut short by a crash
+         }
+      }
+
+      for (Map.Entry<String, List<Long>> batch : inBatch.entrySet()){
+         if (!settled.contains(batch.getKey())){
+            boolean committed = !placedBy(batch.getKey()).isEmpty();
+            journal.append((committed ? "placed\t" : "failed\t") + batch.getKey(), false);
+            if (committed){placedBatches.add(batch.getKey());}
+         }
+         if (placedBatches.contains(batch.getKey())){done.addAll(batch.getValue());}
+      }
+
+      synchronized (this){
+         for (Request request : requests.values()){
+            if (done.contains(Long.valueOf(request.seq))){continue;}
+            recovered++;
+            enqueue(request);
+         }
+         if (pending.isEmpty()){journal.truncate();}
+      }
+   }//end recover
+
+   private static String key(int storeID, int managerID, int warehouseID, String productName){
+      return storeID + "\t" + managerID + "\t" + warehouseID + "\t" + productName;
+   }
+
+   // char(n) values come back padded
+   private static String trimEnd(String value){
+      int end = value.length();
+      while (end > 0 && value.charAt(end - 1) == ' '){end--;}
+      return value.substring(0, end);
+   }
+
+   public synchronized int getPending(){return pending.size() + inFlight;}
+
+   public synchronized String toString() {
+      return "supplyDispatcher: submitted=" + submitted + " coalesced=" + coalesced + " batches=" + batches +
+             " rows=" + rows + " rejected=" + rejected + " recovered=" + recovered + " pending=" + (pending.size() + inFlight);
+   }
+
+   /*
+    * An append-only file of lines, locked for the life of the dispatcher.
+    */
+   private static class Journal {
+      private final RandomAccessFile file;
+      private final FileChannel channel;
+      private final FileLock lock;
+
+      private Journal(RandomAccessFile file, FileLock lock){
+         this.file = file;
+         this.channel = file.getChannel();
+         this.lock = lock;
+      }
+
+      // the first journal in the directory no other process holds
+      static Journal open(File directory) throws IOException {
+         if (!directory.isDirectory() && !directory.mkdirs()){throw new IOException("Unable to create " + directory);}
+         for (int i = 0; i < JOURNALS; i++){
+            RandomAccessFile file = new RandomAccessFile(new File(directory, "supply-" + i + ".journal"), "rw");
+            FileLock lock = null;
+            try{
+               lock = file.getChannel().tryLock();
+            }catch (OverlappingFileLockException e){
+               // held by another dispatcher in this JVM
+            }
+            if (lock != null){return new Journal(file, lock);}
+            file.close();
+         }
+         throw new IOException("Every supply journal in " + directory + " is in use");
+      }
+
+      synchronized List<String> lines() throws IOException {
+         ByteBuffer bytes = ByteBuffer.allocate((int) channel.size());
+         channel.position(0);
+         while (bytes.hasRemaining() && channel.read(bytes) >= 0){}
+         String text = new String(bytes.array(), 0, bytes.position(), StandardCharsets.UTF_8);
+         List<String> lines = new ArrayList<String>();
+         for (String line : text.split("\n")){
+            if (line.length() > 0){lines.add(line);}
+         }
+         return lines;
+      }
+
+      synchronized void append(String line, boolean force) throws IOException {
+         ByteBuffer bytes = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+         channel.position(channel.size());
+         while (bytes.hasRemaining()){channel.write(bytes);}
+         if (force){channel.force(false);}
+      }
+
+      synchronized long size() throws IOException {
+         return channel.size();
+      }
+
+      synchronized void truncate() throws IOException {
+         channel.truncate(0);
+         channel.force(false);
+      }
+
+      synchronized void close() {
+         try{
+            lock.release();
+            file.close();
+         }catch (IOException e){
+            System.err.println(e.getMessage());
+         }
+      }
+   }//end Journal
+
+}//end SupplyDispatcher
@@ -0,0 +1,223 @@
+/*
+ * Heavy hitter counter for the Amazon store client
+ * ==================================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts occurrences of keys with the Space-Saving algorithm (Metwally,
+ * Agrawal and El Abbadi): at most <code>capacity</code> keys are monitored,
+ * and a new key arriving when the table is full replaces the key with the
+ * lowest count, inheriting that count as its possible overestimate.
+ *
+ * While no more than <code>capacity</code> distinct keys have been seen the
+ * counts are exact.  Beyond that, every key whose true count exceeds
+ * total / capacity is guaranteed to be monitored, and each count is at most
+ * {@link Entry#getError()} above the truth.
+ *
+ * The counters sit in a min-heap indexed by key, so an update is
+ * O(log capacity).  Instances are synchronized.
+ *
+ * @param <K> the key type
+ */
+public class TopK<K> {
+
+   /**
+    * A monitored key with its estimated count.
+    */
+   public static class Entry<K> {
+      private final K key;
+      private final long count;
+      private final long error;
+
+      Entry(K key, long count, long error){
+         this.key = key;
+         this.count = count;
+         this.error = error;
+      }
+
+      public K getKey(){return key;}
+      /** @return the estimated count, never below the true count */
+      public long getCount(){return count;}
+      /** @return how far the count may be above the true count */
+      public long getError(){return error;}
+   }//end Entry
+
+   private final int capacity;
+   private final Map<K, Integer> positions;
+   private final Object[] keys;
+   private final long[] counts;
+   private final long[] errors;
+   private int size = 0;
+   private long total = 0;
+
+   /**
+    * @param capacity the number of keys monitored
+    */
+   public TopK(int capacity) {
+      if (capacity <= 0){throw new IllegalArgumentException("capacity must be positive");}
+      this.capacity = capacity;
+      this.positions = new HashMap<K, Integer>(Math.min(capacity, 1024) * 4 / 3 + 1);
+      this.keys = new Object[capacity];
+      this.counts = new long[capacity];
+      this.errors = new long[capacity];
+   }
+
+   /**
+    * Counts a key <code>n</code> more times.
+    *
+    * @param key the key
+    * @param n the number of occurrences, positive
+    */
+   public synchronized void add(K key, long n) {
+      if (n <= 0){return;}
+      total += n;
+      Integer at = positions.get(key);
+      if (at != null){
+         counts[at.intValue()] += n;
+         siftDown(at.intValue());
+         return;
+      }
+      if (size < capacity){
+         keys[size] = key;
+         counts[size] = n;
+         errors[size] = 0;
+         positions.put(key, Integer.valueOf(size));
+         siftUp(size++);
+         return;
+      }
+      // replace the minimum, which is at the root
+      positions.remove(keys[0]);
+      long floor = counts[0];
+      keys[0] = key;
+      counts[0] = floor + n;
+      errors[0] = floor;
+      positions.put(key, Integer.valueOf(0));
+      siftDown(0);
+   }
+
+   /**
+    * Counts a key <code>n</code> fewer times, e.g. after its orders were
+    * deleted.  Has no effect on a key that is not monitored.
+    *
+    * @param key the key
+    * @param n the number of occurrences removed, positive
+    */
+   public synchronized void subtract(K key, long n) {
+      Integer at = positions.get(key);
+      if (at == null || n <= 0){return;}
+      int i = at.intValue();
+      long removed = Math.min(n, counts[i]);
+      counts[i] -= removed;
+      errors[i] = Math.min(errors[i], counts[i]);
+      total -= removed;
+      siftUp(i);
+   }
+
+   /**
+    * Stops counting a key altogether.
+    *
+    * @param key the key
+    */
+   public synchronized void remove(K key) {
+      Integer at = positions.remove(key);
+      if (at == null){return;}
+      int i = at.intValue();
+      total -= counts[i] - errors[i];
+      size--;
+      if (i == size){
+         keys[size] = null;
+         return;
+      }
+      move(size, i);
+      keys[size] = null;
+      siftDown(i);
+      siftUp(i);
+   }
+
+   /**
+    * @param k the number of keys wanted
+    * @return up to k keys with the highest counts, highest first
+    */
+   @SuppressWarnings("unchecked")
+   public synchronized List<Entry<K>> top(int k) {
+      Integer[] order = new Integer[size];
+      for (int i = 0; i < size; i++){order[i] = Integer.valueOf(i);}
+      Arrays.sort(order, new Comparator<Integer>(){
+         public int compare(Integer a, Integer b){
+            return Long.compare(counts[b.intValue()], counts[a.intValue()]);
+         }
+      });
+      List<Entry<K>> found = new ArrayList<Entry<K>>(Math.min(k, size));
+      for (int i = 0; i < order.length && i < k; i++){
+         int at = order[i].intValue();
+         found.add(new Entry<K>((K) keys[at], counts[at], errors[at]));
+      }
+      return found;
+   }
+
+   /**
+    * @return true while every count is exact, i.e. no key was ever evicted
+    */
+   public synchronized boolean isExact() {
+      for (int i = 0; i < size; i++){
+         if (errors[i] != 0){return false;}
+      }
+      return true;
+   }
+
+   public synchronized int size(){return size;}
+   public synchronized long getTotal(){return total;}
+   public int getCapacity(){return capacity;}
+
+   private void siftUp(int i){
+      while (i > 0){
+         int parent = (i - 1) / 2;
+         if (counts[parent] <= counts[i]){return;}
+         swap(i, parent);
+         i = parent;
+      }
+   }
+
+   private void siftDown(int i){
+      while (true){
+         int child = 2 * i + 1;
+         if (child >= size){return;}
+         if (child + 1 < size && counts[child + 1] < counts[child]){child++;}
+         if (counts[i] <= counts[child]){return;}
+         swap(i, child);
+         i = child;
+      }
+   }
+
+   private void swap(int a, int b){
+      Object key = keys[a]; long count = counts[a]; long error = errors[a];
+      move(b, a);
+      keys[b] = key; counts[b] = count; errors[b] = error;
+      positions.put(keyAt(b), Integer.valueOf(b));
+   }
+
+   private void move(int from, int to){
+      keys[to] = keys[from];
+      counts[to] = counts[from];
+      errors[to] = errors[from];
+      positions.put(keyAt(to), Integer.valueOf(to));
+   }
+
+   @SuppressWarnings("unchecked")
+   private K keyAt(int i){return (K) keys[i];}
+
+}//end TopK
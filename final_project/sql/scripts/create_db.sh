@@ -2,7 +2,9 @@
 DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
 #cs166_createdb $USER"_project_phase_3_DB"
 cs166_psql -p $PGPORT $USER"_project_phase_3_DB" < $DIR/../src/create_tables.sql
+cs166_psql -p $PGPORT $USER"_project_phase_3_DB" < $DIR/../src/partitions.sql
+# load_data.sql reads the files relative to the data directory
+(cd $DIR/../../data && cs166_psql -p $PGPORT $USER"_project_phase_3_DB" < $DIR/../src/load_data.sql)
+# indexes are built once over the loaded rows, not maintained row by row
 cs166_psql -p $PGPORT $USER"_project_phase_3_DB" < $DIR/../src/create_indexes.sql
-cs166_psql -p $PGPORT $USER"_project_phase_3_DB" < $DIR/../src/load_data.sql
 cs166_psql -p $PGPORT $USER"_project_phase_3_DB" < $DIR/../src/triggers.sql
-
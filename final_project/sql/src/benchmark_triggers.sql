@@ -0,0 +1,62 @@
+-- stock trigger benchmark
+-- Times a 100k order INSERT with the statement level place_order_trigger
+-- installed by triggers.sql, then with the row level trigger it replaced,
+-- as the baseline triggers.sql had it.  The StoreSales and CustomerSpend
+-- triggers on Orders are dropped for the run, so only the stock update is
+-- timed.  Run it against a loaded database; everything is rolled back at
+-- the end.
+\timing on
+
+BEGIN;
+
+-- enough stock that neither trigger rejects anything
+UPDATE Product SET numberOfUnits = numberOfUnits + 1000000;
+
+CREATE TEMP TABLE bench_products ON COMMIT DROP AS
+SELECT row_number() OVER (ORDER BY storeID, productName) - 1 AS i, storeID, productName FROM Product;
+CREATE TEMP TABLE bench_customers ON COMMIT DROP AS
+SELECT row_number() OVER (ORDER BY userID) - 1 AS i, userID FROM Users;
+
+-- 100k orders spread round robin over every product and customer
+CREATE TEMP TABLE bench_orders ON COMMIT DROP AS
+SELECT C.userID AS customerID, P.storeID, P.productName, 1 + g % 5 AS unitsOrdered
+FROM generate_series(0, 99999) g
+JOIN bench_products P ON P.i = g % (SELECT COUNT(*) FROM bench_products)
+JOIN bench_customers C ON C.i = g % (SELECT COUNT(*) FROM bench_customers);
+
+-- the summaries' triggers are not part of the comparison
+DROP TRIGGER IF EXISTS store_sales_orders_insert ON Orders;
+DROP TRIGGER IF EXISTS customer_spend_orders_insert ON Orders;
+
+
+-- 1. statement level trigger
+SAVEPOINT statement_level;
+
+INSERT INTO Orders (customerID, storeID, productName, unitsOrdered, orderTime)
+SELECT customerID, storeID, productName, unitsOrdered, CURRENT_TIMESTAMP FROM bench_orders;
+
+ROLLBACK TO SAVEPOINT statement_level;
+
+
+-- 2. row level trigger, as it was before: an unconditional decrement
+CREATE FUNCTION pg_temp.row_level_place_order()
+	RETURNS "trigger" AS
+$BODY$
+BEGIN
+	UPDATE Product
+	SET numberOfUnits = numberOfUnits - NEW.unitsOrdered
+	WHERE Product.productName = NEW.productName AND Product.storeID = NEW.storeID;
+	RETURN NEW;
+END;
+$BODY$
+LANGUAGE plpgsql VOLATILE;
+
+DROP TRIGGER place_order_trigger ON Orders;
+CREATE TRIGGER place_order_trigger AFTER INSERT
+ON Orders FOR EACH ROW
+EXECUTE PROCEDURE pg_temp.row_level_place_order();
+
+INSERT INTO Orders (customerID, storeID, productName, unitsOrdered, orderTime)
+SELECT customerID, storeID, productName, unitsOrdered, CURRENT_TIMESTAMP FROM bench_orders;
+
+ROLLBACK;
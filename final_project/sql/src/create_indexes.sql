@@ -38,3 +38,40 @@ CREATE INDEX product_store_id_index
 ON Product USING BTREE (storeID);
 
 
+
+-- for logging in by user name
+DROP INDEX IF EXISTS user_name_index;
+CREATE INDEX user_name_index
+ON Users USING BTREE (name);
+
+-- for a manager's stores
+DROP INDEX IF EXISTS store_manager_id_index;
+CREATE INDEX store_manager_id_index
+ON Store USING BTREE (managerID);
+
+-- for a store's top spenders
+DROP INDEX IF EXISTS customer_spend_total_index;
+CREATE INDEX customer_spend_total_index
+ON CustomerSpend USING BTREE (storeID, totalSpent DESC);
+
+-- for paging through products by price or stock; each ends in the primary
+-- key, as the pages are ordered
+DROP INDEX IF EXISTS product_price_page_index;
+CREATE INDEX product_price_page_index
+ON Product USING BTREE (pricePerUnit, storeID, productName);
+
+DROP INDEX IF EXISTS product_units_page_index;
+CREATE INDEX product_units_page_index
+ON Product USING BTREE (numberOfUnits, storeID, productName);
+
+-- for a customer's recent orders and product tally, newest first, and for
+-- deleting a customer's orders with their account
+DROP INDEX IF EXISTS orders_customer_time_index;
+CREATE INDEX orders_customer_time_index
+ON Orders USING BTREE (customerID, orderTime DESC);
+
+-- for a store's orders, bounded in time or not, and for deleting them with
+-- the store; on Orders, every index is built on each monthly partition
+DROP INDEX IF EXISTS orders_store_time_index;
+CREATE INDEX orders_store_time_index
+ON Orders USING BTREE (storeID, orderTime);
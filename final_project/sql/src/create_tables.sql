@@ -5,6 +5,9 @@ DROP TABLE IF EXISTS Warehouse CASCADE;
 DROP TABLE IF EXISTS Orders CASCADE;
 DROP TABLE IF EXISTS ProductSupplyRequests CASCADE;
 DROP TABLE IF EXISTS ProductUpdates CASCADE;
+DROP TABLE IF EXISTS StoreSales CASCADE;
+DROP TABLE IF EXISTS CustomerSpend CASCADE;
+DROP TABLE IF EXISTS OrderArchiveLog CASCADE;
 
 CREATE TABLE Users ( userID serial,
                      name char(50) NOT NULL,
@@ -31,6 +34,7 @@ CREATE TABLE Product ( storeID integer NOT NULL,
                        numberOfUnits integer NOT NULL,
                        pricePerUnit float NOT NULL,
                        PRIMARY KEY(storeID, productName), 
+                       CONSTRAINT product_units_nonnegative CHECK (numberOfUnits >= 0),
                        FOREIGN KEY(storeID) REFERENCES Store(storeID)
 		               ON DELETE CASCADE
 );
@@ -41,6 +45,9 @@ CREATE TABLE Warehouse ( WarehouseID integer,
                          longitude decimal(9,6)  NOT NULL,
                          PRIMARY KEY(WarehouseID));
 
+-- partitioned by the month of orderTime (see partitions.sql), so a report
+-- bounded in time reads only the months it covers and old months can be
+-- archived; the primary key must hold the partition key
 CREATE TABLE Orders ( 
 					 orderNumber serial NOT NULL,       
 					 customerID integer NOT NULL,
@@ -48,10 +55,14 @@ CREATE TABLE Orders (
                      productName char(30) NOT NULL, 
                      unitsOrdered integer NOT NULL, 
                      orderTime timestamp NOT NULL,
-                     PRIMARY KEY(orderNumber),
+                     price float,    -- total charged; older orders are priced at load time
+                     PRIMARY KEY(orderNumber, orderTime),
                      FOREIGN KEY(customerID) REFERENCES Users(userID),
                      FOREIGN KEY(storeID, productName) REFERENCES Product(storeID, productName)
-);
+) PARTITION BY RANGE (orderTime);
+
+-- orders of a month with no partition of its own yet
+CREATE TABLE Orders_default PARTITION OF Orders DEFAULT;
 
 CREATE TABLE ProductSupplyRequests (  
 							   requestNumber serial NOT NULL,
@@ -60,6 +71,7 @@ CREATE TABLE ProductSupplyRequests (
                                storeID integer NOT NULL,
                                productName char(30) NOT NULL, 
 							   unitsRequested integer NOT NULL,
+                               batchID char(36),    --the client batch that placed it; see SupplyDispatcher
                                PRIMARY KEY(requestNumber),
 							   FOREIGN KEY(managerID) REFERENCES Users(userID), 
                                FOREIGN KEY(warehouseID) REFERENCES Warehouse(warehouseID),
@@ -76,3 +88,37 @@ CREATE TABLE ProductUpdates (
                         	FOREIGN KEY(managerID) REFERENCES Users(userID),
                         	FOREIGN KEY(storeID, productName) REFERENCES Product(storeID, productName)
 );
+
+-- per store totals for the manager dashboard, kept current by the triggers
+-- in triggers.sql
+CREATE TABLE StoreSales ( storeID integer NOT NULL,
+                          numberOfProducts integer NOT NULL DEFAULT 0,
+                          numberOfOrders bigint NOT NULL DEFAULT 0,
+                          orderIncome float NOT NULL DEFAULT 0,
+                          PRIMARY KEY(storeID),
+                          FOREIGN KEY(storeID) REFERENCES Store(storeID)
+                          ON DELETE CASCADE
+);
+
+-- what each customer has spent at each store, at the prices charged; kept
+-- current by the triggers in triggers.sql
+CREATE TABLE CustomerSpend ( storeID integer NOT NULL,
+                             customerID integer NOT NULL,
+                             numberOfOrders bigint NOT NULL DEFAULT 0,
+                             totalSpent float NOT NULL DEFAULT 0,
+                             PRIMARY KEY(storeID, customerID),
+                             FOREIGN KEY(storeID) REFERENCES Store(storeID)
+                             ON DELETE CASCADE,
+                             FOREIGN KEY(customerID) REFERENCES Users(userID)
+                             ON DELETE CASCADE
+);
+
+-- every month of Orders archived or restored by java/src/OrderArchiver.java;
+-- clients watch it to recount what they hold in memory about orders
+CREATE TABLE OrderArchiveLog ( logID serial,
+                               month char(7) NOT NULL,    -- YYYY-MM
+                               action char(10) NOT NULL,  -- 'archive' or 'restore'
+                               orders bigint NOT NULL,
+                               loggedAt timestamp NOT NULL DEFAULT now(),
+                               PRIMARY KEY(logID)
+);
@@ -1,32 +1,29 @@
-COPY Users
-FROM '/home/csmajs/spaka002/final_project/data/users.csv'
-WITH DELIMITER ',' CSV HEADER;
-ALTER SEQUENCE users_userID_seq RESTART 101;
-
-COPY Store
-FROM '/home/csmajs/spaka002/final_project/data/stores.csv'
-WITH DELIMITER ',' CSV HEADER;
-
-COPY Product
-FROM '/home/csmajs/spaka002/final_project/data/products.csv'
-WITH DELIMITER ',' CSV HEADER;
-
-COPY Warehouse
-FROM '/home/csmajs/spaka002/final_project/data/warehouse.csv'
-WITH DELIMITER ',' CSV HEADER;
-
-COPY Orders
-FROM '/home/csmajs/spaka002/final_project/data/orders.csv'
-WITH DELIMITER ',' CSV HEADER;
-ALTER SEQUENCE orders_orderNumber_seq RESTART 501;
-
-
-COPY ProductSupplyRequests
-FROM '/home/csmajs/spaka002/final_project/data/productSupplyRequests.csv'
-WITH DELIMITER ',' CSV HEADER;
-ALTER SEQUENCE productsupplyrequests_requestNumber_seq RESTART 11;
-
-COPY ProductUpdates
-FROM '/home/csmajs/spaka002/final_project/data/productUpdates.csv'
-WITH DELIMITER ',' CSV HEADER;
-ALTER SEQUENCE productupdates_updateNumber_seq RESTART 51;
+-- loads data/*.csv through psql's client-side \copy, so the files need not
+-- be readable by the database server; run from the data directory, as
+-- create_db.sh does.  java/scripts/load_data.sh loads the same files in
+-- parallel with BulkLoader, which is much faster for large files.
+
+\copy Users FROM 'users.csv' WITH DELIMITER ',' CSV HEADER
+
+\copy Store FROM 'stores.csv' WITH DELIMITER ',' CSV HEADER
+
+\copy Product FROM 'products.csv' WITH DELIMITER ',' CSV HEADER
+
+\copy Warehouse FROM 'warehouse.csv' WITH DELIMITER ',' CSV HEADER
+
+\copy Orders (orderNumber, customerID, storeID, productName, unitsOrdered, orderTime) FROM 'orders.csv' WITH DELIMITER ',' CSV HEADER
+-- the orders arrived in the default partition; each month gets its own
+SELECT move_default_orders();
+UPDATE Orders SET price = Orders.unitsOrdered * Product.pricePerUnit
+FROM Product
+WHERE Product.storeID = Orders.storeID AND Product.productName = Orders.productName;
+
+\copy ProductSupplyRequests (requestNumber, managerID, warehouseID, storeID, productName, unitsRequested) FROM 'productSupplyRequests.csv' WITH DELIMITER ',' CSV HEADER
+
+\copy ProductUpdates FROM 'productUpdates.csv' WITH DELIMITER ',' CSV HEADER
+
+-- the serial keys continue past the largest key loaded
+SELECT setval(pg_get_serial_sequence('users', 'userid'), COALESCE(MAX(userID), 0) + 1, false) FROM Users;
+SELECT setval(pg_get_serial_sequence('orders', 'ordernumber'), COALESCE(MAX(orderNumber), 0) + 1, false) FROM Orders;
+SELECT setval(pg_get_serial_sequence('productsupplyrequests', 'requestnumber'), COALESCE(MAX(requestNumber), 0) + 1, false) FROM ProductSupplyRequests;
+SELECT setval(pg_get_serial_sequence('productupdates', 'updatenumber'), COALESCE(MAX(updateNumber), 0) + 1, false) FROM ProductUpdates;
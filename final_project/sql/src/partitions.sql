@@ -0,0 +1,81 @@
+-- monthly partitions of Orders
+-- each month's orders are kept in their own partition, orders_YYYY_MM.  The
+-- client creates the partitions of this month and the next ones as it
+-- starts, and the loaders create those of the months they load; orders of
+-- any other month wait in Orders_default until their month is created.
+-- java/src/OrderArchiver.java archives old months and runs the upkeep.
+
+-- creates the partition of the month holding a time, if it has none, and
+-- returns its name
+CREATE OR REPLACE LANGUAGE plpgsql;
+CREATE OR REPLACE FUNCTION create_orders_partition(in_month timestamp)
+	RETURNS text AS
+$BODY$
+DECLARE
+	month_start timestamp := date_trunc('month', in_month);
+	month_end timestamp := date_trunc('month', in_month) + interval '1 month';
+	partition_name text := 'orders_' || to_char(in_month, 'YYYY_MM');
+BEGIN
+	-- one creator at a time, so clients starting together do not race
+	PERFORM pg_advisory_xact_lock(hashtext('orders_partitions'));
+	IF to_regclass(partition_name) IS NOT NULL THEN
+		RETURN partition_name;
+	END IF;
+
+	IF EXISTS (SELECT 1 FROM Orders_default WHERE orderTime >= month_start AND orderTime < month_end) THEN
+		-- the default partition may not keep rows of an attached month, so
+		-- they are moved into the new partition first; no statement runs on
+		-- Orders itself, so the summaries are left as they are
+		EXECUTE format('CREATE TABLE %I (LIKE Orders INCLUDING DEFAULTS INCLUDING CONSTRAINTS)', partition_name);
+		EXECUTE format('INSERT INTO %I SELECT * FROM Orders_default WHERE orderTime >= %L AND orderTime < %L',
+		               partition_name, month_start, month_end);
+		DELETE FROM Orders_default WHERE orderTime >= month_start AND orderTime < month_end;
+		EXECUTE format('ALTER TABLE Orders ATTACH PARTITION %I FOR VALUES FROM (%L) TO (%L)',
+		               partition_name, month_start, month_end);
+	ELSE
+		EXECUTE format('CREATE TABLE %I PARTITION OF Orders FOR VALUES FROM (%L) TO (%L)',
+		               partition_name, month_start, month_end);
+	END IF;
+	RETURN partition_name;
+END;
+$BODY$
+LANGUAGE plpgsql VOLATILE;
+
+-- creates the partitions of every month from one time to another, and
+-- returns how many months that is
+CREATE OR REPLACE LANGUAGE plpgsql;
+CREATE OR REPLACE FUNCTION create_orders_partitions(first_month timestamp, last_month timestamp)
+	RETURNS integer AS
+$BODY$
+DECLARE
+	each_month timestamp := date_trunc('month', first_month);
+	months integer := 0;
+BEGIN
+	WHILE each_month <= last_month LOOP
+		PERFORM create_orders_partition(each_month);
+		each_month := each_month + interval '1 month';
+		months := months + 1;
+	END LOOP;
+	RETURN months;
+END;
+$BODY$
+LANGUAGE plpgsql VOLATILE;
+
+-- gives every month left in the default partition its own partition, and
+-- returns how many months were moved
+CREATE OR REPLACE LANGUAGE plpgsql;
+CREATE OR REPLACE FUNCTION move_default_orders()
+	RETURNS integer AS
+$BODY$
+DECLARE
+	each_month timestamp;
+	months integer := 0;
+BEGIN
+	FOR each_month IN SELECT DISTINCT date_trunc('month', orderTime) FROM Orders_default LOOP
+		PERFORM create_orders_partition(each_month);
+		months := months + 1;
+	END LOOP;
+	RETURN months;
+END;
+$BODY$
+LANGUAGE plpgsql VOLATILE;
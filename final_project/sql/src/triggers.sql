@@ -55,40 +55,278 @@ ON Warehouse FOR EACH ROW
 EXECUTE PROCEDURE delete_warehouse_function();
 
 -- place order trigger
+-- runs once per INSERT statement over all of its new orders, so a bulk
+-- insert updates each product once instead of once per order
 CREATE OR REPLACE LANGUAGE plpgsql;
 CREATE OR REPLACE FUNCTION place_order_trigger_function()
 	RETURNS "trigger" AS
 $BODY$
+DECLARE
+	wanted integer;
+	updated integer;
 BEGIN
+	-- the bulk order importer applies the decrement itself, once per product,
+	-- and orders loaded by the bulk loader were applied long ago
+	IF current_setting('amazon.bulk_import', true) = 'on'
+	OR current_setting('amazon.bulk_load', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+
+	-- lock the products in key order, so concurrent inserts cannot deadlock
+	-- and concurrent orders for the same product queue here
+	PERFORM 1 FROM Product
+	WHERE (Product.storeID, Product.productName) IN (SELECT storeID, productName FROM new_orders)
+	ORDER BY Product.storeID, Product.productName
+	FOR UPDATE;
+
+	-- the decrement is conditional, so an order that would oversell leaves
+	-- its product out of the update
 	UPDATE Product
-	SET numberOfUnits = numberOfUnits - NEW.unitsOrdered
-	WHERE Product.productName = NEW.productName AND Product.storeID = NEW.storeID;
-	RETURN NEW;
+	SET numberOfUnits = numberOfUnits - T.units
+	FROM (SELECT storeID, productName, SUM(unitsOrdered) AS units
+	      FROM new_orders GROUP BY storeID, productName) T
+	WHERE Product.storeID = T.storeID AND Product.productName = T.productName
+	AND Product.numberOfUnits >= T.units;
+	GET DIAGNOSTICS updated = ROW_COUNT;
+
+	SELECT COUNT(*) INTO wanted FROM (SELECT DISTINCT storeID, productName FROM new_orders) T;
+	IF updated < wanted THEN
+		RAISE EXCEPTION 'not enough units for % of the products ordered', wanted - updated
+		USING ERRCODE = 'check_violation';
+	END IF;
+	RETURN NULL;
 END;
 $BODY$
 LANGUAGE plpgsql VOLATILE;
 
-DROP TRIGGER IF EXISTS delete_warehouse on Orders;
+DROP TRIGGER IF EXISTS place_order_trigger on Orders;
 CREATE TRIGGER place_order_trigger AFTER INSERT
-ON Orders FOR EACH ROW
+ON Orders REFERENCING NEW TABLE AS new_orders
+FOR EACH STATEMENT
 EXECUTE PROCEDURE place_order_trigger_function();
 
 
 -- supply request trigger
+-- like the place order trigger, one update per product per statement
 CREATE OR REPLACE LANGUAGE plpgsql;
 CREATE OR REPLACE FUNCTION supply_request_trigger_function()
 	RETURNS "trigger" AS
 $BODY$
 BEGIN
+	-- requests loaded by the bulk loader were delivered long ago
+	IF current_setting('amazon.bulk_load', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+
+	PERFORM 1 FROM Product
+	WHERE (Product.storeID, Product.productName) IN (SELECT storeID, productName FROM new_requests)
+	ORDER BY Product.storeID, Product.productName
+	FOR UPDATE;
+
 	UPDATE Product
-	SET numberOfUnits = numberOfUnits + NEW.unitsRequested
-	WHERE Product.productName = NEW.productName AND Product.storeID = NEW.storeID;
-	RETURN NEW;
+	SET numberOfUnits = numberOfUnits + T.units
+	FROM (SELECT storeID, productName, SUM(unitsRequested) AS units
+	      FROM new_requests GROUP BY storeID, productName) T
+	WHERE Product.storeID = T.storeID AND Product.productName = T.productName;
+	RETURN NULL;
 END;
 $BODY$
 LANGUAGE plpgsql VOLATILE;
 
 DROP TRIGGER IF EXISTS supply_request_trigger on ProductSupplyRequests;
 CREATE TRIGGER supply_request_trigger AFTER INSERT
-ON ProductSupplyRequests FOR EACH ROW
+ON ProductSupplyRequests REFERENCING NEW TABLE AS new_requests
+FOR EACH STATEMENT
 EXECUTE PROCEDURE supply_request_trigger_function();
+
+
+-- store sales summary
+-- StoreSales holds each store's product count, order count and order income;
+-- these statement triggers apply the change made by each statement, so the
+-- manager dashboard reads one row per store however many orders there are
+CREATE OR REPLACE LANGUAGE plpgsql;
+CREATE OR REPLACE FUNCTION store_sales_orders_function()
+	RETURNS "trigger" AS
+$BODY$
+BEGIN
+	-- the bulk loader rebuilds the summary once it is done
+	IF current_setting('amazon.bulk_load', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+
+	IF TG_OP = 'INSERT' THEN
+		INSERT INTO StoreSales (storeID, numberOfOrders, orderIncome)
+		SELECT T.storeID, COUNT(*), SUM(COALESCE(T.price, T.unitsOrdered * Product.pricePerUnit, 0))
+		FROM new_orders T LEFT JOIN Product
+		ON Product.storeID = T.storeID AND Product.productName = T.productName
+		GROUP BY T.storeID
+		ORDER BY T.storeID
+		ON CONFLICT (storeID) DO UPDATE
+		SET numberOfOrders = StoreSales.numberOfOrders + EXCLUDED.numberOfOrders,
+		    orderIncome = StoreSales.orderIncome + EXCLUDED.orderIncome;
+	ELSE
+		UPDATE StoreSales
+		SET numberOfOrders = StoreSales.numberOfOrders - T.orders,
+		    orderIncome = StoreSales.orderIncome - T.income
+		FROM (SELECT O.storeID, COUNT(*) AS orders,
+		             SUM(COALESCE(O.price, O.unitsOrdered * Product.pricePerUnit, 0)) AS income
+		      FROM old_orders O LEFT JOIN Product
+		      ON Product.storeID = O.storeID AND Product.productName = O.productName
+		      GROUP BY O.storeID) T
+		WHERE StoreSales.storeID = T.storeID;
+	END IF;
+	RETURN NULL;
+END;
+$BODY$
+LANGUAGE plpgsql VOLATILE;
+
+DROP TRIGGER IF EXISTS store_sales_orders_insert on Orders;
+CREATE TRIGGER store_sales_orders_insert AFTER INSERT
+ON Orders REFERENCING NEW TABLE AS new_orders
+FOR EACH STATEMENT
+EXECUTE PROCEDURE store_sales_orders_function();
+
+DROP TRIGGER IF EXISTS store_sales_orders_delete on Orders;
+CREATE TRIGGER store_sales_orders_delete AFTER DELETE
+ON Orders REFERENCING OLD TABLE AS old_orders
+FOR EACH STATEMENT
+EXECUTE PROCEDURE store_sales_orders_function();
+
+
+CREATE OR REPLACE LANGUAGE plpgsql;
+CREATE OR REPLACE FUNCTION store_sales_products_function()
+	RETURNS "trigger" AS
+$BODY$
+BEGIN
+	-- the bulk loader rebuilds the summary once it is done
+	IF current_setting('amazon.bulk_load', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+
+	IF TG_OP = 'INSERT' THEN
+		INSERT INTO StoreSales (storeID, numberOfProducts)
+		SELECT storeID, COUNT(*) FROM new_products GROUP BY storeID ORDER BY storeID
+		ON CONFLICT (storeID) DO UPDATE
+		SET numberOfProducts = StoreSales.numberOfProducts + EXCLUDED.numberOfProducts;
+	ELSE
+		UPDATE StoreSales
+		SET numberOfProducts = StoreSales.numberOfProducts - T.products
+		FROM (SELECT storeID, COUNT(*) AS products FROM old_products GROUP BY storeID) T
+		WHERE StoreSales.storeID = T.storeID;
+	END IF;
+	RETURN NULL;
+END;
+$BODY$
+LANGUAGE plpgsql VOLATILE;
+
+DROP TRIGGER IF EXISTS store_sales_products_insert on Product;
+CREATE TRIGGER store_sales_products_insert AFTER INSERT
+ON Product REFERENCING NEW TABLE AS new_products
+FOR EACH STATEMENT
+EXECUTE PROCEDURE store_sales_products_function();
+
+DROP TRIGGER IF EXISTS store_sales_products_delete on Product;
+CREATE TRIGGER store_sales_products_delete AFTER DELETE
+ON Product REFERENCING OLD TABLE AS old_products
+FOR EACH STATEMENT
+EXECUTE PROCEDURE store_sales_products_function();
+
+
+-- rebuilds StoreSales from scratch; run once below for the loaded data, and
+-- again if the summary is ever suspected to have drifted
+CREATE OR REPLACE FUNCTION refresh_store_sales()
+	RETURNS void AS
+$BODY$
+BEGIN
+	LOCK TABLE StoreSales IN EXCLUSIVE MODE;
+	DELETE FROM StoreSales;
+	INSERT INTO StoreSales (storeID, numberOfProducts, numberOfOrders, orderIncome)
+	SELECT Store.storeID,
+	       (SELECT COUNT(*) FROM Product WHERE Product.storeID = Store.storeID),
+	       (SELECT COUNT(*) FROM Orders WHERE Orders.storeID = Store.storeID),
+	       (SELECT COALESCE(SUM(COALESCE(Orders.price, Orders.unitsOrdered * Product.pricePerUnit, 0)), 0)
+	        FROM Orders LEFT JOIN Product
+	        ON Product.storeID = Orders.storeID AND Product.productName = Orders.productName
+	        WHERE Orders.storeID = Store.storeID)
+	FROM Store;
+END;
+$BODY$
+LANGUAGE plpgsql VOLATILE;
+
+
+-- customer spend ledger
+-- CustomerSpend holds what each customer has spent at each store; each
+-- statement on Orders adds or removes its own totals, priced as charged
+CREATE OR REPLACE LANGUAGE plpgsql;
+CREATE OR REPLACE FUNCTION customer_spend_orders_function()
+	RETURNS "trigger" AS
+$BODY$
+BEGIN
+	-- the bulk loader rebuilds the summary once it is done
+	IF current_setting('amazon.bulk_load', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+
+	IF TG_OP = 'INSERT' THEN
+		INSERT INTO CustomerSpend (storeID, customerID, numberOfOrders, totalSpent)
+		SELECT T.storeID, T.customerID, COUNT(*), SUM(COALESCE(T.price, T.unitsOrdered * Product.pricePerUnit, 0))
+		FROM new_orders T LEFT JOIN Product
+		ON Product.storeID = T.storeID AND Product.productName = T.productName
+		GROUP BY T.storeID, T.customerID
+		ORDER BY T.storeID, T.customerID
+		ON CONFLICT (storeID, customerID) DO UPDATE
+		SET numberOfOrders = CustomerSpend.numberOfOrders + EXCLUDED.numberOfOrders,
+		    totalSpent = CustomerSpend.totalSpent + EXCLUDED.totalSpent;
+	ELSE
+		UPDATE CustomerSpend
+		SET numberOfOrders = CustomerSpend.numberOfOrders - T.orders,
+		    totalSpent = CustomerSpend.totalSpent - T.spent
+		FROM (SELECT O.storeID, O.customerID, COUNT(*) AS orders,
+		             SUM(COALESCE(O.price, O.unitsOrdered * Product.pricePerUnit, 0)) AS spent
+		      FROM old_orders O LEFT JOIN Product
+		      ON Product.storeID = O.storeID AND Product.productName = O.productName
+		      GROUP BY O.storeID, O.customerID) T
+		WHERE CustomerSpend.storeID = T.storeID AND CustomerSpend.customerID = T.customerID;
+
+		-- a customer with no orders left at a store drops out of its ranking
+		DELETE FROM CustomerSpend
+		WHERE numberOfOrders <= 0
+		AND (storeID, customerID) IN (SELECT storeID, customerID FROM old_orders);
+	END IF;
+	RETURN NULL;
+END;
+$BODY$
+LANGUAGE plpgsql VOLATILE;
+
+DROP TRIGGER IF EXISTS customer_spend_orders_insert on Orders;
+CREATE TRIGGER customer_spend_orders_insert AFTER INSERT
+ON Orders REFERENCING NEW TABLE AS new_orders
+FOR EACH STATEMENT
+EXECUTE PROCEDURE customer_spend_orders_function();
+
+DROP TRIGGER IF EXISTS customer_spend_orders_delete on Orders;
+CREATE TRIGGER customer_spend_orders_delete AFTER DELETE
+ON Orders REFERENCING OLD TABLE AS old_orders
+FOR EACH STATEMENT
+EXECUTE PROCEDURE customer_spend_orders_function();
+
+
+-- rebuilds CustomerSpend from scratch, like refresh_store_sales
+CREATE OR REPLACE FUNCTION refresh_customer_spend()
+	RETURNS void AS
+$BODY$
+BEGIN
+	LOCK TABLE CustomerSpend IN EXCLUSIVE MODE;
+	DELETE FROM CustomerSpend;
+	INSERT INTO CustomerSpend (storeID, customerID, numberOfOrders, totalSpent)
+	SELECT Orders.storeID, Orders.customerID, COUNT(*),
+	       SUM(COALESCE(Orders.price, Orders.unitsOrdered * Product.pricePerUnit, 0))
+	FROM Orders LEFT JOIN Product
+	ON Product.storeID = Orders.storeID AND Product.productName = Orders.productName
+	GROUP BY Orders.storeID, Orders.customerID;
+END;
+$BODY$
+LANGUAGE plpgsql VOLATILE;
+
+SELECT refresh_store_sales();
+SELECT refresh_customer_spend();